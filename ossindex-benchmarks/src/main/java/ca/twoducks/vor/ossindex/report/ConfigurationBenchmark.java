@@ -0,0 +1,143 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Merging, exporting and importing configurations.
+ * 
+ * The configuration being exported is a generated scan merged with a generated
+ * public file, so that it has both paths and projects. Exports are written to a
+ * NullWriter so that only the cost of producing the output is measured.
+ * 
+ * @author Ken Duck
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigurationBenchmark
+{
+	/**
+	 * Number of files in the scan.
+	 */
+	@Param({"20000"})
+	public int files;
+	
+	private Configuration identified;
+	private Assistant assistant;
+	private File csv;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		identified = Fixtures.createIdentified(files);
+		Configuration merged = Fixtures.createScan(files);
+		merged.merge(identified);
+		
+		assistant = new Assistant();
+		assistant.config = merged;
+		
+		csv = File.createTempFile("configuration-benchmark", ".csv");
+		Writer writer = new FileWriter(csv);
+		try
+		{
+			assistant.exportCsv(writer);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		csv.delete();
+	}
+
+	/** Merging changes the private configuration, so each merge gets a fresh one.
+	 */
+	@State(Scope.Thread)
+	public static class MergeState
+	{
+		private Configuration scan;
+
+		@Setup(Level.Invocation)
+		public void setup(ConfigurationBenchmark benchmark)
+		{
+			scan = Fixtures.createScan(benchmark.files);
+		}
+	}
+
+	@Benchmark
+	public Configuration merge(MergeState state)
+	{
+		state.scan.merge(identified);
+		return state.scan;
+	}
+
+	@Benchmark
+	public void exportCsv() throws IOException
+	{
+		assistant.exportCsv(new NullWriter());
+	}
+
+	@Benchmark
+	public void exportPublicJson() throws IOException
+	{
+		assistant.exportPublicJson(new NullWriter());
+	}
+
+	@Benchmark
+	public void exportPrivateJson() throws IOException
+	{
+		assistant.exportPrivateJson(new NullWriter());
+	}
+
+	@Benchmark
+	public Configuration loadCsv() throws IOException
+	{
+		return assistant.loadCsv(csv);
+	}
+}
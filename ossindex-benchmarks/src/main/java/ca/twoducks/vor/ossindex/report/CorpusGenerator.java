@@ -0,0 +1,638 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/** Generate a synthetic source tree to scan. The tree has a mix of source files,
+ * HTML/JSP pages, images, jars and the dependency files the plugins look for
+ * (pom.xml, package.json and Gemfile). File sizes follow a log-normal distribution,
+ * and a proportion of the files are exact duplicates of earlier files.
+ * 
+ * The same seed always produces the same tree.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class CorpusGenerator
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * The kinds of file generated, in the order of the weights below.
+	 */
+	private static final int POM = 0;
+	private static final int PACKAGE_JSON = 1;
+	private static final int GEMFILE = 2;
+	private static final int HTML = 3;
+	private static final int JSP = 4;
+	private static final int JAR = 5;
+	private static final int IMAGE = 6;
+	private static final int SOURCE = 7;
+	
+	private static final String[] KIND_NAMES = {"pom.xml", "package.json", "Gemfile", "html", "jsp", "jar", "image", "source"};
+	
+	/**
+	 * Relative number of each kind of file, in parts per thousand.
+	 */
+	private static final int[] KIND_WEIGHTS = {15, 15, 10, 60, 20, 30, 50, 800};
+	
+	private static final String[] SOURCE_EXTENSIONS = {"java", "js", "c", "h", "py", "rb", "css", "txt"};
+	private static final String[] IMAGE_EXTENSIONS = {"png", "gif", "jpg", "ico"};
+	
+	private static final String[][] MAVEN_DEPENDENCIES = {
+		{"junit", "junit", "4.11"},
+		{"com.google.code.gson", "gson", "2.3"},
+		{"com.google.guava", "guava", "18.0"},
+		{"org.slf4j", "slf4j-api", "1.7.12"},
+		{"log4j", "log4j", "1.2.17"},
+		{"commons-io", "commons-io", "2.4"},
+		{"org.apache.commons", "commons-lang3", "3.4"},
+		{"org.apache.httpcomponents", "httpclient", "4.3.1"},
+		{"org.springframework", "spring-core", "4.1.6.RELEASE"},
+		{"org.hibernate", "hibernate-core", "4.3.10.Final"}
+	};
+	
+	private static final String[][] NODE_DEPENDENCIES = {
+		{"express", "4.12.4"},
+		{"lodash", "~3.9.3"},
+		{"async", "1.2.0"},
+		{"request", "^2.57.0"},
+		{"underscore", "1.8.3"},
+		{"socket.io", "1.3.5"},
+		{"mongoose", "~4.0.5"},
+		{"moment", "2.10.3"}
+	};
+	
+	private static final String[][] GEMS = {
+		{"rails", "4.2.1"},
+		{"sqlite3", null},
+		{"sass-rails", "~> 5.0"},
+		{"uglifier", ">= 1.3.0"},
+		{"jquery-rails", null},
+		{"devise", "3.5.1"},
+		{"puma", null},
+		{"nokogiri", "1.6.6.2"}
+	};
+	
+	private static final String[] SCRIPTS = {
+		"https://code.jquery.com/jquery-2.1.4.min.js",
+		"https://ajax.googleapis.com/ajax/libs/angularjs/1.3.15/angular.min.js",
+		"https://cdnjs.cloudflare.com/ajax/libs/underscore.js/1.8.3/underscore-min.js",
+		"https://maxcdn.bootstrapcdn.com/bootstrap/3.3.5/js/bootstrap.min.js"
+	};
+	
+	private static final String[] STYLESHEETS = {
+		"https://maxcdn.bootstrapcdn.com/bootstrap/3.3.5/css/bootstrap.min.css",
+		"https://maxcdn.bootstrapcdn.com/font-awesome/4.3.0/css/font-awesome.min.css"
+	};
+	
+	private static final String[] WORDS = {
+		"the", "file", "scan", "value", "return", "index", "public", "static", "int", "string",
+		"if", "else", "for", "while", "config", "project", "version", "license", "buffer", "digest",
+		"open", "source", "report", "dependency", "null", "true", "false", "new", "list", "map"
+	};
+	
+	private int files = 10000;
+	private int depth = 6;
+	private int fanout = 8;
+	private double duplicates = 0.1;
+	private long medianSize = 8 * 1024;
+	private double sigma = 1.5;
+	private long maxSize = 16 * 1024 * 1024;
+	private Random random;
+	
+	/**
+	 * Files generated so far, used as the source of duplicates.
+	 */
+	private List<File> generated = new ArrayList<File>();
+	
+	private int[] kindCounts = new int[KIND_NAMES.length];
+	private int duplicateCount;
+	private long totalBytes;
+
+	/**
+	 * 
+	 * @param seed
+	 */
+	public CorpusGenerator(long seed)
+	{
+		random = new Random(seed);
+	}
+
+	public void setFiles(int files)
+	{
+		this.files = files;
+	}
+
+	/** Maximum directory depth below the root.
+	 * 
+	 * @param depth
+	 */
+	public void setDepth(int depth)
+	{
+		this.depth = depth;
+	}
+
+	/** Number of sub-directories that may be created in each directory.
+	 * 
+	 * @param fanout
+	 */
+	public void setFanout(int fanout)
+	{
+		this.fanout = fanout;
+	}
+
+	/** Proportion of files that are exact copies of an earlier file, from 0 to 1.
+	 * 
+	 * @param duplicates
+	 */
+	public void setDuplicates(double duplicates)
+	{
+		this.duplicates = duplicates;
+	}
+
+	/** Set the log-normal size distribution of the files that do not have a
+	 * natural size (source files, pages, images and jars).
+	 * 
+	 * @param medianSize Median file size in bytes
+	 * @param sigma Standard deviation of the logarithm of the size
+	 * @param maxSize Largest file size in bytes
+	 */
+	public void setSizes(long medianSize, double sigma, long maxSize)
+	{
+		this.medianSize = medianSize;
+		this.sigma = sigma;
+		this.maxSize = maxSize;
+	}
+
+	/** Generate the tree.
+	 * 
+	 * @param root
+	 * @throws IOException
+	 */
+	public void generate(File root) throws IOException
+	{
+		root.mkdirs();
+		for(int i = 0; i < files; i++)
+		{
+			File dir = pickDirectory(root);
+			File file;
+			if(!generated.isEmpty() && random.nextDouble() < duplicates)
+			{
+				File original = generated.get(random.nextInt(generated.size()));
+				file = new File(dir, "copy" + i + "-" + original.getName());
+				Files.copy(original.toPath(), file.toPath());
+				duplicateCount++;
+			}
+			else
+			{
+				int kind = pickKind();
+				file = generate(kind, dir, i);
+				kindCounts[kind]++;
+				generated.add(file);
+			}
+			totalBytes += file.length();
+		}
+	}
+
+	/** Print a summary of what was generated.
+	 */
+	public void printSummary()
+	{
+		System.out.println("Generated " + files + " files, " + totalBytes + " bytes, " + duplicateCount + " duplicates");
+		for(int i = 0; i < KIND_NAMES.length; i++)
+		{
+			System.out.println("  " + KIND_NAMES[i] + ": " + kindCounts[i]);
+		}
+	}
+
+	/** Pick (and create) a random directory at a random depth.
+	 * 
+	 * @param root
+	 * @return
+	 */
+	private File pickDirectory(File root)
+	{
+		File dir = root;
+		int levels = random.nextInt(depth + 1);
+		for(int i = 0; i < levels; i++)
+		{
+			dir = new File(dir, "dir" + random.nextInt(fanout));
+		}
+		dir.mkdirs();
+		return dir;
+	}
+
+	private int pickKind()
+	{
+		int total = 0;
+		for(int weight: KIND_WEIGHTS) total += weight;
+		int value = random.nextInt(total);
+		for(int i = 0; i < KIND_WEIGHTS.length; i++)
+		{
+			value -= KIND_WEIGHTS[i];
+			if(value < 0) return i;
+		}
+		return SOURCE;
+	}
+
+	/** Pick a size from the log-normal distribution.
+	 * 
+	 * @return
+	 */
+	private long pickSize()
+	{
+		double size = medianSize * Math.exp(sigma * random.nextGaussian());
+		return Math.max(0, Math.min(maxSize, (long)size));
+	}
+
+	private <T> T pick(T[] values)
+	{
+		return values[random.nextInt(values.length)];
+	}
+
+	/** Generate a single file of the specified kind.
+	 * 
+	 * @param kind
+	 * @param dir
+	 * @param index Unique number for the file
+	 * @return
+	 * @throws IOException
+	 */
+	private File generate(int kind, File dir, int index) throws IOException
+	{
+		// Dependency files have fixed names, so each one gets a project directory of its own
+		if(kind == POM || kind == PACKAGE_JSON || kind == GEMFILE)
+		{
+			dir = new File(dir, "project" + index);
+			dir.mkdirs();
+		}
+		
+		switch(kind)
+		{
+		case POM:
+			return writePom(new File(dir, "pom.xml"), index);
+		case PACKAGE_JSON:
+			return writePackageJson(new File(dir, "package.json"), index);
+		case GEMFILE:
+			return writeGemfile(new File(dir, "Gemfile"), index);
+		case HTML:
+			return writePage(new File(dir, "page" + index + ".html"), false);
+		case JSP:
+			return writePage(new File(dir, "page" + index + ".jsp"), true);
+		case JAR:
+			return writeJar(new File(dir, "library" + index + ".jar"), index);
+		case IMAGE:
+			return writeImage(new File(dir, "image" + index + "." + pick(IMAGE_EXTENSIONS)));
+		default:
+			return writeText(new File(dir, "file" + index + "." + pick(SOURCE_EXTENSIONS)), pickSize());
+		}
+	}
+
+	private File writePom(File file, int index) throws IOException
+	{
+		Writer out = newWriter(file);
+		try
+		{
+			out.write("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+			out.write("\t<modelVersion>4.0.0</modelVersion>\n");
+			out.write("\t<groupId>com.example.project" + index + "</groupId>\n");
+			out.write("\t<artifactId>module" + index + "</artifactId>\n");
+			out.write("\t<version>1." + random.nextInt(10) + ".0</version>\n");
+			out.write("\t<dependencies>\n");
+			int count = 1 + random.nextInt(MAVEN_DEPENDENCIES.length);
+			for(int i = 0; i < count; i++)
+			{
+				String[] dep = MAVEN_DEPENDENCIES[(index + i) % MAVEN_DEPENDENCIES.length];
+				out.write("\t\t<dependency>\n");
+				out.write("\t\t\t<groupId>" + dep[0] + "</groupId>\n");
+				out.write("\t\t\t<artifactId>" + dep[1] + "</artifactId>\n");
+				out.write("\t\t\t<version>" + dep[2] + "</version>\n");
+				out.write("\t\t</dependency>\n");
+			}
+			out.write("\t</dependencies>\n");
+			out.write("</project>\n");
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	private File writePackageJson(File file, int index) throws IOException
+	{
+		Writer out = newWriter(file);
+		try
+		{
+			out.write("{\n");
+			out.write("  \"name\": \"module" + index + "\",\n");
+			out.write("  \"version\": \"1." + random.nextInt(10) + ".0\",\n");
+			out.write("  \"dependencies\": {\n");
+			int count = 1 + random.nextInt(NODE_DEPENDENCIES.length);
+			for(int i = 0; i < count; i++)
+			{
+				String[] dep = NODE_DEPENDENCIES[(index + i) % NODE_DEPENDENCIES.length];
+				out.write("    \"" + dep[0] + "\": \"" + dep[1] + "\"" + (i < count - 1 ? "," : "") + "\n");
+			}
+			out.write("  }\n");
+			out.write("}\n");
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	private File writeGemfile(File file, int index) throws IOException
+	{
+		Writer out = newWriter(file);
+		try
+		{
+			out.write("source 'https://rubygems.org'\n");
+			out.write("# project " + index + "\n");
+			int count = 1 + random.nextInt(GEMS.length);
+			for(int i = 0; i < count; i++)
+			{
+				String[] gem = GEMS[(index + i) % GEMS.length];
+				out.write("gem '" + gem[0] + "'");
+				if(gem[1] != null) out.write(", '" + gem[1] + "'");
+				out.write("\n");
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/** Write an HTML or JSP page referring to a few external scripts and stylesheets,
+	 * padded out with paragraphs of text.
+	 * 
+	 * @param file
+	 * @param jsp
+	 * @return
+	 * @throws IOException
+	 */
+	private File writePage(File file, boolean jsp) throws IOException
+	{
+		long size = pickSize();
+		Writer out = newWriter(file);
+		try
+		{
+			if(jsp) out.write("<%@ page language=\"java\" contentType=\"text/html; charset=UTF-8\" pageEncoding=\"UTF-8\"%>\n");
+			out.write("<html>\n<head>\n");
+			out.write("\t<title>" + file.getName() + "</title>\n");
+			out.write("\t<link rel=\"stylesheet\" href=\"" + pick(STYLESHEETS) + "\">\n");
+			int scripts = 1 + random.nextInt(SCRIPTS.length);
+			for(int i = 0; i < scripts; i++)
+			{
+				out.write("\t<script src=\"" + SCRIPTS[i] + "\"></script>\n");
+			}
+			out.write("</head>\n<body>\n");
+			long written = 0;
+			while(written < size)
+			{
+				String paragraph = "<p>" + words(8 + random.nextInt(64)) + "</p>\n";
+				out.write(paragraph);
+				written += paragraph.length();
+			}
+			out.write("</body>\n</html>\n");
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/** Write a jar of a few class-like entries, with Maven metadata.
+	 * 
+	 * @param file
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	private File writeJar(File file, int index) throws IOException
+	{
+		long size = pickSize();
+		int entries = 1 + random.nextInt(32);
+		ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			out.write("Manifest-Version: 1.0\n".getBytes(UTF8));
+			out.closeEntry();
+			
+			out.putNextEntry(new ZipEntry("META-INF/maven/com.example/library" + index + "/pom.properties"));
+			out.write(("groupId=com.example\nartifactId=library" + index + "\nversion=1.0\n").getBytes(UTF8));
+			out.closeEntry();
+			
+			for(int i = 0; i < entries; i++)
+			{
+				out.putNextEntry(new ZipEntry("com/example/library" + index + "/Class" + i + ".class"));
+				writeBytes(out, size / entries);
+				out.closeEntry();
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/** Write an image: a PNG signature followed by random bytes.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private File writeImage(File file) throws IOException
+	{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try
+		{
+			out.write(new byte[] {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+			writeBytes(out, pickSize());
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/** Write lines of random words.
+	 * 
+	 * @param file
+	 * @param size
+	 * @return
+	 * @throws IOException
+	 */
+	private File writeText(File file, long size) throws IOException
+	{
+		Writer out = newWriter(file);
+		try
+		{
+			long written = 0;
+			while(written < size)
+			{
+				String line = words(1 + random.nextInt(12)) + "\n";
+				if(written + line.length() > size) line = line.substring(0, (int)(size - written));
+				out.write(line);
+				written += line.length();
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/** Write random (incompressible) bytes.
+	 * 
+	 * @param out
+	 * @param size
+	 * @throws IOException
+	 */
+	private void writeBytes(OutputStream out, long size) throws IOException
+	{
+		byte[] block = new byte[8192];
+		long remaining = size;
+		while(remaining > 0)
+		{
+			random.nextBytes(block);
+			int length = (int)Math.min(block.length, remaining);
+			out.write(block, 0, length);
+			remaining -= length;
+		}
+	}
+
+	private String words(int count)
+	{
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < count; i++)
+		{
+			if(i > 0) sb.append(' ');
+			sb.append(pick(WORDS));
+		}
+		return sb.toString();
+	}
+
+	private static Writer newWriter(File file) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+	}
+
+	/** Command line options.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings("static-access")
+	public static Options getOptions()
+	{
+		Options options = new Options();
+		options.addOption(new Option("help", "print this message"));
+		options.addOption(OptionBuilder.withArgName("dir").hasArg().withDescription("directory to generate the tree in").create("dir"));
+		options.addOption(OptionBuilder.withArgName("count").hasArg().withDescription("number of files (default 10000)").create("files"));
+		options.addOption(OptionBuilder.withArgName("levels").hasArg().withDescription("maximum directory depth (default 6)").create("depth"));
+		options.addOption(OptionBuilder.withArgName("count").hasArg().withDescription("sub-directories per directory (default 8)").create("fanout"));
+		options.addOption(OptionBuilder.withArgName("ratio").hasArg().withDescription("proportion of duplicate files, 0 to 1 (default 0.1)").create("duplicates"));
+		options.addOption(OptionBuilder.withArgName("kb").hasArg().withDescription("median file size (default 8)").create("median_kb"));
+		options.addOption(OptionBuilder.withArgName("sigma").hasArg().withDescription("spread of the log-normal file size (default 1.5)").create("sigma"));
+		options.addOption(OptionBuilder.withArgName("mb").hasArg().withDescription("largest file size (default 16)").create("max_mb"));
+		options.addOption(OptionBuilder.withArgName("seed").hasArg().withDescription("random seed (default 1)").create("seed"));
+		return options;
+	}
+
+	/**
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		CommandLineParser parser = new BasicParser();
+		try
+		{
+			CommandLine line = parser.parse(getOptions(), args);
+			if(line.hasOption("help") || !line.hasOption("dir"))
+			{
+				HelpFormatter formatter = new HelpFormatter();
+				formatter.printHelp("generator", getOptions());
+				return;
+			}
+			
+			CorpusGenerator generator = new CorpusGenerator(Long.parseLong(line.getOptionValue("seed", "1")));
+			generator.setFiles(Integer.parseInt(line.getOptionValue("files", "10000")));
+			generator.setDepth(Integer.parseInt(line.getOptionValue("depth", "6")));
+			generator.setFanout(Integer.parseInt(line.getOptionValue("fanout", "8")));
+			generator.setDuplicates(Double.parseDouble(line.getOptionValue("duplicates", "0.1")));
+			generator.setSizes((long)(Double.parseDouble(line.getOptionValue("median_kb", "8")) * 1024),
+					Double.parseDouble(line.getOptionValue("sigma", "1.5")),
+					(long)(Double.parseDouble(line.getOptionValue("max_mb", "16")) * 1024 * 1024));
+			
+			File root = new File(line.getOptionValue("dir"));
+			generator.generate(root);
+			generator.printSummary();
+		}
+		catch(ParseException | NumberFormatException e)
+		{
+			System.err.println("Parsing failed. Reason: " + e.getMessage());
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("generator", getOptions());
+		}
+	}
+}
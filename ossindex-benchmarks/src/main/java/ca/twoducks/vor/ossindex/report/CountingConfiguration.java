@@ -0,0 +1,145 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+
+/** Configuration which only counts what the plugins report. Dependencies are not
+ * de-duplicated, so a real configuration would keep growing as a plugin is run
+ * over the same file again and again.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class CountingConfiguration implements IConfiguration
+{
+	private int files;
+	private int dependencies;
+
+	public int getFiles()
+	{
+		return files;
+	}
+
+	public int getDependencies()
+	{
+		return dependencies;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addFile(java.io.File)
+	 */
+	@Override
+	public void addFile(File file) throws IOException
+	{
+		files++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addFile(java.io.File, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void addFile(File file, FileContent content) throws IOException
+	{
+		files++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#getDigest(java.io.File)
+	 */
+	@Override
+	public String getDigest(File file) throws IOException
+	{
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, String gemName, String version, String comment)
+	{
+		dependencies++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.net.URL)
+	 */
+	@Override
+	public void addDependency(File file, String type, URL url)
+	{
+		dependencies++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.net.URI, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, String gemName, URI uri, String version, String comment)
+	{
+		dependencies++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.net.URI, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, URI uri, String comment)
+	{
+		dependencies++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, String groupId, String artifactId, String version, String comment)
+	{
+		dependencies++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addArchiveEntry(java.io.File, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addArchiveEntry(File archive, String entry, String digest)
+	{
+		files++;
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Hashing a file through FileConfig, across file sizes. The original stream
+ * based DigestUtils.shaHex hashing is measured alongside for comparison.
+ * 
+ * The file is read repeatedly, so it is served from the page cache. These
+ * numbers are the CPU cost of hashing, not of the disk.
+ * 
+ * The throughput benchmarks also count the bytes hashed. Since times are in
+ * microseconds, their "bytes" result is bytes per microsecond, which is MB/s
+ * and can be compared directly with the scan harness and the metrics file.
+ * 
+ * @author Ken Duck
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DigestBenchmark
+{
+	/**
+	 * File size in bytes. 64MB and above is memory mapped by FileDigester.
+	 */
+	@Param({"4096", "65536", "1048576", "67108864"})
+	public int size;
+	
+	private File file;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		file = File.createTempFile("digest-benchmark", ".bin");
+		Random random = new Random(size);
+		byte[] block = new byte[64 * 1024];
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			int remaining = size;
+			while(remaining > 0)
+			{
+				random.nextBytes(block);
+				int length = Math.min(block.length, remaining);
+				out.write(block, 0, length);
+				remaining -= length;
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Benchmark
+	public String fileConfig() throws IOException
+	{
+		return new FileConfig(file).getDigest();
+	}
+
+	@Benchmark
+	public String digestUtils() throws IOException
+	{
+		InputStream is = new FileInputStream(file);
+		try
+		{
+			return DigestUtils.shaHex(is);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	public String fileConfigThroughput(Bytes bytes) throws IOException
+	{
+		bytes.bytes += size;
+		return fileConfig();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	public String digestUtilsThroughput(Bytes bytes) throws IOException
+	{
+		bytes.bytes += size;
+		return digestUtils();
+	}
+
+	/** Bytes hashed, reported by JMH as a rate alongside the operations.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes
+	{
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			bytes = 0;
+		}
+	}
+}
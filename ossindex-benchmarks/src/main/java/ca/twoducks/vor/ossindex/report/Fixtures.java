@@ -0,0 +1,131 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/** Test data shared by the benchmarks. Configurations are generated so that
+ * their size can be controlled, and real file fixtures are taken from the
+ * report assistant's samples directory.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class Fixtures
+{
+	/**
+	 * System property overriding the location of the samples directory.
+	 */
+	public static final String SAMPLES_PROPERTY = "samples.dir";
+	
+	/**
+	 * Location of the samples directory relative to this module.
+	 */
+	private static final String DEFAULT_SAMPLES = "../ossindex-report-assistant/samples";
+	
+	/**
+	 * Number of files in each generated project.
+	 */
+	private static final int FILES_PER_PROJECT = 20;
+
+	/** Get the report assistant's samples directory.
+	 * 
+	 * @return
+	 */
+	public static File getSamples()
+	{
+		File dir = new File(System.getProperty(SAMPLES_PROPERTY, DEFAULT_SAMPLES));
+		if(!dir.isDirectory())
+		{
+			throw new IllegalStateException("Cannot find samples directory " + dir.getAbsolutePath() + ", set -D" + SAMPLES_PROPERTY);
+		}
+		return dir;
+	}
+
+	/** A repeatable digest for the specified file number.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public static String digest(int index)
+	{
+		return DigestUtils.shaHex("file-" + index);
+	}
+
+	/** Create a configuration that looks like the private output of a scan: every
+	 * file has a path, and one in ten has a dependency.
+	 * 
+	 * @param files
+	 * @return
+	 */
+	public static Configuration createScan(int files)
+	{
+		Configuration config = new Configuration();
+		for(int i = 0; i < files; i++)
+		{
+			FileConfig file = config.addFile(digest(i));
+			file.setPath("src/module" + (i % 100) + "/file" + i + ".js");
+			if(i % 10 == 0)
+			{
+				file.addDependency("Maven", "org.example", "artifact" + (i % 500), "1." + (i % 10), null);
+			}
+		}
+		return config;
+	}
+
+	/** Create a configuration that looks like a public file which has been
+	 * identified: every second file of the scan belongs to a project.
+	 * 
+	 * @param files Number of files in the matching scan
+	 * @return
+	 */
+	public static Configuration createIdentified(int files)
+	{
+		Configuration config = new Configuration();
+		for(int i = 0; i < files; i += 2)
+		{
+			FileConfig file = config.addFile(digest(i));
+			file.setLicense("MIT");
+			
+			int id = i / (2 * FILES_PER_PROJECT);
+			String name = "project" + id;
+			ProjectConfig project = config.getGroup(name).getProject("https://github.com/example/" + name, "1." + (id % 5));
+			if(project.getName() == null)
+			{
+				project.setName(name);
+				project.setHomeUri("https://example.com/" + name);
+				project.setDescription("Generated project " + id);
+				project.addLicense("MIT");
+				project.addCpe("cpe:/a:example:" + name + ":1." + (id % 5));
+			}
+			project.addFile(file);
+		}
+		return config;
+	}
+}
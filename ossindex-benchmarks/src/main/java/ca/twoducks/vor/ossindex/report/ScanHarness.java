@@ -0,0 +1,399 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/** End to end scan benchmark. Runs 'Assistant -scan' over a tree (usually one
+ * made by the CorpusGenerator) several times with a cold page cache, then several
+ * times with a warm one, and reports files/s, MB/s, peak heap and the size of the
+ * output for each run along with the median of each set.
+ * 
+ * Every run is a fresh JVM, started through the ScanRunner. Dropping the page
+ * cache needs root; by default it runs "sync; echo 3 > /proc/sys/vm/drop_caches".
+ * If the command fails the cold runs are skipped.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ScanHarness
+{
+	private static final String DEFAULT_DROP_COMMAND = "sync; echo 3 > /proc/sys/vm/drop_caches";
+	
+	/**
+	 * Output files counted towards the output size, with and without the gzip suffix.
+	 */
+	private static final String[] OUTPUT_FILES = {"vorindex.public.json", "vorindex.private.json", "vorindex.csv",
+			"vorindex.public.json.gz", "vorindex.private.json.gz", "vorindex.csv.gz"};
+	
+	private File corpus;
+	private File outputDir;
+	private int runs = 3;
+	private String dropCommand = DEFAULT_DROP_COMMAND;
+	private List<String> jvmArgs = new ArrayList<String>();
+	private List<String> assistantArgs = new ArrayList<String>(Arrays.asList("-no_cache", "-context"));
+
+	/**
+	 * 
+	 * @param corpus Tree to scan
+	 * @param outputDir Directory the assistant writes to. It is emptied before each run.
+	 */
+	public ScanHarness(File corpus, File outputDir)
+	{
+		this.corpus = corpus;
+		this.outputDir = outputDir;
+	}
+
+	public void setRuns(int runs)
+	{
+		this.runs = runs;
+	}
+
+	public void setDropCommand(String dropCommand)
+	{
+		this.dropCommand = dropCommand;
+	}
+
+	public void setJvmArgs(List<String> jvmArgs)
+	{
+		this.jvmArgs = jvmArgs;
+	}
+
+	public void setAssistantArgs(List<String> assistantArgs)
+	{
+		this.assistantArgs = assistantArgs;
+	}
+
+	/** Run the cold and then the warm set.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run() throws IOException, InterruptedException
+	{
+		System.out.println(String.format("%-6s %4s %10s %10s %10s %10s %12s %12s", "cache", "run", "files", "seconds", "files/s", "MB/s", "peak heap MB", "output bytes"));
+		
+		List<Result> cold = new ArrayList<Result>();
+		for(int i = 0; i < runs; i++)
+		{
+			if(!dropCaches())
+			{
+				System.out.println("Cannot drop the page cache (" + dropCommand + "), skipping cold runs");
+				break;
+			}
+			cold.add(runOnce("cold", i + 1));
+		}
+		
+		// Make sure the whole tree is cached before the warm runs
+		if(cold.isEmpty()) runOnce("warmup", 0);
+		
+		List<Result> warm = new ArrayList<Result>();
+		for(int i = 0; i < runs; i++)
+		{
+			warm.add(runOnce("warm", i + 1));
+		}
+		
+		System.out.println();
+		if(!cold.isEmpty()) median(cold).print("cold", "median");
+		median(warm).print("warm", "median");
+	}
+
+	/** Run the assistant once.
+	 * 
+	 * @param cache Name of the set the run belongs to
+	 * @param run Run number
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private Result runOnce(String cache, int run) throws IOException, InterruptedException
+	{
+		clean(outputDir);
+		outputDir.mkdirs();
+		File listing = File.createTempFile("scan-harness", ".list");
+		try
+		{
+			List<String> command = new ArrayList<String>();
+			command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+			command.addAll(jvmArgs);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(ScanRunner.class.getName());
+			command.add("-scan");
+			command.add(corpus.getPath());
+			command.add("-D");
+			command.add(outputDir.getPath());
+			command.add("-quiet");
+			command.add("-list");
+			command.add(listing.getPath());
+			command.addAll(assistantArgs);
+			
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			Process process = builder.start();
+			
+			Result result = new Result();
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			try
+			{
+				String line;
+				while((line = in.readLine()) != null)
+				{
+					if(line.startsWith(ScanRunner.RESULT_PREFIX))
+					{
+						String[] values = line.substring(ScanRunner.RESULT_PREFIX.length()).split(" ");
+						result.nanos = Long.parseLong(values[0]);
+						result.peakHeap = Long.parseLong(values[1]);
+					}
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+			if(process.waitFor() != 0 || result.nanos == 0)
+			{
+				throw new IOException("Scan failed: " + command);
+			}
+			
+			// Everything the scan read, according to its listing
+			BufferedReader list = new BufferedReader(new FileReader(listing));
+			try
+			{
+				String path;
+				while((path = list.readLine()) != null)
+				{
+					result.files++;
+					result.bytes += new File(path).length();
+				}
+			}
+			finally
+			{
+				list.close();
+			}
+			
+			for(String name: OUTPUT_FILES)
+			{
+				result.outputBytes += new File(outputDir, name).length();
+			}
+			
+			result.print(cache, Integer.toString(run));
+			return result;
+		}
+		finally
+		{
+			listing.delete();
+		}
+	}
+
+	/** Drop the page cache.
+	 * 
+	 * @return true if the cache was dropped
+	 * @throws InterruptedException 
+	 */
+	private boolean dropCaches() throws InterruptedException
+	{
+		try
+		{
+			ProcessBuilder builder = new ProcessBuilder("sh", "-c", dropCommand);
+			builder.redirectErrorStream(true);
+			Process process = builder.start();
+			process.getInputStream().close();
+			return process.waitFor() == 0;
+		}
+		catch(IOException e)
+		{
+			return false;
+		}
+	}
+
+	/** Delete the contents of a directory.
+	 * 
+	 * @param dir
+	 */
+	private static void clean(File dir)
+	{
+		File[] children = dir.listFiles();
+		if(children == null) return;
+		for(File child: children)
+		{
+			if(child.isDirectory()) clean(child);
+			child.delete();
+		}
+	}
+
+	/** Take the median of each measurement separately.
+	 * 
+	 * @param results
+	 * @return
+	 */
+	private static Result median(List<Result> results)
+	{
+		Result median = new Result();
+		int n = results.size();
+		long[] values = new long[n];
+		for(int field = 0; field < 5; field++)
+		{
+			for(int i = 0; i < n; i++) values[i] = results.get(i).get(field);
+			Arrays.sort(values);
+			median.set(field, values[n / 2]);
+		}
+		return median;
+	}
+
+	/** Measurements from a single run.
+	 */
+	private static class Result
+	{
+		private long nanos;
+		private long files;
+		private long bytes;
+		private long peakHeap;
+		private long outputBytes;
+
+		private long get(int field)
+		{
+			switch(field)
+			{
+			case 0: return nanos;
+			case 1: return files;
+			case 2: return bytes;
+			case 3: return peakHeap;
+			default: return outputBytes;
+			}
+		}
+
+		private void set(int field, long value)
+		{
+			switch(field)
+			{
+			case 0: nanos = value; break;
+			case 1: files = value; break;
+			case 2: bytes = value; break;
+			case 3: peakHeap = value; break;
+			default: outputBytes = value; break;
+			}
+		}
+
+		private void print(String cache, String run)
+		{
+			double seconds = nanos / 1e9;
+			System.out.println(String.format("%-6s %4s %10d %10.2f %10.0f %10.1f %12.1f %12d", cache, run, files, seconds,
+					files / seconds, bytes / 1e6 / seconds, peakHeap / 1e6, outputBytes));
+		}
+	}
+
+	/** Command line options.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings("static-access")
+	public static Options getOptions()
+	{
+		Options options = new Options();
+		options.addOption(new Option("help", "print this message"));
+		options.addOption(OptionBuilder.withArgName("dir").hasArg().withDescription("tree to scan").create("corpus"));
+		options.addOption(OptionBuilder.withArgName("dir").hasArg().withDescription("output directory, emptied before each run (default: a temporary directory)").create("D"));
+		options.addOption(OptionBuilder.withArgName("count").hasArg().withDescription("runs with each of a cold and warm page cache (default 3)").create("runs"));
+		options.addOption(OptionBuilder.withArgName("command").hasArg().withDescription("shell command that drops the page cache (default \"" + DEFAULT_DROP_COMMAND + "\")").create("drop_command"));
+		options.addOption(OptionBuilder.withArgName("args").hasArg().withDescription("space separated JVM arguments for each run, for example \"-Xmx512m\"").create("jvm"));
+		options.addOption(OptionBuilder.withArgName("args").hasArg().withDescription("space separated assistant arguments (default \"-no_cache -context\")").create("args"));
+		return options;
+	}
+
+	/**
+	 * 
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException 
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		CommandLineParser parser = new BasicParser();
+		try
+		{
+			CommandLine line = parser.parse(getOptions(), args);
+			if(line.hasOption("help") || !line.hasOption("corpus"))
+			{
+				HelpFormatter formatter = new HelpFormatter();
+				formatter.printHelp("harness", getOptions());
+				return;
+			}
+			
+			File outputDir;
+			if(line.hasOption("D"))
+			{
+				outputDir = new File(line.getOptionValue("D"));
+			}
+			else
+			{
+				outputDir = File.createTempFile("scan-harness", "");
+				outputDir.delete();
+			}
+			
+			ScanHarness harness = new ScanHarness(new File(line.getOptionValue("corpus")), outputDir);
+			harness.setRuns(Integer.parseInt(line.getOptionValue("runs", "3")));
+			if(line.hasOption("drop_command")) harness.setDropCommand(line.getOptionValue("drop_command"));
+			if(line.hasOption("jvm")) harness.setJvmArgs(split(line.getOptionValue("jvm")));
+			if(line.hasOption("args")) harness.setAssistantArgs(split(line.getOptionValue("args")));
+			harness.run();
+		}
+		catch(ParseException | NumberFormatException e)
+		{
+			System.err.println("Parsing failed. Reason: " + e.getMessage());
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("harness", getOptions());
+		}
+	}
+
+	private static List<String> split(String value)
+	{
+		List<String> results = new ArrayList<String>();
+		for(String arg: value.trim().split("\\s+"))
+		{
+			if(!arg.isEmpty()) results.add(arg);
+		}
+		return Collections.unmodifiableList(results);
+	}
+}
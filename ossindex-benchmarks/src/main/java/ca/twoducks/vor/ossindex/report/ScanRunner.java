@@ -0,0 +1,73 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/** Runs the assistant in a fresh JVM on behalf of the ScanHarness, then prints
+ * the time taken and the peak heap use on a line of its own.
+ * 
+ * The peak heap is the sum of the peak use of each heap memory pool. The pools
+ * do not necessarily peak at the same moment, so this is an upper bound.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ScanRunner
+{
+	/**
+	 * Prefix of the result line: elapsed nanoseconds and peak heap bytes follow.
+	 */
+	public static final String RESULT_PREFIX = "SCAN_RUNNER_RESULT ";
+
+	/**
+	 * 
+	 * @param args Arguments passed to the assistant
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if(pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+		
+		long start = System.nanoTime();
+		Assistant.main(args);
+		long elapsed = System.nanoTime() - start;
+		
+		long peak = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+		System.out.println(RESULT_PREFIX + elapsed + " " + peak);
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/** Gson serialization of a configuration through reflection, with the
+ * PublicExclusionStrategy for the public projection, compared with the hand
+ * written ConfigurationAdapters.
+ * 
+ * The configuration is a generated scan merged with a generated public file, as
+ * in ConfigurationBenchmark. Output is written to a NullWriter, and input is read
+ * from the private JSON held in memory.
+ * 
+ * @author Ken Duck
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializationBenchmark
+{
+	/**
+	 * Number of files in the scan.
+	 */
+	@Param({"20000"})
+	public int files;
+	
+	private Configuration config;
+	private String json;
+	
+	private Gson reflectivePrivate;
+	private Gson reflectivePublic;
+	private Gson adapterPrivate;
+	private Gson adapterPublic;
+
+	@Setup
+	public void setup()
+	{
+		config = Fixtures.createScan(files);
+		config.merge(Fixtures.createIdentified(files));
+		
+		reflectivePrivate = new GsonBuilder().setPrettyPrinting().create();
+		reflectivePublic = new GsonBuilder().setPrettyPrinting()
+				.setExclusionStrategies(new PublicExclusionStrategy(true))
+				.create();
+		adapterPrivate = new GsonBuilder().setPrettyPrinting()
+				.registerTypeAdapterFactory(ConfigurationAdapters.privateProjection())
+				.create();
+		adapterPublic = new GsonBuilder().setPrettyPrinting()
+				.registerTypeAdapterFactory(ConfigurationAdapters.publicProjection(true))
+				.create();
+		
+		json = reflectivePrivate.toJson(config);
+	}
+
+	@Benchmark
+	public void writePrivateReflective()
+	{
+		reflectivePrivate.toJson(config, new NullWriter());
+	}
+
+	@Benchmark
+	public void writePrivateAdapters()
+	{
+		adapterPrivate.toJson(config, new NullWriter());
+	}
+
+	@Benchmark
+	public void writePublicReflective()
+	{
+		reflectivePublic.toJson(config, new NullWriter());
+	}
+
+	@Benchmark
+	public void writePublicAdapters()
+	{
+		adapterPublic.toJson(config, new NullWriter());
+	}
+
+	@Benchmark
+	public Configuration readReflective()
+	{
+		return reflectivePrivate.fromJson(json, Configuration.class);
+	}
+
+	@Benchmark
+	public Configuration readAdapters()
+	{
+		return adapterPrivate.fromJson(json, Configuration.class);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/** Reading a private configuration from JSON compared with reading it from a
+ * ConfigurationSnapshot, both whole and by looking up a few files by digest.
+ * 
+ * The configuration is the merged configuration of ConfigurationBenchmark,
+ * written to temporary files.
+ * 
+ * @author Ken Duck
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotBenchmark
+{
+	/**
+	 * Number of files in the scan.
+	 */
+	@Param({"20000"})
+	public int files;
+	
+	/**
+	 * Number of files looked up by the lookup benchmarks.
+	 */
+	private static final int LOOKUPS = 100;
+	
+	private File json;
+	private File snapshot;
+	private String[] digests;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		Configuration config = Fixtures.createScan(files);
+		config.merge(Fixtures.createIdentified(files));
+		
+		json = File.createTempFile("snapshot-benchmark", ".json");
+		try(JsonWriter out = new JsonWriter(new BufferedWriter(new FileWriter(json))))
+		{
+			out.setIndent("  ");
+			config.exportJson(out, true, true);
+		}
+		snapshot = File.createTempFile("snapshot-benchmark", ".snap");
+		ConfigurationSnapshot.write(config, snapshot);
+		
+		List<FileConfig> configs = config.getFiles();
+		digests = new String[LOOKUPS];
+		for(int i = 0; i < LOOKUPS; i++) digests[i] = configs.get(i * configs.size() / LOOKUPS).getDigest();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		json.delete();
+		snapshot.delete();
+	}
+
+	@Benchmark
+	public Configuration readJson() throws IOException
+	{
+		try(JsonReader in = new JsonReader(new BufferedReader(new FileReader(json))))
+		{
+			Configuration config = new Configuration();
+			config.importJson(in);
+			return config;
+		}
+	}
+
+	@Benchmark
+	public Configuration readSnapshot() throws IOException
+	{
+		return ConfigurationSnapshot.open(snapshot).toConfiguration();
+	}
+
+	/** Finding a few files in JSON means reading all of it.
+	 */
+	@Benchmark
+	public int lookupJson() throws IOException
+	{
+		Set<String> wanted = new HashSet<String>(Arrays.asList(digests));
+		int found = 0;
+		for(FileConfig file: readJson().getFiles())
+		{
+			if(wanted.contains(file.getDigest())) found++;
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int lookupSnapshot() throws IOException
+	{
+		ConfigurationSnapshot in = ConfigurationSnapshot.open(snapshot);
+		int found = 0;
+		for(String digest: digests) found += in.findByDigest(digest).size();
+		return found;
+	}
+}
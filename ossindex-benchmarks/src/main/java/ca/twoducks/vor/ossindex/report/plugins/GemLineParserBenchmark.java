@@ -0,0 +1,115 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report.plugins;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ca.twoducks.vor.ossindex.report.CountingConfiguration;
+import ca.twoducks.vor.ossindex.report.Fixtures;
+
+/** Parsing the 'gem' lines of the sample gemfiles.
+ * 
+ * Lines the parser complains about are left out, so that the benchmark measures
+ * parsing rather than writing to the console.
+ * 
+ * @author Ken Duck
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GemLineParserBenchmark
+{
+	private List<String> lines = new ArrayList<String>();
+	private GemLineParser parser;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		File samples = Fixtures.getSamples();
+		File gemfile = new File(samples, "test1.gemfile");
+		parser = new GemLineParser(gemfile, new CountingConfiguration());
+		
+		PrintStream err = System.err;
+		try
+		{
+			for(int i = 1; i <= 4; i++)
+			{
+				BufferedReader in = new BufferedReader(new FileReader(new File(samples, "test" + i + ".gemfile")));
+				try
+				{
+					String line;
+					while((line = in.readLine()) != null)
+					{
+						// Clean the line the same way the plugin does
+						line = line.trim().replaceAll("\"", "'");
+						if(!line.startsWith("gem ")) continue;
+						
+						ByteArrayOutputStream messages = new ByteArrayOutputStream();
+						System.setErr(new PrintStream(messages));
+						parser.parse(line);
+						if(messages.size() == 0) lines.add(line);
+					}
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+		}
+		finally
+		{
+			System.setErr(err);
+		}
+	}
+
+	@Benchmark
+	public GemLineParser parse()
+	{
+		for(String line: lines)
+		{
+			parser.parse(line);
+		}
+		return parser;
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import ca.twoducks.vor.ossindex.report.CountingConfiguration;
+import ca.twoducks.vor.ossindex.report.FileContent;
+import ca.twoducks.vor.ossindex.report.Fixtures;
+import ca.twoducks.vor.ossindex.report.ScanMetrics;
+
+/** Running the HTML plugin over the sample JSP, both reading the file itself and
+ * working from content that has already been buffered by the scan.
+ * 
+ * @author Ken Duck
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HtmlDependencyPluginBenchmark
+{
+	private HtmlDependencyPlugin plugin;
+	private File sample;
+	private BasicFileAttributes attrs;
+	private FileContent content;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		sample = new File(Fixtures.getSamples(), "sample.jsp");
+		attrs = Files.readAttributes(sample.toPath(), BasicFileAttributes.class);
+		
+		plugin = new HtmlDependencyPlugin();
+		plugin.setConfiguration(new CountingConfiguration());
+		
+		content = new FileContent(sample, attrs, null, new ScanMetrics());
+		content.getBuffer();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		content.release();
+	}
+
+	@Benchmark
+	public void runFile()
+	{
+		plugin.run(sample);
+	}
+
+	@Benchmark
+	public void runContent()
+	{
+		plugin.run(sample, attrs, content);
+	}
+}
@@ -26,16 +26,22 @@
  */
 package ca.twoducks.vor.ossindex.report;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -51,14 +57,18 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 
+import ca.twoducks.vor.ossindex.report.plugins.ArchivePlugin;
 import ca.twoducks.vor.ossindex.report.plugins.ChecksumPlugin;
 import ca.twoducks.vor.ossindex.report.plugins.GemfileDependencyPlugin;
 import ca.twoducks.vor.ossindex.report.plugins.HtmlDependencyPlugin;
 import ca.twoducks.vor.ossindex.report.plugins.MavenDependencyPlugin;
 import ca.twoducks.vor.ossindex.report.plugins.NodeDependencyPlugin;
+import ca.twoducks.vor.ossindex.report.plugins.PackagePlugin;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 /** The report assistant prepares a JSON configuration file which may be imported
  * into OSS Index to provide valuable information for a report. It does this by
@@ -97,6 +107,135 @@ public class Assistant
 	private static final String NO_ARTIFACTS_OPTION = "no_artifacts";
 	
 	private static final String VERBOSE_OUTPUT_OPTION = "context";
+	
+	/**
+	 * Option name for the number of threads used when scanning.
+	 */
+	private static final String THREADS_OPTION = "threads";
+	
+	/**
+	 * Option name indicating that the staged scan pipeline should be used.
+	 */
+	private static final String PIPELINE_OPTION = "pipeline";
+	
+	/**
+	 * Option names for the number of threads in the pipeline's I/O and plugin stages.
+	 */
+	private static final String IO_THREADS_OPTION = "io_threads";
+	private static final String CPU_THREADS_OPTION = "cpu_threads";
+	
+	/**
+	 * Option name for the maximum megabytes of file content held by the pipeline.
+	 */
+	private static final String INFLIGHT_OPTION = "inflight_mb";
+	
+	/**
+	 * Option name indicating that the digest cache should not be used, so every
+	 * file is read and hashed.
+	 */
+	private static final String NO_CACHE_OPTION = "no_cache";
+	
+	/**
+	 * Option name indicating that no progress information should be printed.
+	 */
+	private static final String QUIET_OPTION = "quiet";
+	
+	/**
+	 * Option name for a file to list every scanned file in.
+	 */
+	private static final String LIST_OPTION = "list";
+	
+	/**
+	 * Option name indicating that the entries of jar/war/ear/zip archives, and the
+	 * members of deb and tar packages, should be hashed as well as the archives
+	 * themselves.
+	 */
+	private static final String ARCHIVES_OPTION = "archives";
+	
+	/**
+	 * Option name for the actions taken on each class of file.
+	 */
+	private static final String POLICY_OPTION = "policy";
+	
+	/**
+	 * Option names for patterns of files and directories to leave out of the
+	 * scan, or to scan despite an exclusion.
+	 */
+	private static final String EXCLUDE_OPTION = "exclude";
+	private static final String INCLUDE_OPTION = "include";
+	
+	/**
+	 * Option name for a file of patterns to leave out of the scan.
+	 */
+	private static final String IGNORE_FILE_OPTION = "ignore_file";
+	
+	/**
+	 * Option name indicating that .gitignore and .ignore files should be honoured.
+	 */
+	private static final String GITIGNORE_OPTION = "gitignore";
+	
+	/**
+	 * Option name indicating that the scan should be driven by the index of a
+	 * git working copy, only reading files that changed since the last scan.
+	 */
+	private static final String GIT_OPTION = "git";
+	
+	/**
+	 * Name of the file recording the git blob ids of the scanned files, which is
+	 * kept in the output directory.
+	 */
+	private static final String GIT_STATE_FILE = "vorindex.git";
+	
+	/**
+	 * Option name indicating that, after the initial scan, the tree should be
+	 * watched and the outputs kept up to date as files change.
+	 */
+	private static final String WATCH_OPTION = "watch";
+	
+	/**
+	 * Option name for the minimum number of seconds between rewrites of the
+	 * outputs in watch mode.
+	 */
+	private static final String WATCH_INTERVAL_OPTION = "watch_interval";
+	
+	/**
+	 * Option name indicating that the JSON outputs should be written without
+	 * indentation.
+	 */
+	private static final String COMPACT_OPTION = "compact";
+	
+	/**
+	 * Option name indicating that the outputs should be gzip compressed.
+	 */
+	private static final String GZIP_OPTION = "gzip";
+	
+	/**
+	 * Suffix of gzip compressed inputs and outputs.
+	 */
+	private static final String GZIP_SUFFIX = ".gz";
+	
+	/**
+	 * Option name indicating that the private configuration should also be
+	 * written as a binary snapshot.
+	 */
+	private static final String SNAPSHOT_OPTION = "snapshot";
+	
+	/**
+	 * Name of the private configuration snapshot, which is written to the
+	 * output directory. Inputs with this suffix are read as snapshots.
+	 */
+	private static final String SNAPSHOT_FILE = "vorindex.private.snap";
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+	
+	/**
+	 * Size of the buffer in front of each input and output file.
+	 */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	
+	/**
+	 * Name of the digest cache file, which is kept in the output directory.
+	 */
+	private static final String CACHE_FILE = "vorindex.cache";
 
 	/**
 	 * 
@@ -122,6 +261,129 @@ public class Assistant
 	 * Indicates whether images should be included in the CSV output
 	 */
 	private boolean includeImages;
+	
+	/**
+	 * Number of threads to scan with. A parallel scan is used when there is more than one.
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Indicates whether the staged scan pipeline should be used.
+	 */
+	private boolean pipeline;
+	
+	/**
+	 * Number of threads reading and hashing files in the pipeline.
+	 */
+	private int ioThreads = 4;
+	
+	/**
+	 * Number of threads running plugins in the pipeline.
+	 */
+	private int cpuThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Maximum megabytes of file content held by the pipeline.
+	 */
+	private int inFlightMb = 64;
+	
+	/**
+	 * Indicates whether the digest cache should be used when scanning.
+	 */
+	private boolean useCache = true;
+	
+	/**
+	 * Cache of digests from previous scans. May be null.
+	 */
+	private DigestCache digestCache;
+	
+	/**
+	 * Digests calculated during the scan, shared by hardlinked files.
+	 */
+	private InodeDigests inodeDigests = new InodeDigests();
+	
+	/**
+	 * Decides which classes of file are hashed, recorded as ignored or skipped.
+	 */
+	private FileClassifier classifier = new FileClassifier();
+	
+	/**
+	 * Patterns to exclude from the scan, and to include despite an exclusion.
+	 */
+	private List<String> excludes = new ArrayList<String>();
+	private List<String> includes = new ArrayList<String>();
+	
+	/**
+	 * File of patterns to exclude, in .gitignore format. May be null.
+	 */
+	private File ignoreFile;
+	
+	/**
+	 * Indicates whether .gitignore and .ignore files in the scanned tree are honoured.
+	 */
+	private boolean gitignore;
+	
+	/**
+	 * Indicates whether the scan should be driven by the git index.
+	 */
+	private boolean git;
+	
+	/**
+	 * File recording the git blob ids of the scanned files. If set, the scan is
+	 * driven by the git index.
+	 */
+	private File gitState;
+	
+	/**
+	 * Private configuration written by the previous scan, used by git scans. May be null.
+	 */
+	private Configuration previous;
+	
+	/**
+	 * Scanner driven by the git index, whose state is saved once the outputs are
+	 * written. Null unless the scan is driven by the git index.
+	 */
+	private GitScanner gitScanner;
+	
+	/**
+	 * Indicates whether the tree is watched for changes after the initial scan.
+	 */
+	private boolean watch;
+	
+	/**
+	 * Minimum time between rewrites of the outputs in watch mode, in milliseconds.
+	 */
+	private long watchInterval = InventoryWatcher.DEFAULT_INTERVAL;
+	
+	/**
+	 * Timings collected during the scan and export.
+	 */
+	private ScanMetrics metrics = new ScanMetrics();
+	
+	/**
+	 * Indicates whether progress summaries should be suppressed.
+	 */
+	private boolean quiet;
+	
+	/**
+	 * Indicates whether the JSON outputs are written without indentation.
+	 */
+	private boolean compact;
+	
+	/**
+	 * Indicates whether the outputs are gzip compressed.
+	 */
+	private boolean gzip;
+	
+	/**
+	 * Indicates whether a snapshot of the private configuration is written.
+	 */
+	private boolean snapshot;
+	
+	/**
+	 * File to list every scanned file in. May be null.
+	 */
+	private File listFile;
 
 	/**
 	 * Initialize the host connection.
@@ -158,61 +420,301 @@ public class Assistant
 		includeImages = b;
 	}
 
-	/** Scan the specified file/directory, reporting on any third party.
+	/** Set the number of threads to scan with. If there is only one thread then
+	 * the sequential scan is used.
+	 * 
+	 * @param threads
+	 */
+	private void setThreads(int threads)
+	{
+		this.threads = threads;
+	}
+
+	/** Use the staged scan pipeline, with the specified number of threads for each
+	 * stage and the specified limit on buffered content.
+	 * 
+	 * @param ioThreads
+	 * @param cpuThreads
+	 * @param inFlightMb
+	 */
+	private void setPipeline(int ioThreads, int cpuThreads, int inFlightMb)
+	{
+		this.pipeline = true;
+		this.ioThreads = ioThreads;
+		this.cpuThreads = cpuThreads;
+		this.inFlightMb = inFlightMb;
+	}
+
+	/** Indicates whether progress summaries should be suppressed.
+	 * 
+	 * @param b
+	 */
+	private void setQuiet(boolean b)
+	{
+		quiet = b;
+	}
+
+	/** Write the name of every scanned file to the specified file.
 	 * 
 	 * @param file
 	 */
-	public void scan(File file)
+	private void setListFile(File file)
+	{
+		listFile = file;
+	}
+
+	/** Indicates whether the digest cache should be used when scanning.
+	 * 
+	 * @param b
+	 */
+	private void setUseCache(boolean b)
+	{
+		useCache = b;
+	}
+
+	/** Exclude paths matching the specified patterns from the scan.
+	 * 
+	 * @param patterns
+	 */
+	private void addExcludes(List<String> patterns)
 	{
-		recursiveScan(file);
+		excludes.addAll(patterns);
 	}
 
-	/** Recursively scan the specified file/directory, collecting the SHA1 sums
+	/** Include paths matching the specified patterns despite an exclusion.
+	 * 
+	 * @param patterns
+	 */
+	private void addIncludes(List<String> patterns)
+	{
+		includes.addAll(patterns);
+	}
+
+	/** Exclude paths matching the patterns in the specified file, in .gitignore format.
 	 * 
 	 * @param file
 	 */
-	private void recursiveScan(File file)
+	private void setIgnoreFile(File file)
+	{
+		ignoreFile = file;
+	}
+
+	/** Indicates whether .gitignore and .ignore files in the scanned tree are honoured.
+	 * 
+	 * @param b
+	 */
+	private void setGitignore(boolean b)
 	{
-		// Do one of the scan plugins tell us to ignore this folder?
-		// This will usually be done if we are going to identify the
-		// dependencies from a dependency file.
-		if(exportDependencies)
+		gitignore = b;
+	}
+
+	/** Indicates whether the scan should be driven by the git index.
+	 * 
+	 * @param b
+	 */
+	private void setGit(boolean b)
+	{
+		git = b;
+	}
+
+	/** Watch the tree for changes after the initial scan, and keep the outputs
+	 * up to date.
+	 * 
+	 * @param interval Minimum time between rewrites of the outputs, in milliseconds
+	 */
+	private void setWatch(long interval)
+	{
+		watch = true;
+		watchInterval = interval;
+	}
+
+	/** Indicates whether the JSON outputs are written without indentation.
+	 * 
+	 * @param b
+	 */
+	private void setCompact(boolean b)
+	{
+		compact = b;
+	}
+
+	/** Indicates whether the outputs are gzip compressed.
+	 * 
+	 * @param b
+	 */
+	private void setGzip(boolean b)
+	{
+		gzip = b;
+	}
+
+	/** Indicates whether a snapshot of the private configuration is written.
+	 * 
+	 * @param b
+	 */
+	private void setSnapshot(boolean b)
+	{
+		snapshot = b;
+	}
+
+	/** Scan the specified file/directory, reporting on any third party.
+	 * 
+	 * @param file
+	 * @throws IOException 
+	 */
+	public void scan(File file) throws IOException
+	{
+		ScanProcessor processor = createProcessor(file);
+		processor.setInodeDigests(inodeDigests);
+		
+		ProgressReporter progress = new ProgressReporter(System.out, ProgressReporter.DEFAULT_INTERVAL);
+		progress.setQuiet(quiet);
+		progress.setListing(listFile);
+		progress.setMetrics(processor.getMetrics());
+		processor.setProgressReporter(progress);
+		progress.start();
+		try
 		{
-			for(IScanPlugin plugin: plugins)
+			scan(processor, file);
+		}
+		finally
+		{
+			progress.stop();
+		}
+	}
+
+	/** Create a processor configured with the scan options.
+	 * 
+	 * @param root
+	 * @return
+	 * @throws IOException
+	 */
+	private ScanProcessor createProcessor(File root) throws IOException
+	{
+		ScanProcessor processor = new ScanProcessor(plugins, exportDependencies);
+		processor.setDigestCache(digestCache);
+		processor.setClassifier(classifier);
+		processor.setPathFilter(createPathFilter(root));
+		processor.setMetrics(metrics);
+		return processor;
+	}
+
+	/** Create a watcher which keeps the configuration, and the outputs, up to
+	 * date as the files beneath a directory change. Hardlinked files are not
+	 * shared between paths while watching, since a changed inode would keep its
+	 * stale digest.
+	 * 
+	 * @param root
+	 * @param outputDir
+	 * @param includeContext
+	 * @return
+	 * @throws IOException
+	 */
+	private InventoryWatcher createWatcher(File root, final File outputDir, final boolean includeContext) throws IOException
+	{
+		InventoryWatcher watcher = new InventoryWatcher(createProcessor(root), config, root, watchInterval) {
+			@Override
+			protected void write() throws IOException
 			{
-				if(plugin.ignore(file)) return;
+				// The git state only describes the configuration of the scan
+				if(gitScanner != null) gitScanner.discardState();
+				export(outputDir, includeContext);
 			}
+		};
+		watcher.setQuiet(quiet);
+		return watcher;
+	}
+
+	/** Create the filter which leaves excluded files and directories out of the scan.
+	 * 
+	 * @param root
+	 * @return The filter, or null if nothing is excluded
+	 * @throws IOException
+	 */
+	private PathFilter createPathFilter(File root) throws IOException
+	{
+		PathFilter filter = new PathFilter(root);
+		for(String pattern: excludes) filter.exclude(pattern);
+		for(String pattern: includes) filter.include(pattern);
+		if(ignoreFile != null) filter.setPatternFile(ignoreFile);
+		filter.setGitignore(gitignore || gitState != null);
+		return filter.isEmpty() ? null : filter;
+	}
+
+	/** Scan the specified file/directory with the selected scanner.
+	 * 
+	 * @param processor
+	 * @param file
+	 * @throws IOException
+	 */
+	private void scan(ScanProcessor processor, File file) throws IOException
+	{
+		if(gitState != null)
+		{
+			gitScanner = new GitScanner(processor, config, previous, gitState, getScanOptions());
+			gitScanner.scan(file);
 		}
-		
-		if(file.isFile())
+		else if(pipeline)
 		{
-			// Progress information
-			System.out.println(file);
-			System.out.flush();
+			PipelineScanner scanner = new PipelineScanner(processor, config, ioThreads, cpuThreads, inFlightMb * 1024L * 1024L);
 			
-			// Run through each scan plugin
-			for(IScanPlugin plugin: plugins)
+			// Plugins record their results through the pipeline while it runs
+			setPluginConfiguration(scanner.getConfiguration());
+			try
 			{
-				plugin.run(file);
+				scanner.scan(file);
+			}
+			finally
+			{
+				setPluginConfiguration(config);
 			}
 		}
-		else
+		else if(threads > 1)
 		{
-			// Recursively do for all sub-folders and files.
-			File[] children = file.listFiles();
-			if(children != null)
+			ParallelScanner scanner = new ParallelScanner(processor, threads);
+			ConcurrentConfiguration concurrent = new ConcurrentConfiguration(threads);
+			
+			// Plugins write to the concurrent configuration while the scan runs,
+			// then the results are committed in traversal order.
+			setPluginConfiguration(concurrent);
+			try
 			{
-				for (File child : children)
-				{
-					if(!Files.isSymbolicLink(child.toPath()))
-					{
-						recursiveScan(child);
-					}
-				}
+				List<File> order = scanner.scan(file);
+				concurrent.commit(config, order);
 			}
+			finally
+			{
+				setPluginConfiguration(config);
+			}
+		}
+		else
+		{
+			SequentialScanner scanner = new SequentialScanner(processor);
+			scanner.scan(file);
 		}
 	}
 
+	/** Describe the options which decide what the scan finds in each file: the
+	 * plugins, whether dependencies are recorded, and the file class policy.
+	 * 
+	 * @return
+	 */
+	private String getScanOptions()
+	{
+		StringBuilder sb = new StringBuilder();
+		for(IScanPlugin plugin: plugins) sb.append(plugin.getClass().getSimpleName()).append(',');
+		sb.append("dependencies=").append(exportDependencies);
+		sb.append(' ').append(classifier.getPolicy());
+		return sb.toString();
+	}
+
+	/** Point all of the plugins at the specified configuration.
+	 * 
+	 * @param configuration
+	 */
+	private void setPluginConfiguration(IConfiguration configuration)
+	{
+		for(IScanPlugin plugin: plugins) plugin.setConfiguration(configuration);
+	}
+
 	/** Export the data in JSON format
 	 * 
 	 * @return
@@ -221,56 +723,52 @@ public class Assistant
 	private String exportJson()
 	{
 		Writer writer = new StringWriter();
-		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		Gson gson = new GsonBuilder().setPrettyPrinting()
+				.registerTypeAdapterFactory(ConfigurationAdapters.privateProjection())
+				.create();
 
 		gson.toJson(config, writer);
 
 		return writer.toString();
 	}
 
-	/** Export both the public JSON file to the specified directory.
+	/** Export the public JSON to the specified writer.
 	 * 
-	 * @param dir
+	 * @param writer
 	 */
-	private void exportPublicJson(File dir) throws IOException
+	void exportPublicJson(Writer writer) throws IOException
 	{
-		// Write the public configuration file
-		File publicFile = new File(dir, "vorindex.public.json");
-		PrintWriter writer = new PrintWriter(new FileWriter(publicFile));
-		try
-		{
-			config.touch();
-			Gson gson = new GsonBuilder().setPrettyPrinting()
-					.setExclusionStrategies(new PublicExclusionStrategy(exportDependencies))
-					.create();
-			gson.toJson(config, writer);
-		}
-		finally
-		{
-			writer.close();
-		}
+		config.touch();
+		JsonWriter out = createJsonWriter(writer);
+		config.exportJson(out, false, exportDependencies);
+		out.flush();
 	}
 	
-	/** Export both the private JSON file to the specified directory.
+	/** Export the private JSON to the specified writer.
 	 * 
-	 * @param dir
-	 * @throws IOException
+	 * @param writer
 	 */
-	private void exportPrivateJson(File dir) throws IOException
+	void exportPrivateJson(Writer writer) throws IOException
 	{
-		// Write the private configuration file
-		File privateFile = new File(dir, "vorindex.private.json");
-		PrintWriter writer = new PrintWriter(new FileWriter(privateFile));
-		try
-		{
-			config.touch();
-			Gson gson = new GsonBuilder().setPrettyPrinting().create();
-			gson.toJson(config, writer);
-		}
-		finally
-		{
-			writer.close();
-		}
+		config.touch();
+		JsonWriter out = createJsonWriter(writer);
+		config.exportJson(out, true, true);
+		out.flush();
+	}
+
+	/** Create a JSON writer producing the same output as Gson would, indented
+	 * unless compact output was requested.
+	 * 
+	 * @param writer
+	 * @return
+	 */
+	private JsonWriter createJsonWriter(Writer writer)
+	{
+		JsonWriter out = new JsonWriter(writer);
+		if(!compact) out.setIndent("  ");
+		out.setHtmlSafe(true);
+		out.setSerializeNulls(false);
+		return out;
 	}
 	
 	/** Merge the two given configuration files.
@@ -288,12 +786,27 @@ public class Assistant
 		config = load(privateFile);
 		if(publicFile != null)
 		{
-			Configuration c1 = load(publicFile);
-			config.merge(c1);
+			if(isCsv(publicFile))
+			{
+				config.merge(loadCsv(publicFile));
+			}
+			else if(publicFile.getName().endsWith(SNAPSHOT_SUFFIX))
+			{
+				// Only the private digests are looked up in the snapshot
+				config.merge(ConfigurationSnapshot.open(publicFile));
+			}
+			else
+			{
+				// Stream the public side against the private files
+				try(JsonReader in = openJson(publicFile))
+				{
+					config.merge(in);
+				}
+			}
 		}
 	}
 
-	/** Load a configuration from a specified JSON file.
+	/** Load a configuration from a specified JSON, CSV or snapshot file.
 	 * 
 	 * @param file
 	 * @return
@@ -301,24 +814,65 @@ public class Assistant
 	 */
 	private Configuration load(File file) throws IOException
 	{
-		if(file.getName().endsWith(".csv"))
+		if(isCsv(file))
 		{
 			return loadCsv(file);
 		}
+		else if(file.getName().endsWith(SNAPSHOT_SUFFIX))
+		{
+			return ConfigurationSnapshot.open(file).toConfiguration();
+		}
 		else
 		{
-			Reader reader = new FileReader(file);
-			Gson gson = new GsonBuilder().create();
-			try
+			try(JsonReader in = openJson(file))
 			{
-				return gson.fromJson(reader, Configuration.class);
-			}
-			finally
-			{
-				reader.close();
+				Configuration config = new Configuration();
+				config.importJson(in);
+				return config;
 			}
 		}
 	}
+
+	/** Indicates whether an input file is CSV, possibly compressed, rather
+	 * than JSON.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	private static boolean isCsv(File file)
+	{
+		String name = file.getName();
+		return name.endsWith(".csv") || name.endsWith(".csv" + GZIP_SUFFIX);
+	}
+
+	/** Open a JSON file for streaming. Parsing is lenient, as it is for Gson.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private JsonReader openJson(File file) throws IOException
+	{
+		JsonReader in = new JsonReader(openReader(file));
+		in.setLenient(true);
+		return in;
+	}
+
+	/** Open a buffered reader on an input file. Files ending in ".gz" are
+	 * decompressed as they are read, on a thread of their own.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static Reader openReader(File file) throws IOException
+	{
+		if(file.getName().endsWith(GZIP_SUFFIX))
+		{
+			return new BufferedReader(new InputStreamReader(new AsyncGzipInputStream(new FileInputStream(file))), BUFFER_SIZE);
+		}
+		return new BufferedReader(new FileReader(file), BUFFER_SIZE);
+	}
 	
 	/** Convert a CSV file back to a JSON config file.
 	 * 
@@ -326,106 +880,113 @@ public class Assistant
 	 * @return
 	 * @throws IOException 
 	 */
-	private Configuration loadCsv(File file) throws IOException
+	Configuration loadCsv(File file) throws IOException
 	{
 		Configuration config = new Configuration();
-		Reader in = new FileReader(file);
-		Iterable<CSVRecord> records = CSVFormat.EXCEL.withHeader().parse(in);
-		for (CSVRecord record : records)
-		{
-		    String path = record.get("Path");
-		    String state = record.get("State");
-		    if(!"UNASSIGNED".equals(state))
-		    {
-			    String projectName = record.get("Project Name");
-			    // There could be 3 "projectUri" fields. In order:
-			    //   SCM,Project,Home
-			    //
-			    // SCM should always have a value, others *may*
-			    String[] projectUris = parseList(record.get("Project URI"));
-			    String scmUri = projectUris[0];
-			    String projectUri = null;
-			    String homeUri = null;
-			    if(projectUris.length > 1 && !projectUris[1].trim().isEmpty()) projectUri = projectUris[1].trim();
-			    if(projectUris.length > 2 && !projectUris[2].trim().isEmpty()) homeUri = projectUris[2].trim();
-			    
-			    String version = record.get("Version");
-			    String[] cpes = parseList(record.get("CPEs"));
-			    String[] projectLicenses = parseList(record.get("Project Licenses"));
-			    String fileLicense = record.get("File License");
-			    String projectDescription = record.get("Project Description");
-			    String digest = record.get("Digest");
-			    String comment = record.get("Comment");
-			    
-			    String overrideName = null;
-			    String overrideLicense = null;
-			    try {overrideName = record.get("Override Name");} catch(IllegalArgumentException e) {}
-			    try {overrideLicense = record.get("Override License");} catch(IllegalArgumentException e) {}
-			    
-			    // Override applicable fields
-			    if(overrideName != null && !overrideName.trim().isEmpty())
-			    {
-			    	projectName = overrideName;
-			    	scmUri = null;
-			    	projectUri = null;
-			    	homeUri = null;
-			    	version = null;
-			    	cpes = new String[0];
-		    		projectLicenses = new String[0];
-		    		projectDescription = null;
-			    	if(overrideLicense != null)
-			    	{
-			    		projectLicenses = new String[] {overrideLicense};
-			    	}
-			    }
-			    
-			    // Add the checksum to the file list
-			    FileConfig fileConfig = config.addFile(digest);
-	
-			    if(path != null && !path.isEmpty())
+		// Records are converted as they are parsed, rather than read up front
+		Reader in = openReader(file);
+		try
+		{
+			for (CSVRecord record : CSVFormat.EXCEL.withHeader().parse(in))
+			{
+			    String path = record.get("Path");
+			    String state = record.get("State");
+			    if(!"UNASSIGNED".equals(state))
 			    {
-			    	File aFile = new File(path);
-			    	File parent = aFile.getParentFile();
-			    	if(parent == null) fileConfig.setName(path);
-			    	else fileConfig.setPath(path);
-			    }
+				    String projectName = record.get("Project Name");
+				    // There could be 3 "projectUri" fields. In order:
+				    //   SCM,Project,Home
+				    //
+				    // SCM should always have a value, others *may*
+				    String[] projectUris = parseList(record.get("Project URI"));
+				    String scmUri = projectUris[0];
+				    String projectUri = null;
+				    String homeUri = null;
+				    if(projectUris.length > 1 && !projectUris[1].trim().isEmpty()) projectUri = projectUris[1].trim();
+				    if(projectUris.length > 2 && !projectUris[2].trim().isEmpty()) homeUri = projectUris[2].trim();
 			    
-			    if(fileLicense != null && !fileLicense.isEmpty()) fileConfig.setLicense(fileLicense);
-			    if(comment != null && !comment.isEmpty()) fileConfig.setComment(comment);
-			    if(state != null && !state.isEmpty()) fileConfig.setState(state);
+				    String version = record.get("Version");
+				    String[] cpes = parseList(record.get("CPEs"));
+				    String[] projectLicenses = parseList(record.get("Project Licenses"));
+				    String fileLicense = record.get("File License");
+				    String projectDescription = record.get("Project Description");
+				    String digest = record.get("Digest");
+				    String comment = record.get("Comment");
 			    
-			    ProjectGroup group = config.getGroup(projectName);
-			    ProjectConfig project = group.getProject(scmUri, version);
+				    String overrideName = null;
+				    String overrideLicense = null;
+				    try {overrideName = record.get("Override Name");} catch(IllegalArgumentException e) {}
+				    try {overrideLicense = record.get("Override License");} catch(IllegalArgumentException e) {}
 			    
-			    // If the project has not been defined yet then set its values
-			    if(project.getName() == null)
-			    {
-				    project.setName(projectName);
-				    if(projectUri != null) project.setProjectUri(projectUri);
-				    if(homeUri != null) project.setHomeUri(homeUri);
-				    
-				    if(cpes != null)
+				    // Override applicable fields
+				    if(overrideName != null && !overrideName.trim().isEmpty())
 				    {
-				    	for(String cpe: cpes)
+				    	projectName = overrideName;
+				    	scmUri = null;
+				    	projectUri = null;
+				    	homeUri = null;
+				    	version = null;
+				    	cpes = new String[0];
+			    		projectLicenses = new String[0];
+			    		projectDescription = null;
+				    	if(overrideLicense != null)
 				    	{
-				    		project.addCpe(cpe);
+				    		projectLicenses = new String[] {overrideLicense};
 				    	}
 				    }
-				    
-				    if(projectLicenses != null)
+			    
+				    // Add the checksum to the file list
+				    FileConfig fileConfig = config.addFile(digest);
+	
+				    if(path != null && !path.isEmpty())
 				    {
-				    	for(String license: projectLicenses)
-				    	{
-				    		project.addLicense(license);
-				    	}
+				    	File aFile = new File(path);
+				    	File parent = aFile.getParentFile();
+				    	if(parent == null) fileConfig.setName(path);
+				    	else fileConfig.setPath(path);
 				    }
+			    
+				    if(fileLicense != null && !fileLicense.isEmpty()) fileConfig.setLicense(fileLicense);
+				    if(comment != null && !comment.isEmpty()) fileConfig.setComment(comment);
+				    if(state != null && !state.isEmpty()) fileConfig.setState(state);
+			    
+				    ProjectGroup group = config.getGroup(projectName);
+				    ProjectConfig project = group.getProject(scmUri, version);
+			    
+				    // If the project has not been defined yet then set its values
+				    if(project.getName() == null)
+				    {
+					    project.setName(projectName);
+					    if(projectUri != null) project.setProjectUri(projectUri);
+					    if(homeUri != null) project.setHomeUri(homeUri);
 				    
-				    if(projectDescription != null && !projectDescription.isEmpty()) project.setDescription(projectDescription);
-			    }
+					    if(cpes != null)
+					    {
+					    	for(String cpe: cpes)
+					    	{
+					    		project.addCpe(cpe);
+					    	}
+					    }
+				    
+					    if(projectLicenses != null)
+					    {
+					    	for(String license: projectLicenses)
+					    	{
+					    		project.addLicense(license);
+					    	}
+					    }
+				    
+					    if(projectDescription != null && !projectDescription.isEmpty()) project.setDescription(projectDescription);
+				    }
 			    
-			    // Add the file to the project
-			    project.addFile(fileConfig);
-		    }
+				    // Add the file to the project
+				    project.addFile(fileConfig);
+			    }
+			}
+		}
+		finally
+		{
+			in.close();
 		}
 		return config;
 	}
@@ -449,32 +1010,146 @@ public class Assistant
 		}
 	}
 
-	/** Export the configuration data into a CSV file. The CSV file may not
-	 * contain complete information, but is much easier for a human to work with.
-	 * Code will be added to allow conversion from CSV back into the JSON format.
+	/** Export the configuration data in CSV format to the specified writer.
 	 * 
-	 * @param dir
-	 * @throws IOException 
+	 * @param out
+	 * @throws IOException
 	 */
-	private void exportCsv(File dir) throws IOException
+	void exportCsv(Writer out) throws IOException
+	{
+		CSVPrinter csvOut = createCsvPrinter(out);
+		config.exportCsv(csvOut, includeArtifacts, includeImages);
+		csvOut.flush();
+	}
+
+	/** Create a CSV printer and write the header row.
+	 * 
+	 * @param out
+	 * @return
+	 * @throws IOException
+	 */
+	private CSVPrinter createCsvPrinter(Writer out) throws IOException
 	{
-		File file = new File(dir, "vorindex.csv");
 		CSVFormat format = CSVFormat.EXCEL.withRecordSeparator("\n").withCommentMarker('#');
-		FileWriter fout = new FileWriter(file);
-		CSVPrinter csvOut = new CSVPrinter(fout, format);
+		CSVPrinter csvOut = new CSVPrinter(out, format);
 		String[] header = {"Path", "State", "Project Name", "Project URI", "Version", "CPEs", "Project Licenses", "File License", "Project Description", "Digest", "Comment"};
 		csvOut.printRecord((Object[])header);
+		return csvOut;
+	}
+
+	/** Close every writer, even if closing one of them fails. Closing a
+	 * compressed writer finishes its compression, so each must be closed
+	 * for its file to be complete.
+	 * 
+	 * @param writers
+	 * @return The first exception thrown while closing, with any others suppressed by it, or null
+	 */
+	private static IOException close(List<Writer> writers)
+	{
+		IOException error = null;
+		for(Writer writer: writers)
+		{
+			try
+			{
+				writer.close();
+			}
+			catch(IOException e)
+			{
+				if(error == null) error = e;
+				else error.addSuppressed(e);
+			}
+		}
+		return error;
+	}
+
+	/** Export the public JSON file, and with context the private JSON and CSV
+	 * files as well, to the specified directory. The configuration is visited
+	 * once, with each file written on a thread of its own. Compressed outputs
+	 * are deflated on a further thread per file. A snapshot, if requested, is
+	 * written afterwards since it needs the whole configuration for its indexes.
+	 * 
+	 * @param dir
+	 * @param includeContext
+	 * @throws IOException
+	 */
+	private void export(File dir, boolean includeContext) throws IOException
+	{
+		config.touch();
+		File publicFile = getOutputFile(dir, "vorindex.public.json");
+		File privateFile = getOutputFile(dir, "vorindex.private.json");
+		File csvFile = getOutputFile(dir, "vorindex.csv");
 		
+		ConcurrentExporter exporter = new ConcurrentExporter(config);
+		List<Writer> writers = new ArrayList<Writer>();
+		boolean exported = false;
 		try
 		{
-			config.exportCsv(csvOut, includeArtifacts, includeImages);
+			exporter.addJson("public", createJsonWriter(open(publicFile, writers)), false, exportDependencies);
+			if(includeContext)
+			{
+				exporter.addJson("private", createJsonWriter(open(privateFile, writers)), true, true);
+				exporter.addCsv("csv", createCsvPrinter(open(csvFile, writers)), includeArtifacts, includeImages);
+			}
+			exporter.export();
+			exported = true;
 		}
 		finally
 		{
-			fout.close();
-			csvOut.close();
+			// A failed export is thrown in preference to any failure to close
+			IOException error = close(writers);
+			if(exported && error != null) throw error;
 		}
 		
+		metrics.getExport("public").record(exporter.getNanos("public"), publicFile.length());
+		if(includeContext)
+		{
+			metrics.getExport("private").record(exporter.getNanos("private"), privateFile.length());
+			metrics.getExport("csv").record(exporter.getNanos("csv"), csvFile.length());
+			
+			if(snapshot)
+			{
+				File snapshotFile = new File(dir, SNAPSHOT_FILE);
+				long start = System.nanoTime();
+				ConfigurationSnapshot.write(config, snapshotFile);
+				metrics.getExport("snapshot").record(System.nanoTime() - start, snapshotFile.length());
+			}
+		}
+	}
+
+	/** Get an output file in the specified directory, with the gzip suffix if
+	 * the outputs are compressed.
+	 * 
+	 * @param dir
+	 * @param name
+	 * @return
+	 */
+	private File getOutputFile(File dir, String name)
+	{
+		return new File(dir, gzip ? name + GZIP_SUFFIX : name);
+	}
+
+	/** Open a buffered writer on an output file, adding it to the writers to be
+	 * closed once the export is complete. Files ending in ".gz" are compressed
+	 * as they are written, on a thread of their own.
+	 * 
+	 * @param file
+	 * @param writers
+	 * @return
+	 * @throws IOException
+	 */
+	private static Writer open(File file, List<Writer> writers) throws IOException
+	{
+		Writer writer;
+		if(file.getName().endsWith(GZIP_SUFFIX))
+		{
+			writer = new BufferedWriter(new OutputStreamWriter(new AsyncGzipOutputStream(new FileOutputStream(file))), BUFFER_SIZE);
+		}
+		else
+		{
+			writer = new BufferedWriter(new FileWriter(file), BUFFER_SIZE);
+		}
+		writers.add(writer);
+		return writer;
 	}
 	
 	/** Add a scan plugin
@@ -496,6 +1171,13 @@ public class Assistant
 	}
 
 
+	/** Release anything held by the scan plugins, once scanning is done.
+	 */
+	private void closePlugins()
+	{
+		for(IScanPlugin plugin: plugins) plugin.close();
+	}
+
 	/** Create the initial configuration files by scanning a directory.
 	 * 
 	 * By default only the public JSON file is exported.
@@ -513,12 +1195,80 @@ public class Assistant
 			return;
 		}
 
+		DigestCache cache = null;
+		if(assistant.useCache)
+		{
+			cache = DigestCache.load(new File(outputDir, CACHE_FILE));
+			assistant.digestCache = cache;
+		}
+		
+		if(assistant.git)
+		{
+			// Unchanged files are taken from the previous private configuration
+			File privateFile = assistant.getOutputFile(outputDir, "vorindex.private.json");
+			try
+			{
+				if(privateFile.exists()) assistant.previous = assistant.load(privateFile);
+			}
+			catch(IOException e)
+			{
+				// Left incomplete by a failed export, so nothing can be reused
+				System.err.println("Exception reading " + privateFile + ", scanning everything: " + e.getMessage());
+			}
+			assistant.gitState = new File(outputDir, GIT_STATE_FILE);
+			includeContext = true;
+		}
+		
+		InventoryWatcher watcher = null;
+		if(assistant.watch)
+		{
+			if(!scanDir.isDirectory())
+			{
+				System.err.println("Only a directory may be watched: " + scanDir);
+				return;
+			}
+			// Register first so that nothing changed during the initial scan is missed
+			watcher = assistant.createWatcher(scanDir, outputDir, includeContext);
+			watcher.register();
+		}
+		
 		assistant.scan(scanDir);
-		assistant.exportPublicJson(outputDir);
-		if(includeContext)
+		
+		InodeDigests inodes = assistant.inodeDigests;
+		if(!assistant.quiet && inodes.getReused() > 0)
 		{
-			assistant.exportPrivateJson(outputDir);
-			assistant.exportCsv(outputDir);
+			System.out.println(String.format("Hardlinks: %d files reused a digest, %.1f MB not re-read", inodes.getReused(), inodes.getSavedBytes() / 1e6));
+		}
+		
+		GitScanner gitScanner = assistant.gitScanner;
+		if(!assistant.quiet && gitScanner != null)
+		{
+			if(gitScanner.isOptionsChanged()) System.out.println("Git index: scan options changed, scanned everything");
+			System.out.println("Git index: " + gitScanner.getUnchanged() + " files unchanged, " + gitScanner.getChanged() + " changed, " + gitScanner.getUntracked() + " untracked");
+		}
+		
+		assistant.export(outputDir, includeContext);
+		if(gitScanner != null) gitScanner.saveState();
+		assistant.metrics.export(outputDir);
+		
+		// Saved after the export, which a failure to save the cache must not prevent
+		if(cache != null)
+		{
+			if(!assistant.quiet) System.out.println("Digest cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+			try
+			{
+				cache.save();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Exception writing " + new File(outputDir, CACHE_FILE) + ": " + e.getMessage());
+			}
+		}
+		
+		if(watcher != null)
+		{
+			if(!assistant.quiet) System.out.println("Watching " + scanDir + " for changes");
+			watcher.run();
 		}
 	}
 
@@ -538,9 +1288,7 @@ public class Assistant
 		}
 
 		assistant.merge(null, file);
-		assistant.exportPublicJson(outputDir);
-		assistant.exportPrivateJson(outputDir);
-		assistant.exportCsv(outputDir);
+		assistant.export(outputDir, true);
 	}
 
 	/** Merge the specified JSON files together, write a new public/private file
@@ -560,9 +1308,7 @@ public class Assistant
 		
 		
 		assistant.merge(f1, f2);
-		assistant.exportPublicJson(outputDir);
-		assistant.exportPrivateJson(outputDir);
-		assistant.exportCsv(outputDir);
+		assistant.export(outputDir, true);
 	}
 
 	/** Get the command line options for parsing.
@@ -582,13 +1328,56 @@ public class Assistant
 		options.addOption(OptionBuilder.withArgName("dir").hasArg().withDescription("output directory").create("D"));
 		
 		options.addOption(NO_DEPENDENCIES_OPTION, false, "Don't scan source and configuration files to locate possible dependency information");
-		options.addOption(NO_IMAGES_OPTION, false, "Don't include images in the CSV output");
-		options.addOption(NO_ARTIFACTS_OPTION, false, "Don't include build artifacts in the CSV output");
+		options.addOption(NO_IMAGES_OPTION, false, "Don't scan images, or include them in the CSV output");
+		options.addOption(NO_ARTIFACTS_OPTION, false, "Don't scan build artifacts, or include them in the CSV output");
 		options.addOption(VERBOSE_OUTPUT_OPTION, false, "Output extra context files (private and CSV files)");
+		options.addOption(NO_CACHE_OPTION, false, "Don't use the digest cache, read and hash every file");
+		options.addOption(OptionBuilder.withArgName("count").hasArg().withDescription("number of threads to scan with (defaults to the number of available processors)").create(THREADS_OPTION));
+		options.addOption(PIPELINE_OPTION, false, "Scan using a staged pipeline (walk, read/hash, plugins, aggregate)");
+		options.addOption(OptionBuilder.withArgName("count").hasArg().withDescription("number of pipeline threads reading and hashing files (default 4)").create(IO_THREADS_OPTION));
+		options.addOption(OptionBuilder.withArgName("count").hasArg().withDescription("number of pipeline threads running plugins (defaults to the number of available processors)").create(CPU_THREADS_OPTION));
+		options.addOption(OptionBuilder.withArgName("mb").hasArg().withDescription("maximum megabytes of file content held by the pipeline (default 64)").create(INFLIGHT_OPTION));
+		options.addOption(QUIET_OPTION, false, "Don't print progress information while scanning");
+		options.addOption(OptionBuilder.withArgName("file").hasArg().withDescription("write the name of every scanned file to the specified file").create(LIST_OPTION));
+		options.addOption(OptionBuilder.withArgName("class=action,...").hasArg().withDescription("what to do with each class of file (image, artifact, tiny, binary, text) before it is read: hash, record (as ignored) or skip. Tiny files are recorded by default").create(POLICY_OPTION));
+		options.addOption(OptionBuilder.withArgName("patterns").hasArg().withDescription("comma separated patterns, in .gitignore syntax, of files and directories to leave out of the scan").create(EXCLUDE_OPTION));
+		options.addOption(OptionBuilder.withArgName("patterns").hasArg().withDescription("comma separated patterns of files to scan even though an exclude pattern matches them").create(INCLUDE_OPTION));
+		options.addOption(OptionBuilder.withArgName("file").hasArg().withDescription("file of patterns, in .gitignore format, of files and directories to leave out of the scan").create(IGNORE_FILE_OPTION));
+		options.addOption(GITIGNORE_OPTION, false, "Honour .gitignore and .ignore files in the scanned tree, and skip .git directories");
+		options.addOption(GIT_OPTION, false, "Scan a git working copy incrementally, only reading files that changed since the last scan according to the git index (implies -gitignore and -context). Changed files are scanned on a single thread, whatever -threads or -pipeline say");
+		options.addOption(COMPACT_OPTION, false, "Write the JSON configuration files without indentation");
+		options.addOption(SNAPSHOT_OPTION, false, "With context, also write the private configuration as a binary snapshot (" + SNAPSHOT_FILE + ") which -merge and -import accept in place of JSON");
+		options.addOption(GZIP_OPTION, false, "Gzip compress the output files, adding a .gz suffix. Inputs ending in .gz are always decompressed");
+		options.addOption(WATCH_OPTION, false, "After the initial scan, watch the scanned directory and keep the outputs up to date as files change");
+		options.addOption(OptionBuilder.withArgName("seconds").hasArg().withDescription("minimum time between rewrites of the outputs in watch mode (default 10)").create(WATCH_INTERVAL_OPTION));
+		options.addOption(ARCHIVES_OPTION, false, "Hash the files inside jar, war, ear and zip archives and deb and tar packages");
 		
 		return options;
 	}
 
+	/** Get a positive count from the command line.
+	 * 
+	 * @param line
+	 * @param option
+	 * @param defaultValue Value to use if the option is not specified
+	 * @return
+	 * @throws NumberFormatException If the value is not a positive integer
+	 */
+	private static int getCount(CommandLine line, String option, int defaultValue)
+	{
+		if(!line.hasOption(option)) return defaultValue;
+		String value = line.getOptionValue(option);
+		try
+		{
+			int count = Integer.parseInt(value);
+			if(count > 0) return count;
+		}
+		catch(NumberFormatException e)
+		{
+		}
+		throw new NumberFormatException("Invalid value for -" + option + ": " + value);
+	}
+
 	/** Main method. Very simple, does not perform sanity checks on input.
 	 * 
 	 * @param args
@@ -617,6 +1406,11 @@ public class Assistant
 			assistant.addScanPlugin(NodeDependencyPlugin.class);
 			assistant.addScanPlugin(MavenDependencyPlugin.class);
 			assistant.addScanPlugin(GemfileDependencyPlugin.class);
+			if(line.hasOption(ARCHIVES_OPTION))
+			{
+				assistant.addScanPlugin(ArchivePlugin.class);
+				assistant.addScanPlugin(PackagePlugin.class);
+			}
 			
 			if(line.hasOption(NO_DEPENDENCIES_OPTION))
 			{
@@ -628,6 +1422,49 @@ public class Assistant
 			}
 			assistant.setIncludeImages(!line.hasOption(NO_IMAGES_OPTION));
 			assistant.setIncludeArtifacts(!line.hasOption(NO_ARTIFACTS_OPTION));
+			assistant.setUseCache(!line.hasOption(NO_CACHE_OPTION));
+			assistant.setQuiet(line.hasOption(QUIET_OPTION));
+			assistant.setCompact(line.hasOption(COMPACT_OPTION));
+			assistant.setGzip(line.hasOption(GZIP_OPTION));
+			assistant.setSnapshot(line.hasOption(SNAPSHOT_OPTION));
+			if(line.hasOption(LIST_OPTION)) assistant.setListFile(new File(line.getOptionValue(LIST_OPTION)));
+			if(line.hasOption(EXCLUDE_OPTION)) assistant.addExcludes(Arrays.asList(line.getOptionValue(EXCLUDE_OPTION).split(",")));
+			if(line.hasOption(INCLUDE_OPTION)) assistant.addIncludes(Arrays.asList(line.getOptionValue(INCLUDE_OPTION).split(",")));
+			if(line.hasOption(IGNORE_FILE_OPTION))
+			{
+				File ignoreFile = new File(line.getOptionValue(IGNORE_FILE_OPTION));
+				if(!ignoreFile.isFile())
+				{
+					System.err.println("Cannot find " + ignoreFile);
+					return;
+				}
+				assistant.setIgnoreFile(ignoreFile);
+			}
+			assistant.setGitignore(line.hasOption(GITIGNORE_OPTION));
+			assistant.setGit(line.hasOption(GIT_OPTION));
+			
+			try
+			{
+				assistant.setThreads(getCount(line, THREADS_OPTION, assistant.threads));
+				if(line.hasOption(PIPELINE_OPTION))
+				{
+					assistant.setPipeline(getCount(line, IO_THREADS_OPTION, assistant.ioThreads),
+							getCount(line, CPU_THREADS_OPTION, assistant.cpuThreads),
+							getCount(line, INFLIGHT_OPTION, assistant.inFlightMb));
+				}
+				if(line.hasOption(WATCH_OPTION))
+				{
+					assistant.setWatch(getCount(line, WATCH_INTERVAL_OPTION, (int)(assistant.watchInterval / 1000)) * 1000L);
+				}
+				if(line.hasOption(NO_IMAGES_OPTION)) assistant.classifier.setAction(FileClass.IMAGE, FileClassifier.Action.SKIP);
+				if(line.hasOption(NO_ARTIFACTS_OPTION)) assistant.classifier.setAction(FileClass.ARTIFACT, FileClassifier.Action.SKIP);
+				if(line.hasOption(POLICY_OPTION)) assistant.classifier.setPolicy(line.getOptionValue(POLICY_OPTION));
+			}
+			catch(IllegalArgumentException e)
+			{
+				System.err.println(e.getMessage());
+				return;
+			}
 
 			// Determine operation type
 			boolean doScan = line.hasOption("scan");
@@ -659,7 +1496,14 @@ public class Assistant
 					return;
 				}
 
-				doScan(assistant, line.getOptionValue("scan"), outputDir, line.hasOption(VERBOSE_OUTPUT_OPTION));
+				try
+				{
+					doScan(assistant, line.getOptionValue("scan"), outputDir, line.hasOption(VERBOSE_OUTPUT_OPTION));
+				}
+				finally
+				{
+					assistant.closePlugins();
+				}
 				return;
 			}
 
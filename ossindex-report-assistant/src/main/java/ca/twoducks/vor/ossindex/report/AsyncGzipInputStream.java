@@ -0,0 +1,219 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/** Gzip decompressing input stream which inflates on a thread of its own, so
+ * that decompression overlaps with consuming the input. The decompressed bytes
+ * are queued in chunks for the reading thread; a bounded queue keeps the memory
+ * used small.
+ * 
+ * Errors reading or decompressing the input, or any other failure of the
+ * decompressing thread, are thrown once the bytes before them have been read.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class AsyncGzipInputStream extends InputStream
+{
+	/**
+	 * Marks the end of the input.
+	 */
+	private static final byte[] END = new byte[0];
+
+	private BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(AsyncGzipOutputStream.QUEUE_SIZE);
+	private byte[] chunk;
+	private int position;
+	private Thread thread;
+	private volatile Throwable error;
+	private volatile boolean closed;
+	private InputStream in;
+
+	/**
+	 * 
+	 * @param in Stream to read the compressed bytes from. It is closed along with
+	 *   this stream.
+	 */
+	public AsyncGzipInputStream(InputStream in)
+	{
+		this.in = in;
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				decompress();
+			}
+		}, "gzip-input");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() throws IOException
+	{
+		if(!nextChunk()) return -1;
+		return chunk[position++] & 0xff;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len == 0) return 0;
+		if(!nextChunk()) return -1;
+		int n = Math.min(len, chunk.length - position);
+		System.arraycopy(chunk, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() throws IOException
+	{
+		return chunk == null || chunk == END ? 0 : chunk.length - position;
+	}
+
+	/** Stop decompressing and close the underlying stream.
+	 * 
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed) return;
+		closed = true;
+		thread.interrupt();
+		boolean interrupted = false;
+		while(thread.isAlive())
+		{
+			try
+			{
+				thread.join();
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		in.close();
+	}
+
+	/** Make sure there are unread bytes in the current chunk, waiting for the
+	 * decompressing thread if required.
+	 * 
+	 * @return false at the end of the input
+	 * @throws IOException An error reading or decompressing the input
+	 */
+	private boolean nextChunk() throws IOException
+	{
+		if(closed) throw new IOException("Stream closed");
+		while(chunk == null || (chunk != END && position == chunk.length))
+		{
+			try
+			{
+				chunk = queue.take();
+				position = 0;
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading compressed input");
+			}
+		}
+		if(chunk == END)
+		{
+			Throwable t = error;
+			if(t instanceof IOException) throw (IOException)t;
+			if(t instanceof RuntimeException) throw (RuntimeException)t;
+			if(t instanceof Error) throw (Error)t;
+			if(t != null) throw new IOException(t);
+			return false;
+		}
+		return true;
+	}
+
+	/** Decompress the input into chunks until the end of the input, an error,
+	 * or the stream is closed. Unless the stream is closed, the input always
+	 * ends with END so that the reader is never left waiting.
+	 */
+	private void decompress()
+	{
+		try
+		{
+			GZIPInputStream gzip = new GZIPInputStream(in, AsyncGzipOutputStream.CHUNK_SIZE);
+			while(!closed)
+			{
+				byte[] buffer = new byte[AsyncGzipOutputStream.CHUNK_SIZE];
+				int count = 0;
+				int n = 0;
+				while(count < buffer.length && (n = gzip.read(buffer, count, buffer.length - count)) >= 0)
+				{
+					count += n;
+				}
+				if(count > 0) queue.put(count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+				if(n < 0) break;
+			}
+		}
+		catch(InterruptedException e)
+		{
+			// Closed while waiting for the reader
+			return;
+		}
+		catch(Throwable t)
+		{
+			error = t;
+		}
+		
+		try
+		{
+			queue.put(END);
+		}
+		catch(InterruptedException e)
+		{
+			// Closed while waiting for the reader
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/** Gzip compressing output stream which deflates on a thread of its own, so
+ * that compression overlaps with producing the output. Bytes are collected into
+ * chunks on the calling thread and queued for the compressing thread; a bounded
+ * queue keeps the memory used small.
+ * 
+ * Errors writing the underlying stream, or any other failure of the compressing
+ * thread, are thrown from a later write, or at the latest from close.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class AsyncGzipOutputStream extends OutputStream
+{
+	/**
+	 * Size of the chunks handed to the compressing thread.
+	 */
+	static final int CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * Number of chunks which may be waiting to be compressed.
+	 */
+	static final int QUEUE_SIZE = 4;
+
+	/**
+	 * Marks the end of the output.
+	 */
+	private static final byte[] END = new byte[0];
+
+	private BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+	private byte[] buffer = new byte[CHUNK_SIZE];
+	private int count;
+	private Thread thread;
+	private volatile Throwable error;
+	private boolean closed;
+
+	/**
+	 * 
+	 * @param out Stream to write the compressed bytes to. It is closed along with
+	 *   this stream.
+	 * @throws IOException
+	 */
+	public AsyncGzipOutputStream(OutputStream out) throws IOException
+	{
+		final GZIPOutputStream gzip = new GZIPOutputStream(out, CHUNK_SIZE);
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				compress(gzip);
+			}
+		}, "gzip-output");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException
+	{
+		if(count == buffer.length) queueBuffer();
+		buffer[count++] = (byte)b;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while(len > 0)
+		{
+			if(count == buffer.length) queueBuffer();
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/** Hand any buffered bytes to the compressing thread. The compressed stream
+	 * itself is not flushed, since that would hurt the compression.
+	 * 
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if(count > 0) queueBuffer();
+	}
+
+	/** Compress the remaining bytes and close the underlying stream, waiting
+	 * for the compressing thread to finish.
+	 * 
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed) return;
+		closed = true;
+		if(count > 0 && error == null) queueBuffer();
+		put(END);
+		
+		boolean interrupted = false;
+		while(thread.isAlive())
+		{
+			try
+			{
+				thread.join();
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		throwError();
+	}
+
+	/** Queue the buffered bytes for compression, and start a new buffer.
+	 * 
+	 * @throws IOException An error from compressing earlier bytes
+	 */
+	private void queueBuffer() throws IOException
+	{
+		throwError();
+		put(count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+		buffer = new byte[CHUNK_SIZE];
+		count = 0;
+	}
+
+	/** Throw the error from the compressing thread, if there was one.
+	 * 
+	 * @throws IOException
+	 */
+	private void throwError() throws IOException
+	{
+		Throwable t = error;
+		if(t instanceof IOException) throw (IOException)t;
+		if(t instanceof RuntimeException) throw (RuntimeException)t;
+		if(t instanceof Error) throw (Error)t;
+		if(t != null) throw new IOException(t);
+	}
+
+	/** Put a chunk on the queue, waiting for space if required.
+	 * 
+	 * @param chunk
+	 */
+	private void put(byte[] chunk)
+	{
+		boolean interrupted = false;
+		while(true)
+		{
+			try
+			{
+				queue.put(chunk);
+				break;
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Compress the queued chunks until the end of the output. After an error
+	 * the chunks are still taken, so that the writer is never blocked.
+	 * 
+	 * @param gzip
+	 */
+	private void compress(GZIPOutputStream gzip)
+	{
+		while(true)
+		{
+			byte[] chunk;
+			try
+			{
+				chunk = queue.take();
+			}
+			catch(InterruptedException e)
+			{
+				continue;
+			}
+			if(chunk == END) break;
+			if(error != null) continue;
+			try
+			{
+				gzip.write(chunk);
+			}
+			catch(Throwable t)
+			{
+				// Kept for the writer, whatever it is, so that it is never left
+				// waiting on a thread that has died
+				error = t;
+			}
+		}
+		
+		try
+		{
+			gzip.close();
+		}
+		catch(Throwable t)
+		{
+			if(error == null) error = t;
+		}
+	}
+}
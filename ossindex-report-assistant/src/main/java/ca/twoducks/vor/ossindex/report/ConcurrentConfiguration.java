@@ -0,0 +1,243 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Configuration which many scan threads may write to at once. Files are kept in
+ * a concurrent lookup table rather than a list, so adding a file never takes a
+ * global lock, and dependencies are added under the lock of their own file only.
+ * 
+ * Once the scan is complete the files are committed to a regular Configuration
+ * in traversal order, so the output does not depend on which thread finished
+ * first.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ConcurrentConfiguration implements IConfiguration
+{
+	/**
+	 * Lookup table of scanned files.
+	 */
+	private ConcurrentHashMap<File, FileConfig> fileLookup;
+	
+	/**
+	 * Entries found in each scanned archive.
+	 */
+	private ConcurrentHashMap<File, List<FileConfig>> archiveEntries = new ConcurrentHashMap<File, List<FileConfig>>();
+
+	/**
+	 * 
+	 * @param threads Number of threads expected to write to the configuration
+	 */
+	public ConcurrentConfiguration(int threads)
+	{
+		fileLookup = new ConcurrentHashMap<File, FileConfig>(1024, 0.75f, Math.max(1, threads));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addFile(java.io.File)
+	 */
+	@Override
+	public void addFile(File file) throws IOException
+	{
+		fileLookup.put(file, new FileConfig(file));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addFile(java.io.File, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void addFile(File file, FileContent content) throws IOException
+	{
+		fileLookup.put(file, new FileConfig(file, content));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#getDigest(java.io.File)
+	 */
+	@Override
+	public String getDigest(File file) throws IOException
+	{
+		FileConfig config = fileLookup.get(file);
+		if(config != null) return config.getDigest();
+		return FileDigester.digest(file);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addArchiveEntry(java.io.File, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addArchiveEntry(File archive, String entry, String digest)
+	{
+		List<FileConfig> entries = archiveEntries.get(archive);
+		if(entries == null)
+		{
+			entries = Collections.synchronizedList(new ArrayList<FileConfig>());
+			List<FileConfig> existing = archiveEntries.putIfAbsent(archive, entries);
+			if(existing != null) entries = existing;
+		}
+		entries.add(new FileConfig(archive, entry, digest));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.net.URL)
+	 */
+	@Override
+	public void addDependency(File file, String type, URL url)
+	{
+		try
+		{
+			addDependency(file, type, url.toURI(), null);
+		}
+		catch (URISyntaxException e)
+		{
+			System.err.println("Exception handling URL: " + url);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.net.URI, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, URI uri, String comment)
+	{
+		addDependency(file, type, null, uri, null, comment);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.net.URI, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, String artifactId, URI uri, String version, String comment)
+	{
+		getFileConfig(file).addDependency(type, artifactId, uri, version, comment);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, String pkgName, String version, String comment)
+	{
+		getFileConfig(file).addDependency(type, null, pkgName, version, comment);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addDependency(File file, String type, String groupId, String artifactId, String version, String comment)
+	{
+		getFileConfig(file).addDependency(type, groupId, artifactId, version, comment);
+	}
+
+	/** Add the scanned files to a configuration in the specified order. Files that
+	 * are not in the order list are added at the end, sorted by path. The entries
+	 * of an archive follow the archive itself.
+	 * 
+	 * @param config
+	 * @param order
+	 */
+	public void commit(Configuration config, List<File> order)
+	{
+		Map<File, FileConfig> remaining = new ConcurrentHashMap<File, FileConfig>(fileLookup);
+		for(File file: order)
+		{
+			FileConfig fconf = remaining.remove(file);
+			if(fconf != null) commit(config, file, fconf);
+		}
+		
+		List<File> leftovers = new ArrayList<File>(remaining.keySet());
+		Collections.sort(leftovers, new Comparator<File>()
+		{
+			@Override
+			public int compare(File f1, File f2)
+			{
+				return f1.getPath().compareTo(f2.getPath());
+			}
+		});
+		for(File file: leftovers)
+		{
+			commit(config, file, remaining.get(file));
+		}
+	}
+
+	/** Add a single file, and any archive entries found in it, to a configuration.
+	 * 
+	 * @param config
+	 * @param file
+	 * @param fconf
+	 */
+	private void commit(Configuration config, File file, FileConfig fconf)
+	{
+		config.addFileConfig(file, fconf);
+		List<FileConfig> entries = archiveEntries.get(file);
+		if(entries != null)
+		{
+			for(FileConfig entry: entries)
+			{
+				config.addFileConfig(entry);
+			}
+		}
+	}
+
+	/** Get the configuration for a scanned file.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	private FileConfig getFileConfig(File file)
+	{
+		FileConfig fconf = fileLookup.get(file);
+		if(fconf == null)
+		{
+			throw new IllegalArgumentException("File must be added to configuration before dependencies are added");
+		}
+		return fconf;
+	}
+}
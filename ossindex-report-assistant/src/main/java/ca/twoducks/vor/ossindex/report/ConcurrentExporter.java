@@ -0,0 +1,317 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.csv.CSVPrinter;
+
+import com.google.gson.stream.JsonWriter;
+
+/** Export a configuration to several outputs at once. The files are visited
+ * once, on the calling thread, and handed out in batches to a writer thread per
+ * output, so the export takes about as long as the slowest output rather than
+ * the sum of them all.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ConcurrentExporter
+{
+	/**
+	 * Number of files handed to the writers at a time.
+	 */
+	private static final int BATCH_SIZE = 1024;
+
+	/**
+	 * Number of batches each writer may fall behind by.
+	 */
+	private static final int QUEUE_SIZE = 16;
+
+	/**
+	 * Marks the end of the files.
+	 */
+	private static final List<FileConfig> END = Collections.emptyList();
+
+	private Configuration config;
+
+	private List<Output> outputs = new ArrayList<Output>();
+
+	/**
+	 * 
+	 * @param config Configuration to export
+	 */
+	public ConcurrentExporter(Configuration config)
+	{
+		this.config = config;
+	}
+
+	/** Export the configuration as JSON.
+	 * 
+	 * @param name Name of the output, for reporting
+	 * @param out
+	 * @param includeContext Include the file names and paths
+	 * @param exportDependencies Include the dependencies found in each file
+	 */
+	public void addJson(String name, final JsonWriter out, final boolean includeContext, boolean exportDependencies)
+	{
+		final boolean dependencies = includeContext || exportDependencies;
+		outputs.add(new Output(name) {
+			@Override
+			protected void begin() throws IOException
+			{
+				config.beginJson(out);
+			}
+
+			@Override
+			protected void write(FileConfig file) throws IOException
+			{
+				file.exportJson(out, includeContext, dependencies);
+			}
+
+			@Override
+			protected void end() throws IOException
+			{
+				config.endJson(out);
+				out.flush();
+			}
+		});
+	}
+
+	/** Export the configuration as CSV. The header should already have been
+	 * written.
+	 * 
+	 * @param name Name of the output, for reporting
+	 * @param csvOut
+	 * @param includeArtifacts
+	 * @param includeImages
+	 */
+	public void addCsv(String name, final CSVPrinter csvOut, boolean includeArtifacts, boolean includeImages)
+	{
+		final CsvExport export = new CsvExport(csvOut, includeArtifacts, includeImages);
+		outputs.add(new Output(name) {
+			@Override
+			protected void begin()
+			{
+			}
+
+			@Override
+			protected void write(FileConfig file)
+			{
+				export.add(file);
+			}
+
+			@Override
+			protected void end() throws IOException
+			{
+				export.finish(config.getProjectGroups());
+				csvOut.flush();
+			}
+		});
+	}
+
+	/** Write every output, returning once they are all complete.
+	 * 
+	 * @throws IOException The first error hit by any of the outputs
+	 */
+	public void export() throws IOException
+	{
+		List<Thread> threads = new ArrayList<Thread>();
+		for(Output output: outputs)
+		{
+			Thread thread = new Thread(output, "export-" + output.name);
+			thread.setDaemon(true);
+			thread.start();
+			threads.add(thread);
+		}
+		
+		try
+		{
+			List<FileConfig> batch = new ArrayList<FileConfig>(BATCH_SIZE);
+			for(FileConfig file: config.getFiles())
+			{
+				batch.add(file);
+				if(batch.size() == BATCH_SIZE)
+				{
+					for(Output output: outputs) output.put(batch);
+					batch = new ArrayList<FileConfig>(BATCH_SIZE);
+				}
+			}
+			if(!batch.isEmpty())
+			{
+				for(Output output: outputs) output.put(batch);
+			}
+		}
+		finally
+		{
+			for(Output output: outputs) output.put(END);
+			
+			boolean interrupted = false;
+			for(Thread thread: threads)
+			{
+				while(thread.isAlive())
+				{
+					try
+					{
+						thread.join();
+					}
+					catch(InterruptedException e)
+					{
+						interrupted = true;
+					}
+				}
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+		}
+		
+		for(Output output: outputs)
+		{
+			if(output.error instanceof IOException) throw (IOException)output.error;
+			if(output.error != null) throw (RuntimeException)output.error;
+		}
+	}
+
+	/** Get the time taken to write an output.
+	 * 
+	 * @param name
+	 * @return Elapsed time in nanoseconds, or 0 for an unknown output
+	 */
+	public long getNanos(String name)
+	{
+		for(Output output: outputs)
+		{
+			if(output.name.equals(name)) return output.nanos;
+		}
+		return 0;
+	}
+
+	/** An output, written on its own thread from batches of files.
+	 */
+	private abstract static class Output implements Runnable
+	{
+		private final String name;
+		private final BlockingQueue<List<FileConfig>> queue = new ArrayBlockingQueue<List<FileConfig>>(QUEUE_SIZE);
+		/**
+		 * First error hit by the output. Runtime exceptions are kept as well, so
+		 * that a failed output never leaves the visit waiting on its queue.
+		 */
+		private volatile Exception error;
+		private volatile long nanos;
+
+		public Output(String name)
+		{
+			this.name = name;
+		}
+
+		protected abstract void begin() throws IOException;
+		protected abstract void write(FileConfig file) throws IOException;
+		protected abstract void end() throws IOException;
+
+		/** Queue a batch of files, waiting for space if required.
+		 * 
+		 * @param batch
+		 */
+		public void put(List<FileConfig> batch)
+		{
+			boolean interrupted = false;
+			while(true)
+			{
+				try
+				{
+					queue.put(batch);
+					break;
+				}
+				catch(InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run()
+		{
+			long start = System.nanoTime();
+			try
+			{
+				begin();
+			}
+			catch(IOException | RuntimeException e)
+			{
+				error = e;
+			}
+			
+			while(true)
+			{
+				List<FileConfig> batch;
+				try
+				{
+					batch = queue.take();
+				}
+				catch(InterruptedException e)
+				{
+					continue;
+				}
+				if(batch == END) break;
+				
+				// After an error the batches are still taken, so the visit is never blocked
+				if(error != null) continue;
+				try
+				{
+					for(FileConfig file: batch) write(file);
+				}
+				catch(IOException | RuntimeException e)
+				{
+					error = e;
+				}
+			}
+			
+			if(error == null)
+			{
+				try
+				{
+					end();
+				}
+				catch(IOException | RuntimeException e)
+				{
+					error = e;
+				}
+			}
+			nanos = System.nanoTime() - start;
+		}
+	}
+}
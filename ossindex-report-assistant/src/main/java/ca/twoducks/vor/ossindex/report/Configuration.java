@@ -31,17 +31,25 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.apache.commons.csv.CSVPrinter;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /** Represent the configuration of an OSS Index report. This class can be exported
  * to and imported from a suitable JSON file. 
  * 
@@ -82,7 +90,21 @@ public class Configuration implements IConfiguration
 		touch();
 	}
 
-	/** Add the SHA1 sum of a file to the file list.
+	/** Create a configuration from its parts, as read from a snapshot.
+	 * 
+	 * @param timestamp May be null
+	 * @param files
+	 * @param projects May be null
+	 */
+	Configuration(Long timestamp, List<FileConfig> files, SortedMap<String, ProjectGroup> projects)
+	{
+		this.timestamp = timestamp;
+		this.files.addAll(files);
+		this.projects = projects;
+	}
+
+	/** Add the SHA1 sum of a file to the file list. The digest is calculated outside
+	 * of the lock so that files may be added from several scan threads at once.
 	 * 
 	 * @param file
 	 * @throws IOException 
@@ -90,8 +112,50 @@ public class Configuration implements IConfiguration
 	public void addFile(File file) throws IOException
 	{
 		FileConfig config = new FileConfig(file);
-		files.add(config);
-		fileLookup.put(file, config);
+		synchronized(this)
+		{
+			files.add(config);
+			fileLookup.put(file, config);
+		}
+	}
+	
+	/** Add the SHA1 sum of a file to the file list, taking the digest from the
+	 * shared file content.
+	 * 
+	 * @param file
+	 * @param content
+	 * @throws IOException
+	 */
+	public void addFile(File file, FileContent content) throws IOException
+	{
+		FileConfig config = new FileConfig(file, content);
+		synchronized(this)
+		{
+			files.add(config);
+			fileLookup.put(file, config);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#getDigest(java.io.File)
+	 */
+	@Override
+	public String getDigest(File file) throws IOException
+	{
+		FileConfig config = getFileConfig(file);
+		if(config != null) return config.getDigest();
+		return FileDigester.digest(file);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addArchiveEntry(java.io.File, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addArchiveEntry(File archive, String entry, String digest)
+	{
+		addFileConfig(new FileConfig(archive, entry, digest));
 	}
 	
 	/**
@@ -106,6 +170,83 @@ public class Configuration implements IConfiguration
 		return config;
 	}
 
+	/** The files in the configuration, in the order they were added.
+	 * 
+	 * @return
+	 */
+	public List<FileConfig> getFiles()
+	{
+		return Collections.unmodifiableList(files);
+	}
+
+	/** Add a file configuration that was built elsewhere, for example by a scan
+	 * pipeline stage.
+	 * 
+	 * @param file
+	 * @param config
+	 */
+	public synchronized void addFileConfig(File file, FileConfig config)
+	{
+		files.add(config);
+		fileLookup.put(file, config);
+	}
+
+	/** Add a file configuration which is not looked up by file, such as an
+	 * archive entry.
+	 * 
+	 * @param config
+	 */
+	public synchronized void addFileConfig(FileConfig config)
+	{
+		files.add(config);
+	}
+
+	/** Remove the configurations of the specified paths in a single pass over the
+	 * file list. Removing a path also removes its archive entries and, if it is
+	 * a directory, everything beneath it.
+	 *
+	 * @param paths
+	 * @return The number of file configurations removed
+	 */
+	public synchronized int remove(Collection<File> paths)
+	{
+		if(paths.isEmpty()) return 0;
+		Set<String> removed = new HashSet<String>();
+		for(File path: paths) removed.add(path.getPath());
+
+		int count = 0;
+		for(Iterator<FileConfig> it = files.iterator(); it.hasNext();)
+		{
+			FileConfig config = it.next();
+			String path = config.getPath();
+			if(path == null || !isRemoved(path, removed)) continue;
+			it.remove();
+			fileLookup.remove(new File(path));
+			count++;
+		}
+		return count;
+	}
+
+	/** Is the path, the archive holding it, or any of its parent directories in
+	 * the removed set?
+	 *
+	 * @param path
+	 * @param removed
+	 * @return
+	 */
+	private static boolean isRemoved(String path, Set<String> removed)
+	{
+		int archive = path.indexOf("!/");
+		if(archive >= 0) path = path.substring(0, archive);
+		while(true)
+		{
+			if(removed.contains(path)) return true;
+			int index = path.lastIndexOf(File.separatorChar);
+			if(index <= 0) return false;
+			path = path.substring(0, index);
+		}
+	}
+
 	/**
 	 * Update the configuration's timestamp.
 	 */
@@ -114,6 +255,152 @@ public class Configuration implements IConfiguration
 		timestamp = (new Date()).getTime();
 	}
 
+	/** When the configuration was made or last updated.
+	 * 
+	 * @return
+	 */
+	Long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/** The project groups keyed by name. May be null.
+	 * 
+	 * @return
+	 */
+	SortedMap<String, ProjectGroup> getProjects()
+	{
+		return projects;
+	}
+
+	/** Write the configuration as JSON one file and project at a time, in the
+	 * same form as Gson's reflective serialization. The public configuration
+	 * leaves out the file names and paths, and optionally the dependencies,
+	 * as PublicExclusionStrategy does.
+	 * 
+	 * @param out
+	 * @param includeContext Include the file names and paths
+	 * @param exportDependencies Include the dependencies found in each file
+	 * @throws IOException
+	 */
+	public synchronized void exportJson(JsonWriter out, boolean includeContext, boolean exportDependencies) throws IOException
+	{
+		beginJson(out);
+		for(FileConfig config: files)
+		{
+			config.exportJson(out, includeContext, includeContext || exportDependencies);
+		}
+		endJson(out);
+	}
+
+	/** Write the start of the JSON configuration, up to the first file.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	void beginJson(JsonWriter out) throws IOException
+	{
+		out.beginObject();
+		out.name("timestamp").value(timestamp);
+		out.name("files").beginArray();
+	}
+
+	/** Write the end of the JSON configuration, from after the last file.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	void endJson(JsonWriter out) throws IOException
+	{
+		out.endArray();
+		if(projects != null)
+		{
+			out.name("projects");
+			exportProjects(out, projects);
+		}
+		out.endObject();
+	}
+
+	/** Write project groups as a JSON object keyed by name.
+	 * 
+	 * @param out
+	 * @param projects
+	 * @throws IOException
+	 */
+	static void exportProjects(JsonWriter out, SortedMap<String, ProjectGroup> projects) throws IOException
+	{
+		out.beginObject();
+		for(Map.Entry<String, ProjectGroup> entry: projects.entrySet())
+		{
+			out.name(entry.getKey());
+			if(entry.getValue() != null) entry.getValue().exportJson(out);
+			else out.nullValue();
+		}
+		out.endObject();
+	}
+
+	/** The project groups, in name order.
+	 * 
+	 * @return
+	 */
+	Collection<ProjectGroup> getProjectGroups()
+	{
+		return projects.values();
+	}
+
+	/** Read a configuration written as JSON into this one, one file and project
+	 * at a time. Fields which are not recognised are skipped.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void importJson(JsonReader in) throws IOException
+	{
+		in.beginObject();
+		while(in.hasNext())
+		{
+			String name = in.nextName();
+			if("timestamp".equals(name) && in.peek() == JsonToken.NUMBER)
+			{
+				timestamp = in.nextLong();
+			}
+			else if("files".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY)
+			{
+				in.beginArray();
+				while(in.hasNext()) files.add(FileConfig.importJson(in));
+				in.endArray();
+			}
+			else if("projects".equals(name) && in.peek() == JsonToken.BEGIN_OBJECT)
+			{
+				projects = importProjects(in);
+			}
+			else
+			{
+				in.skipValue();
+			}
+		}
+		in.endObject();
+	}
+
+	/** Read the project groups of a configuration.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static SortedMap<String, ProjectGroup> importProjects(JsonReader in) throws IOException
+	{
+		SortedMap<String, ProjectGroup> projects = new TreeMap<String, ProjectGroup>();
+		in.beginObject();
+		while(in.hasNext())
+		{
+			String name = in.nextName();
+			projects.put(name, ProjectGroup.importJson(in));
+		}
+		in.endObject();
+		return projects;
+	}
+
 	/** Merge configuration information from the provided configuration here.
 	 * 
 	 * "This" configuration should be the private configuration, whereas the
@@ -129,7 +416,78 @@ public class Configuration implements IConfiguration
 		{
 			publicLookup.put(file.getDigest(), file);
 		}
+		merge(publicLookup, config.projects);
+	}
+
+	/** Merge the public configuration read from a JSON stream here, without
+	 * holding the whole public configuration in memory. Only the public files
+	 * whose digest appears in this configuration are kept while reading.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void merge(JsonReader in) throws IOException
+	{
+		Set<String> digests = new HashSet<String>();
+		for(FileConfig file: files) digests.add(file.getDigest());
 		
+		Map<String,FileConfig> publicLookup = new HashMap<String,FileConfig>();
+		SortedMap<String, ProjectGroup> publicProjects = null;
+		in.beginObject();
+		while(in.hasNext())
+		{
+			String name = in.nextName();
+			if("files".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY)
+			{
+				in.beginArray();
+				while(in.hasNext())
+				{
+					FileConfig file = FileConfig.importJson(in);
+					if(file != null && digests.contains(file.getDigest())) publicLookup.put(file.getDigest(), file);
+				}
+				in.endArray();
+			}
+			else if("projects".equals(name) && in.peek() == JsonToken.BEGIN_OBJECT)
+			{
+				publicProjects = importProjects(in);
+			}
+			else
+			{
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		merge(publicLookup, publicProjects);
+	}
+
+	/** Merge a public configuration held in a snapshot here. Only the public
+	 * files whose digest appears in this configuration are looked up, so the
+	 * rest of the snapshot is never read.
+	 * 
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	public void merge(ConfigurationSnapshot snapshot) throws IOException
+	{
+		Map<String,FileConfig> publicLookup = new HashMap<String,FileConfig>();
+		for(FileConfig file: files)
+		{
+			String digest = file.getDigest();
+			if(publicLookup.containsKey(digest)) continue;
+			List<FileConfig> matches = snapshot.findByDigest(digest);
+			// As for a JSON public configuration, the last file with a digest wins
+			if(!matches.isEmpty()) publicLookup.put(digest, matches.get(matches.size() - 1));
+		}
+		merge(publicLookup, snapshot.getProjects());
+	}
+
+	/** Merge the public files, looked up by digest, and projects here.
+	 * 
+	 * @param publicLookup
+	 * @param publicProjects
+	 */
+	private void merge(Map<String,FileConfig> publicLookup, SortedMap<String, ProjectGroup> publicProjects)
+	{
 		// Loop through private files, merging data from public when available
 		Map<String,FileConfig> privateLookup = new HashMap<String,FileConfig>();
 		for(FileConfig file: files)
@@ -149,16 +507,16 @@ public class Configuration implements IConfiguration
 
 		if(projects != null && !projects.isEmpty())
 		{
-			if(config.projects != null && !config.projects.isEmpty())
+			if(publicProjects != null && !publicProjects.isEmpty())
 			{
 				System.err.println("Projects merge not supported. Keeping private version.");
 			}
 		}
 		else
 		{
-			if(config.projects != null && !config.projects.isEmpty())
+			if(publicProjects != null && !publicProjects.isEmpty())
 			{
-				projects = config.projects;
+				projects = publicProjects;
 			}
 		}
 	}
@@ -172,63 +530,12 @@ public class Configuration implements IConfiguration
 	 */
 	public void exportCsv(CSVPrinter csvOut, boolean includeArtifacts, boolean includeImages) throws IOException
 	{
-		// Build a file lookup
-		Map<String,FileConfig> lookup = new HashMap<String,FileConfig>();
-		for(FileConfig file: files)
-		{
-			if(!includeArtifacts && file.isArtifact()) continue;
-			if(!includeImages && file.isImage()) continue;
-			String digest = file.getDigest();
-			if(!lookup.containsKey(digest))
-			{
-				lookup.put(file.getDigest(), file);
-			}
-			else
-			{
-				// This is not an issue, really. Duplicates can happen when the file
-				// is found in multiple locations. We *may* want to reduce duplicates to
-				// reduce the size of the file, but proximity may be useful in identifying
-				// files.
-				// System.err.println("Duplicate digest: " + digest);
-			}
-		}
-		
-		for(Map.Entry<String, ProjectGroup> entry: projects.entrySet())
-		{
-			ProjectGroup group = entry.getValue();
-			group.exportCsv(csvOut, lookup);
-		}
-		
-		
+		CsvExport export = new CsvExport(csvOut, includeArtifacts, includeImages);
 		for(FileConfig file: files)
 		{
-			if(file.isIgnored())
-			{
-				List<Object> row = new ArrayList<Object>();
-				String path = file.getPath();
-				if(path != null && !path.isEmpty())
-				{
-					row.add(path);
-				}
-				else
-				{
-					row.add(file.getName());
-				}
-
-				row.add("UNASSIGNED");
-				row.add(""); // project name
-				row.add(""); // project url
-				row.add(""); // project version
-				row.add(""); // project cpe
-				row.add("File below 200 byte minimum"); // project description
-				row.add(file.getDigest());
-				row.add(file.getComment());
-
-				csvOut.printRecord(row);
-
-
-			}
+			export.add(file);
 		}
+		export.finish(projects.values());
 	}
 
 	/** Add a dependency from the specified file to a particular URL. For example, the file
@@ -269,9 +576,9 @@ public class Configuration implements IConfiguration
 	@Override
 	public void addDependency(File file, String type, String artifactId, URI uri, String version, String comment)
 	{
-		if(fileLookup.containsKey(file))
+		FileConfig fconf = getFileConfig(file);
+		if(fconf != null)
 		{
-			FileConfig fconf = fileLookup.get(file);
 			fconf.addDependency(type, artifactId, uri, version, comment);
 		}
 		else
@@ -289,9 +596,9 @@ public class Configuration implements IConfiguration
 	 */
 	public void addDependency(File file, String type, String pkgName, String version, String comment)
 	{
-		if(fileLookup.containsKey(file))
+		FileConfig fconf = getFileConfig(file);
+		if(fconf != null)
 		{
-			FileConfig fconf = fileLookup.get(file);
 			fconf.addDependency(type, null, pkgName, version, comment);
 		}
 		else
@@ -311,9 +618,9 @@ public class Configuration implements IConfiguration
 	 */
 	public void addDependency(File file, String type, String groupId, String artifactId, String version, String comment)
 	{
-		if(fileLookup.containsKey(file))
+		FileConfig fconf = getFileConfig(file);
+		if(fconf != null)
 		{
-			FileConfig fconf = fileLookup.get(file);
 			fconf.addDependency(type, groupId, artifactId, version, comment);
 		}
 		else
@@ -322,6 +629,16 @@ public class Configuration implements IConfiguration
 		}
 	}
 
+	/** Get the file configuration for a scanned file.
+	 * 
+	 * @param file
+	 * @return The configuration, or null if the file has not been added
+	 */
+	private synchronized FileConfig getFileConfig(File file)
+	{
+		return fileLookup.get(file);
+	}
+
 	/** Add a new project group to the configuration
 	 * 
 	 * @param projectName
@@ -0,0 +1,241 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/** Hand written Gson type adapters for the configuration classes, which avoid
+ * reflection and exclusion strategy callbacks. The adapters write through the
+ * exportJson methods of each class and read through their importJson methods,
+ * producing and accepting exactly what reflective serialization does.
+ * 
+ * The public projection leaves out file names and paths, and optionally the
+ * dependencies, as PublicExclusionStrategy does. Reading is the same for both.
+ * 
+ *   Gson gson = new GsonBuilder().registerTypeAdapterFactory(ConfigurationAdapters.publicProjection(true)).create();
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ConfigurationAdapters implements TypeAdapterFactory
+{
+	private boolean includeContext;
+	private boolean exportDependencies;
+
+	/**
+	 * 
+	 * @param includeContext Write the file names and paths
+	 * @param exportDependencies Write the dependencies found in each file
+	 */
+	public ConfigurationAdapters(boolean includeContext, boolean exportDependencies)
+	{
+		this.includeContext = includeContext;
+		this.exportDependencies = includeContext || exportDependencies;
+	}
+
+	/** Adapters writing everything, as for the private configuration.
+	 * 
+	 * @return
+	 */
+	public static ConfigurationAdapters privateProjection()
+	{
+		return new ConfigurationAdapters(true, true);
+	}
+
+	/** Adapters writing only the publicly safe fields.
+	 * 
+	 * @param exportDependencies Write the dependencies found in each file
+	 * @return
+	 */
+	public static ConfigurationAdapters publicProjection(boolean exportDependencies)
+	{
+		return new ConfigurationAdapters(false, exportDependencies);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.google.gson.TypeAdapterFactory#create(com.google.gson.Gson, com.google.gson.reflect.TypeToken)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type)
+	{
+		Class<? super T> raw = type.getRawType();
+		TypeAdapter<?> adapter = null;
+		if(raw == Configuration.class)
+		{
+			adapter = new TypeAdapter<Configuration>() {
+				@Override
+				public void write(JsonWriter out, Configuration value) throws IOException
+				{
+					value.exportJson(out, includeContext, exportDependencies);
+				}
+
+				@Override
+				public Configuration read(JsonReader in) throws IOException
+				{
+					Configuration config = new Configuration();
+					config.importJson(in);
+					return config;
+				}
+			};
+		}
+		else if(raw == FileConfig.class)
+		{
+			adapter = new TypeAdapter<FileConfig>() {
+				@Override
+				public void write(JsonWriter out, FileConfig value) throws IOException
+				{
+					value.exportJson(out, includeContext, exportDependencies);
+				}
+
+				@Override
+				public FileConfig read(JsonReader in) throws IOException
+				{
+					return FileConfig.importJson(in);
+				}
+			};
+		}
+		else if(raw == DependencyConfig.class)
+		{
+			adapter = new TypeAdapter<DependencyConfig>() {
+				@Override
+				public void write(JsonWriter out, DependencyConfig value) throws IOException
+				{
+					value.exportJson(out);
+				}
+
+				@Override
+				public DependencyConfig read(JsonReader in) throws IOException
+				{
+					return DependencyConfig.importJson(in);
+				}
+			};
+		}
+		else if(raw == ProjectGroup.class)
+		{
+			adapter = new TypeAdapter<ProjectGroup>() {
+				@Override
+				public void write(JsonWriter out, ProjectGroup value) throws IOException
+				{
+					value.exportJson(out);
+				}
+
+				@Override
+				public ProjectGroup read(JsonReader in) throws IOException
+				{
+					return ProjectGroup.importJson(in);
+				}
+			};
+		}
+		else if(raw == ProjectConfig.class)
+		{
+			adapter = new TypeAdapter<ProjectConfig>() {
+				@Override
+				public void write(JsonWriter out, ProjectConfig value) throws IOException
+				{
+					value.exportJson(out);
+				}
+
+				@Override
+				public ProjectConfig read(JsonReader in) throws IOException
+				{
+					return ProjectConfig.importJson(in);
+				}
+			};
+		}
+		return adapter == null ? null : (TypeAdapter<T>)adapter.nullSafe();
+	}
+
+	/** Read a string value the way Gson does, accepting null, booleans and
+	 * numbers.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static String nextString(JsonReader in) throws IOException
+	{
+		JsonToken token = in.peek();
+		if(token == JsonToken.NULL)
+		{
+			in.nextNull();
+			return null;
+		}
+		if(token == JsonToken.BOOLEAN) return Boolean.toString(in.nextBoolean());
+		return in.nextString();
+	}
+
+	/** Read a boolean value the way Gson does, accepting strings.
+	 * 
+	 * @param in
+	 * @param defaultValue Value returned for null
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean nextBoolean(JsonReader in, boolean defaultValue) throws IOException
+	{
+		JsonToken token = in.peek();
+		if(token == JsonToken.NULL)
+		{
+			in.nextNull();
+			return defaultValue;
+		}
+		if(token == JsonToken.STRING) return Boolean.parseBoolean(in.nextString());
+		return in.nextBoolean();
+	}
+
+	/** Read an array of strings.
+	 * 
+	 * @param in
+	 * @return The strings, or null for a JSON null
+	 * @throws IOException
+	 */
+	static List<String> nextStrings(JsonReader in) throws IOException
+	{
+		if(in.peek() == JsonToken.NULL)
+		{
+			in.nextNull();
+			return null;
+		}
+		List<String> values = new ArrayList<String>();
+		in.beginArray();
+		while(in.hasNext()) values.add(nextString(in));
+		in.endArray();
+		return values;
+	}
+}
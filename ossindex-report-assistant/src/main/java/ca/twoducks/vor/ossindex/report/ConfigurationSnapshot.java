@@ -0,0 +1,677 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/** A private configuration held in a compact binary file which is memory mapped
+ * when read, so single files may be looked up by digest or path without reading
+ * the rest of the configuration.
+ * 
+ * The file is laid out as:
+ * 
+ *   o header: magic number, format version, flags, timestamp, and the count and
+ *     position of each of the sections below
+ *   o file records, of a fixed size and in configuration order. SHA1 digests are
+ *     stored as their 20 raw bytes; anything else is stored as a string. The
+ *     other fields refer to the string table.
+ *   o dependency records, of a fixed size, referred to from the file records
+ *   o digest index: raw digests with their file number, sorted by digest
+ *   o path index: file numbers sorted by path
+ *   o string table: the end offset of each distinct string, then the UTF-8
+ *     bytes of all of them. Strings are shared, so a license, state or
+ *     dependency repeated across thousands of files is stored once.
+ *   o the project groups, as JSON, since they are small and always read whole
+ * 
+ * Converting a configuration to a snapshot and back gives the same JSON.
+ * Numbers are big-endian.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ConfigurationSnapshot
+{
+	private static final int MAGIC = 0x564f5253; // "VORS"
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final int HEADER_SIZE = 72;
+	private static final int DIGEST_SIZE = 20;
+	private static final int FILE_RECORD_SIZE = 52;
+	private static final int DEPENDENCY_FIELDS = 7;
+	private static final int DEPENDENCY_RECORD_SIZE = 4 + 4 * DEPENDENCY_FIELDS;
+	private static final int DIGEST_ENTRY_SIZE = DIGEST_SIZE + 4;
+	
+	/**
+	 * Header flags
+	 */
+	private static final int HAS_TIMESTAMP = 1;
+	private static final int HAS_PROJECTS = 2;
+	
+	/**
+	 * File record flags
+	 */
+	private static final int PRESENT = 1;
+	private static final int IGNORED = 2;
+	private static final int RAW_DIGEST = 4;
+	private static final int HAS_DEPENDENCIES = 8;
+	
+	/**
+	 * String number used for null.
+	 */
+	private static final int NULL_STRING = -1;
+	
+	/**
+	 * The mapped file. Only absolute reads and duplicates are used, so a
+	 * snapshot may be read from several threads.
+	 */
+	private ByteBuffer buffer;
+	
+	private Long timestamp;
+	private boolean hasProjects;
+	private int fileCount;
+	private int filesPosition;
+	private int dependencyCount;
+	private int dependenciesPosition;
+	private int digestCount;
+	private int digestIndexPosition;
+	private int pathCount;
+	private int pathIndexPosition;
+	private int stringCount;
+	private int stringOffsetsPosition;
+	private int stringDataPosition;
+	private int projectsPosition;
+	private int projectsLength;
+
+	/** Map a snapshot file. Nothing beyond the header is read until it is needed.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException if the file is not a snapshot, or is truncated
+	 */
+	public static ConfigurationSnapshot open(File file) throws IOException
+	{
+		ConfigurationSnapshot snapshot = new ConfigurationSnapshot();
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot too large: " + file);
+			snapshot.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		snapshot.readHeader();
+		return snapshot;
+	}
+
+	/** When the configuration was made or last updated.
+	 * 
+	 * @return
+	 */
+	public Long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/** The number of files in the configuration.
+	 * 
+	 * @return
+	 */
+	public int getFileCount()
+	{
+		return fileCount;
+	}
+
+	/** Read a single file of the configuration.
+	 * 
+	 * @param index Position of the file in the configuration
+	 * @return
+	 */
+	public FileConfig getFile(int index)
+	{
+		if(index < 0 || index >= fileCount) throw new IndexOutOfBoundsException("File " + index + " of " + fileCount);
+		int record = filesPosition + index * FILE_RECORD_SIZE;
+		int flags = buffer.get(record);
+		if((flags & PRESENT) == 0) return null;
+		
+		String digest;
+		if((flags & RAW_DIGEST) != 0) digest = Hex.encodeHexString(getBytes(record + 4, DIGEST_SIZE));
+		else digest = getString(buffer.getInt(record + 4));
+		
+		int fields = record + 4 + DIGEST_SIZE;
+		Set<DependencyConfig> dependencies = null;
+		if((flags & HAS_DEPENDENCIES) != 0)
+		{
+			dependencies = new LinkedHashSet<DependencyConfig>();
+			int first = buffer.getInt(fields + 20);
+			int count = buffer.getInt(fields + 24);
+			for(int i = 0; i < count; i++) dependencies.add(getDependency(first + i));
+		}
+		return new FileConfig(getString(buffer.getInt(fields)),
+				digest,
+				getString(buffer.getInt(fields + 4)),
+				getString(buffer.getInt(fields + 8)),
+				getString(buffer.getInt(fields + 12)),
+				getString(buffer.getInt(fields + 16)),
+				(flags & IGNORED) != 0,
+				dependencies);
+	}
+
+	/** Find the files with a digest. SHA1 digests are found through the digest
+	 * index; any other digest by going through the files.
+	 * 
+	 * @param digest
+	 * @return The files, in configuration order. Empty if there are none.
+	 */
+	public List<FileConfig> findByDigest(String digest)
+	{
+		List<FileConfig> results = new ArrayList<FileConfig>();
+		byte[] raw = toRawDigest(digest);
+		if(raw != null)
+		{
+			// Find the first entry not less than the digest
+			int low = 0;
+			int high = digestCount;
+			while(low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if(compareDigest(digestIndexPosition + mid * DIGEST_ENTRY_SIZE, raw) < 0) low = mid + 1;
+				else high = mid;
+			}
+			for(int i = low; i < digestCount; i++)
+			{
+				int entry = digestIndexPosition + i * DIGEST_ENTRY_SIZE;
+				if(compareDigest(entry, raw) != 0) break;
+				results.add(getFile(buffer.getInt(entry + DIGEST_SIZE)));
+			}
+		}
+		else
+		{
+			for(int i = 0; i < fileCount; i++)
+			{
+				int record = filesPosition + i * FILE_RECORD_SIZE;
+				int flags = buffer.get(record);
+				if((flags & PRESENT) != 0 && (flags & RAW_DIGEST) == 0)
+				{
+					String value = getString(buffer.getInt(record + 4));
+					if(digest == null ? value == null : digest.equals(value)) results.add(getFile(i));
+				}
+			}
+		}
+		return results;
+	}
+
+	/** Find the file with a path through the path index.
+	 * 
+	 * @param path
+	 * @return The first file with the path, or null if there is none
+	 */
+	public FileConfig findByPath(String path)
+	{
+		int low = 0;
+		int high = pathCount;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(getPath(buffer.getInt(pathIndexPosition + mid * 4)).compareTo(path) < 0) low = mid + 1;
+			else high = mid;
+		}
+		if(low < pathCount)
+		{
+			int index = buffer.getInt(pathIndexPosition + low * 4);
+			if(getPath(index).equals(path)) return getFile(index);
+		}
+		return null;
+	}
+
+	/** Read the project groups.
+	 * 
+	 * @return The groups keyed by name, or null if the configuration had none
+	 * @throws IOException
+	 */
+	public SortedMap<String, ProjectGroup> getProjects() throws IOException
+	{
+		if(!hasProjects) return null;
+		String json = new String(getBytes(projectsPosition, projectsLength), UTF8);
+		try(JsonReader in = new JsonReader(new StringReader(json)))
+		{
+			return Configuration.importProjects(in);
+		}
+	}
+
+	/** Read the whole configuration.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public Configuration toConfiguration() throws IOException
+	{
+		List<FileConfig> files = new ArrayList<FileConfig>(fileCount);
+		for(int i = 0; i < fileCount; i++) files.add(getFile(i));
+		return new Configuration(timestamp, files, getProjects());
+	}
+
+	/** Write a configuration as a snapshot. The snapshot is written to a
+	 * temporary file which is then moved over the old one.
+	 * 
+	 * @param config
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(Configuration config, File file) throws IOException
+	{
+		// Copied, as the configuration's own list is linked
+		List<FileConfig> files = new ArrayList<FileConfig>(config.getFiles());
+		int count = files.size();
+		StringTable strings = new StringTable();
+		
+		// File and dependency records
+		ByteBuffer records = ByteBuffer.allocate(count * FILE_RECORD_SIZE);
+		List<Integer> dependencies = new ArrayList<Integer>();
+		final byte[][] digests = new byte[count][];
+		final String[] paths = new String[count];
+		int digestCount = 0;
+		int pathCount = 0;
+		for(int i = 0; i < count; i++)
+		{
+			FileConfig fileConfig = files.get(i);
+			int record = i * FILE_RECORD_SIZE;
+			if(fileConfig == null) continue;
+			
+			int flags = PRESENT;
+			if(fileConfig.isIgnored()) flags |= IGNORED;
+			digests[i] = toRawDigest(fileConfig.getDigest());
+			if(digests[i] != null)
+			{
+				flags |= RAW_DIGEST;
+				digestCount++;
+				records.position(record + 4);
+				records.put(digests[i]);
+			}
+			else
+			{
+				records.putInt(record + 4, strings.add(fileConfig.getDigest()));
+			}
+			
+			int fields = record + 4 + DIGEST_SIZE;
+			paths[i] = fileConfig.getPath();
+			if(paths[i] != null) pathCount++;
+			records.putInt(fields, strings.add(fileConfig.getName()));
+			records.putInt(fields + 4, strings.add(paths[i]));
+			records.putInt(fields + 8, strings.add(fileConfig.getLicense()));
+			records.putInt(fields + 12, strings.add(fileConfig.getComment()));
+			records.putInt(fields + 16, strings.add(fileConfig.getState()));
+			
+			Set<DependencyConfig> deps = fileConfig.getDependencies();
+			if(deps != null)
+			{
+				flags |= HAS_DEPENDENCIES;
+				records.putInt(fields + 20, dependencies.size() / (DEPENDENCY_FIELDS + 1));
+				records.putInt(fields + 24, deps.size());
+				for(DependencyConfig dep: deps)
+				{
+					dependencies.add(dep != null ? 1 : 0);
+					String[] values = dep != null ? dep.getFields() : new String[DEPENDENCY_FIELDS];
+					for(String value: values) dependencies.add(strings.add(value));
+				}
+			}
+			records.put(record, (byte)flags);
+		}
+		
+		// Indexes
+		Integer[] digestIndex = new Integer[digestCount];
+		Integer[] pathIndex = new Integer[pathCount];
+		for(int i = 0, d = 0, p = 0; i < count; i++)
+		{
+			if(digests[i] != null) digestIndex[d++] = i;
+			if(paths[i] != null) pathIndex[p++] = i;
+		}
+		Arrays.sort(digestIndex, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				byte[] da = digests[a];
+				byte[] db = digests[b];
+				for(int i = 0; i < DIGEST_SIZE; i++)
+				{
+					if(da[i] != db[i]) return (da[i] & 0xff) - (db[i] & 0xff);
+				}
+				return a.compareTo(b);
+			}
+		});
+		Arrays.sort(pathIndex, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				int result = paths[a].compareTo(paths[b]);
+				return result != 0 ? result : a.compareTo(b);
+			}
+		});
+		
+		byte[] projects = null;
+		SortedMap<String, ProjectGroup> groups = config.getProjects();
+		if(groups != null)
+		{
+			StringWriter json = new StringWriter();
+			JsonWriter out = new JsonWriter(json);
+			// Nulls are kept, so that a null project group is not dropped
+			out.setSerializeNulls(true);
+			Configuration.exportProjects(out, groups);
+			out.flush();
+			projects = json.toString().getBytes(UTF8);
+		}
+		
+		// Lay out the sections
+		int dependencyCount = dependencies.size() / (DEPENDENCY_FIELDS + 1);
+		long filesPosition = HEADER_SIZE;
+		long dependenciesPosition = filesPosition + (long)count * FILE_RECORD_SIZE;
+		long digestIndexPosition = dependenciesPosition + (long)dependencyCount * DEPENDENCY_RECORD_SIZE;
+		long pathIndexPosition = digestIndexPosition + (long)digestCount * DIGEST_ENTRY_SIZE;
+		long stringOffsetsPosition = pathIndexPosition + (long)pathCount * 4;
+		long stringDataPosition = stringOffsetsPosition + (long)strings.size() * 4;
+		long projectsPosition = stringDataPosition + strings.getLength();
+		long end = projectsPosition + (projects != null ? projects.length : 0);
+		if(end > Integer.MAX_VALUE) throw new IOException("Configuration too large for a snapshot");
+		
+		int flags = 0;
+		if(config.getTimestamp() != null) flags |= HAS_TIMESTAMP;
+		if(projects != null) flags |= HAS_PROJECTS;
+		
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(flags);
+			out.writeLong(config.getTimestamp() != null ? config.getTimestamp() : 0);
+			out.writeInt(count);
+			out.writeInt((int)filesPosition);
+			out.writeInt(dependencyCount);
+			out.writeInt((int)dependenciesPosition);
+			out.writeInt(digestCount);
+			out.writeInt((int)digestIndexPosition);
+			out.writeInt(pathCount);
+			out.writeInt((int)pathIndexPosition);
+			out.writeInt(strings.size());
+			out.writeInt((int)stringOffsetsPosition);
+			out.writeInt((int)stringDataPosition);
+			out.writeInt((int)projectsPosition);
+			out.writeInt(projects != null ? projects.length : 0);
+			
+			out.write(records.array());
+			for(int value: dependencies) out.writeInt(value);
+			for(int index: digestIndex)
+			{
+				out.write(digests[index]);
+				out.writeInt(index);
+			}
+			for(int index: pathIndex) out.writeInt(index);
+			strings.write(out);
+			if(projects != null) out.write(projects);
+			out.flush();
+			
+			// On disk before the rename, so a crash cannot leave an empty snapshot in its place
+			fos.getChannel().force(true);
+		}
+		
+		try
+		{
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Read the header, checking that every section lies within the file.
+	 * 
+	 * @throws IOException
+	 */
+	private void readHeader() throws IOException
+	{
+		int size = buffer.capacity();
+		if(size < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("Not a configuration snapshot");
+		if(buffer.getInt(4) != VERSION) throw new IOException("Unsupported configuration snapshot version");
+		int flags = buffer.getInt(8);
+		if((flags & HAS_TIMESTAMP) != 0) timestamp = buffer.getLong(12);
+		hasProjects = (flags & HAS_PROJECTS) != 0;
+		
+		fileCount = buffer.getInt(20);
+		filesPosition = buffer.getInt(24);
+		dependencyCount = buffer.getInt(28);
+		dependenciesPosition = buffer.getInt(32);
+		digestCount = buffer.getInt(36);
+		digestIndexPosition = buffer.getInt(40);
+		pathCount = buffer.getInt(44);
+		pathIndexPosition = buffer.getInt(48);
+		stringCount = buffer.getInt(52);
+		stringOffsetsPosition = buffer.getInt(56);
+		stringDataPosition = buffer.getInt(60);
+		projectsPosition = buffer.getInt(64);
+		projectsLength = buffer.getInt(68);
+		
+		checkSection(filesPosition, fileCount, FILE_RECORD_SIZE, size);
+		checkSection(dependenciesPosition, dependencyCount, DEPENDENCY_RECORD_SIZE, size);
+		checkSection(digestIndexPosition, digestCount, DIGEST_ENTRY_SIZE, size);
+		checkSection(pathIndexPosition, pathCount, 4, size);
+		checkSection(stringOffsetsPosition, stringCount, 4, size);
+		checkSection(stringDataPosition, stringCount > 0 ? buffer.getInt(stringOffsetsPosition + (stringCount - 1) * 4) : 0, 1, size);
+		checkSection(projectsPosition, projectsLength, 1, size);
+	}
+
+	/** Check that a section lies within the file.
+	 * 
+	 * @param position
+	 * @param count
+	 * @param entrySize
+	 * @param size
+	 * @throws IOException
+	 */
+	private static void checkSection(int position, int count, int entrySize, int size) throws IOException
+	{
+		if(position < 0 || count < 0 || position + (long)count * entrySize > size)
+		{
+			throw new IOException("Truncated configuration snapshot");
+		}
+	}
+
+	/** Read a dependency record.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private DependencyConfig getDependency(int index)
+	{
+		int record = dependenciesPosition + index * DEPENDENCY_RECORD_SIZE;
+		if(buffer.getInt(record) == 0) return null;
+		String[] fields = new String[DEPENDENCY_FIELDS];
+		for(int i = 0; i < DEPENDENCY_FIELDS; i++) fields[i] = getString(buffer.getInt(record + 4 + i * 4));
+		return DependencyConfig.fromFields(fields);
+	}
+
+	/** Read the path of a file, without reading the rest of the file.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private String getPath(int index)
+	{
+		return getString(buffer.getInt(filesPosition + index * FILE_RECORD_SIZE + 4 + DIGEST_SIZE + 4));
+	}
+
+	/** Read a string from the string table.
+	 * 
+	 * @param id
+	 * @return The string, or null for NULL_STRING
+	 */
+	private String getString(int id)
+	{
+		if(id == NULL_STRING) return null;
+		int start = id == 0 ? 0 : buffer.getInt(stringOffsetsPosition + (id - 1) * 4);
+		int end = buffer.getInt(stringOffsetsPosition + id * 4);
+		return new String(getBytes(stringDataPosition + start, end - start), UTF8);
+	}
+
+	/** Copy bytes out of the mapped file.
+	 * 
+	 * @param position
+	 * @param length
+	 * @return
+	 */
+	private byte[] getBytes(int position, int length)
+	{
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.get(bytes);
+		return bytes;
+	}
+
+	/** Compare a digest in the mapped file with a raw digest.
+	 * 
+	 * @param position
+	 * @param digest
+	 * @return
+	 */
+	private int compareDigest(int position, byte[] digest)
+	{
+		for(int i = 0; i < DIGEST_SIZE; i++)
+		{
+			int a = buffer.get(position + i) & 0xff;
+			int b = digest[i] & 0xff;
+			if(a != b) return a - b;
+		}
+		return 0;
+	}
+
+	/** Convert a digest to its raw bytes, if it is a SHA1 digest as written by
+	 * FileDigester. Anything else is kept as a string, so that it round trips
+	 * exactly.
+	 * 
+	 * @param digest
+	 * @return The raw digest, or null
+	 */
+	private static byte[] toRawDigest(String digest)
+	{
+		if(digest == null || digest.length() != DIGEST_SIZE * 2) return null;
+		byte[] raw = new byte[DIGEST_SIZE];
+		for(int i = 0; i < digest.length(); i++)
+		{
+			// Only lower case, as upper case would not survive the conversion back
+			char c = digest.charAt(i);
+			int value;
+			if(c >= '0' && c <= '9') value = c - '0';
+			else if(c >= 'a' && c <= 'f') value = c - 'a' + 10;
+			else return null;
+			raw[i / 2] |= value << (i % 2 == 0 ? 4 : 0);
+		}
+		return raw;
+	}
+
+	/** Distinct strings, numbered in the order they are first added.
+	 */
+	private static class StringTable
+	{
+		private Map<String, Integer> ids = new HashMap<String, Integer>();
+		private List<byte[]> data = new ArrayList<byte[]>();
+		private long length;
+
+		/** Add a string if it is not already in the table.
+		 * 
+		 * @param value
+		 * @return The number of the string, or NULL_STRING for null
+		 */
+		public int add(String value)
+		{
+			if(value == null) return NULL_STRING;
+			Integer id = ids.get(value);
+			if(id == null)
+			{
+				id = data.size();
+				byte[] bytes = value.getBytes(UTF8);
+				ids.put(value, id);
+				data.add(bytes);
+				length += bytes.length;
+			}
+			return id;
+		}
+
+		public int size()
+		{
+			return data.size();
+		}
+
+		public long getLength()
+		{
+			return length;
+		}
+
+		/** Write the end offset of each string, then the strings.
+		 * 
+		 * @param out
+		 * @throws IOException
+		 */
+		public void write(DataOutputStream out) throws IOException
+		{
+			int end = 0;
+			for(byte[] bytes: data)
+			{
+				end += bytes.length;
+				out.writeInt(end);
+			}
+			for(byte[] bytes: data) out.write(bytes);
+		}
+	}
+}
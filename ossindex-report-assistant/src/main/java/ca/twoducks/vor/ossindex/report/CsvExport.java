@@ -0,0 +1,158 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.csv.CSVPrinter;
+
+/** Writes the CSV rows of a configuration. Files are added one at a time, so
+ * that the rows may be built while the files are visited for another purpose;
+ * nothing is written until the export is finished, since the project rows need
+ * to look up every file by digest.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class CsvExport
+{
+	private CSVPrinter csvOut;
+	private boolean includeArtifacts;
+	private boolean includeImages;
+
+	/**
+	 * The first file found with each digest.
+	 */
+	private Map<String,FileConfig> lookup = new HashMap<String,FileConfig>();
+
+	/**
+	 * Files ignored for analysis, which get a row of their own.
+	 */
+	private List<FileConfig> ignored = new ArrayList<FileConfig>();
+
+	/**
+	 * 
+	 * @param csvOut
+	 * @param includeArtifacts Include artifacts in the project rows
+	 * @param includeImages Include images in the project rows
+	 */
+	public CsvExport(CSVPrinter csvOut, boolean includeArtifacts, boolean includeImages)
+	{
+		this.csvOut = csvOut;
+		this.includeArtifacts = includeArtifacts;
+		this.includeImages = includeImages;
+	}
+
+	/** Add a file to the export.
+	 * 
+	 * @param file
+	 */
+	public void add(FileConfig file)
+	{
+		if(file.isIgnored()) ignored.add(file);
+		
+		if(!includeArtifacts && file.isArtifact()) return;
+		if(!includeImages && file.isImage()) return;
+		String digest = file.getDigest();
+		if(!lookup.containsKey(digest))
+		{
+			lookup.put(file.getDigest(), file);
+		}
+		else
+		{
+			// This is not an issue, really. Duplicates can happen when the file
+			// is found in multiple locations. We *may* want to reduce duplicates to
+			// reduce the size of the file, but proximity may be useful in identifying
+			// files.
+			// System.err.println("Duplicate digest: " + digest);
+		}
+	}
+
+	/** Write the rows for the projects, followed by the rows for the ignored
+	 * files.
+	 * 
+	 * @param projects
+	 * @throws IOException
+	 */
+	public void finish(Collection<ProjectGroup> projects) throws IOException
+	{
+		for(ProjectGroup group: projects)
+		{
+			group.exportCsv(csvOut, lookup);
+		}
+		
+		for(FileConfig file: ignored)
+		{
+			List<Object> row = new ArrayList<Object>();
+			String path = file.getPath();
+			if(path != null && !path.isEmpty())
+			{
+				row.add(path);
+			}
+			else
+			{
+				row.add(file.getName());
+			}
+
+			row.add("UNASSIGNED");
+			row.add(""); // project name
+			row.add(""); // project url
+			row.add(""); // project version
+			row.add(""); // project cpe
+			row.add(getIgnoredDescription(file)); // project description
+			row.add(file.getDigest());
+			row.add(file.getComment());
+
+			csvOut.printRecord(row);
+		}
+	}
+
+	/** Describe why a file was ignored. Files read from a previous configuration
+	 * are only classified by name, so the reason may not be known.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	private static String getIgnoredDescription(FileConfig file)
+	{
+		FileClass cls = file.getFileClass();
+		if(cls == null) return "Ignored for identification";
+		switch(cls)
+		{
+		case TINY: return "File below " + FileClassifier.MIN_SIZE + " byte minimum";
+		case IMAGE: return "Image, ignored by scan policy";
+		case ARTIFACT: return "Build artifact, ignored by scan policy";
+		case BINARY: return "Binary file, ignored by scan policy";
+		default: return "Text file, ignored by scan policy";
+		}
+	}
+}
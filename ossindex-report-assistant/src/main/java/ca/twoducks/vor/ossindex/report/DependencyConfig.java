@@ -26,9 +26,14 @@
  */
 package ca.twoducks.vor.ossindex.report;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /** Contains information about a file dependency.
  * 
  * The dependency information needs to be packaging system agnostic, but able to handle
@@ -96,6 +101,31 @@ public class DependencyConfig
 	 */
 	private String comment;
 
+	/**
+	 * Used when reading a configuration.
+	 */
+	private DependencyConfig()
+	{
+	}
+
+	/** Create a dependency from the fields returned by getFields.
+	 * 
+	 * @param fields
+	 * @return
+	 */
+	static DependencyConfig fromFields(String[] fields)
+	{
+		DependencyConfig config = new DependencyConfig();
+		config.type = fields[0];
+		config.ref = fields[1];
+		config.groupId = fields[2];
+		config.packageName = fields[3];
+		config.artifactId = fields[4];
+		config.version = fields[5];
+		config.comment = fields[6];
+		return config;
+	}
+
 	/** Construct a dependency to an external HTTP accessible file.
 	 * 
 	 * @param type 
@@ -137,6 +167,15 @@ public class DependencyConfig
 		return new URI(ref);
 	}
 
+	/** The fields of the dependency, in the order they are exported.
+	 * 
+	 * @return
+	 */
+	String[] getFields()
+	{
+		return new String[] {type, ref, groupId, packageName, artifactId, version, comment};
+	}
+
 	/** Add a comment for the dependency
 	 * 
 	 * @param comment
@@ -145,4 +184,53 @@ public class DependencyConfig
 	{
 		this.comment = comment;
 	}
+
+	/** Read a dependency written by exportJson, or by Gson.
+	 * 
+	 * @param in
+	 * @return The dependency, or null for a JSON null
+	 * @throws IOException
+	 */
+	public static DependencyConfig importJson(JsonReader in) throws IOException
+	{
+		if(in.peek() == JsonToken.NULL)
+		{
+			in.nextNull();
+			return null;
+		}
+		DependencyConfig config = new DependencyConfig();
+		in.beginObject();
+		while(in.hasNext())
+		{
+			String field = in.nextName();
+			if("type".equals(field)) config.type = ConfigurationAdapters.nextString(in);
+			else if("ref".equals(field)) config.ref = ConfigurationAdapters.nextString(in);
+			else if("groupId".equals(field)) config.groupId = ConfigurationAdapters.nextString(in);
+			else if("packageName".equals(field)) config.packageName = ConfigurationAdapters.nextString(in);
+			else if("artifactId".equals(field)) config.artifactId = ConfigurationAdapters.nextString(in);
+			else if("version".equals(field)) config.version = ConfigurationAdapters.nextString(in);
+			else if("comment".equals(field)) config.comment = ConfigurationAdapters.nextString(in);
+			else in.skipValue();
+		}
+		in.endObject();
+		return config;
+	}
+
+	/** Write the dependency as a JSON object.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void exportJson(JsonWriter out) throws IOException
+	{
+		out.beginObject();
+		out.name("type").value(type);
+		out.name("ref").value(ref);
+		out.name("groupId").value(groupId);
+		out.name("packageName").value(packageName);
+		out.name("artifactId").value(artifactId);
+		out.name("version").value(version);
+		out.name("comment").value(comment);
+		out.endObject();
+	}
 }
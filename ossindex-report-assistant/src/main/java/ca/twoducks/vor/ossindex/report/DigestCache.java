@@ -0,0 +1,365 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/** Persistent cache of file digests, allowing a rescan to skip reading files that
+ * have not changed since the last scan. Entries are keyed by path and are only used
+ * if the size, modification time and file key (device/inode where supported) of the
+ * file still match.
+ * 
+ * The cache file is a small binary format:
+ * 
+ *   o magic number and format version
+ *   o entry count
+ *   o entries sorted by path. Each path is stored as the length of the prefix it
+ *     shares with the previous path followed by the remaining characters, which
+ *     keeps the deep, repetitive paths of a source tree compact.
+ *   o CRC32 of everything above
+ * 
+ * The file is written to a temporary file which is then moved over the old cache,
+ * so a crash while saving leaves the previous cache intact. A cache which fails
+ * the CRC check is discarded.
+ * 
+ * Entries for paths which were not looked up during a scan are evicted when the
+ * cache is saved, so deleted files do not accumulate.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class DigestCache
+{
+	private static final int MAGIC = 0x564f5243; // "VORC"
+	private static final int VERSION = 1;
+	
+	/**
+	 * Files modified this recently (in milliseconds) are not cached, since a
+	 * further change within the timestamp granularity of the file system
+	 * would not be noticed.
+	 */
+	private static final long RACY_MILLIS = 2000;
+	
+	/**
+	 * The cache file
+	 */
+	private File file;
+	
+	/**
+	 * Cache entries keyed by path.
+	 */
+	private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	/** Create an empty cache which will be saved to the specified file.
+	 * 
+	 * @param file
+	 */
+	public DigestCache(File file)
+	{
+		this.file = file;
+	}
+
+	/** Load the cache from the specified file. If the file does not exist, or cannot
+	 * be read, an empty cache is returned.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static DigestCache load(File file)
+	{
+		DigestCache cache = new DigestCache(file);
+		if(file.exists())
+		{
+			try
+			{
+				cache.read();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Discarding digest cache " + file + ": " + e.getMessage());
+				cache.entries.clear();
+			}
+		}
+		return cache;
+	}
+
+	/** Get the cached digest for a file, or null if the file is not cached or has
+	 * changed since it was cached.
+	 * 
+	 * @param file
+	 * @param attrs
+	 * @return
+	 */
+	public String get(File file, BasicFileAttributes attrs)
+	{
+		Entry entry = entries.get(file.getPath());
+		if(entry != null)
+		{
+			entry.seen = true;
+			if(entry.matches(attrs))
+			{
+				hits.incrementAndGet();
+				return Hex.encodeHexString(entry.digest);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/** Record the digest of a file.
+	 * 
+	 * @param file
+	 * @param attrs
+	 * @param digest SHA1 digest in hex
+	 */
+	public void put(File file, BasicFileAttributes attrs, String digest)
+	{
+		String path = file.getPath();
+		long mtime = attrs.lastModifiedTime().toMillis();
+		if(mtime >= System.currentTimeMillis() - RACY_MILLIS)
+		{
+			entries.remove(path);
+			return;
+		}
+		try
+		{
+			Entry entry = new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), getFileKey(attrs), Hex.decodeHex(digest.toCharArray()));
+			entry.seen = true;
+			entries.put(path, entry);
+		}
+		catch(DecoderException e)
+		{
+			throw new IllegalArgumentException("Invalid digest: " + digest);
+		}
+	}
+
+	/** Number of lookups that found a valid digest.
+	 * 
+	 * @return
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/** Number of lookups that required the file to be read.
+	 * 
+	 * @return
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/** Save the cache, evicting any entries that were not looked up since it
+	 * was loaded.
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		List<String> paths = new ArrayList<String>();
+		for(Map.Entry<String, Entry> entry: entries.entrySet())
+		{
+			if(entry.getValue().seen) paths.add(entry.getKey());
+		}
+		Collections.sort(paths);
+		
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos, 64 * 1024), new CRC32());
+		DataOutputStream out = new DataOutputStream(cos);
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(paths.size());
+			String previous = "";
+			for(String path: paths)
+			{
+				Entry entry = entries.get(path);
+				int shared = getSharedPrefix(previous, path);
+				out.writeShort(shared);
+				out.writeUTF(path.substring(shared));
+				out.writeLong(entry.size);
+				out.writeLong(entry.mtime);
+				out.writeUTF(entry.fileKey);
+				out.write(entry.digest);
+				previous = path;
+			}
+			out.flush();
+			long crc = cos.getChecksum().getValue();
+			out.writeLong(crc);
+			out.flush();
+			
+			// On disk before the rename, so a crash cannot leave an empty cache in its place
+			fos.getChannel().force(true);
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		try
+		{
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Read the cache file.
+	 * 
+	 * @throws IOException
+	 */
+	private void read() throws IOException
+	{
+		CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024), new CRC32());
+		DataInputStream in = new DataInputStream(cis);
+		try
+		{
+			if(in.readInt() != MAGIC) throw new IOException("Not a digest cache");
+			if(in.readInt() != VERSION) throw new IOException("Unsupported digest cache version");
+			int count = in.readInt();
+			String previous = "";
+			for(int i = 0; i < count; i++)
+			{
+				int shared = in.readUnsignedShort();
+				if(shared > previous.length()) throw new IOException("Corrupt digest cache");
+				String path = previous.substring(0, shared) + in.readUTF();
+				long size = in.readLong();
+				long mtime = in.readLong();
+				String fileKey = in.readUTF();
+				byte[] digest = new byte[20];
+				in.readFully(digest);
+				entries.put(path, new Entry(size, mtime, fileKey, digest));
+				previous = path;
+			}
+			long crc = cis.getChecksum().getValue();
+			if(in.readLong() != crc) throw new IOException("Digest cache checksum mismatch");
+		}
+		catch(EOFException e)
+		{
+			throw new IOException("Truncated digest cache");
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/** Get the length of the prefix shared by two strings.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static int getSharedPrefix(String a, String b)
+	{
+		int max = Math.min(Math.min(a.length(), b.length()), 0xffff);
+		int i = 0;
+		while(i < max && a.charAt(i) == b.charAt(i)) i++;
+		return i;
+	}
+
+	/** Get a string representation of the file key, or an empty string if the
+	 * file system does not provide one.
+	 * 
+	 * @param attrs
+	 * @return
+	 */
+	private static String getFileKey(BasicFileAttributes attrs)
+	{
+		Object key = attrs.fileKey();
+		return key != null ? key.toString() : "";
+	}
+
+	/** A single cached digest, along with the file metadata it is valid for.
+	 */
+	private static class Entry
+	{
+		private final long size;
+		private final long mtime;
+		private final String fileKey;
+		private final byte[] digest;
+		
+		/**
+		 * Set if the entry was looked up during the current scan.
+		 */
+		private volatile boolean seen;
+
+		public Entry(long size, long mtime, String fileKey, byte[] digest)
+		{
+			this.size = size;
+			this.mtime = mtime;
+			this.fileKey = fileKey;
+			this.digest = digest;
+		}
+
+		/** Returns true if the entry is valid for a file with the given attributes.
+		 * 
+		 * @param attrs
+		 * @return
+		 */
+		public boolean matches(BasicFileAttributes attrs)
+		{
+			return size == attrs.size()
+					&& mtime == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+					&& fileKey.equals(getFileKey(attrs));
+		}
+	}
+}
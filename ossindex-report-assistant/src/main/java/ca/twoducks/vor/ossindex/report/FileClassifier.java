@@ -0,0 +1,329 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Sorts files into a FileClass using the file name, the size and, only if the
+ * policy needs it, a sniff of the first few bytes of the file. The policy for the
+ * class then decides whether the file is hashed, recorded as ignored, or skipped
+ * entirely. Classes settled by name and size are excluded before the file is
+ * opened. Otherwise FileContent sniffs the start of its first read of the file,
+ * and stops reading there if the file is to be skipped.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class FileClassifier
+{
+	/** What the scan does with a file of a given class.
+	 */
+	public enum Action
+	{
+		/**
+		 * Hash the file and run every interested plugin against it.
+		 */
+		HASH,
+		
+		/**
+		 * As HASH, but mark the file as ignored for identification purposes.
+		 */
+		RECORD,
+		
+		/**
+		 * Leave the file out of the scan.
+		 */
+		SKIP
+	}
+	
+	/**
+	 * Files smaller than this are too small to identify reliably.
+	 */
+	public static final int MIN_SIZE = 200;
+	
+	/**
+	 * Number of bytes read when sniffing a file.
+	 */
+	static final int SNIFF_SIZE = 512;
+	
+	/**
+	 * Known artifact extensions.
+	 * 
+	 * FIXME: This should be loaded from a configuration file.
+	 */
+	private static final Set<String> artifactExtensions = new HashSet<String>(Arrays.asList("jar", "deb"));
+	
+	/**
+	 * Known image extensions.
+	 * 
+	 * FIXME: This should be loaded from a configuration file.
+	 */
+	private static final Set<String> imageExtensions = new HashSet<String>(Arrays.asList(
+			"jpg", "jpeg", "png", "gif", "bmp", "xbm", "xpm", "ico", "svg", "pspimage"));
+	
+	/**
+	 * Magic numbers of the common binary image formats.
+	 */
+	private static final byte[][] imageMagic = {
+		{(byte)0x89, 'P', 'N', 'G'},
+		{(byte)0xff, (byte)0xd8, (byte)0xff},
+		{'G', 'I', 'F', '8'}
+	};
+	
+	/**
+	 * Start of an ICO file: a reserved zero, then the type, 1 for icons.
+	 */
+	private static final byte[] icoMagic = {0, 0, 1, 0};
+	
+	/**
+	 * Size of the ICO header, and of each entry of the directory which follows it.
+	 */
+	private static final int ICO_HEADER_SIZE = 6;
+	private static final int ICO_ENTRY_SIZE = 16;
+	
+	private Map<FileClass, Action> policy = new EnumMap<FileClass, Action>(FileClass.class);
+
+	/** By default every file is hashed, and files below the minimum size are
+	 * recorded as ignored.
+	 */
+	public FileClassifier()
+	{
+		for(FileClass cls: FileClass.values()) policy.put(cls, Action.HASH);
+		policy.put(FileClass.TINY, Action.RECORD);
+	}
+
+	/** Set the action taken for files of a class.
+	 * 
+	 * @param cls
+	 * @param action
+	 */
+	public void setAction(FileClass cls, Action action)
+	{
+		policy.put(cls, action);
+	}
+
+	/**
+	 * 
+	 * @param cls
+	 * @return
+	 */
+	public Action getAction(FileClass cls)
+	{
+		return policy.get(cls);
+	}
+
+	/** Set actions from a comma separated list of class=action pairs, for
+	 * example "binary=skip,tiny=hash".
+	 * 
+	 * @param spec
+	 * @throws IllegalArgumentException if the list cannot be parsed
+	 */
+	public void setPolicy(String spec)
+	{
+		for(String pair: spec.split(","))
+		{
+			String[] tokens = pair.split("=");
+			if(tokens.length != 2) throw new IllegalArgumentException("Invalid policy: " + pair);
+			try
+			{
+				FileClass cls = FileClass.valueOf(tokens[0].trim().toUpperCase());
+				Action action = Action.valueOf(tokens[1].trim().toUpperCase());
+				setAction(cls, action);
+			}
+			catch(IllegalArgumentException e)
+			{
+				throw new IllegalArgumentException("Invalid policy: " + pair);
+			}
+		}
+	}
+
+	/** Get the action for every class, in the form setPolicy accepts.
+	 * 
+	 * @return
+	 */
+	public String getPolicy()
+	{
+		StringBuilder sb = new StringBuilder();
+		for(Map.Entry<FileClass, Action> entry: policy.entrySet())
+		{
+			if(sb.length() > 0) sb.append(',');
+			sb.append(entry.getKey().name().toLowerCase()).append('=').append(entry.getValue().name().toLowerCase());
+		}
+		return sb.toString();
+	}
+
+	/** Decide what to do with a file from its name and size.
+	 * 
+	 * @param name
+	 * @param size
+	 * @return The action, or null if it depends on the content of the file, in
+	 *   which case getAction(sniff(...)) decides once the start of the file has
+	 *   been read
+	 */
+	public Action getAction(String name, long size)
+	{
+		FileClass cls = classify(name, size);
+		if(cls != null) return policy.get(cls);
+		
+		// Only look inside the file if the answer would make a difference
+		Action action = policy.get(FileClass.TEXT);
+		if(policy.get(FileClass.BINARY) == action && policy.get(FileClass.IMAGE) == action) return action;
+		return null;
+	}
+
+	/** Classify a file by its name and size alone.
+	 * 
+	 * @param name
+	 * @param size
+	 * @return The class, or null if the content of the file must be examined
+	 */
+	public static FileClass classify(String name, long size)
+	{
+		if(isImage(name)) return FileClass.IMAGE;
+		if(isArtifact(name)) return FileClass.ARTIFACT;
+		if(size < MIN_SIZE) return FileClass.TINY;
+		return null;
+	}
+
+	/** Indicates whether the file is a known image type, by extension.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static boolean isImage(String name)
+	{
+		return imageExtensions.contains(getExtension(name));
+	}
+
+	/** Indicates whether the file is a known artifact type, by extension.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static boolean isArtifact(String name)
+	{
+		return artifactExtensions.contains(getExtension(name));
+	}
+
+	/** Classify a file from its first few bytes. Files which start with the magic
+	 * number of a known image format, or with a plausible ICO directory, are
+	 * images, files with a NUL byte (the same test git uses) within the first
+	 * SNIFF_SIZE bytes are binary, and anything else is text.
+	 * 
+	 * @param header The start of the file
+	 * @param length Number of bytes of the header to use
+	 * @return
+	 */
+	public static FileClass sniff(byte[] header, int length)
+	{
+		length = Math.min(length, SNIFF_SIZE);
+		for(byte[] magic: imageMagic)
+		{
+			if(startsWith(header, length, magic)) return FileClass.IMAGE;
+		}
+		if(isIcon(header, length)) return FileClass.IMAGE;
+		for(int i = 0; i < length; i++)
+		{
+			if(header[i] == 0) return FileClass.BINARY;
+		}
+		return FileClass.TEXT;
+	}
+
+	/** ICO files only start with {0, 0, 1, 0}, which is common in other binary
+	 * files, so the directory which follows must also make sense: a small
+	 * number of images, each with a reserved byte of zero, at most one colour
+	 * plane, a non-zero size, and data which starts after the directory.
+	 * Every directory entry within the header is checked.
+	 * 
+	 * @param header
+	 * @param length
+	 * @return
+	 */
+	private static boolean isIcon(byte[] header, int length)
+	{
+		if(!startsWith(header, length, icoMagic)) return false;
+		if(length < ICO_HEADER_SIZE + ICO_ENTRY_SIZE) return false;
+		int count = getShort(header, 4);
+		if(count < 1 || count > 256) return false;
+		long dataStart = ICO_HEADER_SIZE + ICO_ENTRY_SIZE * count;
+		for(int i = 0; i < count; i++)
+		{
+			int offset = ICO_HEADER_SIZE + ICO_ENTRY_SIZE * i;
+			if(offset + ICO_ENTRY_SIZE > length) break;
+			if(header[offset + 3] != 0) return false;
+			if(getShort(header, offset + 4) > 1) return false;
+			long size = getInt(header, offset + 8);
+			long start = getInt(header, offset + 12);
+			if(size == 0 || start < dataStart) return false;
+		}
+		return true;
+	}
+
+	private static int getShort(byte[] bytes, int offset)
+	{
+		return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+	}
+
+	private static long getInt(byte[] bytes, int offset)
+	{
+		return getShort(bytes, offset) | (long)getShort(bytes, offset + 2) << 16;
+	}
+
+	/**
+	 * 
+	 * @param bytes
+	 * @param length
+	 * @param prefix
+	 * @return
+	 */
+	private static boolean startsWith(byte[] bytes, int length, byte[] prefix)
+	{
+		if(length < prefix.length) return false;
+		for(int i = 0; i < prefix.length; i++)
+		{
+			if(bytes[i] != prefix[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @return The extension, or an empty string if there is none
+	 */
+	private static String getExtension(String name)
+	{
+		if(name == null) return "";
+		int index = name.lastIndexOf('.');
+		if(index < 0) return "";
+		return name.substring(index + 1);
+	}
+}
@@ -27,13 +27,14 @@
 package ca.twoducks.vor.ossindex.report;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /** Information for an individual file.
  * 
@@ -49,40 +50,6 @@ public class FileConfig
 	private String comment;
 	private String state;
 	
-	/**
-	 * Known artifact extensions.
-	 * 
-	 * FIXME: This should be loaded from a configuration file.
-	 */
-	private static Set<String> artifactExtensions = new HashSet<String>();
-
-	static
-	{
-		artifactExtensions.add("jar");
-		artifactExtensions.add("deb");
-	}
-	
-	/**
-	 * Known image extensions.
-	 * 
-	 * FIXME: This should be loaded from a configuration file.
-	 */
-	private static Set<String> imageExtensions = new HashSet<String>();
-	
-	static
-	{
-		imageExtensions.add("jpg");
-		imageExtensions.add("jpeg");
-		imageExtensions.add("png");
-		imageExtensions.add("gif");
-		imageExtensions.add("bmp");
-		imageExtensions.add("xbm");
-		imageExtensions.add("xpm");
-		imageExtensions.add("ico");
-		imageExtensions.add("svg");
-		imageExtensions.add("pspimage");
-	}
-	
 	/** 
 	 * Indicate whether or not this file was ignored for analysis purposes. This is
 	 * often done if the file is too small, since identifying a file origin in this
@@ -91,9 +58,49 @@ public class FileConfig
 	private boolean ignored;
 	
 	/**
-	 * List of dependencies found in the file.
+	 * List of dependencies found in the file. Kept in the order they were found
+	 * so that the output is stable from one scan to the next. Dependencies are
+	 * added under the file's own lock, since several scan threads may be
+	 * recording dependencies for different files at once.
 	 */
 	private Set<DependencyConfig> dependencies = null;
+	
+	/**
+	 * Class of the file, either found when the file was scanned or worked out from
+	 * the name the first time it is needed. Not exported.
+	 */
+	private transient FileClass fileClass;
+	private transient boolean classified;
+
+	/**
+	 * Used when reading a configuration.
+	 */
+	private FileConfig()
+	{
+	}
+
+	/** Used when reading a snapshot.
+	 * 
+	 * @param name
+	 * @param digest
+	 * @param path
+	 * @param license
+	 * @param comment
+	 * @param state
+	 * @param ignored
+	 * @param dependencies May be null
+	 */
+	FileConfig(String name, String digest, String path, String license, String comment, String state, boolean ignored, Set<DependencyConfig> dependencies)
+	{
+		this.name = name;
+		this.digest = digest;
+		this.path = path;
+		this.license = license;
+		this.comment = comment;
+		this.state = state;
+		this.ignored = ignored;
+		this.dependencies = dependencies;
+	}
 
 	/**
 	 * 
@@ -104,20 +111,47 @@ public class FileConfig
 	{
 		// Get the SHA1 sum for a file, then check if the MD5 is listed in the
 		// OSS Index (indicating it is third party code).
-		FileInputStream is = null;
-		try
-		{
-			is = new FileInputStream(file);
-			digest = DigestUtils.shaHex(is);
-			path = file.getPath();
-		}
-		finally
-		{
-			if(is != null)
-			{
-				is.close();
-			}
-		}
+		digest = FileDigester.digest(file);
+		path = file.getPath();
+	}
+	
+	/** Create the configuration for a file whose digest is already known.
+	 * 
+	 * @param file
+	 * @param digest
+	 */
+	public FileConfig(File file, String digest)
+	{
+		this.digest = digest;
+		this.path = file.getPath();
+	}
+	
+	/** Create the configuration for a scanned file, taking the digest, class and
+	 * ignored state from the shared file content.
+	 * 
+	 * @param file
+	 * @param content
+	 * @throws IOException
+	 */
+	public FileConfig(File file, FileContent content) throws IOException
+	{
+		this.digest = content.getDigest();
+		this.path = file.getPath();
+		this.ignored = content.isIgnored();
+		this.fileClass = content.getFileClass();
+		this.classified = true;
+	}
+	
+	/** Create the configuration for a file found inside an archive.
+	 * 
+	 * @param archive
+	 * @param entry Path of the entry within the archive
+	 * @param digest
+	 */
+	public FileConfig(File archive, String entry, String digest)
+	{
+		this.digest = digest;
+		this.path = archive.getPath() + "!/" + entry;
 	}
 	
 	/** When converting from CSV we only have a digest
@@ -154,6 +188,7 @@ public class FileConfig
 	public void setName(String name)
 	{
 		this.name = name;
+		if(fileClass == null) classified = false;
 	}
 	
 	/** Local path to the file.
@@ -231,6 +266,7 @@ public class FileConfig
 			File f = new File(path);
 			name = f.getName();
 		}
+		if(fileClass == null) classified = false;
 	}
 	
 	/** Get the analysis state of the file.
@@ -284,16 +320,25 @@ public class FileConfig
 		return ignored;
 	}
 
+	/** The dependencies found in the file, in the order they were found.
+	 * 
+	 * @return The dependencies, or null if none were ever added
+	 */
+	synchronized Set<DependencyConfig> getDependencies()
+	{
+		return dependencies;
+	}
+
 	/** Add an HTML dependency to the file. This could be an external JavaScript or CSS file.
 	 * 
 	 * @param type Type of dependency (HTML, Maven, Node, Ruby, Java, etc.)
 	 * @param uri
 	 */
-	public void addDependency(String type, String artifactId, URI uri, String version, String comment)
+	public synchronized void addDependency(String type, String artifactId, URI uri, String version, String comment)
 	{
 		DependencyConfig dep = new DependencyConfig(type, artifactId, uri, version);
 		dep.setComment(comment);
-		if(dependencies == null) dependencies = new HashSet<DependencyConfig>();
+		if(dependencies == null) dependencies = new LinkedHashSet<DependencyConfig>();
 		dependencies.add(dep);
 	}
 
@@ -303,11 +348,11 @@ public class FileConfig
 	 * @param pkgName
 	 * @param version
 	 */
-	public void addDependency(String type, String pkgName, String artifactId, String version, String comment)
+	public synchronized void addDependency(String type, String pkgName, String artifactId, String version, String comment)
 	{
 		DependencyConfig dep = new DependencyConfig(type, pkgName, artifactId, version);
 		dep.setComment(comment);
-		if(dependencies == null) dependencies = new HashSet<DependencyConfig>();
+		if(dependencies == null) dependencies = new LinkedHashSet<DependencyConfig>();
 		dependencies.add(dep);
 	}
 
@@ -318,34 +363,107 @@ public class FileConfig
 	 */
 	public boolean isArtifact()
 	{
-		if(name != null)
+		return getFileClass() == FileClass.ARTIFACT;
+	}
+
+	/** Indicates whether the file is a known image type. Currently done through file
+	 * extensions.
+	 * 
+	 * @return
+	 */
+	public boolean isImage()
+	{
+		return getFileClass() == FileClass.IMAGE;
+	}
+
+	/** Write the file configuration as a JSON object.
+	 * 
+	 * @param out
+	 * @param includeContext Include the name and path of the file
+	 * @param exportDependencies Include the dependencies found in the file
+	 * @throws IOException
+	 */
+	public synchronized void exportJson(JsonWriter out, boolean includeContext, boolean exportDependencies) throws IOException
+	{
+		out.beginObject();
+		if(includeContext) out.name("name").value(name);
+		out.name("digest").value(digest);
+		if(includeContext) out.name("path").value(path);
+		out.name("license").value(license);
+		out.name("comment").value(comment);
+		out.name("state").value(state);
+		out.name("ignored").value(ignored);
+		if(exportDependencies && dependencies != null)
 		{
-			int index = name.lastIndexOf('.');
-			if(index >= 0)
+			out.name("dependencies").beginArray();
+			for(DependencyConfig dependency: dependencies)
 			{
-				String ext = name.substring(index + 1);
-				return artifactExtensions.contains(ext);
+				dependency.exportJson(out);
 			}
+			out.endArray();
 		}
-		return false;
+		out.endObject();
 	}
 
-	/** Indicates whether the file is a known artifact type. Currently done through file
-	 * extensions.
+	/** Read a file configuration written by exportJson, or by Gson.
 	 * 
-	 * @return
+	 * @param in
+	 * @return The configuration, or null for a JSON null
+	 * @throws IOException
 	 */
-	public boolean isImage()
+	public static FileConfig importJson(JsonReader in) throws IOException
 	{
-		if(name != null)
+		if(in.peek() == JsonToken.NULL)
+		{
+			in.nextNull();
+			return null;
+		}
+		FileConfig config = new FileConfig();
+		in.beginObject();
+		while(in.hasNext())
 		{
-			int index = name.lastIndexOf('.');
-			if(index >= 0)
+			String field = in.nextName();
+			if("name".equals(field)) config.name = ConfigurationAdapters.nextString(in);
+			else if("digest".equals(field)) config.digest = ConfigurationAdapters.nextString(in);
+			else if("path".equals(field)) config.path = ConfigurationAdapters.nextString(in);
+			else if("license".equals(field)) config.license = ConfigurationAdapters.nextString(in);
+			else if("comment".equals(field)) config.comment = ConfigurationAdapters.nextString(in);
+			else if("state".equals(field)) config.state = ConfigurationAdapters.nextString(in);
+			else if("ignored".equals(field)) config.ignored = ConfigurationAdapters.nextBoolean(in, config.ignored);
+			else if("dependencies".equals(field))
 			{
-				String ext = name.substring(index + 1);
-				return imageExtensions.contains(ext);
+				if(in.peek() == JsonToken.NULL)
+				{
+					in.nextNull();
+					config.dependencies = null;
+				}
+				else
+				{
+					config.dependencies = new LinkedHashSet<DependencyConfig>();
+					in.beginArray();
+					while(in.hasNext()) config.dependencies.add(DependencyConfig.importJson(in));
+					in.endArray();
+				}
 			}
+			else in.skipValue();
 		}
-		return false;
+		in.endObject();
+		return config;
+	}
+
+	/** Get the class of the file. Files which were not classified when scanned are
+	 * classified by name, once.
+	 * 
+	 * @return The class, or null if the name does not identify one
+	 */
+	FileClass getFileClass()
+	{
+		if(!classified)
+		{
+			if(name != null && FileClassifier.isImage(name)) fileClass = FileClass.IMAGE;
+			else if(name != null && FileClassifier.isArtifact(name)) fileClass = FileClass.ARTIFACT;
+			classified = true;
+		}
+		return fileClass;
 	}
 }
@@ -0,0 +1,511 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** The content of a single scanned file, shared by all of the scan plugins. The file
+ * is read at most once, into a pooled buffer, the first time a plugin asks for its
+ * content or digest. Every other plugin then works from the same bytes.
+ * 
+ * Buffers are sized to the file: each is the smallest power of two, from
+ * MIN_BUFFER up to MAX_BUFFERED, that holds it. Idle buffers are pooled by size.
+ * 
+ * Files larger than MAX_BUFFERED are not buffered. Their digest is calculated by
+ * streaming the file through FileDigester, and plugins that ask for their content
+ * get a stream over the file itself.
+ * 
+ * If the name and size of a file do not settle its class, and the scan policy
+ * needs to know, the class is sniffed from the first bytes of the first read.
+ * Files the policy skips are not read any further.
+ * 
+ * A FileContent is used by one thread at a time, and must be released once all of
+ * the plugins have run so that its buffer can be reused.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class FileContent
+{
+	/**
+	 * Largest file that will be read into a buffer.
+	 */
+	public static final int MAX_BUFFERED = 4 * 1024 * 1024;
+	
+	/**
+	 * Smallest buffer allocated.
+	 */
+	public static final int MIN_BUFFER = 4 * 1024;
+	
+	/**
+	 * Maximum number of idle buffers of each size kept in the pool.
+	 */
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+	
+	/**
+	 * Idle buffers, by size. The buffers in pool n are MIN_BUFFER << n bytes long.
+	 */
+	private static final List<Queue<byte[]>> pools = new ArrayList<Queue<byte[]>>();
+	static
+	{
+		for(int size = MIN_BUFFER; size <= MAX_BUFFERED; size <<= 1)
+		{
+			pools.add(new ConcurrentLinkedQueue<byte[]>());
+		}
+	}
+	
+	private File file;
+	private BasicFileAttributes attrs;
+	
+	/**
+	 * Cache of digests from previous scans. May be null.
+	 */
+	private DigestCache cache;
+	
+	/**
+	 * Digests already calculated during this scan, keyed by file key. May be null.
+	 */
+	private InodeDigests inodes;
+	
+	/**
+	 * Receives read and hash timings.
+	 */
+	private ScanMetrics metrics;
+	
+	/**
+	 * Buffer holding the file content, or null if it has not been read.
+	 */
+	private byte[] buffer;
+	
+	/**
+	 * Number of bytes of content in the buffer.
+	 */
+	private int length;
+	
+	/**
+	 * Set if the file turned out to be too large to buffer.
+	 */
+	private boolean unbuffered;
+	
+	private String digest;
+	
+	/**
+	 * Set once the digest cache has been consulted.
+	 */
+	private boolean cacheChecked;
+	
+	/**
+	 * Class of the file from its name and size, or from its content. Null if
+	 * neither settles it.
+	 */
+	private FileClass fileClass;
+	
+	/**
+	 * Classifies the file from the start of its content. Null if the file needs
+	 * no sniffing, or has been sniffed already.
+	 */
+	private FileClassifier classifier;
+	
+	/**
+	 * Set if the file is to be recorded as ignored for identification purposes.
+	 */
+	private boolean ignored;
+	
+	/**
+	 * Set if the class of the file, found from its content, is skipped.
+	 */
+	private boolean skipped;
+
+	/**
+	 * 
+	 * @param file
+	 * @param attrs Attributes read when the file was found
+	 * @param cache Cache of digests from previous scans. May be null.
+	 * @param metrics Receives read and hash timings
+	 */
+	public FileContent(File file, BasicFileAttributes attrs, DigestCache cache, ScanMetrics metrics)
+	{
+		this(file, attrs, cache, null, metrics);
+	}
+
+	/**
+	 * 
+	 * @param file
+	 * @param attrs Attributes read when the file was found
+	 * @param cache Cache of digests from previous scans. May be null.
+	 * @param inodes Digests already calculated during this scan. May be null.
+	 * @param metrics Receives read and hash timings
+	 */
+	public FileContent(File file, BasicFileAttributes attrs, DigestCache cache, InodeDigests inodes, ScanMetrics metrics)
+	{
+		this.file = file;
+		this.attrs = attrs;
+		this.cache = cache;
+		this.inodes = inodes;
+		this.metrics = metrics;
+		this.unbuffered = attrs.size() > MAX_BUFFERED;
+		this.fileClass = FileClassifier.classify(file.getName(), attrs.size());
+	}
+
+	/**
+	 * 
+	 * @return
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/** Attributes read when the file was found by the scanner.
+	 * 
+	 * @return
+	 */
+	public BasicFileAttributes getAttributes()
+	{
+		return attrs;
+	}
+
+	/** Class of the file from its name and size or, if the file needed sniffing,
+	 * from its content.
+	 * 
+	 * @return The class, or null if neither settles it
+	 */
+	public FileClass getFileClass()
+	{
+		classify();
+		return fileClass;
+	}
+
+	/** Indicates that the file should be recorded as ignored for identification
+	 * purposes, usually because it is too small.
+	 * 
+	 * @param ignored
+	 */
+	public void setIgnored(boolean ignored)
+	{
+		this.ignored = ignored;
+	}
+
+	/**
+	 * 
+	 * @return
+	 */
+	public boolean isIgnored()
+	{
+		classify();
+		return ignored;
+	}
+
+	/** Have the file classified from the start of its content, when it is first
+	 * read. Used when the name and size of the file do not settle what the
+	 * scan policy does with it.
+	 * 
+	 * @param classifier
+	 */
+	public void setClassifier(FileClassifier classifier)
+	{
+		this.classifier = classifier;
+	}
+
+	/** Returns true if the scan policy skips the file because of its content. The
+	 * plugins must not be run against a skipped file.
+	 * 
+	 * @return
+	 */
+	public boolean isSkipped()
+	{
+		classify();
+		return skipped;
+	}
+
+	/** Classify the file from its content, if that is still needed. The sniff is
+	 * taken from the first read of the file, unless the file will not be read in
+	 * full anyway because its digest is cached or it is too large to buffer.
+	 */
+	private void classify()
+	{
+		if(classifier == null) return;
+		try
+		{
+			if(buffer != null)
+			{
+				sniff(buffer, length);
+			}
+			else if(!unbuffered && getCachedDigest() == null)
+			{
+				load();
+			}
+			else
+			{
+				byte[] header = new byte[FileClassifier.SNIFF_SIZE];
+				int count = 0;
+				try(InputStream in = new FileInputStream(file))
+				{
+					int read;
+					while(count < header.length && (read = in.read(header, count, header.length - count)) > 0)
+					{
+						count += read;
+					}
+				}
+				sniff(header, count);
+			}
+		}
+		catch(IOException e)
+		{
+			// Hash the file, and let the scan report the problem when it
+			// reads the file
+			classifier = null;
+		}
+	}
+
+	/** Classify the file from its first few bytes, and apply the scan policy.
+	 * 
+	 * @param header
+	 * @param count Number of bytes of the header read
+	 */
+	private void sniff(byte[] header, int count)
+	{
+		fileClass = FileClassifier.sniff(header, count);
+		FileClassifier.Action action = classifier.getAction(fileClass);
+		ignored = action == FileClassifier.Action.RECORD;
+		skipped = action == FileClassifier.Action.SKIP;
+		classifier = null;
+	}
+
+	/** Look the digest up in the cache of previous scans, once.
+	 * 
+	 * @return The digest, or null if it is not cached
+	 */
+	private String getCachedDigest()
+	{
+		if(!cacheChecked)
+		{
+			if(cache != null && digest == null) digest = cache.get(file, attrs);
+			cacheChecked = true;
+		}
+		return digest;
+	}
+
+	/** Get the SHA1 digest of the file. A valid digest from the cache, or the
+	 * digest of another path to the same file (a hardlink), is used without
+	 * reading the file.
+	 * 
+	 * @return The digest as a lower case hex string
+	 * @throws IOException
+	 */
+	public String getDigest() throws IOException
+	{
+		if(digest == null)
+		{
+			getCachedDigest();
+			if(digest == null)
+			{
+				if(inodes != null)
+				{
+					digest = inodes.digest(attrs, new Callable<String>()
+					{
+						@Override
+						public String call() throws IOException
+						{
+							return hash();
+						}
+					});
+				}
+				else
+				{
+					digest = hash();
+				}
+				if(cache != null) cache.put(file, attrs, digest);
+			}
+		}
+		return digest;
+	}
+
+	/** Read and hash the file.
+	 * 
+	 * @return The digest as a lower case hex string
+	 * @throws IOException
+	 */
+	private String hash() throws IOException
+	{
+		boolean loaded = load();
+		long start = System.nanoTime();
+		String result;
+		if(loaded) result = FileDigester.digest(ByteBuffer.wrap(buffer, 0, length));
+		else result = FileDigester.digest(file);
+		metrics.getHashing().stop(start, loaded ? length : attrs.size());
+		return result;
+	}
+
+	/** Get a read only view of the file content.
+	 * 
+	 * @return The content, or null if the file is too large to buffer
+	 * @throws IOException
+	 */
+	public ByteBuffer getBuffer() throws IOException
+	{
+		if(!load()) return null;
+		return ByteBuffer.wrap(buffer, 0, length).asReadOnlyBuffer();
+	}
+
+	/** Get a stream over the file content. The caller must close the stream.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream newInputStream() throws IOException
+	{
+		if(!load()) return new FileInputStream(file);
+		return new ByteArrayInputStream(buffer, 0, length);
+	}
+
+	/** Get a reader over the file content, using the platform default encoding
+	 * as FileReader does. The caller must close the reader.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public Reader newReader() throws IOException
+	{
+		return new InputStreamReader(newInputStream());
+	}
+
+	/** Return the buffer to the pool. The content may not be used afterwards.
+	 */
+	public void release()
+	{
+		if(buffer != null)
+		{
+			recycle(buffer);
+			buffer = null;
+		}
+	}
+
+	/** Size of the buffer a file is read into.
+	 * 
+	 * @param size Size of the file
+	 * @return The buffer size, or 0 if the file is too large to buffer
+	 */
+	public static int getBufferSize(long size)
+	{
+		if(size > MAX_BUFFERED) return 0;
+		int bufferSize = MIN_BUFFER;
+		while(bufferSize < size) bufferSize <<= 1;
+		return bufferSize;
+	}
+
+	/** Get the pool holding buffers of a size.
+	 * 
+	 * @param bufferSize A size returned by getBufferSize
+	 * @return
+	 */
+	private static Queue<byte[]> getPool(int bufferSize)
+	{
+		return pools.get(Integer.numberOfTrailingZeros(bufferSize / MIN_BUFFER));
+	}
+
+	/** Return a buffer to its pool, if the pool is not full.
+	 * 
+	 * @param bytes
+	 */
+	private static void recycle(byte[] bytes)
+	{
+		Queue<byte[]> pool = getPool(bytes.length);
+		if(pool.size() < POOL_SIZE) pool.offer(bytes);
+	}
+
+	/** Read the file into a buffer, if it has not been already. A file that still
+	 * needs to be classified is sniffed once the first bytes are in, and read no
+	 * further if it is skipped.
+	 * 
+	 * @return true if the content is buffered, false if the file is too large
+	 *   or skipped.
+	 * @throws IOException
+	 */
+	private boolean load() throws IOException
+	{
+		if(buffer != null) return true;
+		if(unbuffered || skipped) return false;
+		
+		long start = System.nanoTime();
+		int bufferSize = getBufferSize(attrs.size());
+		byte[] bytes = getPool(bufferSize).poll();
+		if(bytes == null) bytes = new byte[bufferSize];
+		ByteBuffer bb = ByteBuffer.wrap(bytes);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if(classifier != null)
+			{
+				bb.limit(Math.min(FileClassifier.SNIFF_SIZE, bytes.length));
+				while(bb.hasRemaining() && channel.read(bb) >= 0);
+				sniff(bytes, bb.position());
+				bb.limit(bytes.length);
+			}
+			if(!skipped)
+			{
+				while(bb.hasRemaining() && channel.read(bb) >= 0);
+				
+				// The file has grown past the buffer size since it was found, so
+				// it is streamed instead
+				if(!bb.hasRemaining() && channel.read(ByteBuffer.allocate(1)) > 0)
+				{
+					unbuffered = true;
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			recycle(bytes);
+			throw e;
+		}
+		
+		if(unbuffered || skipped)
+		{
+			recycle(bytes);
+			return false;
+		}
+		buffer = bytes;
+		length = bb.position();
+		metrics.getReading().stop(start, length);
+		return true;
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+
+/** Calculates the SHA1 digests of files. Each thread keeps its own MessageDigest and
+ * a large direct buffer which are reused for every file, and files are read through
+ * a FileChannel so the data is copied straight into the direct buffer. Files larger
+ * than MAP_THRESHOLD are memory mapped a window at a time instead of being read.
+ * 
+ * The digests are the same lower case hex strings produced by DigestUtils.shaHex.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class FileDigester
+{
+	/**
+	 * Size of the per-thread read buffer.
+	 */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	
+	/**
+	 * Files at least this large are memory mapped rather than read.
+	 */
+	private static final long MAP_THRESHOLD = 64L * 1024 * 1024;
+	
+	/**
+	 * Size of the window mapped at one time.
+	 */
+	private static final long MAP_WINDOW = 64L * 1024 * 1024;
+	
+	/**
+	 * Size of the per-thread buffer used for streams.
+	 */
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Per-thread digest, reset before each use.
+	 */
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>()
+	{
+		@Override
+		protected MessageDigest initialValue()
+		{
+			return newDigest();
+		}
+	};
+	
+	/**
+	 * Per-thread direct read buffer.
+	 */
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * Per-thread buffer for reading streams.
+	 */
+	private static final ThreadLocal<byte[]> streamBuffers = new ThreadLocal<byte[]>()
+	{
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[STREAM_BUFFER_SIZE];
+		}
+	};
+
+	/** Get the SHA1 digest of a file.
+	 * 
+	 * @param file
+	 * @return The digest as a lower case hex string
+	 * @throws IOException
+	 */
+	public static String digest(File file) throws IOException
+	{
+		MessageDigest md = digests.get();
+		md.reset();
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if(size >= MAP_THRESHOLD)
+			{
+				long position = 0;
+				while(position < size)
+				{
+					long length = Math.min(MAP_WINDOW, size - position);
+					MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+					md.update(map);
+					position += length;
+				}
+			}
+			else
+			{
+				ByteBuffer buffer = buffers.get();
+				buffer.clear();
+				while(channel.read(buffer) >= 0)
+				{
+					buffer.flip();
+					md.update(buffer);
+					buffer.clear();
+				}
+			}
+		}
+		return Hex.encodeHexString(md.digest());
+	}
+
+	/** Get the SHA1 digest of the remaining bytes in a buffer. The buffer position
+	 * is moved to its limit.
+	 * 
+	 * @param buffer
+	 * @return The digest as a lower case hex string
+	 */
+	public static String digest(ByteBuffer buffer)
+	{
+		MessageDigest md = digests.get();
+		md.reset();
+		md.update(buffer);
+		return Hex.encodeHexString(md.digest());
+	}
+
+	/** Get the SHA1 digest of the rest of a stream. The stream is read to its end
+	 * but not closed.
+	 * 
+	 * @param in
+	 * @return The digest as a lower case hex string
+	 * @throws IOException
+	 */
+	public static String digest(InputStream in) throws IOException
+	{
+		MessageDigest md = digests.get();
+		md.reset();
+		byte[] buffer = streamBuffers.get();
+		int count;
+		while((count = in.read(buffer)) >= 0)
+		{
+			md.update(buffer, 0, count);
+		}
+		return Hex.encodeHexString(md.digest());
+	}
+
+	/** Create a new SHA1 digest.
+	 * 
+	 * @return
+	 */
+	public static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-1
+			throw new AssertionError(e);
+		}
+	}
+}
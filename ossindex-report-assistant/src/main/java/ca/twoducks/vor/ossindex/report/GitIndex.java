@@ -0,0 +1,352 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Hex;
+
+/** Reads the index (staging area) of a git working copy directly from disk,
+ * without the git binary. Versions 2, 3 and 4 of the index format are supported.
+ * Split indexes are not.
+ * 
+ * Each entry records the stat data of a tracked file as it was when git last
+ * looked at it, along with the id of the blob it matched. If the stat data still
+ * matches, the file is the same as that blob.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class GitIndex
+{
+	private static final int SIGNATURE = 0x44495243; // "DIRC"
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final int EXTENDED_FLAG = 0x4000;
+	private static final int SKIP_WORKTREE_FLAG = 0x4000;
+	private static final int INTENT_TO_ADD_FLAG = 0x2000;
+	
+	private static final int TYPE_MASK = 0170000;
+	private static final int TYPE_REGULAR = 0100000;
+	
+	private int version;
+	private List<Entry> entries;
+	
+	/**
+	 * Modification time of the index file, in nanoseconds.
+	 */
+	private long modified;
+
+	/** Read the index of a working copy.
+	 * 
+	 * @param file The index file, usually .git/index
+	 * @return
+	 * @throws IOException if the index cannot be read or is not in a supported format
+	 */
+	public static GitIndex read(File file) throws IOException
+	{
+		GitIndex index = new GitIndex();
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			index.modified = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			index.parse(buffer);
+		}
+		return index;
+	}
+
+	/**
+	 * 
+	 * @return
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/** The entries, sorted by path.
+	 * 
+	 * @return
+	 */
+	public List<Entry> getEntries()
+	{
+		return entries;
+	}
+
+	/** Could the file have changed without its stat data changing? This happens
+	 * if the file was modified in the same instant the index was written, and
+	 * git itself compares content in this case.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean isRacy(Entry entry)
+	{
+		return entry.getModifiedNanos() >= modified;
+	}
+
+	/** Parse the index.
+	 * 
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private void parse(ByteBuffer buffer) throws IOException
+	{
+		if(buffer.remaining() < 32) throw new IOException("Truncated git index");
+		verifyChecksum(buffer);
+		
+		if(buffer.getInt() != SIGNATURE) throw new IOException("Not a git index");
+		version = buffer.getInt();
+		if(version < 2 || version > 4) throw new IOException("Unsupported git index version " + version);
+		int count = buffer.getInt();
+		
+		entries = new ArrayList<Entry>(count);
+		byte[] previous = new byte[0];
+		for(int i = 0; i < count; i++)
+		{
+			int start = buffer.position();
+			Entry entry = new Entry();
+			buffer.position(buffer.position() + 8); // ctime
+			entry.mtimeSeconds = buffer.getInt() & 0xffffffffL;
+			entry.mtimeNanos = buffer.getInt() & 0xffffffffL;
+			buffer.position(buffer.position() + 8); // dev, ino
+			entry.mode = buffer.getInt();
+			buffer.position(buffer.position() + 8); // uid, gid
+			entry.size = buffer.getInt() & 0xffffffffL;
+			byte[] id = new byte[20];
+			buffer.get(id);
+			entry.blob = Hex.encodeHexString(id);
+			entry.flags = buffer.getShort() & 0xffff;
+			if((entry.flags & EXTENDED_FLAG) != 0)
+			{
+				if(version < 3) throw new IOException("Extended flags in a version 2 git index");
+				entry.extendedFlags = buffer.getShort() & 0xffff;
+			}
+			
+			byte[] path;
+			if(version == 4)
+			{
+				// The path is stored as the number of bytes to drop from the end
+				// of the previous path, then the bytes to append.
+				int strip = (int)readOffset(buffer);
+				if(strip > previous.length) throw new IOException("Corrupt git index");
+				byte[] suffix = readString(buffer);
+				path = Arrays.copyOf(previous, previous.length - strip + suffix.length);
+				System.arraycopy(suffix, 0, path, previous.length - strip, suffix.length);
+			}
+			else
+			{
+				path = readString(buffer);
+				
+				// Entries are padded with NULs to a multiple of eight bytes
+				int length = buffer.position() - start;
+				buffer.position(start + ((length + 7) & ~7));
+			}
+			entry.path = new String(path, UTF8);
+			previous = path;
+			entries.add(entry);
+		}
+		
+		// Extensions follow the entries. A link extension means the entries
+		// above are only the changes to a shared index.
+		while(buffer.remaining() >= 20 + 8)
+		{
+			byte[] signature = new byte[4];
+			buffer.get(signature);
+			int size = buffer.getInt();
+			if("link".equals(new String(signature, UTF8))) throw new IOException("Split git indexes are not supported");
+			if(size < 0 || size > buffer.remaining() - 20) throw new IOException("Corrupt git index");
+			buffer.position(buffer.position() + size);
+		}
+		entries = Collections.unmodifiableList(entries);
+	}
+
+	/** Check the SHA1 of the index content against the one at its end. An index
+	 * written with index.skipHash has a zero checksum, which is not checked.
+	 * 
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private static void verifyChecksum(ByteBuffer buffer) throws IOException
+	{
+		int end = buffer.limit() - 20;
+		byte[] expected = new byte[20];
+		ByteBuffer trailer = buffer.duplicate();
+		trailer.position(end);
+		trailer.get(expected);
+		if(Arrays.equals(expected, new byte[20])) return;
+		
+		MessageDigest md = FileDigester.newDigest();
+		ByteBuffer content = buffer.duplicate();
+		content.limit(end);
+		md.update(content);
+		if(!Arrays.equals(expected, md.digest())) throw new IOException("Git index checksum mismatch");
+	}
+
+	/** Read a NUL terminated string.
+	 * 
+	 * @param buffer
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] readString(ByteBuffer buffer) throws IOException
+	{
+		int start = buffer.position();
+		int end = start;
+		while(end < buffer.limit() && buffer.get(end) != 0) end++;
+		if(end == buffer.limit()) throw new IOException("Corrupt git index");
+		byte[] bytes = new byte[end - start];
+		buffer.get(bytes);
+		buffer.get(); // NUL
+		return bytes;
+	}
+
+	/** Read a variable length integer in git's offset encoding.
+	 * 
+	 * @param buffer
+	 * @return
+	 */
+	private static long readOffset(ByteBuffer buffer)
+	{
+		int c = buffer.get() & 0xff;
+		long value = c & 0x7f;
+		while((c & 0x80) != 0)
+		{
+			c = buffer.get() & 0xff;
+			value = ((value + 1) << 7) | (c & 0x7f);
+		}
+		return value;
+	}
+
+	/** A single tracked file.
+	 */
+	public static class Entry
+	{
+		private String path;
+		private long mtimeSeconds;
+		private long mtimeNanos;
+		private int mode;
+		private long size;
+		private String blob;
+		private int flags;
+		private int extendedFlags;
+
+		/** Path relative to the root of the working copy, using '/' as the separator.
+		 * 
+		 * @return
+		 */
+		public String getPath()
+		{
+			return path;
+		}
+
+		/** Id of the blob the file matched when the index was written.
+		 * 
+		 * @return
+		 */
+		public String getBlob()
+		{
+			return blob;
+		}
+
+		/** Merge stage. Zero unless the file is in conflict.
+		 * 
+		 * @return
+		 */
+		public int getStage()
+		{
+			return (flags >> 12) & 3;
+		}
+
+		/** Returns true for regular files, as opposed to symbolic links and submodules.
+		 * 
+		 * @return
+		 */
+		public boolean isRegularFile()
+		{
+			return (mode & TYPE_MASK) == TYPE_REGULAR;
+		}
+
+		/** Returns true if the file is not expected in the working copy (sparse checkout).
+		 * 
+		 * @return
+		 */
+		public boolean isSkipWorktree()
+		{
+			return (extendedFlags & SKIP_WORKTREE_FLAG) != 0;
+		}
+
+		/** Returns true if the file was added with "git add -N", so has no real blob.
+		 * 
+		 * @return
+		 */
+		public boolean isIntentToAdd()
+		{
+			return (extendedFlags & INTENT_TO_ADD_FLAG) != 0;
+		}
+
+		/**
+		 * 
+		 * @return
+		 */
+		public long getModifiedNanos()
+		{
+			return TimeUnit.SECONDS.toNanos(mtimeSeconds) + mtimeNanos;
+		}
+
+		/** Does the stat data of the file still match the entry? As with git's
+		 * core.checkStat=minimal, the size and modification time are compared.
+		 * The nanoseconds are only compared if git recorded them. The index only
+		 * keeps the low 32 bits of the size.
+		 * 
+		 * @param attrs
+		 * @return
+		 */
+		public boolean matches(BasicFileAttributes attrs)
+		{
+			if((attrs.size() & 0xffffffffL) != size) return false;
+			long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+			if(TimeUnit.NANOSECONDS.toSeconds(mtime) != mtimeSeconds) return false;
+			if(mtimeNanos != 0 && mtime % 1000000000L != mtimeNanos) return false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,442 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Incrementally scan a git working copy, using its index to find the files that
+ * changed since the previous scan.
+ * 
+ * The index records the stat data and blob id of every tracked file. A state
+ * file kept next to the output records the blob id each clean file had when it
+ * was scanned. If the stat data of a file still matches the index, and its
+ * blob id is the one recorded at the last scan, the file has not changed. Its
+ * configuration (digest, dependencies and any archive entries) is then copied
+ * from the previous private configuration rather than read again. Every other
+ * tracked file is scanned as normal. After a pull, only the files the pull
+ * changed are read.
+ * 
+ * The state describes the private configuration written after the scan, so it
+ * is removed when the scan ends and only written again, by saveState, once
+ * that configuration has been exported. A scan which fails, or is killed,
+ * before then leaves no state and the next scan reads everything. The state
+ * also records the scan options which decide what is found in each file,
+ * since a configuration found with other options cannot be reused.
+ * 
+ * Untracked files are found by a separate walk of the working copy which skips
+ * tracked files without reading their attributes. As with the rest of the scan,
+ * exclude patterns apply to tracked files too.
+ * 
+ * If the index cannot be read, the whole tree is scanned.
+ * 
+ * The changed and untracked files are scanned on the calling thread, so the
+ * parallel and pipeline scanners are not used. Few files are expected to have
+ * changed between scans.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class GitScanner
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private ScanProcessor processor;
+	
+	/**
+	 * Configuration receiving the results.
+	 */
+	private Configuration config;
+	
+	/**
+	 * Private configuration written by the previous scan. May be null.
+	 */
+	private Configuration previous;
+	
+	/**
+	 * Records the blob id of each clean file as it was scanned.
+	 */
+	private File stateFile;
+	
+	/**
+	 * Scan options the previous configuration must have been found with.
+	 */
+	private String options;
+	
+	/**
+	 * Blob id of each clean file found by this scan, keyed by path. Null until
+	 * the index has been read.
+	 */
+	private Map<String, String> state;
+	
+	private int unchanged;
+	private int changed;
+	private int untracked;
+	
+	/**
+	 * Set if the previous scan used other options, so nothing could be reused.
+	 */
+	private boolean optionsChanged;
+
+	/**
+	 * 
+	 * @param processor Processor used to run the plugins against each file
+	 * @param config Configuration receiving the results
+	 * @param previous Private configuration written by the previous scan. May be null.
+	 * @param stateFile File recording the blob ids of the scanned files
+	 * @param options Description of the scan options which affect the results
+	 *   for each file
+	 */
+	public GitScanner(ScanProcessor processor, Configuration config, Configuration previous, File stateFile, String options)
+	{
+		this.processor = processor;
+		this.config = config;
+		this.previous = previous;
+		this.stateFile = stateFile;
+		this.options = options;
+	}
+
+	/** Scan the working copy. The state of the previous scan is removed, and
+	 * must be replaced by calling saveState once the configuration has been
+	 * exported.
+	 * 
+	 * @param root Root of the working copy
+	 * @throws IOException
+	 */
+	public void scan(File root) throws IOException
+	{
+		File indexFile = new File(new File(root, ".git"), "index");
+		GitIndex index;
+		long start = System.nanoTime();
+		try
+		{
+			index = GitIndex.read(indexFile);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Exception reading " + indexFile + ", scanning everything: " + e.getMessage());
+			Files.deleteIfExists(stateFile.toPath());
+			new SequentialScanner(processor).scan(root);
+			return;
+		}
+		processor.getMetrics().getListing().stop(start, indexFile.length());
+		
+		Map<String, String> scanned = previous != null ? loadState() : new HashMap<String, String>();
+		Map<String, List<FileConfig>> configs = getPreviousConfigs();
+		Map<String, String> state = new LinkedHashMap<String, String>();
+		Set<String> tracked = new HashSet<String>();
+		Map<String, Boolean> excludedDirectories = new HashMap<String, Boolean>();
+		
+		for(GitIndex.Entry entry: index.getEntries())
+		{
+			String path = entry.getPath();
+			if(!tracked.add(path)) continue;
+			if(!entry.isRegularFile() || entry.isSkipWorktree()) continue;
+			if(isExcludedDirectory(root, path, excludedDirectories)) continue;
+			
+			File file = new File(root, path);
+			BasicFileAttributes attrs;
+			try
+			{
+				attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			}
+			catch(NoSuchFileException e)
+			{
+				// Deleted from the working copy
+				continue;
+			}
+			if(!attrs.isRegularFile() || processor.ignore(file, attrs)) continue;
+			
+			// Files in conflict, or added with -N, have no single blob to compare with
+			boolean clean = entry.getStage() == 0 && !entry.isIntentToAdd() && entry.matches(attrs) && !index.isRacy(entry);
+			if(clean) state.put(path, entry.getBlob());
+			
+			List<FileConfig> results = configs.get(file.getPath());
+			if(clean && results != null && entry.getBlob().equals(scanned.get(path)))
+			{
+				config.addFileConfig(file, results.get(0));
+				for(int i = 1; i < results.size(); i++) config.addFileConfig(results.get(i));
+				processor.scanned(file, attrs);
+				unchanged++;
+			}
+			else
+			{
+				processor.process(file, attrs);
+				changed++;
+			}
+		}
+		
+		UntrackedScanner scanner = new UntrackedScanner(root, tracked);
+		scanner.scan(root);
+		untracked = scanner.count;
+		
+		// The old state no longer matches the configuration being built
+		Files.deleteIfExists(stateFile.toPath());
+		this.state = state;
+	}
+
+	/** Get the number of tracked files whose configuration was reused from the
+	 * previous scan.
+	 * 
+	 * @return
+	 */
+	public int getUnchanged()
+	{
+		return unchanged;
+	}
+
+	/** Get the number of tracked files which were scanned because they changed,
+	 * or could not be reused.
+	 * 
+	 * @return
+	 */
+	public int getChanged()
+	{
+		return changed;
+	}
+
+	/** Get the number of files scanned which git does not track.
+	 * 
+	 * @return
+	 */
+	public int getUntracked()
+	{
+		return untracked;
+	}
+
+	/** Did the previous scan use other options, so that every file was scanned?
+	 * 
+	 * @return
+	 */
+	public boolean isOptionsChanged()
+	{
+		return optionsChanged;
+	}
+
+	/** Is the file in a directory that is excluded from the scan? The decision
+	 * for each directory is remembered.
+	 * 
+	 * @param root
+	 * @param path
+	 * @param excluded Decisions made so far, keyed by directory path
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean isExcludedDirectory(File root, String path, Map<String, Boolean> excluded) throws IOException
+	{
+		int index = path.lastIndexOf('/');
+		if(index < 0) return false;
+		String dir = path.substring(0, index);
+		Boolean result = excluded.get(dir);
+		if(result == null)
+		{
+			result = isExcludedDirectory(root, dir, excluded);
+			if(!result)
+			{
+				File file = new File(root, dir);
+				try
+				{
+					BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					result = !attrs.isDirectory() || processor.ignore(file, attrs);
+				}
+				catch(NoSuchFileException e)
+				{
+					result = true;
+				}
+			}
+			excluded.put(dir, result);
+		}
+		return result;
+	}
+
+	/** Group the files of the previous configuration by path. Archive entries are
+	 * kept with the archive they were found in.
+	 * 
+	 * @return
+	 */
+	private Map<String, List<FileConfig>> getPreviousConfigs()
+	{
+		Map<String, List<FileConfig>> configs = new HashMap<String, List<FileConfig>>();
+		if(previous == null) return configs;
+		List<FileConfig> current = null;
+		for(FileConfig file: previous.getFiles())
+		{
+			String path = file.getPath();
+			if(path == null) continue;
+			int index = path.indexOf("!/");
+			if(index >= 0)
+			{
+				List<FileConfig> archive = configs.get(path.substring(0, index));
+				if(archive != null && archive == current) archive.add(file);
+				continue;
+			}
+			current = new ArrayList<FileConfig>(1);
+			current.add(file);
+			configs.put(path, current);
+		}
+		return configs;
+	}
+
+	/** Load the blob ids recorded by the previous scan. Nothing is loaded if the
+	 * previous scan used different options.
+	 * 
+	 * @return
+	 */
+	private Map<String, String> loadState()
+	{
+		Map<String, String> state = new HashMap<String, String>();
+		if(!stateFile.exists()) return state;
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), UTF8)))
+		{
+			String line = reader.readLine();
+			if(line == null || !line.equals("# " + options))
+			{
+				optionsChanged = true;
+				return state;
+			}
+			while((line = reader.readLine()) != null)
+			{
+				int index = line.indexOf(' ');
+				if(index > 0) state.put(line.substring(index + 1), line.substring(0, index));
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Exception reading " + stateFile + ": " + e.getMessage());
+			state.clear();
+		}
+		return state;
+	}
+
+	/** Record the blob id of each clean file found by the scan. Must only be
+	 * called once the configuration the scan built has been exported. The first
+	 * line holds the scan options, then there is one line per file: the blob id,
+	 * a space and the path.
+	 * 
+	 * @throws IOException
+	 */
+	public void saveState() throws IOException
+	{
+		if(state == null) return;
+		File tmp = new File(stateFile.getPath() + ".tmp");
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8)))
+		{
+			writer.write("# " + options + "\n");
+			for(Map.Entry<String, String> entry: state.entrySet())
+			{
+				writer.write(entry.getValue());
+				writer.write(' ');
+				writer.write(entry.getKey());
+				writer.write('\n');
+			}
+		}
+		
+		try
+		{
+			Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Remove the recorded state, once the configuration no longer matches the
+	 * scan, for example because it has been updated by watching the tree.
+	 * 
+	 * @throws IOException
+	 */
+	public void discardState() throws IOException
+	{
+		state = null;
+		Files.deleteIfExists(stateFile.toPath());
+	}
+
+	/** Walks the working copy for files which are not tracked. Tracked files, and
+	 * submodules, are skipped by name so their attributes are never read.
+	 */
+	private class UntrackedScanner extends SequentialScanner
+	{
+		private Path root;
+		private Set<String> tracked;
+		private int count;
+
+		public UntrackedScanner(File root, Set<String> tracked)
+		{
+			super(processor);
+			this.root = root.toPath();
+			this.tracked = tracked;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.SequentialScanner#skip(java.nio.file.Path)
+		 */
+		@Override
+		protected boolean skip(Path path)
+		{
+			Path relative = root.relativize(path);
+			if(relative.getNameCount() == 1 && ".git".equals(relative.toString())) return true;
+			String name = relative.toString();
+			if(File.separatorChar != '/') name = name.replace(File.separatorChar, '/');
+			return tracked.contains(name);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.SequentialScanner#visit(java.io.File, java.nio.file.attribute.BasicFileAttributes)
+		 */
+		@Override
+		protected void visit(File file, BasicFileAttributes attrs) throws IOException
+		{
+			count++;
+			super.visit(file, attrs);
+		}
+	}
+}
@@ -44,6 +44,34 @@ public interface IConfiguration
 	 */
 	void addFile(File file) throws IOException;
 	
+	/**
+	 * 
+	 * @param file
+	 * @param content Shared content of the file, from which the digest is taken
+	 */
+	void addFile(File file, FileContent content) throws IOException;
+	
+	/** Get the SHA1 digest of a file. If the file has already been added to the
+	 * configuration then its digest is reused rather than reading the file again.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	String getDigest(File file) throws IOException;
+	
+	/** Add a file found inside an archive. The entry is recorded with a path of the
+	 * form "archive!/entry". An entry of a nested archive has a "!/" for each level,
+	 * such as "app.war!/WEB-INF/lib/lib.jar!/META-INF/MANIFEST.MF".
+	 * 
+	 * The archive itself must have been added first.
+	 * 
+	 * @param archive The scanned archive
+	 * @param entry Path of the entry within the archive
+	 * @param digest SHA1 digest of the entry content
+	 */
+	void addArchiveEntry(File archive, String entry, String digest);
+	
 	/**
 	 * 
 	 * @param file
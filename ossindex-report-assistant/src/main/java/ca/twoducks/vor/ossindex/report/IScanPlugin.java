@@ -27,6 +27,8 @@
 package ca.twoducks.vor.ossindex.report;
 
 import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
 
 /** Scanning plugins are used to perform pre-configuration source analysis to supply
  * additional information for the configuration, such as:
@@ -51,6 +53,25 @@ public interface IScanPlugin
 	 * @param file
 	 */
 	void run(File file);
+	
+	/** Run the plugin against the specified file. The attributes were read by the
+	 * scanner when it found the file, and should be used instead of asking the
+	 * file system again.
+	 * 
+	 * @param file
+	 * @param attrs
+	 */
+	void run(File file, BasicFileAttributes attrs);
+	
+	/** Run the plugin against the specified file. Plugins that need to read the file
+	 * should use the supplied content rather than opening the file themselves, so
+	 * that the file is only read once no matter how many plugins are interested in it.
+	 * 
+	 * @param file
+	 * @param attrs
+	 * @param content Shared content of the file
+	 */
+	void run(File file, BasicFileAttributes attrs, FileContent content);
 
 	/** Should we ignore this file because it will be handled in another way?
 	 * 
@@ -58,5 +79,41 @@ public interface IScanPlugin
 	 * @return
 	 */
 	public boolean ignore(File file);
+	
+	/** Should we ignore this file/folder because it will be handled in another way?
+	 * The attributes were read by the scanner when it found the file.
+	 * 
+	 * @param file
+	 * @param attrs
+	 * @return
+	 */
+	public boolean ignore(File file, BasicFileAttributes attrs);
+	
+	/** Exact names of the files the plugin should be run against. If both this and
+	 * getFileExtensions() return null then the plugin is run against every file.
+	 * 
+	 * @return
+	 */
+	public Set<String> getFileNames();
+	
+	/** Extensions (without the '.') of the files the plugin should be run against. If
+	 * both this and getFileNames() return null then the plugin is run against every file.
+	 * 
+	 * @return
+	 */
+	public Set<String> getFileExtensions();
+	
+	/** Names of directories which should not be scanned because they will be handled
+	 * in another way. If this returns null then ignore() is asked about every entry
+	 * instead.
+	 * 
+	 * @return
+	 */
+	public Set<String> getIgnoredDirectoryNames();
+	
+	/** Release anything the plugin holds between files, such as threads. Called
+	 * once no more files will be scanned.
+	 */
+	public void close();
 
 }
@@ -0,0 +1,169 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Digests calculated during a single scan, keyed by the file key (device and
+ * inode where supported) of the file. Hardlinks, and files seen through more
+ * than one bind mount, share a file key, so their content only has to be read
+ * and hashed once. Every path still gets its own entry in the configuration.
+ * 
+ * If several threads ask for the digest of the same file at once, one of them
+ * hashes it while the others wait for the result.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class InodeDigests
+{
+	/**
+	 * The digest of each file key seen so far, or the hashing task which will
+	 * provide it.
+	 */
+	private ConcurrentHashMap<Object, FutureTask<String>> digests = new ConcurrentHashMap<Object, FutureTask<String>>();
+	
+	private AtomicLong reused = new AtomicLong();
+	private AtomicLong savedBytes = new AtomicLong();
+
+	/** Get the digest of a file, using the digest of another path to the same
+	 * file if there is one. Otherwise the hasher is called to calculate it.
+	 * 
+	 * @param attrs Attributes of the file, providing the file key
+	 * @param hasher Calculates the digest of the file
+	 * @return The digest as a lower case hex string
+	 * @throws IOException
+	 */
+	public String digest(BasicFileAttributes attrs, Callable<String> hasher) throws IOException
+	{
+		Object key = attrs.fileKey();
+		if(key == null) return call(hasher);
+		
+		FutureTask<String> task = new FutureTask<String>(hasher);
+		FutureTask<String> existing = digests.putIfAbsent(key, task);
+		if(existing == null)
+		{
+			task.run();
+			try
+			{
+				return get(task);
+			}
+			catch(IOException | RuntimeException e)
+			{
+				// Let the next path to the file try again
+				digests.remove(key, task);
+				throw e;
+			}
+		}
+		
+		String digest = get(existing);
+		reused.incrementAndGet();
+		savedBytes.addAndGet(attrs.size());
+		return digest;
+	}
+
+	/** Number of files whose digest was taken from another path to the same file.
+	 * 
+	 * @return
+	 */
+	public long getReused()
+	{
+		return reused.get();
+	}
+
+	/** Number of bytes that did not have to be read because the digest was taken
+	 * from another path to the same file.
+	 * 
+	 * @return
+	 */
+	public long getSavedBytes()
+	{
+		return savedBytes.get();
+	}
+
+	/** Get the result of a hashing task, waiting for it if required.
+	 * 
+	 * @param task
+	 * @return
+	 * @throws IOException
+	 */
+	private static String get(FutureTask<String> task) throws IOException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for digest");
+		}
+		catch(ExecutionException e)
+		{
+			throw rethrow(e.getCause());
+		}
+	}
+
+	/** Call a hasher directly.
+	 * 
+	 * @param hasher
+	 * @return
+	 * @throws IOException
+	 */
+	private static String call(Callable<String> hasher) throws IOException
+	{
+		try
+		{
+			return hasher.call();
+		}
+		catch(Exception e)
+		{
+			throw rethrow(e);
+		}
+	}
+
+	/** Rethrow the failure of a hasher, which is expected to be an IOException.
+	 * 
+	 * @param cause
+	 * @return Never returns normally
+	 * @throws IOException
+	 */
+	private static IOException rethrow(Throwable cause) throws IOException
+	{
+		if(cause instanceof IOException) throw (IOException)cause;
+		if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+		if(cause instanceof Error) throw (Error)cause;
+		return new IOException(cause);
+	}
+}
@@ -0,0 +1,485 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Keep a configuration current as the files beneath a directory change, rather
+ * than scanning the whole tree again.
+ * 
+ * Every directory in the scan is registered with a WatchService. Events are
+ * collected until the tree has been quiet for a short while, and events for
+ * the same path are coalesced. Each changed path then has its configurations
+ * removed and is scanned again, if it still exists. A new directory is
+ * registered and scanned as a whole, as is a directory whose events were lost
+ * to an overflow, or whose .gitignore changed.
+ * 
+ * The outputs are written by the subclass at most once per interval, and only
+ * when something has changed.
+ * 
+ * @author Ken Duck
+ *
+ */
+public abstract class InventoryWatcher
+{
+	/**
+	 * Default interval between writes of the outputs, in milliseconds.
+	 */
+	public static final long DEFAULT_INTERVAL = 10000;
+
+	/**
+	 * How long the tree must be quiet before changes are applied, in milliseconds.
+	 */
+	private static final long DEBOUNCE = 500;
+
+	/**
+	 * Longest time changes wait while the tree keeps changing, in milliseconds.
+	 */
+	private static final long MAX_DELAY = 5000;
+
+	/**
+	 * Processor used to run the plugins against changed files.
+	 */
+	private ScanProcessor processor;
+
+	/**
+	 * Configuration kept up to date.
+	 */
+	private Configuration config;
+
+	/**
+	 * Root of the watched tree.
+	 */
+	private File root;
+
+	/**
+	 * Minimum time between writes, in milliseconds.
+	 */
+	private long interval;
+
+	private WatchService service;
+
+	/**
+	 * Directory watched by each key.
+	 */
+	private Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+
+	/**
+	 * Paths changed since the changes were last applied, in the order they were
+	 * first seen.
+	 */
+	private Set<Path> pending = new LinkedHashSet<Path>();
+
+	/**
+	 * Has the configuration changed since the outputs were last written?
+	 */
+	private boolean dirty;
+
+	/**
+	 * Number of overflow events seen.
+	 */
+	private int overflows;
+
+	/**
+	 * When the first and the last of the pending changes were seen, and when the
+	 * outputs were last written, in milliseconds.
+	 */
+	private long firstEvent;
+	private long lastEvent;
+	private long lastWrite;
+	
+	/**
+	 * If true then the changes applied are not reported.
+	 */
+	private boolean quiet;
+
+	/**
+	 * 
+	 * @param processor Processor used to run the plugins against changed files
+	 * @param config Configuration to keep up to date
+	 * @param root Directory to watch
+	 * @param interval Minimum time between writes, in milliseconds
+	 * @throws IOException
+	 */
+	public InventoryWatcher(ScanProcessor processor, Configuration config, File root, long interval) throws IOException
+	{
+		if(!root.isDirectory()) throw new IllegalArgumentException("Only a directory may be watched: " + root);
+		this.processor = processor;
+		this.config = config;
+		this.root = root;
+		this.interval = interval;
+		service = root.toPath().getFileSystem().newWatchService();
+	}
+
+	/** If quiet then the changes applied are not reported.
+	 * 
+	 * @param quiet
+	 */
+	public void setQuiet(boolean quiet)
+	{
+		this.quiet = quiet;
+	}
+
+	/** Register every directory in the tree which is not excluded from the scan.
+	 * This should be done before the initial scan, so that no change made while
+	 * the scan runs is lost.
+	 * 
+	 * @throws IOException
+	 */
+	public void register() throws IOException
+	{
+		new Walker(false).scan(root);
+	}
+
+	/** Apply changes and write the outputs until interrupted. The outputs are
+	 * also written when the JVM shuts down, if they are out of date.
+	 * 
+	 * @throws IOException
+	 */
+	public void run() throws IOException
+	{
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					flush();
+				}
+				catch(IOException e)
+				{
+					System.err.println("Exception writing outputs: " + e.getMessage());
+				}
+			}
+		});
+
+		lastWrite = System.currentTimeMillis();
+		try
+		{
+			while(true)
+			{
+				long now = System.currentTimeMillis();
+				long deadline = Long.MAX_VALUE;
+				if(!pending.isEmpty()) deadline = Math.min(lastEvent + DEBOUNCE, firstEvent + MAX_DELAY);
+				else if(dirty) deadline = lastWrite + interval;
+
+				WatchKey key;
+				if(deadline == Long.MAX_VALUE) key = service.take();
+				else key = poll(Math.max(0, deadline - now));
+
+				now = System.currentTimeMillis();
+				if(key != null) collect(key, now);
+				update(now);
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			service.close();
+		}
+	}
+
+	/** Stop watching the tree. Only needed if run is not.
+	 * 
+	 * @throws IOException
+	 */
+	void close() throws IOException
+	{
+		service.close();
+	}
+
+	/** Write the outputs.
+	 * 
+	 * @throws IOException
+	 */
+	protected abstract void write() throws IOException;
+
+	/** Write the outputs if the configuration has changed since they were
+	 * last written.
+	 * 
+	 * @throws IOException
+	 */
+	private synchronized void flush() throws IOException
+	{
+		if(!dirty) return;
+		dirty = false;
+		config.touch();
+		write();
+	}
+
+	/** Wait for a directory to change.
+	 * 
+	 * @param timeout In milliseconds
+	 * @return The key of the changed directory, or null if there was no change in time
+	 * @throws InterruptedException
+	 */
+	WatchKey poll(long timeout) throws InterruptedException
+	{
+		return service.poll(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/** Apply the pending changes once the tree has been quiet for long enough,
+	 * or they have waited too long, and write the outputs if they are due.
+	 * 
+	 * @param now In milliseconds
+	 * @throws IOException
+	 */
+	void update(long now) throws IOException
+	{
+		if(isDue(now)) apply();
+		if(pending.isEmpty() && dirty && now - lastWrite >= interval)
+		{
+			flush();
+			lastWrite = now;
+		}
+	}
+
+	/** Should the pending changes be applied?
+	 * 
+	 * @param now In milliseconds
+	 * @return
+	 */
+	boolean isDue(long now)
+	{
+		return !pending.isEmpty() && (now - lastEvent >= DEBOUNCE || now - firstEvent >= MAX_DELAY);
+	}
+
+	/** The paths waiting to be scanned again.
+	 * 
+	 * @return
+	 */
+	Set<Path> getPending()
+	{
+		return pending;
+	}
+
+	/** Record the paths changed by a key's events.
+	 * 
+	 * @param key
+	 * @param now When the events were seen, in milliseconds
+	 */
+	void collect(WatchKey key, long now)
+	{
+		if(pending.isEmpty()) firstEvent = now;
+		lastEvent = now;
+		Path dir = keys.get(key);
+		for(WatchEvent<?> event: key.pollEvents())
+		{
+			if(dir == null) continue;
+			if(event.kind() == OVERFLOW)
+			{
+				// Events were lost, so everything beneath the directory is suspect
+				overflows++;
+				pending.add(dir);
+				continue;
+			}
+
+			Path path = dir.resolve((Path)event.context());
+			PathFilter filter = processor.getPathFilter();
+			if(filter != null && filter.isPatternFile(path.toFile()))
+			{
+				// The exclusions beneath the directory may have changed
+				filter.reload(dir.toFile());
+				pending.add(dir);
+			}
+			else if(event.kind() == ENTRY_MODIFY)
+			{
+				// Changes within a directory are reported by its own key
+				if(!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) pending.add(path);
+			}
+			else
+			{
+				pending.add(path);
+			}
+		}
+		if(!key.reset()) keys.remove(key);
+	}
+
+	/** Remove the configurations of the changed paths and scan them again. A
+	 * path beneath another changed path is covered by the scan of its parent.
+	 * 
+	 * @throws IOException
+	 */
+	void apply() throws IOException
+	{
+		List<File> changed = new ArrayList<File>();
+		for(Path path: pending)
+		{
+			if(!isCovered(path)) changed.add(path.toFile());
+		}
+		pending.clear();
+
+		synchronized(this)
+		{
+			int removed = config.remove(changed);
+			int before = config.getFiles().size();
+			for(File file: changed) rescan(file);
+			int added = config.getFiles().size() - before;
+			dirty = true;
+			if(!quiet) System.out.println("Watch: " + changed.size() + " paths changed, " + removed + " files removed, " + added + " added" + (overflows > 0 ? ", " + overflows + " overflows" : ""));
+			overflows = 0;
+		}
+	}
+
+	/** Is a parent of the path also waiting to be scanned again?
+	 * 
+	 * @param path
+	 * @return
+	 */
+	private boolean isCovered(Path path)
+	{
+		for(Path parent = path.getParent(); parent != null; parent = parent.getParent())
+		{
+			if(pending.contains(parent)) return true;
+		}
+		return false;
+	}
+
+	/** Scan a changed path again. A directory is registered afresh so that any
+	 * sub-directory which is now excluded stops being watched.
+	 * 
+	 * @param file
+	 */
+	private void rescan(File file)
+	{
+		Path path = file.toPath();
+		BasicFileAttributes attrs;
+		try
+		{
+			attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		catch(NoSuchFileException e)
+		{
+			// Deleted
+			return;
+		}
+		catch(IOException e)
+		{
+			System.err.println("Exception reading " + file + ": " + e.getMessage());
+			return;
+		}
+
+		if(attrs.isRegularFile())
+		{
+			if(!processor.ignore(file, attrs)) processor.process(file, attrs);
+		}
+		else if(attrs.isDirectory())
+		{
+			cancel(path);
+			try
+			{
+				new Walker(true).scan(file);
+			}
+			catch(IOException e)
+			{
+				System.err.println("Exception scanning " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/** Stop watching the directories beneath a path.
+	 * 
+	 * @param path
+	 */
+	private void cancel(Path path)
+	{
+		for(Iterator<Map.Entry<WatchKey, Path>> it = keys.entrySet().iterator(); it.hasNext();)
+		{
+			Map.Entry<WatchKey, Path> entry = it.next();
+			if(entry.getValue().startsWith(path))
+			{
+				entry.getKey().cancel();
+				it.remove();
+			}
+		}
+	}
+
+	/** Walk a tree registering its directories, and optionally scanning its files.
+	 */
+	private class Walker extends SequentialScanner
+	{
+		private boolean process;
+
+		public Walker(boolean process)
+		{
+			super(processor);
+			this.process = process;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.SequentialScanner#enter(java.nio.file.Path)
+		 */
+		@Override
+		protected void enter(Path dir) throws IOException
+		{
+			try
+			{
+				keys.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+			}
+			catch(IOException e)
+			{
+				System.err.println("Exception watching " + dir + ": " + e.getMessage());
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.SequentialScanner#visit(java.io.File, java.nio.file.attribute.BasicFileAttributes)
+		 */
+		@Override
+		protected void visit(File file, BasicFileAttributes attrs) throws IOException
+		{
+			if(process) super.visit(file, attrs);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Scan a directory tree using a work-stealing fork/join pool. Each directory becomes
+ * a task of its own, and the files within a directory are grouped into batches so that
+ * trees full of tiny files do not drown the pool in task overhead.
+ * 
+ * Every task returns the files it processed in the same order the sequential scan
+ * would have visited them. The concatenated result is used to put the configuration
+ * back into traversal order, so the output is the same no matter how many threads
+ * were used.
+ * 
+ * Files are processed while the tree is still being listed. Discovery is reported
+ * as complete once the last directory has been listed, which may be well before the
+ * last batch has been processed.
+ * 
+ * Directories are listed with a DirectoryStream and the attributes of each entry are
+ * read once, then handed to the plugins. Symbolic links found within the tree are
+ * not followed.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ParallelScanner
+{
+	/**
+	 * Maximum number of files processed by a single batch task.
+	 */
+	private static final int BATCH_FILES = 64;
+	
+	/**
+	 * Maximum number of bytes processed by a single batch task. Files larger than
+	 * this are given a task of their own.
+	 */
+	private static final long BATCH_BYTES = 1024 * 1024;
+	
+	/**
+	 * Processor used to run the plugins against each file.
+	 */
+	private ScanProcessor processor;
+	
+	/**
+	 * Number of worker threads.
+	 */
+	private int threads;
+	
+	/**
+	 * Number of directories found by the current scan that have not yet been listed.
+	 */
+	private AtomicInteger unlisted = new AtomicInteger();
+
+	/**
+	 * 
+	 * @param processor Processor used to run the plugins against each file
+	 * @param threads Number of worker threads
+	 */
+	public ParallelScanner(ScanProcessor processor, int threads)
+	{
+		this.processor = processor;
+		this.threads = threads;
+	}
+
+	/** Scan the specified file/directory.
+	 * 
+	 * @param file
+	 * @return The processed files, in sequential traversal order
+	 * @throws IOException 
+	 */
+	public List<File> scan(File file) throws IOException
+	{
+		List<File> results = new LinkedList<File>();
+		BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		if(processor.ignore(file, attrs)) return results;
+		if(attrs.isRegularFile())
+		{
+			processor.process(file, attrs);
+			results.add(file);
+			return results;
+		}
+		if(!attrs.isDirectory()) return results;
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try
+		{
+			unlisted.set(1);
+			return pool.invoke(new DirectoryTask(file.toPath()));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/** Scan a single directory. Sub-directories and batches of files are forked
+	 * as separate tasks, then joined in order.
+	 */
+	@SuppressWarnings("serial")
+	private class DirectoryTask extends RecursiveTask<List<File>>
+	{
+		private Path dir;
+
+		public DirectoryTask(Path dir)
+		{
+			this.dir = dir;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<File> compute()
+		{
+			List<RecursiveTask<List<File>>> tasks = new ArrayList<RecursiveTask<List<File>>>();
+			long start = System.nanoTime();
+			try(DirectoryStream<Path> children = Files.newDirectoryStream(dir))
+			{
+				BatchTask batch = new BatchTask();
+				for(Path child: children)
+				{
+					BasicFileAttributes attrs;
+					try
+					{
+						attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					}
+					catch(IOException e)
+					{
+						System.err.println("Exception reading " + child + ": " + e.getMessage());
+						continue;
+					}
+					if(attrs.isSymbolicLink()) continue;
+					
+					File file = child.toFile();
+					if(processor.ignore(file, attrs)) continue;
+					
+					if(attrs.isRegularFile())
+					{
+						if(!batch.isEmpty() && !batch.fits(attrs.size()))
+						{
+							tasks.add(batch);
+							batch = new BatchTask();
+						}
+						batch.add(file, attrs);
+						processor.discovered(file, attrs);
+					}
+					else if(attrs.isDirectory())
+					{
+						if(!batch.isEmpty())
+						{
+							tasks.add(batch);
+							batch = new BatchTask();
+						}
+						unlisted.incrementAndGet();
+						tasks.add(new DirectoryTask(child));
+					}
+				}
+				if(!batch.isEmpty()) tasks.add(batch);
+			}
+			catch(IOException e)
+			{
+				System.err.println("Exception reading " + dir + ": " + e.getMessage());
+			}
+			processor.getMetrics().getListing().stop(start, 0);
+			if(unlisted.decrementAndGet() == 0) processor.discoveryComplete();
+			
+			List<File> results = new LinkedList<File>();
+			if(tasks.isEmpty()) return results;
+			
+			// Fork all but the last task, which we run ourselves. Join in order to
+			// keep the results in traversal order.
+			for(int i = 0; i < tasks.size() - 1; i++)
+			{
+				tasks.get(i).fork();
+			}
+			RecursiveTask<List<File>> last = tasks.get(tasks.size() - 1);
+			List<File> lastResults = last.invoke();
+			for(int i = 0; i < tasks.size() - 1; i++)
+			{
+				results.addAll(tasks.get(i).join());
+			}
+			results.addAll(lastResults);
+			return results;
+		}
+	}
+
+	/** Process a batch of files from a single directory.
+	 */
+	@SuppressWarnings("serial")
+	private class BatchTask extends RecursiveTask<List<File>>
+	{
+		private List<File> files = new ArrayList<File>();
+		private List<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+		private long bytes;
+
+		/** Add a file to the batch.
+		 * 
+		 * @param file
+		 * @param attrs
+		 */
+		public void add(File file, BasicFileAttributes attrs)
+		{
+			files.add(file);
+			attributes.add(attrs);
+			bytes += attrs.size();
+		}
+
+		/** Returns true if a file of the given size may be added to the batch.
+		 * 
+		 * @param size
+		 * @return
+		 */
+		public boolean fits(long size)
+		{
+			return files.size() < BATCH_FILES && bytes + size <= BATCH_BYTES;
+		}
+
+		/**
+		 * 
+		 * @return
+		 */
+		public boolean isEmpty()
+		{
+			return files.isEmpty();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<File> compute()
+		{
+			for(int i = 0; i < files.size(); i++)
+			{
+				processor.process(files.get(i), attributes.get(i));
+			}
+			return files;
+		}
+	}
+}
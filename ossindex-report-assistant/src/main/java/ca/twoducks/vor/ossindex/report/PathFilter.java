@@ -0,0 +1,262 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Decides which files and directories under a scan root are left out of the
+ * scan. Excluded directories are pruned, so nothing beneath them is listed.
+ * 
+ * Patterns come from several sources. The first source with a matching pattern
+ * decides, in this order:
+ * 
+ *   o patterns given on the command line
+ *   o .gitignore and .ignore files in the scanned tree, if enabled. A file in
+ *     a deeper directory takes precedence over those above it.
+ *   o a patterns file, relative to the scan root
+ * 
+ * As with git, a file cannot be re-included if a directory above it is
+ * excluded, since the directory is never listed.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class PathFilter
+{
+	/**
+	 * Names of the per-directory pattern files read when .gitignore support is enabled.
+	 */
+	private static final String[] IGNORE_FILES = {".gitignore", ".ignore"};
+	
+	/**
+	 * Marks directories that have no pattern files.
+	 */
+	private static final PatternSet NO_PATTERNS = new PatternSet();
+	
+	/**
+	 * Path of the scan root, as given to the scanner.
+	 */
+	private String root;
+	
+	/**
+	 * Patterns from the command line.
+	 */
+	private PatternSet patterns = new PatternSet();
+	
+	/**
+	 * Patterns from a file, or null.
+	 */
+	private PatternSet filePatterns;
+	
+	/**
+	 * Indicates whether .gitignore and .ignore files are honoured.
+	 */
+	private boolean gitignore;
+	
+	/**
+	 * Patterns read from each directory, keyed by the path of the directory
+	 * relative to the root. Loaded the first time the directory is listed.
+	 */
+	private ConcurrentHashMap<String, PatternSet> directoryPatterns = new ConcurrentHashMap<String, PatternSet>();
+
+	/**
+	 * 
+	 * @param root The directory being scanned
+	 */
+	public PathFilter(File root)
+	{
+		this.root = root.getPath();
+	}
+
+	/** Exclude anything matching the pattern.
+	 * 
+	 * @param pattern Pattern in .gitignore syntax
+	 */
+	public void exclude(String pattern)
+	{
+		patterns.add(pattern);
+	}
+
+	/** Scan anything matching the pattern, even if an earlier pattern excluded it.
+	 * 
+	 * @param pattern Pattern in .gitignore syntax
+	 */
+	public void include(String pattern)
+	{
+		patterns.add("!" + pattern);
+	}
+
+	/** Load patterns from a file in .gitignore format. The patterns are relative
+	 * to the scan root.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void setPatternFile(File file) throws IOException
+	{
+		filePatterns = new PatternSet();
+		filePatterns.load(file);
+	}
+
+	/** Honour the .gitignore and .ignore files in the scanned tree. The .git
+	 * directories themselves are excluded as well.
+	 * 
+	 * @param b
+	 */
+	public void setGitignore(boolean b)
+	{
+		gitignore = b;
+	}
+
+	/** Returns true if the filter has nothing to do.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty()
+	{
+		return patterns.isEmpty() && (filePatterns == null || filePatterns.isEmpty()) && !gitignore;
+	}
+
+	/** Is the file or directory excluded from the scan?
+	 * 
+	 * @param file A file or directory found beneath the root
+	 * @param attrs
+	 * @return
+	 */
+	public boolean isExcluded(File file, BasicFileAttributes attrs)
+	{
+		String path = getRelativePath(file);
+		if(path == null) return false;
+		boolean isDirectory = attrs.isDirectory();
+		
+		Boolean result = patterns.match(path, isDirectory);
+		if(result != null) return result;
+		
+		if(gitignore)
+		{
+			if(isDirectory && ".git".equals(file.getName())) return true;
+			
+			// Deepest pattern file first
+			int index = path.lastIndexOf('/');
+			while(true)
+			{
+				String dir = index < 0 ? "" : path.substring(0, index);
+				result = getDirectoryPatterns(dir).match(path.substring(index + 1), isDirectory);
+				if(result != null) return result;
+				if(index < 0) break;
+				index = path.lastIndexOf('/', index - 1);
+			}
+		}
+		
+		if(filePatterns != null)
+		{
+			result = filePatterns.match(path, isDirectory);
+			if(result != null) return result;
+		}
+		return false;
+	}
+
+	/** Is the file one of the per-directory pattern files read by the filter?
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public boolean isPatternFile(File file)
+	{
+		if(!gitignore) return false;
+		for(String name: IGNORE_FILES)
+		{
+			if(name.equals(file.getName())) return true;
+		}
+		return false;
+	}
+
+	/** Forget the patterns read from a directory's pattern files, so that they
+	 * are read again when next needed.
+	 * 
+	 * @param dir
+	 */
+	public void reload(File dir)
+	{
+		String path = dir.getPath().equals(root) ? "" : getRelativePath(dir);
+		if(path != null) directoryPatterns.remove(path);
+	}
+
+	/** Get the path of a file relative to the root, using '/' as the separator.
+	 * 
+	 * @param file
+	 * @return The relative path, or null for the root itself or a file outside it
+	 */
+	private String getRelativePath(File file)
+	{
+		String path = file.getPath();
+		if(path.length() <= root.length() || !path.startsWith(root)) return null;
+		int start = root.length();
+		if(path.charAt(start) == File.separatorChar) start++;
+		else if(!root.endsWith(File.separator)) return null;
+		path = path.substring(start);
+		if(File.separatorChar != '/') path = path.replace(File.separatorChar, '/');
+		return path;
+	}
+
+	/** Get the patterns from the pattern files in a directory, reading them the
+	 * first time.
+	 * 
+	 * @param dir Path of the directory relative to the root
+	 * @return
+	 */
+	private PatternSet getDirectoryPatterns(String dir)
+	{
+		PatternSet set = directoryPatterns.get(dir);
+		if(set == null)
+		{
+			File base = dir.isEmpty() ? new File(root) : new File(root, dir);
+			set = new PatternSet();
+			// .ignore is read last, so it takes precedence
+			for(String name: IGNORE_FILES)
+			{
+				File file = new File(base, name);
+				if(!file.isFile()) continue;
+				try
+				{
+					set.load(file);
+				}
+				catch(IOException e)
+				{
+					System.err.println("Exception reading " + file + ": " + e.getMessage());
+				}
+			}
+			if(set.isEmpty()) set = NO_PATTERNS;
+			PatternSet existing = directoryPatterns.putIfAbsent(dir, set);
+			if(existing != null) set = existing;
+		}
+		return set;
+	}
+}
@@ -0,0 +1,385 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/** A compiled set of exclude patterns with .gitignore semantics:
+ * 
+ *   o blank lines and lines starting with '#' are ignored
+ *   o a leading '!' negates the pattern, re-including anything an earlier
+ *     pattern excluded
+ *   o a trailing '/' only matches directories
+ *   o a pattern with a '/' anywhere else is anchored to the base directory,
+ *     otherwise it matches the name at any depth
+ *   o '*' and '?' do not match '/', '**' matches any number of directories
+ *     and '[...]' matches a character class
+ *   o the last pattern that matches decides
+ * 
+ * Patterns are sorted into buckets as they are added. Plain names, extension
+ * patterns such as "*.class" and plain anchored paths are looked up in hash
+ * tables, so only patterns with other wildcards are tried one at a time. Matching
+ * cost therefore does not grow with the number of ordinary patterns.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class PatternSet
+{
+	/**
+	 * Rules for plain names, matched against the last path element.
+	 */
+	private Map<String, List<Rule>> names = new HashMap<String, List<Rule>>();
+	
+	/**
+	 * Rules of the form "*.ext", keyed by the suffix including the '.'.
+	 */
+	private Map<String, List<Rule>> suffixes = new HashMap<String, List<Rule>>();
+	
+	/**
+	 * Rules for plain anchored paths.
+	 */
+	private Map<String, List<Rule>> paths = new HashMap<String, List<Rule>>();
+	
+	/**
+	 * All other rules, in the order they were added.
+	 */
+	private List<Rule> globs = new ArrayList<Rule>();
+	
+	/**
+	 * Number of patterns added so far, used to order the rules.
+	 */
+	private int count;
+
+	/** Add the patterns from a file in .gitignore format. They take precedence
+	 * over the patterns already in the set.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void load(File file) throws IOException
+	{
+		try(BufferedReader reader = new BufferedReader(new FileReader(file)))
+		{
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				add(line);
+			}
+		}
+	}
+
+	/** Add a single pattern, in .gitignore syntax.
+	 * 
+	 * @param line
+	 */
+	public void add(String line)
+	{
+		String pattern = trim(line);
+		if(pattern.isEmpty() || pattern.startsWith("#")) return;
+		
+		boolean negate = false;
+		if(pattern.startsWith("!"))
+		{
+			negate = true;
+			pattern = pattern.substring(1);
+		}
+		else if(pattern.startsWith("\\#") || pattern.startsWith("\\!"))
+		{
+			pattern = pattern.substring(1);
+		}
+		
+		boolean dirOnly = false;
+		if(pattern.endsWith("/"))
+		{
+			dirOnly = true;
+			pattern = pattern.substring(0, pattern.length() - 1);
+		}
+		
+		// "**/name" is the same as "name"
+		while(pattern.startsWith("**/") && pattern.indexOf('/', 3) < 0) pattern = pattern.substring(3);
+		
+		boolean anchored = pattern.indexOf('/') >= 0;
+		if(pattern.startsWith("/")) pattern = pattern.substring(1);
+		if(pattern.isEmpty()) return;
+		
+		Rule rule = new Rule(count++, negate, dirOnly);
+		if(!anchored && isLiteral(pattern))
+		{
+			put(names, unescape(pattern), rule);
+		}
+		else if(!anchored && pattern.startsWith("*") && isLiteral(pattern.substring(1)) && pattern.indexOf('.') == 1)
+		{
+			put(suffixes, unescape(pattern.substring(1)), rule);
+		}
+		else if(anchored && isLiteral(pattern))
+		{
+			put(paths, unescape(pattern), rule);
+		}
+		else
+		{
+			rule.anchored = anchored;
+			rule.regex = Pattern.compile(toRegex(pattern));
+			globs.add(rule);
+		}
+	}
+
+	/** Returns true if no patterns have been added.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty()
+	{
+		return count == 0;
+	}
+
+	/** Match a path against the patterns.
+	 * 
+	 * @param path Path relative to the base directory of the patterns, using '/' as the separator
+	 * @param isDirectory
+	 * @return TRUE if the path is excluded, FALSE if it is re-included by a negated
+	 *         pattern and null if no pattern matches
+	 */
+	public Boolean match(String path, boolean isDirectory)
+	{
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		
+		Rule best = find(names.get(name), null, isDirectory);
+		best = find(paths.get(path), best, isDirectory);
+		for(int index = name.indexOf('.'); index >= 0; index = name.indexOf('.', index + 1))
+		{
+			best = find(suffixes.get(name.substring(index)), best, isDirectory);
+		}
+		
+		// Later rules win, so only globs added after the best rule so far can change the result
+		for(int i = globs.size() - 1; i >= 0; i--)
+		{
+			Rule rule = globs.get(i);
+			if(best != null && rule.index < best.index) break;
+			if(rule.dirOnly && !isDirectory) continue;
+			if(rule.regex.matcher(rule.anchored ? path : name).matches())
+			{
+				best = rule;
+				break;
+			}
+		}
+		
+		if(best == null) return null;
+		return !best.negate;
+	}
+
+	/** Find the latest applicable rule in a bucket, if it is later than the best
+	 * rule found so far.
+	 * 
+	 * @param rules
+	 * @param best
+	 * @param isDirectory
+	 * @return
+	 */
+	private static Rule find(List<Rule> rules, Rule best, boolean isDirectory)
+	{
+		if(rules == null) return best;
+		for(int i = rules.size() - 1; i >= 0; i--)
+		{
+			Rule rule = rules.get(i);
+			if(best != null && rule.index < best.index) break;
+			if(rule.dirOnly && !isDirectory) continue;
+			return rule;
+		}
+		return best;
+	}
+
+	/**
+	 * 
+	 * @param map
+	 * @param key
+	 * @param rule
+	 */
+	private static void put(Map<String, List<Rule>> map, String key, Rule rule)
+	{
+		List<Rule> rules = map.get(key);
+		if(rules == null)
+		{
+			rules = new ArrayList<Rule>(1);
+			map.put(key, rules);
+		}
+		rules.add(rule);
+	}
+
+	/** Remove trailing spaces, unless they are escaped with a backslash.
+	 * 
+	 * @param line
+	 * @return
+	 */
+	private static String trim(String line)
+	{
+		int end = line.length();
+		while(end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) end--;
+		if(end > 0 && line.charAt(end - 1) == '\r') end--;
+		return line.substring(0, end);
+	}
+
+	/** Returns true if the pattern has no wildcards.
+	 * 
+	 * @param pattern
+	 * @return
+	 */
+	private static boolean isLiteral(String pattern)
+	{
+		for(int i = 0; i < pattern.length(); i++)
+		{
+			char c = pattern.charAt(i);
+			if(c == '\\') i++;
+			else if(c == '*' || c == '?' || c == '[') return false;
+		}
+		return true;
+	}
+
+	/** Remove backslash escapes from a literal pattern.
+	 * 
+	 * @param pattern
+	 * @return
+	 */
+	private static String unescape(String pattern)
+	{
+		if(pattern.indexOf('\\') < 0) return pattern;
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < pattern.length(); i++)
+		{
+			char c = pattern.charAt(i);
+			if(c == '\\' && i + 1 < pattern.length()) c = pattern.charAt(++i);
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/** Convert a glob to a regular expression.
+	 * 
+	 * @param glob
+	 * @return
+	 */
+	static String toRegex(String glob)
+	{
+		StringBuilder sb = new StringBuilder();
+		int length = glob.length();
+		for(int i = 0; i < length; i++)
+		{
+			char c = glob.charAt(i);
+			switch(c)
+			{
+			case '*':
+				if(i + 1 < length && glob.charAt(i + 1) == '*')
+				{
+					boolean start = i == 0 || glob.charAt(i - 1) == '/';
+					boolean end = i + 2 == length || glob.charAt(i + 2) == '/';
+					if(start && end)
+					{
+						i++;
+						if(i + 1 == length)
+						{
+							// Trailing "**" matches everything inside
+							sb.append(".*");
+						}
+						else
+						{
+							// "**/" matches zero or more directories
+							sb.append("(?:.*/)?");
+							i++;
+						}
+						break;
+					}
+					i++;
+				}
+				sb.append("[^/]*");
+				break;
+			case '?':
+				sb.append("[^/]");
+				break;
+			case '[':
+				int close = glob.indexOf(']', i + 2);
+				if(close < 0)
+				{
+					sb.append("\\[");
+					break;
+				}
+				sb.append('[');
+				int j = i + 1;
+				if(glob.charAt(j) == '!' || glob.charAt(j) == '^')
+				{
+					sb.append('^');
+					j++;
+				}
+				for(; j < close; j++)
+				{
+					char k = glob.charAt(j);
+					if(k == '\\' || k == '[' || k == '&' || k == '^') sb.append('\\');
+					sb.append(k);
+				}
+				sb.append(']');
+				i = close;
+				break;
+			case '\\':
+				if(i + 1 < length) c = glob.charAt(++i);
+				sb.append(Pattern.quote(String.valueOf(c)));
+				break;
+			default:
+				if(Character.isLetterOrDigit(c) || c == '/') sb.append(c);
+				else sb.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/** A single pattern.
+	 */
+	private static class Rule
+	{
+		/**
+		 * Position of the pattern in the set. Later patterns take precedence.
+		 */
+		private final int index;
+		private final boolean negate;
+		private final boolean dirOnly;
+		private boolean anchored;
+		private Pattern regex;
+
+		public Rule(int index, boolean negate, boolean dirOnly)
+		{
+			this.index = index;
+			this.negate = negate;
+			this.dirOnly = dirOnly;
+		}
+	}
+}
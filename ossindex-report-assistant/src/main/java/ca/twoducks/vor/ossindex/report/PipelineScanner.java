@@ -0,0 +1,643 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Scan a directory tree as a staged pipeline:
+ * 
+ *   o the walker (the calling thread) lists directories and queues each file
+ *   o I/O workers read each file and calculate its digest
+ *   o CPU workers run the plugins against the buffered content
+ *   o a single aggregator adds the results to the configuration
+ * 
+ * The stages are connected by bounded queues, and each stage has its own number of
+ * threads. The walker also has to reserve space for a file's content buffer in an
+ * in-flight byte budget before queueing it, and the space is returned once the CPU
+ * stage is done with the content. This keeps memory bounded even when the tree is
+ * full of large files.
+ * 
+ * If any stage throws something other than a plugin's RuntimeException, such as an
+ * OutOfMemoryError, the walker stops queueing files, the other stages drain their
+ * queues, and scan() rethrows it.
+ * 
+ * While the pipeline runs, the plugins must be given the configuration returned by
+ * getConfiguration(). It records the results for each file on the CPU worker, and
+ * the aggregator adds them to the real configuration in traversal order, so the
+ * output is the same as a sequential scan.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class PipelineScanner
+{
+	/**
+	 * Capacity of the queues between stages.
+	 */
+	private static final int QUEUE_SIZE = 1024;
+	
+	/**
+	 * The in-flight budget is counted in units of this many bytes.
+	 */
+	private static final int PERMIT_BYTES = 1024;
+	
+	/**
+	 * Marks the end of a queue.
+	 */
+	private static final Item END = new Item(-1, null, null, 0);
+	
+	private ScanProcessor processor;
+	private Configuration config;
+	private int ioThreads;
+	private int cpuThreads;
+	
+	/**
+	 * Size of the in-flight budget, in permits.
+	 */
+	private int budget;
+	private Semaphore inFlight;
+	
+	private BlockingQueue<Item> ioQueue = new ArrayBlockingQueue<Item>(QUEUE_SIZE);
+	private BlockingQueue<Item> cpuQueue = new ArrayBlockingQueue<Item>(QUEUE_SIZE);
+	private BlockingQueue<Item> resultQueue = new ArrayBlockingQueue<Item>(QUEUE_SIZE);
+	
+	/**
+	 * Number of workers in each stage that are still running.
+	 */
+	private AtomicInteger ioRunning = new AtomicInteger();
+	private AtomicInteger cpuRunning = new AtomicInteger();
+	
+	/**
+	 * First failure of any stage.
+	 */
+	private AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	
+	/**
+	 * Configuration handed to the plugins while the pipeline runs.
+	 */
+	private RecordingConfiguration recorder = new RecordingConfiguration();
+
+	/**
+	 * 
+	 * @param processor Processor used to run the plugins against each file
+	 * @param config Configuration the results are added to
+	 * @param ioThreads Number of threads reading and hashing files
+	 * @param cpuThreads Number of threads running plugins
+	 * @param maxInFlightBytes Maximum number of bytes of file content held by the pipeline
+	 */
+	public PipelineScanner(ScanProcessor processor, Configuration config, int ioThreads, int cpuThreads, long maxInFlightBytes)
+	{
+		this.processor = processor;
+		this.config = config;
+		this.ioThreads = ioThreads;
+		this.cpuThreads = cpuThreads;
+		this.budget = (int)Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlightBytes / PERMIT_BYTES));
+		this.inFlight = new Semaphore(budget);
+	}
+
+	/** The configuration plugins must use while the pipeline is running.
+	 * 
+	 * @return
+	 */
+	public IConfiguration getConfiguration()
+	{
+		return recorder;
+	}
+
+	/** Scan the specified file/directory, returning once every file has been
+	 * added to the configuration. If a stage failed, its failure is thrown once
+	 * the other stages have stopped.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void scan(File file) throws IOException
+	{
+		ioRunning.set(ioThreads);
+		cpuRunning.set(cpuThreads);
+		for(int i = 0; i < ioThreads; i++)
+		{
+			startThread(new IoWorker(), "scan-io-" + i);
+		}
+		for(int i = 0; i < cpuThreads; i++)
+		{
+			startThread(new CpuWorker(), "scan-cpu-" + i);
+		}
+		Thread aggregator = startThread(new Aggregator(), "scan-aggregator");
+		
+		try
+		{
+			new Walker().scan(file);
+			processor.discoveryComplete();
+		}
+		finally
+		{
+			for(int i = 0; i < ioThreads; i++)
+			{
+				putUninterruptibly(ioQueue, END);
+			}
+			
+			boolean interrupted = false;
+			while(aggregator.isAlive())
+			{
+				try
+				{
+					aggregator.join();
+				}
+				catch(InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+		}
+		
+		Throwable t = failure.get();
+		if(t instanceof IOException) throw (IOException)t;
+		if(t instanceof RuntimeException) throw (RuntimeException)t;
+		if(t instanceof Error) throw (Error)t;
+		if(t != null) throw new IOException(t);
+	}
+
+	/** Record the failure of a stage, and give up on the item it was handling.
+	 * 
+	 * @param item
+	 * @param t
+	 */
+	private void fail(Item item, Throwable t)
+	{
+		failure.compareAndSet(null, t);
+		if(item.content != null)
+		{
+			item.content.release();
+			item.content = null;
+		}
+		inFlight.release(item.permits);
+	}
+
+	/** Start a daemon thread for one of the stages.
+	 * 
+	 * @param runnable
+	 * @param name
+	 * @return
+	 */
+	private Thread startThread(Runnable runnable, String name)
+	{
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/** Put an item on a queue, waiting for space if required.
+	 * 
+	 * @param queue
+	 * @param item
+	 */
+	private static void putUninterruptibly(BlockingQueue<Item> queue, Item item)
+	{
+		boolean interrupted = false;
+		while(true)
+		{
+			try
+			{
+				queue.put(item);
+				break;
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Number of in-flight permits required for a file, covering the buffer
+	 * FileContent will allocate for it. Files too large to buffer are streamed,
+	 * and are charged as much as the largest buffer. No file may need more than
+	 * the whole budget.
+	 * 
+	 * @param attrs
+	 * @return
+	 */
+	private int getPermits(BasicFileAttributes attrs)
+	{
+		long bytes = FileContent.getBufferSize(attrs.size());
+		if(bytes == 0) bytes = FileContent.MAX_BUFFERED;
+		long permits = (bytes + PERMIT_BYTES - 1) / PERMIT_BYTES;
+		return (int)Math.max(1, Math.min(permits, budget));
+	}
+
+	/** Walks the tree on the calling thread, queueing each file for the I/O stage.
+	 */
+	private class Walker extends SequentialScanner
+	{
+		private long sequence;
+
+		public Walker()
+		{
+			super(processor);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.SequentialScanner#visit(java.io.File, java.nio.file.attribute.BasicFileAttributes)
+		 */
+		@Override
+		protected void visit(File file, BasicFileAttributes attrs) throws IOException
+		{
+			// Once a stage has failed the scan is abandoned
+			if(failure.get() != null) return;
+			int permits = getPermits(attrs);
+			processor.discovered(file, attrs);
+			inFlight.acquireUninterruptibly(permits);
+			putUninterruptibly(ioQueue, new Item(sequence++, file, attrs, permits));
+		}
+	}
+
+	/** Reads files and calculates their digests.
+	 */
+	private class IoWorker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while(true)
+			{
+				Item item;
+				try
+				{
+					item = ioQueue.take();
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+				
+				if(item == END)
+				{
+					if(ioRunning.decrementAndGet() == 0)
+					{
+						for(int i = 0; i < cpuThreads; i++)
+						{
+							putUninterruptibly(cpuQueue, END);
+						}
+					}
+					return;
+				}
+				
+				try
+				{
+					item.content = processor.open(item.file, item.attrs);
+					try
+					{
+						processor.prepare(item.content);
+					}
+					catch(IOException e)
+					{
+						// The plugins will report their own errors for the file
+						System.err.println("Exception reading " + item.file + ": " + e.getMessage());
+					}
+				}
+				catch(Throwable t)
+				{
+					fail(item, t);
+					continue;
+				}
+				putUninterruptibly(cpuQueue, item);
+			}
+		}
+	}
+
+	/** Runs the plugins against buffered content, recording the results.
+	 */
+	private class CpuWorker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while(true)
+			{
+				Item item;
+				try
+				{
+					item = cpuQueue.take();
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+				
+				if(item == END)
+				{
+					if(cpuRunning.decrementAndGet() == 0)
+					{
+						putUninterruptibly(resultQueue, END);
+					}
+					return;
+				}
+				
+				try
+				{
+					recorder.begin(item.file);
+					try
+					{
+						processor.run(item.content);
+					}
+					catch(RuntimeException e)
+					{
+						e.printStackTrace();
+					}
+					finally
+					{
+						recorder.end(item);
+					}
+				}
+				catch(Throwable t)
+				{
+					fail(item, t);
+					continue;
+				}
+				item.content.release();
+				item.content = null;
+				inFlight.release(item.permits);
+				putUninterruptibly(resultQueue, item);
+			}
+		}
+	}
+
+	/** Adds the recorded results to the configuration in traversal order.
+	 */
+	private class Aggregator implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			Map<Long, Item> pending = new HashMap<Long, Item>();
+			long next = 0;
+			while(true)
+			{
+				Item item;
+				try
+				{
+					item = resultQueue.take();
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+				if(item == END) return;
+				// After a failure the queue is only drained
+				if(failure.get() != null) continue;
+				
+				try
+				{
+					pending.put(item.sequence, item);
+					while(pending.containsKey(next))
+					{
+						Item ready = pending.remove(next++);
+						
+						if(ready.result != null) config.addFileConfig(ready.file, ready.result);
+						if(ready.entries != null)
+						{
+							for(FileConfig entry: ready.entries) config.addFileConfig(entry);
+						}
+						processor.scanned(ready.file, ready.attrs);
+					}
+				}
+				catch(Throwable t)
+				{
+					failure.compareAndSet(null, t);
+				}
+			}
+		}
+	}
+
+	/** A file moving through the pipeline.
+	 */
+	private static class Item
+	{
+		private final long sequence;
+		private final File file;
+		private final BasicFileAttributes attrs;
+		private final int permits;
+		private FileContent content;
+		private FileConfig result;
+		private List<FileConfig> entries;
+
+		public Item(long sequence, File file, BasicFileAttributes attrs, int permits)
+		{
+			this.sequence = sequence;
+			this.file = file;
+			this.attrs = attrs;
+			this.permits = permits;
+		}
+	}
+
+	/** Configuration used by the plugins while the pipeline runs. Results are
+	 * recorded against the file being processed by the current CPU worker.
+	 */
+	private class RecordingConfiguration implements IConfiguration
+	{
+		private ThreadLocal<File> currentFile = new ThreadLocal<File>();
+		private ThreadLocal<FileConfig> currentConfig = new ThreadLocal<FileConfig>();
+		private ThreadLocal<List<FileConfig>> currentEntries = new ThreadLocal<List<FileConfig>>();
+
+		/** Start recording results for a file on this thread.
+		 * 
+		 * @param file
+		 */
+		public void begin(File file)
+		{
+			currentFile.set(file);
+			currentConfig.remove();
+			currentEntries.remove();
+		}
+
+		/** Stop recording results on this thread, storing them in the item.
+		 * 
+		 * @param item
+		 */
+		public void end(Item item)
+		{
+			item.result = currentConfig.get();
+			item.entries = currentEntries.get();
+			currentFile.remove();
+			currentConfig.remove();
+			currentEntries.remove();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addFile(java.io.File)
+		 */
+		@Override
+		public void addFile(File file) throws IOException
+		{
+			record(file, new FileConfig(file));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addFile(java.io.File, ca.twoducks.vor.ossindex.report.FileContent)
+		 */
+		@Override
+		public void addFile(File file, FileContent content) throws IOException
+		{
+			record(file, new FileConfig(file, content));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#getDigest(java.io.File)
+		 */
+		@Override
+		public String getDigest(File file) throws IOException
+		{
+			FileConfig fconf = currentConfig.get();
+			if(fconf != null && file.equals(currentFile.get())) return fconf.getDigest();
+			return config.getDigest(file);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addArchiveEntry(java.io.File, java.lang.String, java.lang.String)
+		 */
+		@Override
+		public void addArchiveEntry(File archive, String entry, String digest)
+		{
+			getFileConfig(archive);
+			List<FileConfig> entries = currentEntries.get();
+			if(entries == null)
+			{
+				entries = new ArrayList<FileConfig>();
+				currentEntries.set(entries);
+			}
+			entries.add(new FileConfig(archive, entry, digest));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+		 */
+		@Override
+		public void addDependency(File file, String type, String pkgName, String version, String comment)
+		{
+			getFileConfig(file).addDependency(type, null, pkgName, version, comment);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.net.URL)
+		 */
+		@Override
+		public void addDependency(File file, String type, URL url)
+		{
+			try
+			{
+				addDependency(file, type, url.toURI(), null);
+			}
+			catch (URISyntaxException e)
+			{
+				System.err.println("Exception handling URL: " + url);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.net.URI, java.lang.String, java.lang.String)
+		 */
+		@Override
+		public void addDependency(File file, String type, String artifactId, URI uri, String version, String comment)
+		{
+			getFileConfig(file).addDependency(type, artifactId, uri, version, comment);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.net.URI, java.lang.String)
+		 */
+		@Override
+		public void addDependency(File file, String type, URI uri, String comment)
+		{
+			addDependency(file, type, null, uri, null, comment);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IConfiguration#addDependency(java.io.File, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+		 */
+		@Override
+		public void addDependency(File file, String type, String groupId, String artifactId, String version, String comment)
+		{
+			getFileConfig(file).addDependency(type, groupId, artifactId, version, comment);
+		}
+
+		/** Record the configuration of the current file.
+		 * 
+		 * @param file
+		 * @param fconf
+		 */
+		private void record(File file, FileConfig fconf)
+		{
+			if(!file.equals(currentFile.get()))
+			{
+				throw new IllegalArgumentException("Only the file being scanned may be added: " + file);
+			}
+			currentConfig.set(fconf);
+		}
+
+		/** Get the recorded configuration for a file.
+		 * 
+		 * @param file
+		 * @return
+		 */
+		private FileConfig getFileConfig(File file)
+		{
+			FileConfig fconf = currentConfig.get();
+			if(fconf == null || !file.equals(currentFile.get()))
+			{
+				throw new IllegalArgumentException("File must be added to configuration before dependencies are added");
+			}
+			return fconf;
+		}
+	}
+}
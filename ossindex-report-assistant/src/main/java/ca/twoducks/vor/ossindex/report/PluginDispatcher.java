@@ -0,0 +1,239 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Dispatch table mapping file names and extensions to the scan plugins that are
+ * interested in them. The table is built once from the plugin declarations, so the
+ * cost of finding the plugins for a file is a couple of hash lookups no matter how
+ * many plugins are registered.
+ * 
+ * Plugins that declare neither names nor extensions are run against every file.
+ * The plugins for a file are always returned in registration order.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class PluginDispatcher
+{
+	private static final IScanPlugin[] NONE = new IScanPlugin[0];
+	
+	/**
+	 * Registration order of each plugin.
+	 */
+	private Map<IScanPlugin, Integer> order = new IdentityHashMap<IScanPlugin, Integer>();
+	
+	/**
+	 * Plugins run against every file.
+	 */
+	private IScanPlugin[] catchAll;
+	
+	/**
+	 * Plugins for an exact file name, including the catch-all plugins.
+	 */
+	private Map<String, IScanPlugin[]> byName = new HashMap<String, IScanPlugin[]>();
+	
+	/**
+	 * Plugins for a file extension, including the catch-all plugins.
+	 */
+	private Map<String, IScanPlugin[]> byExtension = new HashMap<String, IScanPlugin[]>();
+	
+	/**
+	 * Names of directories that are not scanned when dependencies are exported.
+	 */
+	private Set<String> ignoredDirectories = new HashSet<String>();
+	
+	/**
+	 * Plugins that must be asked whether each entry should be ignored.
+	 */
+	private IScanPlugin[] ignoreCallbacks;
+
+	/**
+	 * 
+	 * @param plugins Plugins, in the order they should be run
+	 */
+	public PluginDispatcher(List<IScanPlugin> plugins)
+	{
+		for(IScanPlugin plugin: plugins)
+		{
+			order.put(plugin, order.size());
+		}
+		
+		List<IScanPlugin> all = new ArrayList<IScanPlugin>();
+		List<IScanPlugin> callbacks = new ArrayList<IScanPlugin>();
+		Map<String, List<IScanPlugin>> names = new HashMap<String, List<IScanPlugin>>();
+		Map<String, List<IScanPlugin>> extensions = new HashMap<String, List<IScanPlugin>>();
+		for(IScanPlugin plugin: plugins)
+		{
+			Set<String> pluginNames = plugin.getFileNames();
+			Set<String> pluginExtensions = plugin.getFileExtensions();
+			if(pluginNames == null && pluginExtensions == null)
+			{
+				all.add(plugin);
+			}
+			else
+			{
+				if(pluginNames != null) index(names, pluginNames, plugin);
+				if(pluginExtensions != null) index(extensions, pluginExtensions, plugin);
+			}
+			
+			Set<String> dirs = plugin.getIgnoredDirectoryNames();
+			if(dirs == null) callbacks.add(plugin);
+			else ignoredDirectories.addAll(dirs);
+		}
+		
+		catchAll = all.toArray(NONE);
+		ignoreCallbacks = callbacks.toArray(NONE);
+		build(byName, names.keySet(), names);
+		build(byExtension, extensions.keySet(), extensions);
+	}
+
+	/** Get the plugins that should be run against a file, in registration order.
+	 * 
+	 * @param name Name of the file
+	 * @return
+	 */
+	public IScanPlugin[] getPlugins(String name)
+	{
+		IScanPlugin[] named = byName.get(name);
+		IScanPlugin[] extended = null;
+		int index = name.lastIndexOf('.');
+		if(index >= 0) extended = byExtension.get(name.substring(index + 1));
+		
+		if(named == null && extended == null) return catchAll;
+		if(named == null) return extended;
+		if(extended == null) return named;
+		return merge(named, extended);
+	}
+
+	/** Returns true if any plugins other than the catch-all plugins are interested
+	 * in files with the given name. Such files will usually need to be read.
+	 * 
+	 * @param name Name of the file
+	 * @return
+	 */
+	public boolean hasSpecificPlugins(String name)
+	{
+		if(byName.containsKey(name)) return true;
+		int index = name.lastIndexOf('.');
+		return index >= 0 && byExtension.containsKey(name.substring(index + 1));
+	}
+
+	/** Returns true if directories with the given name should not be scanned.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public boolean isIgnoredDirectory(String name)
+	{
+		return ignoredDirectories.contains(name);
+	}
+
+	/** Plugins which did not declare their ignored directories, and so must be
+	 * asked about every entry.
+	 * 
+	 * @return
+	 */
+	public IScanPlugin[] getIgnoreCallbacks()
+	{
+		return ignoreCallbacks;
+	}
+
+	/** Add a plugin to the lists for each of the given keys.
+	 * 
+	 * @param index
+	 * @param keys
+	 * @param plugin
+	 */
+	private static void index(Map<String, List<IScanPlugin>> index, Collection<String> keys, IScanPlugin plugin)
+	{
+		for(String key: keys)
+		{
+			List<IScanPlugin> list = index.get(key);
+			if(list == null)
+			{
+				list = new ArrayList<IScanPlugin>();
+				index.put(key, list);
+			}
+			list.add(plugin);
+		}
+	}
+
+	/** Build the final table entries, adding in the catch-all plugins.
+	 * 
+	 * @param table
+	 * @param keys
+	 * @param index
+	 */
+	private void build(Map<String, IScanPlugin[]> table, Collection<String> keys, Map<String, List<IScanPlugin>> index)
+	{
+		for(String key: keys)
+		{
+			table.put(key, merge(catchAll, index.get(key).toArray(NONE)));
+		}
+	}
+
+	/** Merge two plugin lists which are each in registration order, removing
+	 * duplicates and keeping registration order.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private IScanPlugin[] merge(IScanPlugin[] a, IScanPlugin[] b)
+	{
+		List<IScanPlugin> results = new ArrayList<IScanPlugin>(a.length + b.length);
+		int i = 0;
+		int j = 0;
+		while(i < a.length || j < b.length)
+		{
+			if(j >= b.length) results.add(a[i++]);
+			else if(i >= a.length) results.add(b[j++]);
+			else
+			{
+				int ai = order.get(a[i]);
+				int bj = order.get(b[j]);
+				if(ai < bj) results.add(a[i++]);
+				else if(bj < ai) results.add(b[j++]);
+				else
+				{
+					results.add(a[i++]);
+					j++;
+				}
+			}
+		}
+		return results.toArray(NONE);
+	}
+}
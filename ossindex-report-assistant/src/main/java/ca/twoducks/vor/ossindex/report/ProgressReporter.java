@@ -0,0 +1,447 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Reports scan progress from a thread of its own, so the scan threads never
+ * wait on the console. The scanners only bump a few counters; a summary line
+ * (files/s, MB/s, ETA and the current directory) is printed at a fixed interval.
+ * 
+ * The MB/s is of the bytes actually read and hashed, taken from the scan
+ * metrics. Files whose digest came from the cache, another hardlink or the git
+ * index are counted as scanned but not as read. Rates are measured from the
+ * first file, not from when the reporter was started.
+ * 
+ * A full listing of the scanned files may also be written to a file. The file
+ * names are queued and written in batches by another thread.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ProgressReporter
+{
+	/**
+	 * Default time between summary lines.
+	 */
+	public static final long DEFAULT_INTERVAL = 2000;
+	
+	/**
+	 * Maximum number of file names waiting to be written to the listing. Scan
+	 * threads wait if the listing falls this far behind.
+	 */
+	private static final int LISTING_QUEUE_SIZE = 64 * 1024;
+	
+	/**
+	 * Marks the end of the listing queue.
+	 */
+	private static final File END = new File("");
+	
+	private PrintStream out;
+	private long interval;
+	
+	/**
+	 * If true then no summary lines are printed.
+	 */
+	private boolean quiet;
+	
+	private AtomicLong discoveredFiles = new AtomicLong();
+	private AtomicLong discoveredBytes = new AtomicLong();
+	private AtomicLong scannedFiles = new AtomicLong();
+	private AtomicLong scannedBytes = new AtomicLong();
+	
+	/**
+	 * Receives the read and hash timings of the scan.
+	 */
+	private ScanMetrics metrics = new ScanMetrics();
+	
+	/**
+	 * Set once every file to be scanned has been discovered, at which point
+	 * we can estimate the remaining time.
+	 */
+	private volatile boolean discoveryComplete;
+	
+	/**
+	 * The most recently scanned file. Only used to show where the scan is.
+	 */
+	private volatile File lastFile;
+	
+	private long startTime;
+	
+	/**
+	 * Time the first file was discovered or scanned, or 0 if none has been yet.
+	 */
+	private volatile long processingTime;
+	private CountDownLatch stopped = new CountDownLatch(1);
+	private Thread reporter;
+	
+	/**
+	 * Listing of scanned files. May be null.
+	 */
+	private File listFile;
+	private BlockingQueue<File> listing;
+	private Thread listingWriter;
+
+	/**
+	 * 
+	 * @param out Stream the summary lines are printed to
+	 * @param interval Time between summary lines, in milliseconds
+	 */
+	public ProgressReporter(PrintStream out, long interval)
+	{
+		this.out = out;
+		this.interval = interval;
+	}
+
+	/** If quiet then no summary lines are printed. A listing is still written
+	 * if one was requested.
+	 * 
+	 * @param quiet
+	 */
+	public void setQuiet(boolean quiet)
+	{
+		this.quiet = quiet;
+	}
+
+	/** Set the metrics the scan records its read and hash timings in. The read
+	 * rate is taken from the bytes hashed.
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(ScanMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/** Write the name of every scanned file to the specified file.
+	 * 
+	 * @param listFile
+	 */
+	public void setListing(File listFile)
+	{
+		this.listFile = listFile;
+	}
+
+	/** Start the reporting threads.
+	 * 
+	 * @throws IOException If the listing file cannot be created
+	 */
+	public void start() throws IOException
+	{
+		startTime = System.nanoTime();
+		
+		if(listFile != null)
+		{
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(listFile), Charset.defaultCharset()), 64 * 1024);
+			listing = new LinkedBlockingQueue<File>(LISTING_QUEUE_SIZE);
+			listingWriter = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					writeListing(writer);
+				}
+			}, "scan-listing");
+			listingWriter.setDaemon(true);
+			listingWriter.start();
+		}
+		
+		if(!quiet)
+		{
+			reporter = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						while(!stopped.await(interval, TimeUnit.MILLISECONDS))
+						{
+							report();
+						}
+					}
+					catch(InterruptedException e)
+					{
+					}
+				}
+			}, "scan-progress");
+			reporter.setDaemon(true);
+			reporter.start();
+		}
+	}
+
+	/** A file was found which will be scanned later.
+	 * 
+	 * @param file
+	 * @param attrs
+	 */
+	public void discovered(File file, BasicFileAttributes attrs)
+	{
+		if(processingTime == 0) processingTime = System.nanoTime();
+		discoveredFiles.incrementAndGet();
+		discoveredBytes.addAndGet(attrs.size());
+	}
+
+	/** Every file to be scanned has been discovered.
+	 */
+	public void discoveryComplete()
+	{
+		discoveryComplete = true;
+	}
+
+	/** A file has been scanned, whether it was read or its digest was reused.
+	 * 
+	 * @param file
+	 * @param attrs
+	 */
+	public void scanned(File file, BasicFileAttributes attrs)
+	{
+		if(processingTime == 0) processingTime = System.nanoTime();
+		scannedFiles.incrementAndGet();
+		scannedBytes.addAndGet(attrs.size());
+		lastFile = file;
+		
+		if(listing != null) enqueue(file);
+	}
+
+	/** Stop the reporting threads, print the final summary and finish writing
+	 * the listing.
+	 */
+	public void stop()
+	{
+		stopped.countDown();
+		join(reporter);
+		
+		if(listing != null)
+		{
+			enqueue(END);
+			join(listingWriter);
+		}
+		
+		if(!quiet)
+		{
+			double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+			StringBuilder sb = new StringBuilder();
+			appendCounts(sb);
+			sb.append(String.format(" in %.1fs", seconds));
+			appendRates(sb);
+			out.println(sb);
+			out.flush();
+		}
+	}
+
+	/** Print a summary line.
+	 */
+	private void report()
+	{
+		out.println(getSummary());
+		out.flush();
+	}
+
+	/** Describe the progress of the scan so far.
+	 * 
+	 * @return
+	 */
+	String getSummary()
+	{
+		long files = scannedFiles.get();
+		long bytes = scannedBytes.get();
+		double seconds = getProcessingSeconds();
+		
+		StringBuilder sb = new StringBuilder();
+		appendCounts(sb);
+		appendRates(sb);
+		
+		// The remaining time is only known once the walk is complete. It is
+		// based on how quickly the scan has been getting through the files
+		// found, reused or not.
+		if(discoveryComplete && bytes > 0)
+		{
+			long remaining = Math.max(0, discoveredBytes.get() - bytes);
+			long eta = (long)(remaining / (bytes / seconds));
+			sb.append(String.format(", ETA %d:%02d", eta / 60, eta % 60));
+		}
+		else if(discoveredFiles.get() > files)
+		{
+			sb.append(", ").append(discoveredFiles.get() - files).append(" queued");
+		}
+		
+		File file = lastFile;
+		if(file != null) sb.append(", in ").append(file.getParent());
+		return sb.toString();
+	}
+
+	/** Append the number of files scanned, and how much of them was read.
+	 * 
+	 * @param sb
+	 */
+	private void appendCounts(StringBuilder sb)
+	{
+		long read = metrics.getHashing().getBytes();
+		long unread = Math.max(0, scannedBytes.get() - read);
+		sb.append(String.format("Scanned %d files, %.1f MB read", scannedFiles.get(), read / 1e6));
+		if(unread > 0) sb.append(String.format(", %.1f MB not read", unread / 1e6));
+	}
+
+	/** Append the files scanned and the bytes read per second since the first
+	 * file.
+	 * 
+	 * @param sb
+	 */
+	private void appendRates(StringBuilder sb)
+	{
+		double seconds = getProcessingSeconds();
+		sb.append(String.format(" (%.0f files/s, %.1f MB/s)", scannedFiles.get() / seconds, metrics.getHashing().getBytes() / 1e6 / seconds));
+	}
+
+	/** Time since the first file was discovered or scanned.
+	 * 
+	 * @return
+	 */
+	private double getProcessingSeconds()
+	{
+		long start = processingTime;
+		if(start == 0) start = System.nanoTime();
+		return Math.max(1, System.nanoTime() - start) / 1e9;
+	}
+
+	/** Drain the listing queue into the writer until the end marker is found.
+	 * 
+	 * @param writer
+	 */
+	private void writeListing(Writer writer)
+	{
+		List<File> batch = new ArrayList<File>();
+		try
+		{
+			boolean done = false;
+			while(!done)
+			{
+				batch.add(listing.take());
+				listing.drainTo(batch);
+				for(File file: batch)
+				{
+					if(file == END)
+					{
+						done = true;
+						break;
+					}
+					writer.write(file.getPath());
+					writer.write('\n');
+				}
+				batch.clear();
+				if(listing.isEmpty()) writer.flush();
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Exception writing " + listFile + ": " + e.getMessage());
+			
+			// Keep draining so the scan threads are not blocked
+			try
+			{
+				while(listing.take() != END);
+			}
+			catch(InterruptedException e2)
+			{
+			}
+		}
+		catch(InterruptedException e)
+		{
+		}
+		finally
+		{
+			try
+			{
+				writer.close();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Exception closing " + listFile + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/** Add a file to the listing queue, waiting for space if required.
+	 * 
+	 * @param file
+	 */
+	private void enqueue(File file)
+	{
+		boolean interrupted = false;
+		while(true)
+		{
+			try
+			{
+				listing.put(file);
+				break;
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Wait for a thread to finish.
+	 * 
+	 * @param thread May be null
+	 */
+	private static void join(Thread thread)
+	{
+		if(thread == null) return;
+		boolean interrupted = false;
+		while(thread.isAlive())
+		{
+			try
+			{
+				thread.join();
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+}
@@ -40,6 +40,10 @@ import java.util.Map;
 
 import org.apache.commons.csv.CSVPrinter;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /** This class contains information about a project itself, including:
  *   o name
  *   o version - version information if available
@@ -376,4 +380,73 @@ public class ProjectConfig
 		}
 	}
 
+	/** Read a project written by exportJson, or by Gson.
+	 * 
+	 * @param in
+	 * @return The project, or null for a JSON null
+	 * @throws IOException
+	 */
+	public static ProjectConfig importJson(JsonReader in) throws IOException
+	{
+		if(in.peek() == JsonToken.NULL)
+		{
+			in.nextNull();
+			return null;
+		}
+		ProjectConfig config = new ProjectConfig();
+		in.beginObject();
+		while(in.hasNext())
+		{
+			String field = in.nextName();
+			if("name".equals(field)) config.name = ConfigurationAdapters.nextString(in);
+			else if("description".equals(field)) config.description = ConfigurationAdapters.nextString(in);
+			else if("version".equals(field)) config.version = ConfigurationAdapters.nextString(in);
+			else if("project".equals(field)) config.project = ConfigurationAdapters.nextString(in);
+			else if("scm".equals(field)) config.scm = ConfigurationAdapters.nextString(in);
+			else if("home".equals(field)) config.home = ConfigurationAdapters.nextString(in);
+			else if("cpes".equals(field)) config.cpes = ConfigurationAdapters.nextStrings(in);
+			else if("licenses".equals(field)) config.licenses = ConfigurationAdapters.nextStrings(in);
+			else if("files".equals(field)) config.files = ConfigurationAdapters.nextStrings(in);
+			else if("comment".equals(field)) config.comment = ConfigurationAdapters.nextString(in);
+			else in.skipValue();
+		}
+		in.endObject();
+		return config;
+	}
+
+	/** Write the project as a JSON object.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void exportJson(JsonWriter out) throws IOException
+	{
+		out.beginObject();
+		out.name("name").value(name);
+		out.name("description").value(description);
+		out.name("version").value(version);
+		out.name("project").value(project);
+		out.name("scm").value(scm);
+		out.name("home").value(home);
+		exportJson(out, "cpes", cpes);
+		exportJson(out, "licenses", licenses);
+		exportJson(out, "files", files);
+		out.name("comment").value(comment);
+		out.endObject();
+	}
+
+	/** Write a list of strings as a JSON array. Nothing is written for a null list.
+	 * 
+	 * @param out
+	 * @param name
+	 * @param values
+	 * @throws IOException
+	 */
+	private static void exportJson(JsonWriter out, String name, Collection<String> values) throws IOException
+	{
+		if(values == null) return;
+		out.name(name).beginArray();
+		for(String value: values) out.value(value);
+		out.endArray();
+	}
 }
@@ -30,11 +30,16 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.csv.CSVPrinter;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /** Any single project may have several matched URIs (repositories). To explain, assume
  * we have three repositories A, B, and C, where each subsequent repository is cloned from
  * the previous.
@@ -96,6 +101,68 @@ public class ProjectGroup
 		}
 	}
 
+	/** Read a project group written by exportJson, or by Gson.
+	 * 
+	 * @param in
+	 * @return The group, or null for a JSON null
+	 * @throws IOException
+	 */
+	public static ProjectGroup importJson(JsonReader in) throws IOException
+	{
+		if(in.peek() == JsonToken.NULL)
+		{
+			in.nextNull();
+			return null;
+		}
+		ProjectGroup group = new ProjectGroup();
+		in.beginObject();
+		while(in.hasNext())
+		{
+			String field = in.nextName();
+			if("name".equals(field)) group.name = ConfigurationAdapters.nextString(in);
+			else if("members".equals(field))
+			{
+				if(in.peek() == JsonToken.NULL)
+				{
+					in.nextNull();
+					group.members = null;
+				}
+				else
+				{
+					group.members = new LinkedHashSet<ProjectConfig>();
+					in.beginArray();
+					while(in.hasNext()) group.members.add(ProjectConfig.importJson(in));
+					in.endArray();
+				}
+			}
+			else in.skipValue();
+		}
+		in.endObject();
+		return group;
+	}
+
+	/** Write the group and its members as a JSON object.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void exportJson(JsonWriter out) throws IOException
+	{
+		out.beginObject();
+		out.name("name").value(name);
+		if(members != null)
+		{
+			out.name("members").beginArray();
+			for(ProjectConfig project: members)
+			{
+				if(project != null) project.exportJson(out);
+				else out.nullValue();
+			}
+			out.endArray();
+		}
+		out.endObject();
+	}
+
 	/** Get the project with the specified SCM (which should be unique). If it does not exist
 	 * then add one.
 	 * 
@@ -32,6 +32,10 @@ import com.google.gson.FieldAttributes;
 /** This class is used to filter the GSON results to only include the publicly safe
  * fields in the JSON output.
  * 
+ * The public configuration is written by Configuration.exportJson, which applies
+ * the same rules without reflection. Any field excluded here must be left out
+ * there as well.
+ * 
  * @author Ken Duck
  *
  */
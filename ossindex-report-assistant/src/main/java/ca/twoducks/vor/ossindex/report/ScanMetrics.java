@@ -0,0 +1,318 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.gson.stream.JsonWriter;
+
+/** Counters and histograms describing where the time in a scan went. Every
+ * measurement is a couple of atomic adds, so the metrics are always collected
+ * and may be updated from any number of scan threads.
+ * 
+ * The metrics are written out as JSON next to the configuration files, so that
+ * the cost of scanning a repository can be tracked over time.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ScanMetrics
+{
+	/**
+	 * Name of the metrics file, which is written to the output directory.
+	 */
+	public static final String METRICS_FILE = "vorindex.metrics.json";
+	
+	private long startTime = System.nanoTime();
+	
+	/**
+	 * Listing directories and reading the attributes of their entries.
+	 */
+	private Timer listing = new Timer();
+	
+	/**
+	 * Reading files into the shared content buffer.
+	 */
+	private Timer reading = new Timer();
+	
+	/**
+	 * Calculating digests. Files too large to buffer are read while they are
+	 * hashed, so their read time is included here.
+	 */
+	private Timer hashing = new Timer();
+	
+	/**
+	 * Time spent in each plugin, keyed by plugin class. The first plugin to ask
+	 * for a file's content or digest also pays for reading and hashing it, unless
+	 * the pipeline has already done so.
+	 */
+	private ConcurrentHashMap<Class<?>, Timer> plugins = new ConcurrentHashMap<Class<?>, Timer>();
+	
+	/**
+	 * Time spent in each export step.
+	 */
+	private ConcurrentHashMap<String, Timer> exports = new ConcurrentHashMap<String, Timer>();
+
+	public Timer getListing()
+	{
+		return listing;
+	}
+
+	public Timer getReading()
+	{
+		return reading;
+	}
+
+	public Timer getHashing()
+	{
+		return hashing;
+	}
+
+	/** Get the timer for a plugin, creating it if required.
+	 * 
+	 * @param plugin
+	 * @return
+	 */
+	public Timer getPlugin(IScanPlugin plugin)
+	{
+		return getTimer(plugins, plugin.getClass());
+	}
+
+	/** Get the timer for an export step, creating it if required.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public Timer getExport(String name)
+	{
+		return getTimer(exports, name);
+	}
+
+	/** Write the metrics to the specified directory.
+	 * 
+	 * @param dir
+	 * @throws IOException
+	 */
+	public void export(File dir) throws IOException
+	{
+		JsonWriter writer = new JsonWriter(new FileWriter(new File(dir, METRICS_FILE)));
+		try
+		{
+			writer.setIndent("  ");
+			writer.beginObject();
+			writer.name("timestamp").value(new Date().getTime());
+			writer.name("elapsedMillis").value(toMillis(System.nanoTime() - startTime));
+			writer.name("listing");
+			listing.export(writer);
+			writer.name("reading");
+			reading.export(writer);
+			writer.name("hashing");
+			hashing.export(writer);
+			
+			writer.name("plugins").beginObject();
+			Map<String, Timer> sorted = new TreeMap<String, Timer>();
+			for(Map.Entry<Class<?>, Timer> entry: plugins.entrySet())
+			{
+				sorted.put(entry.getKey().getSimpleName(), entry.getValue());
+			}
+			for(Map.Entry<String, Timer> entry: sorted.entrySet())
+			{
+				writer.name(entry.getKey());
+				entry.getValue().export(writer);
+			}
+			writer.endObject();
+			
+			writer.name("exports").beginObject();
+			for(Map.Entry<String, Timer> entry: new TreeMap<String, Timer>(exports).entrySet())
+			{
+				writer.name(entry.getKey());
+				entry.getValue().export(writer);
+			}
+			writer.endObject();
+			
+			writer.endObject();
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/** Get a timer from a table, creating it if required.
+	 * 
+	 * @param timers
+	 * @param key
+	 * @return
+	 */
+	private static <K> Timer getTimer(ConcurrentHashMap<K, Timer> timers, K key)
+	{
+		Timer timer = timers.get(key);
+		if(timer == null)
+		{
+			timer = new Timer();
+			Timer existing = timers.putIfAbsent(key, timer);
+			if(existing != null) timer = existing;
+		}
+		return timer;
+	}
+
+	private static double toMillis(long nanos)
+	{
+		return nanos / 1000 / 1000.0;
+	}
+
+	/** Counts and times a single kind of operation. Bytes are optional; when
+	 * provided, a throughput histogram is kept as well as the latency histogram.
+	 */
+	public static class Timer
+	{
+		private AtomicLong count = new AtomicLong();
+		private AtomicLong nanos = new AtomicLong();
+		private AtomicLong maxNanos = new AtomicLong();
+		private AtomicLong bytes = new AtomicLong();
+		private Histogram latency = new Histogram();
+		private Histogram throughput = new Histogram();
+
+		/** Record an operation that started at the specified System.nanoTime().
+		 * 
+		 * @param start
+		 * @param bytes Number of bytes processed, or 0 if not applicable
+		 */
+		public void stop(long start, long bytes)
+		{
+			record(System.nanoTime() - start, bytes);
+		}
+
+		/** Record an operation.
+		 * 
+		 * @param elapsed Time taken in nanoseconds
+		 * @param size Number of bytes processed, or 0 if not applicable
+		 */
+		public void record(long elapsed, long size)
+		{
+			count.incrementAndGet();
+			nanos.addAndGet(elapsed);
+			latency.add(elapsed);
+			
+			long max = maxNanos.get();
+			while(elapsed > max && !maxNanos.compareAndSet(max, elapsed))
+			{
+				max = maxNanos.get();
+			}
+			
+			if(size > 0)
+			{
+				bytes.addAndGet(size);
+				if(elapsed > 0) throughput.add((long)(size * 1e9 / elapsed));
+			}
+		}
+
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		public long getNanos()
+		{
+			return nanos.get();
+		}
+
+		public long getBytes()
+		{
+			return bytes.get();
+		}
+
+		/** Write the timer as a JSON object.
+		 * 
+		 * @param writer
+		 * @throws IOException
+		 */
+		private void export(JsonWriter writer) throws IOException
+		{
+			long total = nanos.get();
+			writer.beginObject();
+			writer.name("count").value(count.get());
+			writer.name("totalMillis").value(toMillis(total));
+			writer.name("maxMillis").value(toMillis(maxNanos.get()));
+			if(bytes.get() > 0)
+			{
+				writer.name("bytes").value(bytes.get());
+				if(total > 0) writer.name("mbPerSecond").value(Math.round(bytes.get() * 1e9 / total / 1e4) / 100.0);
+			}
+			writer.name("latencyNanos");
+			latency.export(writer);
+			if(bytes.get() > 0)
+			{
+				writer.name("throughputBytesPerSecond");
+				throughput.export(writer);
+			}
+			writer.endObject();
+		}
+	}
+
+	/** Histogram with power of two buckets. Bucket n counts values from 2^(n-1)
+	 * up to, but not including, 2^n.
+	 */
+	private static class Histogram
+	{
+		private AtomicLongArray buckets = new AtomicLongArray(64);
+
+		public void add(long value)
+		{
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+		}
+
+		/** Write the non-empty buckets as an object mapping each bucket's upper
+		 * bound to its count.
+		 * 
+		 * @param writer
+		 * @throws IOException
+		 */
+		private void export(JsonWriter writer) throws IOException
+		{
+			writer.beginObject();
+			for(int i = 0; i < 64; i++)
+			{
+				long count = buckets.get(i);
+				if(count > 0)
+				{
+					String bound = i < 63 ? Long.toString(1L << i) : "max";
+					writer.name("<" + bound).value(count);
+				}
+			}
+			writer.endObject();
+		}
+	}
+}
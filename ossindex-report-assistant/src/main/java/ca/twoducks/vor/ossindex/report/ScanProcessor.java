@@ -0,0 +1,302 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/** The scan processor runs the scan plugins against individual files. It is shared
+ * by the sequential and parallel scanners so that both treat every file identically.
+ * 
+ * The processor holds no per-file state and may be used from several threads at once,
+ * provided that the plugins and the configuration they write to are thread safe.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ScanProcessor
+{
+	/**
+	 * Table of the plugins to run against each file.
+	 */
+	private PluginDispatcher dispatcher;
+	
+	/**
+	 * Indicates whether the plugins should be asked if a file/folder should be
+	 * ignored. This is only done when dependencies are being exported.
+	 */
+	private boolean checkIgnore;
+	
+	/**
+	 * Cache of digests from previous scans. May be null.
+	 */
+	private DigestCache cache;
+	
+	/**
+	 * Digests calculated during this scan, keyed by file key. May be null.
+	 */
+	private InodeDigests inodes;
+	
+	/**
+	 * Decides which files are hashed, recorded as ignored or skipped.
+	 */
+	private FileClassifier classifier = new FileClassifier();
+	
+	/**
+	 * Excludes files and whole directories by pattern. May be null.
+	 */
+	private PathFilter filter;
+	
+	/**
+	 * Receives progress information. May be null.
+	 */
+	private ProgressReporter progress;
+	
+	/**
+	 * Receives plugin, read and hash timings.
+	 */
+	private ScanMetrics metrics = new ScanMetrics();
+
+	/**
+	 * 
+	 * @param plugins Plugins to run against each file
+	 * @param checkIgnore Indicates whether the plugins should be asked to ignore files
+	 */
+	public ScanProcessor(List<IScanPlugin> plugins, boolean checkIgnore)
+	{
+		this.dispatcher = new PluginDispatcher(plugins);
+		this.checkIgnore = checkIgnore;
+	}
+
+	/** Set the cache used to avoid reading files that have not changed since the
+	 * previous scan.
+	 * 
+	 * @param cache
+	 */
+	public void setDigestCache(DigestCache cache)
+	{
+		this.cache = cache;
+	}
+
+	/** Set the digests shared by every path to the same file, so hardlinked
+	 * files are only read once.
+	 * 
+	 * @param inodes
+	 */
+	public void setInodeDigests(InodeDigests inodes)
+	{
+		this.inodes = inodes;
+	}
+
+	/** Set the classifier which decides, before a file is read, whether it is
+	 * hashed, recorded as ignored or skipped.
+	 * 
+	 * @param classifier
+	 */
+	public void setClassifier(FileClassifier classifier)
+	{
+		this.classifier = classifier;
+	}
+
+	/** Set the filter which excludes files and directories by pattern.
+	 * 
+	 * @param filter
+	 */
+	public void setPathFilter(PathFilter filter)
+	{
+		this.filter = filter;
+	}
+
+	/** Get the filter deciding which paths are excluded from the scan.
+	 * 
+	 * @return The filter, or null if there is none
+	 */
+	public PathFilter getPathFilter()
+	{
+		return filter;
+	}
+
+	/** Set the metrics that plugin, read and hash timings are recorded in.
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(ScanMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * 
+	 * @return
+	 */
+	public ScanMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/** Set the reporter that is told about each file as it is discovered and scanned.
+	 * 
+	 * @param progress
+	 */
+	public void setProgressReporter(ProgressReporter progress)
+	{
+		this.progress = progress;
+	}
+
+	/** Report that a file was found and will be scanned later.
+	 * 
+	 * @param file
+	 * @param attrs
+	 */
+	public void discovered(File file, BasicFileAttributes attrs)
+	{
+		if(progress != null) progress.discovered(file, attrs);
+	}
+
+	/** Report that every file to be scanned has been found.
+	 */
+	public void discoveryComplete()
+	{
+		if(progress != null) progress.discoveryComplete();
+	}
+
+	/** Report that a file has been scanned.
+	 * 
+	 * @param file
+	 * @param attrs
+	 */
+	public void scanned(File file, BasicFileAttributes attrs)
+	{
+		if(progress != null) progress.scanned(file, attrs);
+	}
+
+	/** Do one of the scan plugins tell us to ignore this file/folder? This will
+	 * usually be done if we are going to identify the dependencies from a
+	 * dependency file. Files and directories excluded by pattern, and files
+	 * whose name and size put them in a class the policy excludes, are ignored
+	 * as well, before they are ever read.
+	 * 
+	 * @param file
+	 * @param attrs Attributes read when the file was found
+	 * @return
+	 */
+	public boolean ignore(File file, BasicFileAttributes attrs)
+	{
+		if(filter != null && filter.isExcluded(file, attrs)) return true;
+		if(checkIgnore)
+		{
+			if(attrs.isDirectory() && dispatcher.isIgnoredDirectory(file.getName())) return true;
+			for(IScanPlugin plugin: dispatcher.getIgnoreCallbacks())
+			{
+				if(plugin.ignore(file, attrs)) return true;
+			}
+		}
+		if(attrs.isRegularFile() && classifier.getAction(file.getName(), attrs.size()) == FileClassifier.Action.SKIP) return true;
+		return false;
+	}
+
+	/** Run the interested scan plugins against the specified file. The plugins share
+	 * a single copy of the file content, so the file is read at most once.
+	 * 
+	 * @param file
+	 * @param attrs Attributes read when the file was found
+	 */
+	public void process(File file, BasicFileAttributes attrs)
+	{
+		// Run through each scan plugin
+		FileContent content = open(file, attrs);
+		try
+		{
+			run(content);
+		}
+		finally
+		{
+			content.release();
+		}
+		scanned(file, attrs);
+	}
+
+	/** Create the shared content for a file. The file is not read until it is needed.
+	 * If its class depends on its content, the file is classified by its first read.
+	 * The content must be released once the plugins have been run.
+	 * 
+	 * @param file
+	 * @param attrs
+	 * @return
+	 */
+	public FileContent open(File file, BasicFileAttributes attrs)
+	{
+		FileContent content = new FileContent(file, attrs, cache, inodes, metrics);
+		FileClassifier.Action action = classifier.getAction(file.getName(), attrs.size());
+		if(action == FileClassifier.Action.RECORD) content.setIgnored(true);
+		else if(action == null) content.setClassifier(classifier);
+		return content;
+	}
+
+	/** Do all of the I/O the plugins will need for a file: calculate the digest and,
+	 * if any plugin other than the catch-all plugins is interested in the file,
+	 * buffer its content. Nothing more is read from a file the policy skips.
+	 * 
+	 * @param content
+	 * @throws IOException
+	 */
+	public void prepare(FileContent content) throws IOException
+	{
+		if(content.isSkipped()) return;
+		content.getDigest();
+		if(dispatcher.hasSpecificPlugins(content.getFile().getName()))
+		{
+			content.getBuffer();
+		}
+	}
+
+	/** Run the interested scan plugins against the content of a file, unless the
+	 * policy skips it.
+	 * 
+	 * @param content
+	 */
+	public void run(FileContent content)
+	{
+		if(content.isSkipped()) return;
+		File file = content.getFile();
+		BasicFileAttributes attrs = content.getAttributes();
+		for(IScanPlugin plugin: dispatcher.getPlugins(file.getName()))
+		{
+			long start = System.nanoTime();
+			try
+			{
+				plugin.run(file, attrs, content);
+			}
+			finally
+			{
+				metrics.getPlugin(plugin).stop(start, attrs.size());
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Scan a directory tree on the calling thread. Each directory is listed in full,
+ * reading the attributes of every entry once, before its entries are visited in
+ * listing order. The attributes are handed to the plugins so that they never need
+ * to query the file system again.
+ * 
+ * Symbolic links found within the tree are not followed.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class SequentialScanner
+{
+	/**
+	 * Processor used to run the plugins against each file.
+	 */
+	private ScanProcessor processor;
+
+	/**
+	 * 
+	 * @param processor Processor used to run the plugins against each file
+	 */
+	public SequentialScanner(ScanProcessor processor)
+	{
+		this.processor = processor;
+	}
+
+	/** Scan the specified file/directory. The root itself may be a symbolic link.
+	 * 
+	 * @param file
+	 * @throws IOException 
+	 */
+	public void scan(File file) throws IOException
+	{
+		Path root = file.toPath();
+		BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class);
+		if(processor.ignore(file, attrs)) return;
+		
+		if(attrs.isRegularFile())
+		{
+			visit(file, attrs);
+		}
+		else if(attrs.isDirectory())
+		{
+			scanDirectory(root);
+		}
+	}
+
+	/** Handle a regular file found by the walk. By default the file is passed
+	 * straight to the processor.
+	 * 
+	 * @param file
+	 * @param attrs
+	 * @throws IOException 
+	 */
+	protected void visit(File file, BasicFileAttributes attrs) throws IOException
+	{
+		processor.process(file, attrs);
+	}
+
+	/** Should a directory entry be left out of the scan before its attributes are
+	 * even read? By default nothing is.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	protected boolean skip(Path path)
+	{
+		return false;
+	}
+
+	/** Called as the walk enters a directory, before it is listed. By default
+	 * nothing is done.
+	 * 
+	 * @param dir
+	 * @throws IOException
+	 */
+	protected void enter(Path dir) throws IOException
+	{
+	}
+
+	/** Visit the files in a directory and scan its sub-directories, in listing order.
+	 * 
+	 * @param dir
+	 * @throws IOException 
+	 */
+	private void scanDirectory(Path dir) throws IOException
+	{
+		enter(dir);
+		for(Entry entry: list(dir))
+		{
+			if(entry.attrs.isDirectory()) scanDirectory(entry.path);
+			else visit(entry.path.toFile(), entry.attrs);
+		}
+	}
+
+	/** List the regular files and directories within a directory, leaving out
+	 * symbolic links and anything the plugins ignore.
+	 * 
+	 * @param dir
+	 * @return
+	 */
+	private List<Entry> list(Path dir)
+	{
+		List<Entry> entries = new ArrayList<Entry>();
+		long start = System.nanoTime();
+		try(DirectoryStream<Path> children = Files.newDirectoryStream(dir))
+		{
+			for(Path child: children)
+			{
+				if(skip(child)) continue;
+				BasicFileAttributes attrs;
+				try
+				{
+					attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				}
+				catch(IOException e)
+				{
+					System.err.println("Exception reading " + child + ": " + e.getMessage());
+					continue;
+				}
+				if(attrs.isSymbolicLink()) continue;
+				if(!attrs.isRegularFile() && !attrs.isDirectory()) continue;
+				if(processor.ignore(child.toFile(), attrs)) continue;
+				entries.add(new Entry(child, attrs));
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Exception reading " + dir + ": " + e.getMessage());
+		}
+		processor.getMetrics().getListing().stop(start, 0);
+		return entries;
+	}
+
+	/** A directory entry along with its attributes.
+	 */
+	private static class Entry
+	{
+		private final Path path;
+		private final BasicFileAttributes attrs;
+
+		public Entry(Path path, BasicFileAttributes attrs)
+		{
+			this.path = path;
+			this.attrs = attrs;
+		}
+	}
+}
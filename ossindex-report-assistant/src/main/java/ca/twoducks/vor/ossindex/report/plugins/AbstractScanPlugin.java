@@ -27,8 +27,16 @@
 package ca.twoducks.vor.ossindex.report.plugins;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
 
 import ca.twoducks.vor.ossindex.report.Configuration;
+import ca.twoducks.vor.ossindex.report.FileContent;
 import ca.twoducks.vor.ossindex.report.IConfiguration;
 import ca.twoducks.vor.ossindex.report.IScanPlugin;
 
@@ -51,6 +59,52 @@ public abstract class AbstractScanPlugin implements IScanPlugin
 		this.config = config;
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs)
+	{
+		run(file);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
+	{
+		run(file, attrs);
+	}
+	
+	/** Open a stream over the file, using the shared content if there is any.
+	 * 
+	 * @param file
+	 * @param content Shared content of the file. May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	protected InputStream openStream(File file, FileContent content) throws IOException
+	{
+		if(content != null) return content.newInputStream();
+		return new FileInputStream(file);
+	}
+	
+	/** Open a reader over the file, using the shared content if there is any.
+	 * 
+	 * @param file
+	 * @param content Shared content of the file. May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	protected Reader openReader(File file, FileContent content) throws IOException
+	{
+		if(content != null) return content.newReader();
+		return new FileReader(file);
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#ignore(java.io.File)
@@ -60,4 +114,53 @@ public abstract class AbstractScanPlugin implements IScanPlugin
 	{
 		return false;
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#ignore(java.io.File, java.nio.file.attribute.BasicFileAttributes)
+	 */
+	@Override
+	public boolean ignore(File file, BasicFileAttributes attrs)
+	{
+		return ignore(file);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#getFileNames()
+	 */
+	@Override
+	public Set<String> getFileNames()
+	{
+		return null;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#getFileExtensions()
+	 */
+	@Override
+	public Set<String> getFileExtensions()
+	{
+		return null;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return null;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#close()
+	 */
+	@Override
+	public void close()
+	{
+	}
 }
@@ -0,0 +1,408 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.codec.binary.Hex;
+
+import ca.twoducks.vor.ossindex.report.FileContent;
+import ca.twoducks.vor.ossindex.report.FileDigester;
+import ca.twoducks.vor.ossindex.report.IScanPlugin;
+
+/** Hash the files inside jar/war/ear/zip archives, without extracting them. The
+ * entries of the archive are found through its central directory and streamed
+ * straight out of the archive into the digest. Archives nested inside the
+ * archive (such as the jars in WEB-INF/lib) are streamed in turn, so their own
+ * entries are hashed as well, to any depth.
+ * 
+ * Large archives are split into batches of entries which are hashed in parallel.
+ * When the plugin is run by a fork/join scan the batches are forked into the
+ * scan's own pool, otherwise they are handed to threads of the plugin's own, which
+ * are stopped by close(). The entries are always added to the configuration in
+ * central directory order, with paths of the form "archive!/entry".
+ * 
+ * @author Ken Duck
+ *
+ */
+public class ArchivePlugin extends AbstractScanPlugin implements IScanPlugin
+{
+	/**
+	 * Extensions of the archives that are opened.
+	 */
+	private static final Set<String> ARCHIVE_EXTENSIONS = new HashSet<String>(Arrays.asList("jar", "war", "ear", "zip"));
+	
+	/**
+	 * Number of entries hashed by a single task.
+	 */
+	private static final int BATCH_ENTRIES = 64;
+	
+	/**
+	 * Threads used to hash large archives outside of a fork/join pool. Created
+	 * when first needed.
+	 */
+	private ExecutorService executor;
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#run(java.io.File)
+	 */
+	@Override
+	public void run(File file)
+	{
+		run(file, null, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
+	{
+		if(!isArchive(file.getName())) return;
+		
+		try(ZipFile zip = new ZipFile(file))
+		{
+			List<ZipEntry> entries = new ArrayList<ZipEntry>();
+			for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();)
+			{
+				ZipEntry entry = e.nextElement();
+				if(!entry.isDirectory()) entries.add(entry);
+			}
+			
+			for(ArchiveEntry entry: hash(zip, entries))
+			{
+				config.addArchiveEntry(file, entry.path, entry.digest);
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Exception reading archive " + file + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#close()
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if(executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getFileExtensions()
+	 */
+	@Override
+	public Set<String> getFileExtensions()
+	{
+		return ARCHIVE_EXTENSIONS;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return Collections.emptySet();
+	}
+
+	/** Hash the specified entries of an archive. Small archives are hashed on the
+	 * calling thread, larger ones in parallel batches. On a fork/join worker the
+	 * batches are forked rather than waited on, so the worker is never blocked.
+	 * 
+	 * @param zip
+	 * @param entries
+	 * @return The entries and their digests, in order. Nested entries follow the
+	 *         nested archive they were found in.
+	 * @throws IOException
+	 */
+	private List<ArchiveEntry> hash(final ZipFile zip, final List<ZipEntry> entries) throws IOException
+	{
+		if(entries.size() <= BATCH_ENTRIES)
+		{
+			return hash(zip, entries, 0, entries.size());
+		}
+		
+		if(ForkJoinTask.inForkJoinPool())
+		{
+			List<HashTask> tasks = new ArrayList<HashTask>();
+			for(int i = 0; i < entries.size(); i += BATCH_ENTRIES)
+			{
+				tasks.add(new HashTask(zip, entries, i, Math.min(entries.size(), i + BATCH_ENTRIES)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+			
+			List<ArchiveEntry> results = new ArrayList<ArchiveEntry>();
+			for(HashTask task: tasks)
+			{
+				if(task.exception != null) throw task.exception;
+				results.addAll(task.join());
+			}
+			return results;
+		}
+		
+		List<Future<List<ArchiveEntry>>> batches = new ArrayList<Future<List<ArchiveEntry>>>();
+		for(int i = 0; i < entries.size(); i += BATCH_ENTRIES)
+		{
+			final int start = i;
+			final int end = Math.min(entries.size(), i + BATCH_ENTRIES);
+			batches.add(getExecutor().submit(new Callable<List<ArchiveEntry>>()
+			{
+				@Override
+				public List<ArchiveEntry> call() throws Exception
+				{
+					return hash(zip, entries, start, end);
+				}
+			}));
+		}
+		
+		List<ArchiveEntry> results = new ArrayList<ArchiveEntry>();
+		try
+		{
+			for(Future<List<ArchiveEntry>> batch: batches)
+			{
+				results.addAll(batch.get());
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted hashing " + zip.getName());
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+		finally
+		{
+			for(Future<List<ArchiveEntry>> batch: batches) batch.cancel(true);
+		}
+		return results;
+	}
+
+	/** Hash a range of the entries of an archive.
+	 * 
+	 * @param zip
+	 * @param entries
+	 * @param start
+	 * @param end
+	 * @return
+	 * @throws IOException
+	 */
+	private List<ArchiveEntry> hash(ZipFile zip, List<ZipEntry> entries, int start, int end) throws IOException
+	{
+		List<ArchiveEntry> results = new ArrayList<ArchiveEntry>();
+		for(int i = start; i < end; i++)
+		{
+			ZipEntry entry = entries.get(i);
+			try(InputStream in = zip.getInputStream(entry))
+			{
+				if(isArchive(entry.getName())) hashNested(in, entry.getName(), results);
+				else results.add(new ArchiveEntry(entry.getName(), FileDigester.digest(in)));
+			}
+		}
+		return results;
+	}
+
+	/** Hash an archive nested inside another, streaming it. The digest of the nested
+	 * archive itself is calculated from the same stream, so it is only read once.
+	 * 
+	 * The stream is not closed, since it may be an entry of an enclosing nested archive.
+	 * 
+	 * @param in Stream over the nested archive
+	 * @param path Path of the nested archive within the scanned archive
+	 * @param results
+	 * @throws IOException
+	 */
+	private void hashNested(InputStream in, String path, List<ArchiveEntry> results) throws IOException
+	{
+		MessageDigest md = FileDigester.newDigest();
+		DigestInputStream din = new DigestInputStream(in, md);
+		
+		// Keep a place for the nested archive, so it comes before its entries
+		int index = results.size();
+		results.add(null);
+		
+		ZipInputStream zin = new ZipInputStream(din);
+		try
+		{
+			ZipEntry entry;
+			while((entry = zin.getNextEntry()) != null)
+			{
+				if(entry.isDirectory()) continue;
+				String child = path + "!/" + entry.getName();
+				if(isArchive(entry.getName())) hashNested(zin, child, results);
+				else results.add(new ArchiveEntry(child, FileDigester.digest(zin)));
+			}
+		}
+		catch(IOException e)
+		{
+			// Not really an archive, or a corrupt or truncated one. The nested file is
+			// still hashed, and the entries already hashed are kept.
+			System.err.println("Exception reading nested archive " + path + ": " + e.getMessage());
+		}
+		
+		// Read the central directory, and anything else after the last entry, so
+		// the digest covers the whole of the nested archive.
+		byte[] buffer = new byte[8192];
+		try
+		{
+			while(din.read(buffer) >= 0);
+		}
+		catch(IOException e)
+		{
+			// The nested file itself cannot be read to the end, so it has no digest
+			System.err.println("Exception reading nested archive " + path + ": " + e.getMessage());
+			results.remove(index);
+			return;
+		}
+		results.set(index, new ArchiveEntry(path, Hex.encodeHexString(md.digest())));
+	}
+
+	/** Is the named file an archive we know how to open?
+	 * 
+	 * @param name
+	 * @return
+	 */
+	private static boolean isArchive(String name)
+	{
+		int index = name.lastIndexOf('.');
+		if(index < 0) return false;
+		return ARCHIVE_EXTENSIONS.contains(name.substring(index + 1).toLowerCase());
+	}
+
+	/** Get the threads used to hash large archives.
+	 * 
+	 * @return
+	 */
+	private synchronized ExecutorService getExecutor()
+	{
+		if(executor == null)
+		{
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "archive-hash-" + count.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/** Hash a batch of entries on a fork/join worker. An IOException is kept to
+	 * be thrown by the task waiting for the batch.
+	 */
+	@SuppressWarnings("serial")
+	private class HashTask extends RecursiveTask<List<ArchiveEntry>>
+	{
+		private ZipFile zip;
+		private List<ZipEntry> entries;
+		private int start;
+		private int end;
+		private IOException exception;
+
+		public HashTask(ZipFile zip, List<ZipEntry> entries, int start, int end)
+		{
+			this.zip = zip;
+			this.entries = entries;
+			this.start = start;
+			this.end = end;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<ArchiveEntry> compute()
+		{
+			try
+			{
+				return hash(zip, entries, start, end);
+			}
+			catch(IOException e)
+			{
+				exception = e;
+				return null;
+			}
+		}
+	}
+
+	/** The path and digest of a single archive entry.
+	 */
+	private static class ArchiveEntry
+	{
+		private final String path;
+		private final String digest;
+
+		public ArchiveEntry(String path, String digest)
+		{
+			this.path = path;
+			this.digest = digest;
+		}
+	}
+}
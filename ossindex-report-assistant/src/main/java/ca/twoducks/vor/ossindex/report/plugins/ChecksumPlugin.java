@@ -28,7 +28,11 @@ package ca.twoducks.vor.ossindex.report.plugins;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Set;
 
+import ca.twoducks.vor.ossindex.report.FileContent;
 import ca.twoducks.vor.ossindex.report.IScanPlugin;
 
 /** This plugin simply adds files to the configuration. These files are actually
@@ -56,6 +60,31 @@ public class ChecksumPlugin extends AbstractScanPlugin implements IScanPlugin
 			e.printStackTrace();
 		}
 	}
-
-
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
+	{
+		try
+		{
+			config.addFile(file, content);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return Collections.emptySet();
+	}
 }
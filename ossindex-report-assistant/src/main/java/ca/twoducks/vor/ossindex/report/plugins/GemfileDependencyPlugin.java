@@ -28,10 +28,14 @@ package ca.twoducks.vor.ossindex.report.plugins;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Set;
+
+import ca.twoducks.vor.ossindex.report.FileContent;
 
 import ca.twoducks.vor.ossindex.report.IConfiguration;
 
@@ -48,6 +52,16 @@ public class GemfileDependencyPlugin extends AbstractScanPlugin
 	 */
 	@Override
 	public void run(File file)
+	{
+		run(file, null, null);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
 	{
 		String fname = file.getName();
 		if("Gemfile".equals(fname) || fname.endsWith(".gemfile"))
@@ -57,7 +71,7 @@ public class GemfileDependencyPlugin extends AbstractScanPlugin
 			{
 				GemLineParser parser = new GemLineParser(file, config);
 				
-				in = new BufferedReader(new FileReader(file));
+				in = new BufferedReader(openReader(file, content));
 				String line = in.readLine();
 				while(line != null)
 				{
@@ -136,6 +150,36 @@ public class GemfileDependencyPlugin extends AbstractScanPlugin
 		// node will be handled by the gemfile dependencies.
 		return "node_modules".equals(fname);
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getFileNames()
+	 */
+	@Override
+	public Set<String> getFileNames()
+	{
+		return Collections.singleton("Gemfile");
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getFileExtensions()
+	 */
+	@Override
+	public Set<String> getFileExtensions()
+	{
+		return Collections.singleton("gemfile");
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return Collections.singleton("node_modules");
+	}
 }
 
 /** Dirty parser for a single 'gem' line in a gemfile. This will add a
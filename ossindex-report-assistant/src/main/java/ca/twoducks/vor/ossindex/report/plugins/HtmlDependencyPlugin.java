@@ -27,11 +27,12 @@
 package ca.twoducks.vor.ossindex.report.plugins;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -50,6 +51,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import ca.twoducks.vor.ossindex.report.FileContent;
 import ca.twoducks.vor.ossindex.report.IScanPlugin;
 
 /** This plugin parses HTML files and identifies external "link href" and 
@@ -71,8 +73,22 @@ public class HtmlDependencyPlugin extends AbstractScanPlugin implements IScanPlu
 		supportedFileTypes.add("htm");
 		supportedFileTypes.add("jsp");
 	}
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#run(java.io.File)
+	 */
 	@Override
 	public void run(File file)
+	{
+		run(file, null, null);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
 	{
 		if(fileSupported(file))
 		{
@@ -82,7 +98,7 @@ public class HtmlDependencyPlugin extends AbstractScanPlugin implements IScanPlu
 			{
 				parser = new DOMParser();
 				parser.setFeature("http://xml.org/sax/features/namespaces", false);
-				is = new FileInputStream(file);
+				is = openStream(file, content);
 				InputSource source = new InputSource(is);
 				parser.parse(source);
 			}
@@ -177,4 +193,23 @@ public class HtmlDependencyPlugin extends AbstractScanPlugin implements IScanPlu
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getFileExtensions()
+	 */
+	@Override
+	public Set<String> getFileExtensions()
+	{
+		return Collections.unmodifiableSet(supportedFileTypes);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return Collections.emptySet();
+	}
 }
@@ -27,16 +27,20 @@
 package ca.twoducks.vor.ossindex.report.plugins;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
+import ca.twoducks.vor.ossindex.report.FileContent;
+
 /** Extract dependencies from the pom.xml file.
  * 
  * @author Ken Duck
@@ -51,13 +55,23 @@ public class MavenDependencyPlugin extends AbstractScanPlugin
 	 */
 	@Override
 	public void run(File file)
+	{
+		run(file, null, null);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
 	{
 		if("pom.xml".equals(file.getName()))
 		{
 			Reader reader = null;
 			try
 			{
-				reader = new FileReader(file);
+				reader = openReader(file, content);
 				MavenXpp3Reader xpp3Reader = new MavenXpp3Reader();
 				Model model = xpp3Reader.read(reader);
 				List<Dependency> depList = model.getDependencies();
@@ -89,5 +103,24 @@ public class MavenDependencyPlugin extends AbstractScanPlugin
 			}
 		}
 	}
-
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getFileNames()
+	 */
+	@Override
+	public Set<String> getFileNames()
+	{
+		return Collections.singleton("pom.xml");
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return Collections.emptySet();
+	}
 }
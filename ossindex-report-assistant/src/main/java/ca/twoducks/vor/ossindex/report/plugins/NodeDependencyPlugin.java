@@ -27,21 +27,21 @@
 package ca.twoducks.vor.ossindex.report.plugins;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
-
-import org.apache.commons.codec.digest.DigestUtils;
+import java.util.Set;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import ca.twoducks.vor.ossindex.report.FileContent;
+
 /** Extract all dependencies from the node.js "package.json" file.
  * 
  * @author Ken Duck
@@ -56,6 +56,16 @@ public class NodeDependencyPlugin extends AbstractScanPlugin
 	 */
 	@Override
 	public void run(File file)
+	{
+		run(file, null, null);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
 	{
 		if("package.json".equals(file.getName()))
 		{
@@ -63,7 +73,7 @@ public class NodeDependencyPlugin extends AbstractScanPlugin
 			Gson gson = new GsonBuilder().create();
 			try
 			{
-				reader = new FileReader(file);
+				reader = openReader(file, content);
 				PackageJson pkg = gson.fromJson(reader, PackageJson.class);
 				Map<String,String> deps = pkg.getDependencies();
 				processDependencies(file, deps, null);
@@ -153,7 +163,8 @@ public class NodeDependencyPlugin extends AbstractScanPlugin
 		}
 	}
 
-	/** Get the SHA checksum for a file found relative to the specified location
+	/** Get the SHA checksum for a file found relative to the specified location.
+	 * The configuration reuses the digest if the target has already been scanned.
 	 * 
 	 * @param file File which the path may be relative to
 	 * @param path
@@ -171,21 +182,29 @@ public class NodeDependencyPlugin extends AbstractScanPlugin
 		{
 			target = new File(file, path);
 		}
-		InputStream is = null;
-		try
-		{
-		is = new FileInputStream(target);
-		return DigestUtils.shaHex(is);
-		}
-		finally
-		{
-			if(is != null)
-			{
-				is.close();
-			}
-		}
+		return config.getDigest(target);
 	}
 
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getFileNames()
+	 */
+	@Override
+	public Set<String> getFileNames()
+	{
+		return Collections.singleton("package.json");
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return Collections.emptySet();
+	}
 }
 
 /** Simple file for getting the contents of a package.xml file using Gson.
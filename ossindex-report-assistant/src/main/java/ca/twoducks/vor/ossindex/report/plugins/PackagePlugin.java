@@ -0,0 +1,286 @@
+/**
+ *	Copyright (c) 2015 TwoDucks Inc.
+ *	All rights reserved.
+ *	
+ *	Redistribution and use in source and binary forms, with or without
+ *	modification, are permitted provided that the following conditions are met:
+ *	    * Redistributions of source code must retain the above copyright
+ *	      notice, this list of conditions and the following disclaimer.
+ *	    * Redistributions in binary form must reproduce the above copyright
+ *	      notice, this list of conditions and the following disclaimer in the
+ *	      documentation and/or other materials provided with the distribution.
+ *	    * Neither the name of the <organization> nor the
+ *	      names of its contributors may be used to endorse or promote products
+ *	      derived from this software without specific prior written permission.
+ *	
+ *	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *	ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *	WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *	DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ *	DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *	(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *	LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *	ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *	(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ca.twoducks.vor.ossindex.report.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ar.ArArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+
+import ca.twoducks.vor.ossindex.report.FileContent;
+import ca.twoducks.vor.ossindex.report.FileDigester;
+import ca.twoducks.vor.ossindex.report.IScanPlugin;
+
+/** Hash the member files of deb packages and (optionally compressed) tar files.
+ * The package is read in a single sequential pass: each member is streamed
+ * through its digest, and containers inside the package (such as the
+ * data.tar.xz of a deb) are decompressed and hashed on the fly. Nothing is
+ * written to disk, and no member is held in memory.
+ * 
+ * Members are added to the configuration in the order they appear in the
+ * package, with paths of the form "package!/member".
+ * 
+ * @author Ken Duck
+ *
+ */
+public class PackagePlugin extends AbstractScanPlugin implements IScanPlugin
+{
+	/**
+	 * Extensions of the packages that are opened. Compressed files are only
+	 * opened if they are compressed tar files.
+	 */
+	private static final Set<String> PACKAGE_EXTENSIONS = new HashSet<String>(Arrays.asList("deb", "tar", "tgz", "gz", "tbz2", "bz2", "txz", "xz"));
+	
+	/**
+	 * Size of the buffer placed in front of the package file.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The container formats that can be streamed.
+	 */
+	private enum Format
+	{
+		AR, TAR, TAR_GZIP, TAR_BZIP2, TAR_XZ;
+		
+		/** Get the format of a file from its name.
+		 * 
+		 * @param name
+		 * @return The format, or null if the file is not a known container
+		 */
+		public static Format forName(String name)
+		{
+			String lower = name.toLowerCase();
+			if(lower.endsWith(".deb")) return AR;
+			if(lower.endsWith(".tar")) return TAR;
+			if(lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) return TAR_GZIP;
+			if(lower.endsWith(".tar.bz2") || lower.endsWith(".tbz2")) return TAR_BZIP2;
+			if(lower.endsWith(".tar.xz") || lower.endsWith(".txz")) return TAR_XZ;
+			return null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#run(java.io.File)
+	 */
+	@Override
+	public void run(File file)
+	{
+		run(file, null, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+	 */
+	@Override
+	public void run(File file, BasicFileAttributes attrs, FileContent content)
+	{
+		Format format = Format.forName(file.getName());
+		if(format == null) return;
+		
+		List<Member> members = new ArrayList<Member>();
+		try(InputStream in = new BufferedInputStream(openStream(file, content), BUFFER_SIZE))
+		{
+			hashMembers(open(in, format), "", members);
+		}
+		catch(IOException e)
+		{
+			// Corrupt or truncated. The members hashed before the error are kept.
+			System.err.println("Exception reading package " + file + ": " + e.getMessage());
+		}
+		
+		for(Member member: members)
+		{
+			config.addArchiveEntry(file, member.path, member.digest);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getFileExtensions()
+	 */
+	@Override
+	public Set<String> getFileExtensions()
+	{
+		return PACKAGE_EXTENSIONS;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#getIgnoredDirectoryNames()
+	 */
+	@Override
+	public Set<String> getIgnoredDirectoryNames()
+	{
+		return Collections.emptySet();
+	}
+
+	/** Open a container stream of the specified format. The returned stream must
+	 * not be closed if the underlying stream belongs to an enclosing container.
+	 * 
+	 * @param in
+	 * @param format
+	 * @return
+	 * @throws IOException
+	 */
+	private static ArchiveInputStream open(InputStream in, Format format) throws IOException
+	{
+		switch(format)
+		{
+		case AR:
+			return new ArArchiveInputStream(in);
+		case TAR:
+			return new TarArchiveInputStream(in);
+		case TAR_GZIP:
+			return new TarArchiveInputStream(new GzipCompressorInputStream(in));
+		case TAR_BZIP2:
+			return new TarArchiveInputStream(new BZip2CompressorInputStream(in));
+		case TAR_XZ:
+			return new TarArchiveInputStream(new XZCompressorInputStream(in));
+		default:
+			throw new IllegalArgumentException("Unknown package format " + format);
+		}
+	}
+
+	/** Hash every regular file in a container.
+	 * 
+	 * @param in
+	 * @param prefix Prepended to the name of each member
+	 * @param members
+	 * @throws IOException
+	 */
+	private void hashMembers(ArchiveInputStream in, String prefix, List<Member> members) throws IOException
+	{
+		ArchiveEntry entry;
+		while((entry = in.getNextEntry()) != null)
+		{
+			if(entry.isDirectory() || !in.canReadEntryData(entry)) continue;
+			// Links, devices and the like have no content of their own
+			if(entry instanceof TarArchiveEntry && !isRegularFile((TarArchiveEntry)entry)) continue;
+			
+			String name = entry.getName();
+			if(name.startsWith("./")) name = name.substring(2);
+			Format format = Format.forName(name);
+			if(format != null) hashNested(in, format, prefix + name, members);
+			else members.add(new Member(prefix + name, FileDigester.digest(in)));
+		}
+	}
+
+	/** Is the tar entry a regular file? TarArchiveEntry.isFile() is also true for
+	 * links and devices.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	private static boolean isRegularFile(TarArchiveEntry entry)
+	{
+		return entry.isFile() && !entry.isSymbolicLink() && !entry.isLink()
+				&& !entry.isCharacterDevice() && !entry.isBlockDevice() && !entry.isFIFO();
+	}
+
+	/** Hash a container nested inside another. The digest of the nested container
+	 * itself is calculated from the same stream, so it is only read once. If the
+	 * nested container is corrupt or truncated, the members hashed before the
+	 * error are kept.
+	 * 
+	 * @param in Stream over the nested container. It is not closed.
+	 * @param format
+	 * @param path Path of the nested container within the package
+	 * @param members
+	 * @throws IOException
+	 */
+	private void hashNested(InputStream in, Format format, String path, List<Member> members) throws IOException
+	{
+		MessageDigest md = FileDigester.newDigest();
+		DigestInputStream din = new DigestInputStream(in, md);
+		
+		// Keep a place for the nested container, so it comes before its members
+		int index = members.size();
+		members.add(null);
+		
+		try
+		{
+			hashMembers(open(din, format), path + "!/", members);
+		}
+		catch(IOException e)
+		{
+			// Corrupt, or not really the format the name suggests. The nested file is still hashed.
+			System.err.println("Exception reading nested package " + path + ": " + e.getMessage());
+		}
+		
+		// Read any padding after the last member, so the digest covers the whole
+		// of the nested container.
+		byte[] buffer = new byte[8192];
+		try
+		{
+			while(din.read(buffer) >= 0);
+		}
+		catch(IOException e)
+		{
+			// The nested file itself cannot be read to the end, so it has no digest
+			System.err.println("Exception reading nested package " + path + ": " + e.getMessage());
+			members.remove(index);
+			return;
+		}
+		members.set(index, new Member(path, Hex.encodeHexString(md.digest())));
+	}
+
+	/** The path and digest of a single package member.
+	 */
+	private static class Member
+	{
+		private final String path;
+		private final String digest;
+
+		public Member(String path, String digest)
+		{
+			this.path = path;
+			this.digest = digest;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package ca.twoducks.vor.ossindex.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/** The configuration shared by the export, import and snapshot tests, and the
+ * JSON export they compare.
+ *
+ * @author Ken Duck
+ *
+ */
+class ConfigurationFixture
+{
+	/**
+	 * Digest of two of the files.
+	 */
+	public static final String SHA1_A = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+	/**
+	 * Digest of the archive entry.
+	 */
+	public static final String SHA1_B = "00ff00ff00ff00ff00ff00ff00ff00ff00ff00ff";
+
+	private static final String PROJECTS = "{\"projects\": {\"jquery\": {\"name\": \"jquery\", \"members\": ["
+			+ "{\"name\": \"jquery\", \"version\": \"1.<2>\", \"scm\": \"https://github.com/jquery/jquery\", \"cpes\": [\"cpe:/a:jquery:jquery\"],"
+			+ " \"licenses\": [\"MIT\", null], \"files\": [\"0123\"], \"comment\": \"café & \\\"quotes\\\"\"}]},"
+			+ "\"empty\": {\"name\": \"empty\", \"members\": []}}}";
+
+	/** Build a configuration with files, dependencies and projects, including
+	 * characters that must be escaped. Some files share a digest, and some
+	 * digests are not SHA1 digests.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static Configuration createConfiguration() throws IOException
+	{
+		Configuration config = new Configuration();
+		config.importJson(new JsonReader(new StringReader(PROJECTS)));
+		File html = new File("web/index<1>.html");
+		config.addFileConfig(html, new FileConfig(html, SHA1_A));
+		config.addDependency(html, "HTML", URI.create("http://code.jquery.com/jquery.js"), "script & 'tag'");
+		config.addDependency(html, "npm", "left-pad", "~1.0", null);
+		File jar = new File("lib/a ü.jar");
+		config.addFileConfig(jar, new FileConfig(jar, "4567"));
+		config.addArchiveEntry(jar, "META-INF/MANIFEST.MF", SHA1_B);
+		File js = new File("lib/b.js");
+		config.addFileConfig(js, new FileConfig(js, SHA1_A));
+		config.addFile("cdef").setState("IDENTIFIED");
+		return config;
+	}
+
+	/** Export a configuration as the assistant writes its JSON files.
+	 *
+	 * @param config
+	 * @param includeContext Export the private configuration, rather than the public one
+	 * @param exportDependencies
+	 * @param pretty Indent the output
+	 * @return
+	 * @throws IOException
+	 */
+	public static String export(Configuration config, boolean includeContext, boolean exportDependencies, boolean pretty) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		JsonWriter out = new JsonWriter(writer);
+		if(pretty) out.setIndent("  ");
+		out.setHtmlSafe(true);
+		out.setSerializeNulls(false);
+		config.exportJson(out, includeContext, exportDependencies);
+		out.flush();
+		return writer.toString();
+	}
+}
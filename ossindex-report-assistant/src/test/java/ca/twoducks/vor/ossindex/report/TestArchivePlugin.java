@@ -0,0 +1,267 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.twoducks.vor.ossindex.report.plugins.ArchivePlugin;
+
+/** Test that the entries of archives, and of the archives nested within them,
+ * are hashed and recorded in order, including archives which are truncated or
+ * which Java's zip streams cannot read.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestArchivePlugin
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testNestedOrder() throws Exception
+	{
+		// Enough entries to be hashed in several batches, with nested jars in
+		// more than one of them
+		byte[] deeper = zip("y.txt", bytes(10, 'y'));
+		byte[] inner = zip("x.txt", bytes(10, 'x'), "deeper.jar", deeper, "z.txt", bytes(10, 'z'));
+		List<Object> members = new ArrayList<Object>();
+		List<String> expected = new ArrayList<String>();
+		for(int i = 0; i < 200; i++)
+		{
+			members.add("file" + i + ".txt");
+			members.add(bytes(i, 'f'));
+			expected.add("file" + i + ".txt");
+			if(i % 70 == 0)
+			{
+				members.add("lib" + i + "/inner.jar");
+				members.add(inner);
+				String path = "lib" + i + "/inner.jar";
+				expected.addAll(Arrays.asList(path, path + "!/x.txt", path + "!/deeper.jar", path + "!/deeper.jar!/y.txt", path + "!/z.txt"));
+			}
+		}
+		final byte[] outer = zip(members.toArray());
+
+		final ArchivePlugin plugin = new ArchivePlugin();
+		try
+		{
+			// Hashed by the plugin's own threads
+			Map<String, String> entries = scan(plugin, "outer.jar", outer);
+			assertEquals(expected, new ArrayList<String>(entries.keySet()));
+			assertEquals(digest(inner), entries.get("lib70/inner.jar"));
+			assertEquals(digest(bytes(10, 'y')), entries.get("lib140/inner.jar!/deeper.jar!/y.txt"));
+			assertEquals(digest(bytes(199, 'f')), entries.get("file199.txt"));
+
+			// Hashed by the workers of a fork/join scan
+			ForkJoinPool pool = new ForkJoinPool(4);
+			try
+			{
+				Map<String, String> forked = pool.submit(new Callable<Map<String, String>>()
+				{
+					@Override
+					public Map<String, String> call() throws Exception
+					{
+						return scan(plugin, "forked.jar", outer);
+					}
+				}).get();
+				assertEquals(entries, forked);
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		finally
+		{
+			plugin.close();
+		}
+	}
+
+	@Test
+	public void testTruncatedNested() throws IOException
+	{
+		// The nested jar ends part way through b.txt, which does not compress
+		byte[] random = new byte[5000];
+		new Random(1).nextBytes(random);
+		byte[] inner = zip("a.txt", bytes(100, 'a'), "b.txt", random, "c.txt", bytes(100, 'c'));
+		inner = Arrays.copyOf(inner, inner.length / 2);
+		byte[] outer = zip("first.txt", bytes(10, '1'), "inner.jar", inner, "last.txt", bytes(10, '2'));
+		Map<String, String> entries = scan(new ArchivePlugin(), "outer.jar", outer);
+
+		// The entries read before the end of the nested jar are kept, as are the
+		// outer jar's, and the nested jar is hashed as it is
+		assertEquals(Arrays.asList("first.txt", "inner.jar", "inner.jar!/a.txt", "last.txt"), new ArrayList<String>(entries.keySet()));
+		assertEquals(digest(inner), entries.get("inner.jar"));
+		assertEquals(digest(bytes(100, 'a')), entries.get("inner.jar!/a.txt"));
+	}
+
+	@Test
+	public void testStoredWithDataDescriptor() throws IOException
+	{
+		// The central directory gives the sizes of stored entries whose local
+		// headers leave them to a data descriptor
+		StoredZip nested = new StoredZip();
+		nested.add("ok.txt", bytes(10, 'o'), false);
+		nested.add("described.txt", bytes(10, 'd'), true);
+		nested.add("after.txt", bytes(10, 'a'), false);
+		byte[] inner = nested.finish();
+
+		StoredZip zip = new StoredZip();
+		zip.add("described.txt", bytes(300, 'd'), true);
+		zip.add("inner.jar", inner, true);
+		zip.add("last.txt", bytes(10, 'l'), false);
+		Map<String, String> entries = scan(new ArchivePlugin(), "outer.jar", zip.finish());
+
+		assertEquals(digest(bytes(300, 'd')), entries.get("described.txt"));
+		assertEquals(digest(inner), entries.get("inner.jar"));
+		assertEquals(digest(bytes(10, 'l')), entries.get("last.txt"));
+
+		// A nested archive is streamed, which cannot find the end of a stored
+		// entry without its size. The entries before it are kept.
+		assertEquals(digest(bytes(10, 'o')), entries.get("inner.jar!/ok.txt"));
+		assertNull(entries.get("inner.jar!/described.txt"));
+		assertNull(entries.get("inner.jar!/after.txt"));
+	}
+
+	/** Scan an archive with the plugin.
+	 *
+	 * @param plugin
+	 * @param name
+	 * @param content
+	 * @return The digest of each entry, keyed by its path within the archive, in order
+	 * @throws IOException
+	 */
+	private Map<String, String> scan(ArchivePlugin plugin, String name, byte[] content) throws IOException
+	{
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), content);
+		Configuration config = new Configuration();
+		config.addFile(file);
+		plugin.setConfiguration(config);
+		plugin.run(file);
+
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		String prefix = file.getPath() + "!/";
+		for(FileConfig entry: config.getFiles())
+		{
+			if(entry.getPath().startsWith(prefix)) entries.put(entry.getPath().substring(prefix.length()), entry.getDigest());
+		}
+		return entries;
+	}
+
+	private static byte[] zip(Object... entries) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ZipOutputStream out = new ZipOutputStream(bytes))
+		{
+			for(int i = 0; i < entries.length; i += 2)
+			{
+				out.putNextEntry(new ZipEntry((String)entries[i]));
+				out.write((byte[])entries[i + 1]);
+				out.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] bytes(int length, char c)
+	{
+		byte[] bytes = new byte[length];
+		Arrays.fill(bytes, (byte)c);
+		return bytes;
+	}
+
+	private static String digest(byte[] bytes) throws IOException
+	{
+		return FileDigester.digest(new ByteArrayInputStream(bytes));
+	}
+
+	/** Writes a zip of stored entries, optionally with the sizes and CRC left
+	 * out of the local header and written to a data descriptor after the data.
+	 * ZipOutputStream never writes stored entries that way, but other tools do.
+	 */
+	private static class StoredZip
+	{
+		private ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private ByteArrayOutputStream central = new ByteArrayOutputStream();
+		private int count;
+
+		public void add(String name, byte[] data, boolean descriptor)
+		{
+			byte[] nameBytes = name.getBytes(UTF8);
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			int flags = descriptor ? 8 : 0;
+			int offset = out.size();
+
+			ByteBuffer local = buffer(30);
+			local.putInt(0x04034b50).putShort((short)20).putShort((short)flags).putShort((short)0);
+			local.putShort((short)0).putShort((short)0x21);
+			if(descriptor) local.putInt(0).putInt(0).putInt(0);
+			else local.putInt((int)crc.getValue()).putInt(data.length).putInt(data.length);
+			local.putShort((short)nameBytes.length).putShort((short)0);
+			out.write(local.array(), 0, 30);
+			out.write(nameBytes, 0, nameBytes.length);
+			out.write(data, 0, data.length);
+			if(descriptor)
+			{
+				ByteBuffer dd = buffer(16);
+				dd.putInt(0x08074b50).putInt((int)crc.getValue()).putInt(data.length).putInt(data.length);
+				out.write(dd.array(), 0, 16);
+			}
+
+			ByteBuffer entry = buffer(46);
+			entry.putInt(0x02014b50).putShort((short)20).putShort((short)20).putShort((short)flags).putShort((short)0);
+			entry.putShort((short)0).putShort((short)0x21);
+			entry.putInt((int)crc.getValue()).putInt(data.length).putInt(data.length);
+			entry.putShort((short)nameBytes.length).putShort((short)0).putShort((short)0);
+			entry.putShort((short)0).putShort((short)0).putInt(0).putInt(offset);
+			central.write(entry.array(), 0, 46);
+			central.write(nameBytes, 0, nameBytes.length);
+			count++;
+		}
+
+		public byte[] finish()
+		{
+			int offset = out.size();
+			byte[] directory = central.toByteArray();
+			out.write(directory, 0, directory.length);
+			ByteBuffer end = buffer(22);
+			end.putInt(0x06054b50).putShort((short)0).putShort((short)0);
+			end.putShort((short)count).putShort((short)count);
+			end.putInt(directory.length).putInt(offset).putShort((short)0);
+			out.write(end.array(), 0, 22);
+			return out.toByteArray();
+		}
+
+		private static ByteBuffer buffer(int size)
+		{
+			return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+}
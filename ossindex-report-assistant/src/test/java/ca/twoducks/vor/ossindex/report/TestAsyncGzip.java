@@ -0,0 +1,204 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/** Test that the gzip streams compress and decompress on their own threads
+ * without losing bytes at chunk boundaries, and that errors are thrown to the
+ * caller rather than leaving it blocked.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestAsyncGzip
+{
+	private static final int CHUNK_SIZE = AsyncGzipOutputStream.CHUNK_SIZE;
+
+	@Test(timeout = 60000)
+	public void testRoundTrip() throws IOException
+	{
+		// More chunks than the queue holds, ending part way through a chunk
+		byte[] bytes = createBytes(CHUNK_SIZE * (AsyncGzipOutputStream.QUEUE_SIZE + 3) + 1234);
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		OutputStream out = new AsyncGzipOutputStream(compressed);
+		int position = 0;
+		int size = 1;
+		while(position < bytes.length)
+		{
+			// Single bytes, and writes which span chunk boundaries
+			if(size == 1) out.write(bytes[position++]);
+			else
+			{
+				int n = Math.min(size, bytes.length - position);
+				out.write(bytes, position, n);
+				position += n;
+			}
+			if(size == 7) out.flush();
+			size = size * 3 % (CHUNK_SIZE + 17);
+		}
+		out.close();
+
+		assertArrayEquals(bytes, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+		assertArrayEquals(bytes, readAll(new AsyncGzipInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+		assertArrayEquals(new byte[0], readAll(new AsyncGzipInputStream(new ByteArrayInputStream(gzip(new byte[0])))));
+	}
+
+	@Test(timeout = 60000)
+	public void testConcatenatedMembers() throws IOException
+	{
+		byte[] first = createBytes(CHUNK_SIZE + 10);
+		byte[] second = createBytes(100);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		compressed.write(gzip(first));
+		compressed.write(gzip(second));
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(first);
+		expected.write(second);
+		assertArrayEquals(expected.toByteArray(), readAll(new AsyncGzipInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+	}
+
+	@Test(timeout = 60000)
+	public void testCorrupt() throws IOException
+	{
+		byte[] compressed = gzip(createBytes(CHUNK_SIZE * 3));
+
+		byte[] corrupt = compressed.clone();
+		for(int i = corrupt.length / 2; i < corrupt.length / 2 + 64; i++) corrupt[i] ^= 0x55;
+		assertFails(corrupt);
+
+		assertFails(Arrays.copyOf(compressed, compressed.length / 2));
+		assertFails(Arrays.copyOf(compressed, compressed.length - 4));
+		assertFails(new byte[] {1, 2, 3});
+	}
+
+	@Test(timeout = 60000)
+	public void testCloseBeforeEnd() throws IOException
+	{
+		// Enough input that the decompressing thread is left waiting for the reader
+		byte[] bytes = createBytes(CHUNK_SIZE * (AsyncGzipOutputStream.QUEUE_SIZE + 4));
+		final boolean[] closed = new boolean[1];
+		InputStream in = new AsyncGzipInputStream(new ByteArrayInputStream(gzip(bytes))
+		{
+			@Override
+			public void close() throws IOException
+			{
+				closed[0] = true;
+			}
+		});
+		byte[] buffer = new byte[100];
+		assertEquals(100, in.read(buffer));
+		assertArrayEquals(Arrays.copyOf(bytes, 100), buffer);
+		in.close();
+		assertTrue(closed[0]);
+
+		try
+		{
+			in.read();
+			fail("Expected the closed stream to be rejected");
+		}
+		catch(IOException e)
+		{
+			// Expected
+		}
+		in.close();
+	}
+
+	@Test(timeout = 60000)
+	public void testWriteError() throws IOException
+	{
+		// The header is written as the stream is created, the compressed data later
+		OutputStream out = new AsyncGzipOutputStream(new OutputStream()
+		{
+			private int count;
+
+			@Override
+			public void write(int b) throws IOException
+			{
+				if(++count > 10) throw new IOException("Disk full");
+			}
+		});
+		try
+		{
+			byte[] bytes = createBytes(CHUNK_SIZE * (AsyncGzipOutputStream.QUEUE_SIZE + 4));
+			out.write(bytes);
+			out.close();
+			fail("Expected the error writing the compressed bytes");
+		}
+		catch(IOException e)
+		{
+			assertEquals("Disk full", e.getMessage());
+		}
+	}
+
+	/** Decompress the input, which must fail with an IOException.
+	 *
+	 * @param compressed
+	 */
+	private static void assertFails(byte[] compressed)
+	{
+		try
+		{
+			readAll(new AsyncGzipInputStream(new ByteArrayInputStream(compressed)));
+			fail("Expected the input to be rejected");
+		}
+		catch(IOException e)
+		{
+			// Expected
+		}
+	}
+
+	/** Bytes which compress, but not to nothing.
+	 *
+	 * @param length
+	 * @return
+	 */
+	private static byte[] createBytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		Random random = new Random(length);
+		for(int i = 0; i < length; i++) bytes[i] = (byte)('a' + random.nextInt(8));
+		return bytes;
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try(GZIPOutputStream out = new GZIPOutputStream(compressed))
+		{
+			out.write(bytes);
+		}
+		return compressed.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[10000];
+			int n;
+			while((n = in.read(buffer)) >= 0) bytes.write(buffer, 0, n);
+			return bytes.toByteArray();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
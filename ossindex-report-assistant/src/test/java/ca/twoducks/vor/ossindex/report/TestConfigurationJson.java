@@ -0,0 +1,86 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static ca.twoducks.vor.ossindex.report.ConfigurationFixture.createConfiguration;
+import static ca.twoducks.vor.ossindex.report.ConfigurationFixture.export;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/** Test that the streaming JSON export matches Gson's reflective output
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestConfigurationJson
+{
+	@Test
+	public void testPrivate() throws IOException
+	{
+		Configuration config = createConfiguration();
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		assertEquals(gson.toJson(config), export(config, true, true, true));
+	}
+
+	@Test
+	public void testPublic() throws IOException
+	{
+		Configuration config = createConfiguration();
+		for(boolean dependencies: new boolean[] {true, false})
+		{
+			Gson gson = new GsonBuilder().setPrettyPrinting()
+					.setExclusionStrategies(new PublicExclusionStrategy(dependencies))
+					.create();
+			assertEquals(gson.toJson(config), export(config, false, dependencies, true));
+		}
+	}
+
+	@Test
+	public void testCompact() throws IOException
+	{
+		Configuration config = createConfiguration();
+		assertEquals(new Gson().toJson(config), export(config, true, true, false));
+	}
+
+	@Test
+	public void testAdapters() throws IOException
+	{
+		Configuration config = createConfiguration();
+		Gson reflective = new GsonBuilder().setPrettyPrinting().create();
+		Gson adapters = new GsonBuilder().setPrettyPrinting()
+				.registerTypeAdapterFactory(ConfigurationAdapters.privateProjection())
+				.create();
+		String json = reflective.toJson(config);
+		assertEquals(json, adapters.toJson(config));
+		
+		// Reading back must give the same configuration as reflection does
+		assertEquals(json, reflective.toJson(adapters.fromJson(json, Configuration.class)));
+		
+		Gson publicAdapters = new GsonBuilder().setPrettyPrinting()
+				.registerTypeAdapterFactory(ConfigurationAdapters.publicProjection(false))
+				.create();
+		Gson publicReflective = new GsonBuilder().setPrettyPrinting()
+				.setExclusionStrategies(new PublicExclusionStrategy(false))
+				.create();
+		assertEquals(publicReflective.toJson(config), publicAdapters.toJson(config));
+	}
+
+	@Test
+	public void testImport() throws IOException
+	{
+		// Fields missing, null, of the wrong type or unknown are treated as Gson treats them
+		String json = "{\"timestamp\": 5, \"extra\": [1, {\"a\": null}], \"files\": [null,"
+				+ " {\"digest\": \"01\", \"name\": true, \"ignored\": \"true\", \"license\": null, \"dependencies\": [{\"type\": \"npm\", \"version\": 2}]},"
+				+ " {\"digest\": \"02\", \"dependencies\": null, \"ignored\": null}],"
+				+ " \"projects\": {\"a\": {\"members\": [{\"name\": \"a\", \"licenses\": null}]}, \"b\": null}}";
+		Gson reflective = new Gson();
+		Configuration expected = reflective.fromJson(json, Configuration.class);
+		Configuration actual = new GsonBuilder().registerTypeAdapterFactory(ConfigurationAdapters.privateProjection()).create()
+				.fromJson(json, Configuration.class);
+		assertEquals(reflective.toJson(expected), reflective.toJson(actual));
+	}
+}
@@ -0,0 +1,85 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static ca.twoducks.vor.ossindex.report.ConfigurationFixture.SHA1_A;
+import static ca.twoducks.vor.ossindex.report.ConfigurationFixture.SHA1_B;
+import static ca.twoducks.vor.ossindex.report.ConfigurationFixture.createConfiguration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.stream.JsonReader;
+
+/** Test that a configuration survives the trip through a snapshot, and that
+ * files may be looked up by digest and path.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestConfigurationSnapshot
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		Configuration config = createConfiguration();
+		String json = export(config);
+		assertEquals(json, export(roundTrip(config).toConfiguration()));
+
+		// Fields which are missing, null or not SHA1 digests
+		String odd = "{\"timestamp\": 5, \"files\": ["
+				+ "{\"digest\": \"01\", \"name\": true, \"ignored\": \"true\", \"dependencies\": [{\"type\": \"npm\", \"version\": 2}]},"
+				+ "{\"digest\": \"" + SHA1_A.toUpperCase() + "\", \"dependencies\": []}, {\"path\": \"no digest\"}],"
+				+ " \"projects\": {\"a\": {\"members\": [{\"name\": \"a\", \"scm\": null}]}, \"b\": null}}";
+		config = new Configuration();
+		config.importJson(new JsonReader(new StringReader(odd)));
+		json = export(config);
+		assertEquals(json, export(roundTrip(config).toConfiguration()));
+
+		config = new Configuration();
+		assertEquals(export(config), export(roundTrip(config).toConfiguration()));
+	}
+
+	@Test
+	public void testLookup() throws IOException
+	{
+		Configuration config = createConfiguration();
+		ConfigurationSnapshot snapshot = roundTrip(config);
+		assertEquals(config.getFiles().size(), snapshot.getFileCount());
+
+		List<FileConfig> files = snapshot.findByDigest(SHA1_A);
+		assertEquals(2, files.size());
+		assertEquals("web/index<1>.html", files.get(0).getPath());
+		assertEquals("lib/b.js", files.get(1).getPath());
+		assertEquals(1, snapshot.findByDigest(SHA1_B).size());
+		assertTrue(snapshot.findByDigest("0000000000000000000000000000000000000000").isEmpty());
+		assertEquals("4567", snapshot.findByDigest("4567").get(0).getDigest());
+
+		assertEquals(SHA1_B, snapshot.findByPath("lib/a ü.jar!/META-INF/MANIFEST.MF").getDigest());
+		assertEquals("4567", snapshot.findByPath("lib/a ü.jar").getDigest());
+		assertNull(snapshot.findByPath("lib/missing"));
+		assertNull(snapshot.findByPath(""));
+	}
+
+	private ConfigurationSnapshot roundTrip(Configuration config) throws IOException
+	{
+		File file = folder.newFile();
+		ConfigurationSnapshot.write(config, file);
+		return ConfigurationSnapshot.open(file);
+	}
+
+	private String export(Configuration config) throws IOException
+	{
+		return ConfigurationFixture.export(config, true, true, true);
+	}
+}
@@ -0,0 +1,73 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/** Test classifying files from the first few bytes of their content.
+ * 
+ * @author Ken Duck
+ *
+ */
+public class TestFileClassifier
+{
+	@Test
+	public void testMagic()
+	{
+		assertEquals(FileClass.IMAGE, sniff(new byte[] {(byte)0x89, 'P', 'N', 'G', 0}));
+		assertEquals(FileClass.IMAGE, sniff(new byte[] {'G', 'I', 'F', '8', '9', 'a', 0}));
+		assertEquals(FileClass.BINARY, sniff(new byte[] {'a', 'b', 0, 'c'}));
+		assertEquals(FileClass.TEXT, sniff("plain text".getBytes()));
+	}
+
+	@Test
+	public void testIcon()
+	{
+		assertEquals(FileClass.IMAGE, sniff(icon(2, 1, 1000, 38)));
+		assertEquals(FileClass.IMAGE, sniff(icon(1, 0, 1000, 22)));
+
+		// The ICO magic alone is not enough
+		assertEquals(FileClass.BINARY, sniff(new byte[] {0, 0, 1, 0, 0, 0, 0, 0}));
+		assertEquals(FileClass.BINARY, sniff(new byte[64]));
+		byte[] zeros = new byte[64];
+		zeros[2] = 1;
+		assertEquals(FileClass.BINARY, sniff(zeros));
+		
+		// Implausible directories
+		assertEquals(FileClass.BINARY, sniff(icon(0, 1, 1000, 22)));
+		assertEquals(FileClass.BINARY, sniff(icon(1000, 1, 1000, 16006)));
+		assertEquals(FileClass.BINARY, sniff(icon(1, 7, 1000, 22)));
+		assertEquals(FileClass.BINARY, sniff(icon(1, 1, 0, 22)));
+		assertEquals(FileClass.BINARY, sniff(icon(2, 1, 1000, 22)));
+	}
+
+	private static FileClass sniff(byte[] header)
+	{
+		return FileClassifier.sniff(header, header.length);
+	}
+
+	/** An ICO header whose directory entries all share the same fields.
+	 * 
+	 * @param count
+	 * @param planes
+	 * @param size
+	 * @param offset Offset of the first image's data
+	 * @return
+	 */
+	private static byte[] icon(int count, int planes, int size, int offset)
+	{
+		int entries = Math.min(count, 4);
+		ByteBuffer buffer = ByteBuffer.allocate(6 + 16 * entries + 32).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putShort((short)0).putShort((short)1).putShort((short)count);
+		for(int i = 0; i < entries; i++)
+		{
+			buffer.put((byte)16).put((byte)16).put((byte)0).put((byte)0);
+			buffer.putShort((short)planes).putShort((short)32);
+			buffer.putInt(size).putInt(offset + i * size);
+		}
+		return buffer.array();
+	}
+}
@@ -66,6 +66,18 @@ class TestConfiguration implements IConfiguration
 		
 	}
 
+	@Override
+	public void addFile(File file, FileContent content) throws IOException {
+		// TODO Auto-generated method stub
+		
+	}
+
+	@Override
+	public String getDigest(File file) throws IOException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 	@Override
 	public void addDependency(File file, String type, URL url) {
 		// TODO Auto-generated method stub
@@ -90,5 +102,11 @@ class TestConfiguration implements IConfiguration
 	{
 		System.out.println("Dependency: " + file + " " + gemName + " " + version + " " + uri + " " + comment);
 	}
+
+	@Override
+	public void addArchiveEntry(File archive, String entry, String digest) {
+		// TODO Auto-generated method stub
+		
+	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,334 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test reading git indexes written in each supported version, with padded and
+ * prefix compressed paths, checksums and extensions.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestGitIndex
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MODE_FILE = 0100644;
+	private static final int MODE_LINK = 0120000;
+	private static final int SKIP_WORKTREE = 0x4000;
+	private static final int INTENT_TO_ADD = 0x2000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testVersion2() throws IOException
+	{
+		// Path lengths which need every amount of padding, from one NUL to eight
+		String[] paths = {"a", "ab", "abc", "abcd", "abcde", "abcdef", "abcdefg", "abcdefgh", "dir/ü.txt", "link"};
+		IndexWriter writer = new IndexWriter(2);
+		for(int i = 0; i < paths.length; i++)
+		{
+			writer.add(paths[i], i == paths.length - 1 ? MODE_LINK : MODE_FILE, i, 0);
+		}
+		GitIndex index = read(writer.finish(true));
+
+		assertEquals(2, index.getVersion());
+		List<GitIndex.Entry> entries = index.getEntries();
+		assertEquals(paths.length, entries.size());
+		for(int i = 0; i < paths.length; i++)
+		{
+			GitIndex.Entry entry = entries.get(i);
+			assertEquals(paths[i], entry.getPath());
+			assertEquals(blob(i), entry.getBlob());
+			assertEquals(0, entry.getStage());
+			assertEquals(1000000000L * (1000 + i) + i, entry.getModifiedNanos());
+		}
+		assertTrue(entries.get(0).isRegularFile());
+		assertFalse(entries.get(paths.length - 1).isRegularFile());
+	}
+
+	@Test
+	public void testVersion3() throws IOException
+	{
+		IndexWriter writer = new IndexWriter(3);
+		writer.add("added", MODE_FILE, 1, INTENT_TO_ADD);
+		writer.add("conflict", MODE_FILE, 2, 0, 2);
+		writer.add("plain", MODE_FILE, 3, 0);
+		writer.add("sparse", MODE_FILE, 4, SKIP_WORKTREE);
+		List<GitIndex.Entry> entries = read(writer.finish(true)).getEntries();
+
+		assertEquals(4, entries.size());
+		assertTrue(entries.get(0).isIntentToAdd());
+		assertFalse(entries.get(0).isSkipWorktree());
+		assertEquals(2, entries.get(1).getStage());
+		assertFalse(entries.get(2).isIntentToAdd());
+		assertFalse(entries.get(2).isSkipWorktree());
+		assertTrue(entries.get(3).isSkipWorktree());
+		assertEquals("sparse", entries.get(3).getPath());
+		assertEquals(blob(4), entries.get(3).getBlob());
+
+		// Extended flags are not allowed before version 3
+		writer = new IndexWriter(2);
+		writer.add("sparse", MODE_FILE, 4, SKIP_WORKTREE);
+		assertCorrupt(writer.finish(true));
+	}
+
+	@Test
+	public void testVersion4() throws IOException
+	{
+		// Prefixes shared with the previous path, including one long enough that
+		// the number of bytes dropped takes more than one byte to encode
+		char[] chars = new char[300];
+		Arrays.fill(chars, 'x');
+		String[] paths = {"lib/a.js", "lib/b.js", "lib/sub/c.js", "lib/sub/" + new String(chars), "lib/sub/z", "mü", "z"};
+		IndexWriter writer = new IndexWriter(4);
+		for(int i = 0; i < paths.length; i++) writer.add(paths[i], MODE_FILE, i, i == 2 ? SKIP_WORKTREE : 0);
+		GitIndex index = read(writer.finish(true));
+
+		assertEquals(4, index.getVersion());
+		List<GitIndex.Entry> entries = index.getEntries();
+		assertEquals(paths.length, entries.size());
+		for(int i = 0; i < paths.length; i++)
+		{
+			assertEquals(paths[i], entries.get(i).getPath());
+			assertEquals(blob(i), entries.get(i).getBlob());
+		}
+		assertTrue(entries.get(2).isSkipWorktree());
+
+		// Dropping more than the whole previous path
+		writer = new IndexWriter(4);
+		writer.add("a", MODE_FILE, 0, 0);
+		writer.addRaw(5, "b");
+		assertCorrupt(writer.finish(true));
+	}
+
+	@Test
+	public void testChecksum() throws IOException
+	{
+		IndexWriter writer = new IndexWriter(2);
+		writer.add("file", MODE_FILE, 0, 0);
+		byte[] bytes = writer.finish(true);
+		assertEquals("file", read(bytes).getEntries().get(0).getPath());
+
+		// Any change to the content is caught
+		byte[] corrupt = bytes.clone();
+		corrupt[20] ^= 1;
+		assertCorrupt(corrupt);
+		assertCorrupt(Arrays.copyOf(bytes, bytes.length - 1));
+		assertCorrupt(new byte[31]);
+
+		// A zero checksum, as written with index.skipHash, is not checked
+		writer = new IndexWriter(2);
+		writer.add("file", MODE_FILE, 0, 0);
+		bytes = writer.finish(false);
+		bytes[20] ^= 1;
+		assertEquals("file", read(bytes).getEntries().get(0).getPath());
+	}
+
+	@Test
+	public void testExtensions() throws IOException
+	{
+		IndexWriter writer = new IndexWriter(4);
+		writer.add("a", MODE_FILE, 0, 0);
+		writer.add("b", MODE_FILE, 1, 0);
+		writer.addExtension("TREE", new byte[37]);
+		writer.addExtension("REUC", new byte[0]);
+		writer.addExtension("UNTR", new byte[200]);
+		List<GitIndex.Entry> entries = read(writer.finish(true)).getEntries();
+		assertEquals(2, entries.size());
+		assertEquals("b", entries.get(1).getPath());
+
+		// Split indexes are not supported
+		writer = new IndexWriter(2);
+		writer.add("a", MODE_FILE, 0, 0);
+		writer.addExtension("link", new byte[20]);
+		assertCorrupt(writer.finish(true));
+
+		// An extension which runs past the end of the index
+		writer = new IndexWriter(2);
+		writer.add("a", MODE_FILE, 0, 0);
+		writer.addExtension("TREE", new byte[8], 100);
+		assertCorrupt(writer.finish(true));
+	}
+
+	private GitIndex read(byte[] bytes) throws IOException
+	{
+		File file = folder.newFile();
+		Files.write(file.toPath(), bytes);
+		return GitIndex.read(file);
+	}
+
+	private void assertCorrupt(byte[] bytes)
+	{
+		try
+		{
+			read(bytes);
+			fail("Expected the index to be rejected");
+		}
+		catch(IOException e)
+		{
+			// Expected
+		}
+	}
+
+	/** A distinct blob id for each entry.
+	 *
+	 * @param i
+	 * @return
+	 */
+	private static String blob(int i)
+	{
+		StringBuilder sb = new StringBuilder();
+		for(int j = 0; j < 20; j++) sb.append(String.format("%02x", (i + j) & 0xff));
+		return sb.toString();
+	}
+
+	/** Writes an index the way git does.
+	 */
+	private static class IndexWriter
+	{
+		private int version;
+		private int count;
+		private byte[] previous = new byte[0];
+		private ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		private ByteArrayOutputStream extensions = new ByteArrayOutputStream();
+
+		public IndexWriter(int version)
+		{
+			this.version = version;
+		}
+
+		public void add(String path, int mode, int i, int extendedFlags) throws IOException
+		{
+			add(path, mode, i, extendedFlags, 0);
+		}
+
+		public void add(String path, int mode, int i, int extendedFlags, int stage) throws IOException
+		{
+			byte[] name = path.getBytes(UTF8);
+			DataOutputStream out = new DataOutputStream(entries);
+			int start = entries.size();
+			out.writeInt(1000 + i); // ctime
+			out.writeInt(i);
+			out.writeInt(1000 + i); // mtime
+			out.writeInt(i);
+			out.writeInt(1); // dev
+			out.writeInt(i); // ino
+			out.writeInt(mode);
+			out.writeInt(0); // uid
+			out.writeInt(0); // gid
+			out.writeInt(i * 10); // size
+			for(int j = 0; j < 20; j++) out.writeByte(i + j);
+			int flags = Math.min(name.length, 0xfff) | (stage << 12);
+			if(extendedFlags != 0) flags |= 0x4000;
+			out.writeShort(flags);
+			if(extendedFlags != 0) out.writeShort(extendedFlags);
+
+			if(version == 4)
+			{
+				int common = 0;
+				while(common < name.length && common < previous.length && name[common] == previous[common]) common++;
+				writeOffset(previous.length - common);
+				entries.write(name, common, name.length - common);
+				entries.write(0);
+			}
+			else
+			{
+				entries.write(name);
+				int length = entries.size() - start;
+				int padded = (length + 8) & ~7;
+				for(int j = length; j < padded; j++) entries.write(0);
+			}
+			previous = name;
+			count++;
+		}
+
+		/** Add a version 4 entry with the path given as it is stored.
+		 *
+		 * @param strip
+		 * @param suffix
+		 * @throws IOException
+		 */
+		public void addRaw(int strip, String suffix) throws IOException
+		{
+			DataOutputStream out = new DataOutputStream(entries);
+			for(int j = 0; j < 24; j++) out.writeByte(0); // ctime, mtime, dev, ino
+			out.writeInt(MODE_FILE);
+			for(int j = 0; j < 32; j++) out.writeByte(0);
+			out.writeShort(suffix.length());
+			writeOffset(strip);
+			entries.write(suffix.getBytes(UTF8));
+			entries.write(0);
+			count++;
+		}
+
+		public void addExtension(String signature, byte[] data) throws IOException
+		{
+			addExtension(signature, data, data.length);
+		}
+
+		public void addExtension(String signature, byte[] data, int size) throws IOException
+		{
+			DataOutputStream out = new DataOutputStream(extensions);
+			out.write(signature.getBytes(UTF8));
+			out.writeInt(size);
+			out.write(data);
+		}
+
+		/** Write a number in git's offset encoding, as used by version 4 paths.
+		 *
+		 * @param value
+		 */
+		private void writeOffset(int value)
+		{
+			byte[] bytes = new byte[8];
+			int pos = bytes.length - 1;
+			bytes[pos] = (byte)(value & 0x7f);
+			while((value >>= 7) != 0) bytes[--pos] = (byte)(0x80 | (--value & 0x7f));
+			entries.write(bytes, pos, bytes.length - pos);
+		}
+
+		/** Write the header, entries, extensions and checksum.
+		 *
+		 * @param checksum Write the SHA1 of the content, rather than zeroes
+		 * @return
+		 * @throws IOException
+		 */
+		public byte[] finish(boolean checksum) throws IOException
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0x44495243);
+			out.writeInt(version);
+			out.writeInt(count);
+			entries.writeTo(out);
+			extensions.writeTo(out);
+			if(checksum)
+			{
+				MessageDigest md = FileDigester.newDigest();
+				out.write(md.digest(bytes.toByteArray()));
+			}
+			else
+			{
+				out.write(new byte[20]);
+			}
+			return bytes.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.twoducks.vor.ossindex.report.plugins.ArchivePlugin;
+import ca.twoducks.vor.ossindex.report.plugins.ChecksumPlugin;
+
+/** Test that the watcher keeps the configuration current as files beneath a
+ * real directory are changed, deleted and created, using the platform's
+ * WatchService. Events are collected and applied directly rather than by
+ * run(), so that the debounce can be checked against chosen times.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestInventoryWatcher
+{
+	/**
+	 * Longest wait for the WatchService to report a change, in milliseconds.
+	 */
+	private static final long TIMEOUT = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Configuration config = new Configuration();
+
+	private List<IScanPlugin> plugins = Arrays.<IScanPlugin>asList(new ChecksumPlugin(), new ArchivePlugin());
+
+	private InventoryWatcher watcher;
+
+	@After
+	public void tearDown() throws IOException
+	{
+		if(watcher != null) watcher.close();
+		for(IScanPlugin plugin: plugins) plugin.close();
+	}
+
+	@Test
+	public void testDebounce() throws Exception
+	{
+		File root = folder.getRoot();
+		File a = write(new File(root, "a.txt"), "a");
+		start(root);
+
+		// Changes are applied once the tree has been quiet for a while
+		write(a, "a1");
+		collect(10000);
+		assertFalse(watcher.isDue(10499));
+		assertTrue(watcher.isDue(10500));
+
+		// Further changes put it off
+		write(a, "a2");
+		collect(10400);
+		assertFalse(watcher.isDue(10500));
+		assertTrue(watcher.isDue(10900));
+
+		// But not forever
+		write(a, "a3");
+		collect(14800);
+		assertFalse(watcher.isDue(14999));
+		assertTrue(watcher.isDue(15000));
+	}
+
+	@Test
+	public void testCoalesce() throws Exception
+	{
+		File root = folder.getRoot();
+		File a = write(new File(root, "a.txt"), "a");
+		start(root);
+
+		// Every change to a path is applied as one
+		for(int i = 0; i < 3; i++) write(a, "a" + i);
+		File b = write(new File(root, "b.txt"), "b");
+		write(b, "b1");
+		collect(a, b);
+		assertEquals(Arrays.asList(a.toPath(), b.toPath()), new ArrayList<Path>(watcher.getPending()));
+
+		watcher.apply();
+		assertTrue(watcher.getPending().isEmpty());
+		assertEquals(Arrays.asList(a.getPath(), b.getPath()), getPaths());
+		assertEquals(FileDigester.digest(Files.newInputStream(a.toPath())), config.getDigest(a));
+	}
+
+	@Test
+	public void testOverflow() throws Exception
+	{
+		File root = folder.getRoot();
+		File sub = folder.newFolder("sub");
+		start(root);
+
+		// More changes than the WatchService keeps for one directory, including a
+		// new directory whose events may be among those lost
+		List<String> expected = new ArrayList<String>();
+		File deep = new File(sub, "deep");
+		deep.mkdir();
+		expected.add(write(new File(deep, "x.txt"), "x").getPath());
+		for(int i = 0; i < 600; i++) expected.add(write(new File(sub, "file" + i + ".txt"), "file" + i).getPath());
+		collect(sub);
+
+		// Everything beneath the directory is scanned again
+		watcher.apply();
+		List<String> paths = getPaths();
+		assertEquals(expected.size(), paths.size());
+		assertTrue(paths.containsAll(expected));
+
+		// And the new directory is watched
+		File y = write(new File(deep, "y.txt"), "y");
+		collect(y);
+		watcher.apply();
+		assertTrue(getPaths().contains(y.getPath()));
+	}
+
+	@Test
+	public void testDelete() throws Exception
+	{
+		File root = folder.getRoot();
+		File lib = folder.newFolder("lib");
+		File a = new File(lib, "a.jar");
+		Files.write(a.toPath(), zip("x.txt", "y.txt"));
+		write(new File(lib, "b.txt"), "b");
+		File other = new File(root, "other.jar");
+		Files.write(other.toPath(), zip("z.txt"));
+		File library = write(new File(root, "library.txt"), "library");
+		start(root);
+		assertTrue(getPaths().contains(a.getPath() + "!/x.txt"));
+		assertTrue(getPaths().contains(other.getPath() + "!/z.txt"));
+
+		// An archive goes with its entries
+		Files.delete(other.toPath());
+		collect(other);
+		watcher.apply();
+		assertEquals(new TreeSet<String>(Arrays.asList(library.getPath(), a.getPath(), a.getPath() + "!/x.txt", a.getPath() + "!/y.txt", new File(lib, "b.txt").getPath())),
+				new TreeSet<String>(getPaths()));
+
+		// A directory with everything beneath it, but not a file which shares its name
+		Files.delete(a.toPath());
+		Files.delete(new File(lib, "b.txt").toPath());
+		Files.delete(lib.toPath());
+		collect(lib);
+		watcher.apply();
+		assertEquals(Arrays.asList(library.getPath()), getPaths());
+	}
+
+	@Test
+	public void testNewDirectory() throws Exception
+	{
+		File root = folder.getRoot();
+		start(root);
+
+		// Created faster than the watcher can register the directories
+		File sub = new File(root, "new/sub");
+		sub.mkdirs();
+		File a = write(new File(sub, "a.txt"), "a");
+		collect(new File(root, "new"));
+		watcher.apply();
+		assertEquals(Arrays.asList(a.getPath()), getPaths());
+
+		// The new directories are watched
+		File b = write(new File(sub, "b.txt"), "b");
+		collect(b);
+		watcher.apply();
+		assertEquals(Arrays.asList(a.getPath(), b.getPath()), getPaths());
+	}
+
+	/** Register the tree and scan it, as the assistant does before it watches.
+	 *
+	 * @param root
+	 * @throws IOException
+	 */
+	private void start(File root) throws IOException
+	{
+		for(IScanPlugin plugin: plugins) plugin.setConfiguration(config);
+		ScanProcessor processor = new ScanProcessor(plugins, true);
+		watcher = new InventoryWatcher(processor, config, root, 0)
+		{
+			@Override
+			protected void write() throws IOException
+			{
+			}
+		};
+		watcher.register();
+		new SequentialScanner(processor).scan(root);
+	}
+
+	/** Collect events until every file has a change pending, and then any
+	 * further events already on their way.
+	 *
+	 * @param files
+	 * @throws InterruptedException
+	 */
+	private void collect(File... files) throws InterruptedException
+	{
+		List<Path> paths = new ArrayList<Path>();
+		for(File file: files) paths.add(file.toPath());
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while(!watcher.getPending().containsAll(paths))
+		{
+			assertTrue("No change seen to " + paths, System.currentTimeMillis() < deadline);
+			WatchKey key = watcher.poll(100);
+			if(key != null) watcher.collect(key, System.currentTimeMillis());
+		}
+		drain(System.currentTimeMillis());
+	}
+
+	/** Collect at least one key's events, as if they were seen at the specified time.
+	 *
+	 * @param now
+	 * @throws InterruptedException
+	 */
+	private void collect(long now) throws InterruptedException
+	{
+		WatchKey key = watcher.poll(TIMEOUT);
+		assertTrue("No change seen", key != null);
+		watcher.collect(key, now);
+		drain(now);
+	}
+
+	private void drain(long now) throws InterruptedException
+	{
+		WatchKey key;
+		while((key = watcher.poll(300)) != null) watcher.collect(key, now);
+	}
+
+	/** The paths in the configuration, in order.
+	 *
+	 * @return
+	 */
+	private List<String> getPaths()
+	{
+		List<String> paths = new ArrayList<String>();
+		for(FileConfig file: config.getFiles()) paths.add(file.getPath());
+		return paths;
+	}
+
+	/** Write a file large enough to be hashed, whose content depends on the text.
+	 *
+	 * @param file
+	 * @param text
+	 * @return The file
+	 * @throws IOException
+	 */
+	private static File write(File file, String text) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < FileClassifier.MIN_SIZE * 2) sb.append(text).append('\n');
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		return file;
+	}
+
+	private static byte[] zip(String... names) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ZipOutputStream out = new ZipOutputStream(bytes))
+		{
+			for(String name: names)
+			{
+				out.putNextEntry(new ZipEntry(name));
+				out.write(name.getBytes("UTF-8"));
+				out.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+}
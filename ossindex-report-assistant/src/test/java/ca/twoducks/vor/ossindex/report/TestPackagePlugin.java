@@ -0,0 +1,138 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.twoducks.vor.ossindex.report.plugins.PackagePlugin;
+
+/** Test that the members of a corrupt or truncated package which could be
+ * read are still recorded.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestPackagePlugin
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testNested() throws IOException
+	{
+		byte[] inner = tarGzip(tar("b.txt", bytes(100, 'b'), "c.txt", bytes(100, 'c')));
+		byte[] outer = tar("a.txt", bytes(10, 'a'), "inner.tar.gz", inner, "d.txt", bytes(10, 'd'));
+		Map<String, String> members = scan("test.tar", outer);
+
+		assertEquals(Arrays.asList("a.txt", "inner.tar.gz", "inner.tar.gz!/b.txt", "inner.tar.gz!/c.txt", "d.txt"), Arrays.asList(members.keySet().toArray()));
+		assertEquals(digest(inner), members.get("inner.tar.gz"));
+		assertEquals(digest(bytes(100, 'c')), members.get("inner.tar.gz!/c.txt"));
+	}
+
+	@Test
+	public void testTruncatedNested() throws IOException
+	{
+		// The nested package is cut short, but is still a whole member of the outer one
+		byte[] inner = tarGzip(tar("b.txt", bytes(100, 'b'), "c.txt", bytes(100, 'c')));
+		inner = Arrays.copyOf(inner, inner.length / 2);
+		byte[] outer = tar("a.txt", bytes(10, 'a'), "inner.tar.gz", inner, "d.txt", bytes(10, 'd'));
+		Map<String, String> members = scan("test.tar", outer);
+
+		assertEquals(digest(bytes(10, 'a')), members.get("a.txt"));
+		assertEquals(digest(inner), members.get("inner.tar.gz"));
+		assertEquals(digest(bytes(10, 'd')), members.get("d.txt"));
+	}
+
+	@Test
+	public void testTruncatedOuter() throws IOException
+	{
+		// The outer package ends part way through the second member of the nested one
+		byte[] inner = tar("b.txt", bytes(100, 'b'), "c.txt", bytes(4096, 'c'));
+		byte[] outer = tar("a.txt", bytes(10, 'a'), "inner.tar", inner);
+		outer = Arrays.copyOf(outer, 512 * 2 + 512 + 512 * 2 + 1024);
+		Map<String, String> members = scan("test.tar", outer);
+
+		// The nested package cannot be read to its end, so it has no digest
+		assertEquals(Arrays.asList("a.txt", "inner.tar!/b.txt"), Arrays.asList(members.keySet().toArray()));
+		assertEquals(digest(bytes(100, 'b')), members.get("inner.tar!/b.txt"));
+	}
+
+	/** Scan a package with the plugin.
+	 *
+	 * @param name
+	 * @param content
+	 * @return The digest of each member, keyed by its path within the package, in order
+	 * @throws IOException
+	 */
+	private Map<String, String> scan(String name, byte[] content) throws IOException
+	{
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), content);
+		Configuration config = new Configuration();
+		config.addFile(file);
+		PackagePlugin plugin = new PackagePlugin();
+		plugin.setConfiguration(config);
+		plugin.run(file);
+
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		String prefix = file.getPath() + "!/";
+		for(FileConfig member: config.getFiles())
+		{
+			if(member.getPath().startsWith(prefix)) members.put(member.getPath().substring(prefix.length()), member.getDigest());
+		}
+		return members;
+	}
+
+	private static byte[] tar(Object... members) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TarArchiveOutputStream out = new TarArchiveOutputStream(bytes);
+		for(int i = 0; i < members.length; i += 2)
+		{
+			byte[] content = (byte[])members[i + 1];
+			TarArchiveEntry entry = new TarArchiveEntry((String)members[i]);
+			entry.setSize(content.length);
+			out.putArchiveEntry(entry);
+			out.write(content);
+			out.closeArchiveEntry();
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] tarGzip(byte[] tar) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(GzipCompressorOutputStream out = new GzipCompressorOutputStream(bytes))
+		{
+			out.write(tar);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] bytes(int length, char c)
+	{
+		byte[] bytes = new byte[length];
+		Arrays.fill(bytes, (byte)c);
+		return bytes;
+	}
+
+	private static String digest(byte[] bytes) throws IOException
+	{
+		return FileDigester.digest(new ByteArrayInputStream(bytes));
+	}
+}
@@ -0,0 +1,165 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.twoducks.vor.ossindex.report.plugins.ArchivePlugin;
+import ca.twoducks.vor.ossindex.report.plugins.ChecksumPlugin;
+import ca.twoducks.vor.ossindex.report.plugins.GemfileDependencyPlugin;
+import ca.twoducks.vor.ossindex.report.plugins.HtmlDependencyPlugin;
+import ca.twoducks.vor.ossindex.report.plugins.MavenDependencyPlugin;
+import ca.twoducks.vor.ossindex.report.plugins.NodeDependencyPlugin;
+
+/** Test that a parallel scan writes the same public and private configurations
+ * as a sequential scan, however many threads it uses.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestParallelScanner
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSameAsSequential() throws IOException
+	{
+		File root = createTree();
+		Configuration expected = scanSequential(root);
+		String expectedPublic = ConfigurationFixture.export(expected, false, true, true);
+		String expectedPrivate = ConfigurationFixture.export(expected, true, true, true);
+
+		for(int threads: new int[] {1, 2, 4, 8})
+		{
+			Configuration actual = scanParallel(root, threads);
+			assertEquals("Public JSON with " + threads + " threads", expectedPublic, ConfigurationFixture.export(actual, false, true, true));
+			assertEquals("Private JSON with " + threads + " threads", expectedPrivate, ConfigurationFixture.export(actual, true, true, true));
+		}
+	}
+
+	@Test
+	public void testCommitOrder() throws IOException
+	{
+		File a = folder.newFile("a");
+		File b = folder.newFile("b");
+		File c = folder.newFile("c");
+		File d = folder.newFile("d");
+		ConcurrentConfiguration concurrent = new ConcurrentConfiguration(2);
+		for(File file: Arrays.asList(d, c, b, a)) concurrent.addFile(file);
+		concurrent.addArchiveEntry(b, "x", "01");
+		concurrent.addArchiveEntry(b, "y", "02");
+
+		// Files missing from the order follow the others, by path, and archive
+		// entries follow their archive
+		Configuration config = createConfiguration();
+		concurrent.commit(config, Arrays.asList(c, b, new File(folder.getRoot(), "missing")));
+		List<String> paths = new ArrayList<String>();
+		for(FileConfig file: config.getFiles()) paths.add(file.getPath());
+		assertEquals(Arrays.asList(c.getPath(), b.getPath(), b.getPath() + "!/x", b.getPath() + "!/y", a.getPath(), d.getPath()), paths);
+	}
+
+	private Configuration scanSequential(File root) throws IOException
+	{
+		Configuration config = createConfiguration();
+		List<IScanPlugin> plugins = createPlugins(config);
+		try
+		{
+			new SequentialScanner(new ScanProcessor(plugins, true)).scan(root);
+		}
+		finally
+		{
+			for(IScanPlugin plugin: plugins) plugin.close();
+		}
+		return config;
+	}
+
+	private Configuration scanParallel(File root, int threads) throws IOException
+	{
+		ConcurrentConfiguration concurrent = new ConcurrentConfiguration(threads);
+		List<IScanPlugin> plugins = createPlugins(concurrent);
+		Configuration config = createConfiguration();
+		try
+		{
+			List<File> order = new ParallelScanner(new ScanProcessor(plugins, true), threads).scan(root);
+			concurrent.commit(config, order);
+		}
+		finally
+		{
+			for(IScanPlugin plugin: plugins) plugin.close();
+		}
+		return config;
+	}
+
+	/** An empty configuration with a fixed timestamp, so that two scans may be compared.
+	 *
+	 * @return
+	 */
+	private static Configuration createConfiguration()
+	{
+		return new Configuration(0L, Collections.<FileConfig>emptyList(), new TreeMap<String, ProjectGroup>());
+	}
+
+	private static List<IScanPlugin> createPlugins(IConfiguration config)
+	{
+		List<IScanPlugin> plugins = Arrays.<IScanPlugin>asList(new ChecksumPlugin(), new HtmlDependencyPlugin(), new NodeDependencyPlugin(),
+				new MavenDependencyPlugin(), new GemfileDependencyPlugin(), new ArchivePlugin());
+		for(IScanPlugin plugin: plugins) plugin.setConfiguration(config);
+		return plugins;
+	}
+
+	/** Copies of the samples at several depths, directories with enough files to
+	 * be split into batches, and an archive large enough to be hashed in parallel.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private File createTree() throws IOException
+	{
+		File root = folder.newFolder("tree");
+		File[] samples = new File("samples").listFiles();
+		for(int i = 0; i < 3; i++)
+		{
+			File dir = new File(root, "project" + i + (i > 0 ? "/sub" + i : ""));
+			dir.mkdirs();
+			for(File sample: samples)
+			{
+				if(sample.isFile()) Files.copy(sample.toPath(), new File(dir, sample.getName()).toPath());
+			}
+
+			File many = new File(dir, "many");
+			many.mkdir();
+			for(int j = 0; j < 150; j++)
+			{
+				Files.write(new File(many, "file" + j + ".txt").toPath(), ("file " + i + " " + j).getBytes("UTF-8"));
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ZipOutputStream out = new ZipOutputStream(bytes))
+		{
+			for(int j = 0; j < 200; j++)
+			{
+				out.putNextEntry(new ZipEntry("entry" + j + ".txt"));
+				out.write(("entry " + j).getBytes("UTF-8"));
+				out.closeEntry();
+			}
+		}
+		Files.write(new File(root, "project1/lib.jar").toPath(), bytes.toByteArray());
+		return root;
+	}
+}
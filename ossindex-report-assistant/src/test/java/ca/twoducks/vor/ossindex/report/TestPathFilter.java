@@ -0,0 +1,172 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin;
+import ca.twoducks.vor.ossindex.report.plugins.ChecksumPlugin;
+
+/** Test that the filter leaves excluded files out of a scan, and prunes
+ * excluded directories so that nothing beneath them is listed.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestPathFilter
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPrune() throws IOException
+	{
+		File root = createTree();
+		Set<String> expected = new TreeSet<String>(Arrays.asList("src/a.java", "docs/readme.txt", "docs/notes.log.txt", "keep.log",
+				".gitignore", "docs/.gitignore", "patterns.txt"));
+
+		for(int threads: new int[] {0, 1, 4})
+		{
+			Configuration config = new Configuration();
+			ListingPlugin listing = new ListingPlugin(root);
+			ChecksumPlugin checksum = new ChecksumPlugin();
+			checksum.setConfiguration(config);
+			ScanProcessor processor = new ScanProcessor(Arrays.<IScanPlugin>asList(checksum, listing), true);
+			processor.setPathFilter(createFilter(root));
+			if(threads == 0) new SequentialScanner(processor).scan(root);
+			else new ParallelScanner(processor, threads).scan(root);
+
+			Set<String> paths = new TreeSet<String>();
+			for(FileConfig file: config.getFiles()) paths.add(getRelativePath(root, new File(file.getPath())));
+			assertEquals("With " + threads + " threads", expected, paths);
+
+			// Nothing beneath an excluded directory is even listed, so a file
+			// within one cannot be included again
+			for(String path: listing.paths)
+			{
+				assertFalse(path, path.startsWith("build/") || path.startsWith("node_modules/") || path.startsWith(".git/"));
+			}
+			assertTrue(listing.paths.contains("src/a.java"));
+		}
+	}
+
+	@Test
+	public void testReload() throws IOException
+	{
+		File root = createTree();
+		PathFilter filter = createFilter(root);
+		File docs = new File(root, "docs");
+		File log = new File(docs, "debug.log");
+		BasicFileAttributes attrs = Files.readAttributes(log.toPath(), BasicFileAttributes.class);
+		assertTrue(filter.isExcluded(log, attrs));
+		assertTrue(filter.isPatternFile(new File(docs, ".gitignore")));
+		assertFalse(filter.isPatternFile(new File(docs, "readme.txt")));
+
+		// The patterns are cached until the directory is reloaded
+		Files.write(new File(docs, ".gitignore").toPath(), Collections.<String>emptyList(), UTF8);
+		assertTrue(filter.isExcluded(log, attrs));
+		filter.reload(docs);
+		assertFalse(filter.isExcluded(log, attrs));
+	}
+
+	/** Excludes from every source: the command line, .gitignore files at two
+	 * depths, and a patterns file.
+	 *
+	 * @param root
+	 * @return
+	 * @throws IOException
+	 */
+	private static PathFilter createFilter(File root) throws IOException
+	{
+		PathFilter filter = new PathFilter(root);
+		filter.exclude("node_modules");
+		filter.include("build/keep.txt");
+		filter.include("keep.log");
+		filter.setGitignore(true);
+		filter.setPatternFile(new File(root, "patterns.txt"));
+		return filter;
+	}
+
+	/** A tree with something for each source of patterns to exclude.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private File createTree() throws IOException
+	{
+		File root = folder.newFolder("tree");
+		write(root, "src/a.java");
+		write(root, "build/out.class");
+		write(root, "build/keep.txt");
+		write(root, "build/deep/more.class");
+		write(root, "node_modules/x/y.js");
+		write(root, ".git/config");
+		write(root, "docs/readme.txt");
+		write(root, "docs/debug.log");
+		write(root, "docs/notes.log.txt");
+		write(root, "keep.log");
+		write(root, "scratch.tmp");
+
+		// The deeper .gitignore takes precedence over the root's
+		Files.write(new File(root, ".gitignore").toPath(), Arrays.asList("build/", "*.log", "!docs/debug.log"), UTF8);
+		Files.write(new File(root, "docs/.gitignore").toPath(), Arrays.asList("*.log"), UTF8);
+		Files.write(new File(root, "patterns.txt").toPath(), Arrays.asList("*.tmp"), UTF8);
+		return root;
+	}
+
+	private static void write(File root, String path) throws IOException
+	{
+		File file = new File(root, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), Arrays.asList(path), UTF8);
+	}
+
+	private static String getRelativePath(File root, File file)
+	{
+		return root.toURI().relativize(file.toURI()).getPath();
+	}
+
+	/** Records every entry the scan asks the plugins about, which is every
+	 * entry listed that the filter did not exclude.
+	 */
+	private static class ListingPlugin extends AbstractScanPlugin
+	{
+		private File root;
+		private List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+
+		public ListingPlugin(File root)
+		{
+			this.root = root;
+		}
+
+		@Override
+		public boolean ignore(File file, BasicFileAttributes attrs)
+		{
+			paths.add(getRelativePath(root, file));
+			return false;
+		}
+
+		@Override
+		public void run(File file)
+		{
+		}
+	}
+}
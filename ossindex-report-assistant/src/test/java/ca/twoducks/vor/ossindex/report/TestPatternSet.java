@@ -0,0 +1,99 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/** Test .gitignore pattern matching
+ * 
+ * @author Ken Duck
+ *
+ */
+public class TestPatternSet
+{
+	@Test
+	public void testNames()
+	{
+		PatternSet set = create("node_modules", "*.class", "*.tar.gz", "# comment", "");
+		assertEquals(true, set.match("node_modules", true));
+		assertEquals(true, set.match("a/b/node_modules", true));
+		assertEquals(true, set.match("a/Foo.class", false));
+		assertEquals(true, set.match("dist/x.tar.gz", false));
+		assertNull(set.match("a/Foo.java", false));
+		assertNull(set.match("x.gz", false));
+		assertNull(set.match("# comment", false));
+	}
+	@Test
+	public void testDirectoryOnly()
+	{
+		PatternSet set = create("build/");
+		assertEquals(true, set.match("build", true));
+		assertEquals(true, set.match("sub/build", true));
+		assertNull(set.match("build", false));
+	}
+	@Test
+	public void testAnchored()
+	{
+		PatternSet set = create("/target", "doc/api", "src/*.tmp");
+		assertEquals(true, set.match("target", true));
+		assertNull(set.match("sub/target", true));
+		assertEquals(true, set.match("doc/api", true));
+		assertNull(set.match("x/doc/api", true));
+		assertEquals(true, set.match("src/a.tmp", false));
+		assertNull(set.match("src/sub/a.tmp", false));
+	}
+	@Test
+	public void testDoubleStar()
+	{
+		PatternSet set = create("**/cache", "a/**/z", "logs/**", "**/x/y");
+		assertEquals(true, set.match("p/q/cache", true));
+		assertEquals(true, set.match("a/z", false));
+		assertEquals(true, set.match("a/b/c/z", false));
+		assertEquals(true, set.match("logs/1/2.log", false));
+		assertNull(set.match("logs", true));
+		assertEquals(true, set.match("x/y", false));
+		assertEquals(true, set.match("m/x/y", false));
+	}
+	@Test
+	public void testWildcards()
+	{
+		PatternSet set = create("file?.txt", "[a-c]*.log", "[!x]y");
+		assertEquals(true, set.match("file1.txt", false));
+		assertNull(set.match("file10.txt", false));
+		assertEquals(true, set.match("d/b2.log", false));
+		assertNull(set.match("d.log", false));
+		assertEquals(true, set.match("ay", false));
+		assertNull(set.match("xy", false));
+	}
+	@Test
+	public void testNegation()
+	{
+		PatternSet set = create("*.jar", "!keep.jar", "lib/*", "!lib/a.txt");
+		assertEquals(true, set.match("x.jar", false));
+		assertEquals(false, set.match("keep.jar", false));
+		assertEquals(true, set.match("lib/b.txt", false));
+		assertEquals(false, set.match("lib/a.txt", false));
+		
+		// The last matching pattern decides
+		set.add("keep.jar");
+		assertEquals(true, set.match("keep.jar", false));
+	}
+	@Test
+	public void testEscapes()
+	{
+		PatternSet set = create("\\#notes", "\\!important", "a\\*b", "trailing  ");
+		assertEquals(true, set.match("#notes", false));
+		assertEquals(true, set.match("!important", false));
+		assertEquals(true, set.match("a*b", false));
+		assertNull(set.match("axb", false));
+		assertEquals(true, set.match("trailing", false));
+	}
+	
+	private static PatternSet create(String... patterns)
+	{
+		PatternSet set = new PatternSet();
+		for(String pattern: patterns) set.add(pattern);
+		return set;
+	}
+}
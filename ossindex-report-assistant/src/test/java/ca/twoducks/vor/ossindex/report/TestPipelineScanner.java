@@ -0,0 +1,252 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin;
+import ca.twoducks.vor.ossindex.report.plugins.ChecksumPlugin;
+
+/** Test that the pipeline keeps its file content within the in-flight byte
+ * budget, records files in traversal order whatever the budget, and stops
+ * cleanly when a stage fails.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestPipelineScanner
+{
+	/**
+	 * Size of the test files, which are buffered in 16KB.
+	 */
+	private static final int FILE_SIZE = 10000;
+
+	private static final int BUFFER_SIZE = FileContent.getBufferSize(FILE_SIZE);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSameAsSequential() throws IOException
+	{
+		File root = createTree(30);
+
+		// Larger than the whole budget, and too large to buffer
+		Files.write(new File(root, "large.bin").toPath(), createBytes(FileContent.MAX_BUFFERED + 1));
+		Configuration expected = new Configuration(0L, Collections.<FileConfig>emptyList(), new TreeMap<String, ProjectGroup>());
+		ChecksumPlugin checksum = new ChecksumPlugin();
+		checksum.setConfiguration(expected);
+		new SequentialScanner(new ScanProcessor(Arrays.<IScanPlugin>asList(checksum), true)).scan(root);
+
+		// However small the budget, every file fits in it alone
+		for(long budget: new long[] {1, BUFFER_SIZE, 64 * 1024 * 1024})
+		{
+			Configuration config = new Configuration(0L, Collections.<FileConfig>emptyList(), new TreeMap<String, ProjectGroup>());
+			PipelineScanner scanner = createScanner(config, budget, new ChecksumPlugin());
+			scanner.scan(root);
+			assertEquals("Budget of " + budget, ConfigurationFixture.export(expected, true, true, true), ConfigurationFixture.export(config, true, true, true));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testBudget() throws Exception
+	{
+		final File root = createTree(20);
+
+		// The first file is held by the only CPU worker, so the walker may only
+		// get as far ahead as the budget allows
+		final BlockingPlugin plugin = new BlockingPlugin();
+		final Configuration config = new Configuration();
+		final PipelineScanner scanner = createScanner(config, 3 * BUFFER_SIZE, new ChecksumPlugin(), plugin);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					scanner.scan(root);
+				}
+				catch(Throwable t)
+				{
+					error.set(t);
+				}
+			}
+		};
+		thread.start();
+
+		assertTrue(plugin.running.await(10, TimeUnit.SECONDS));
+		int walked = 0;
+		for(int i = 0; i < 10; i++)
+		{
+			Thread.sleep(100);
+			walked = plugin.walked.get();
+		}
+
+		// Three files are in flight, and the walker waits with the fourth
+		assertEquals(4, walked);
+		plugin.release.countDown();
+		thread.join();
+		assertNull(error.get());
+		assertEquals(20, plugin.walked.get());
+		assertEquals(20, config.getFiles().size());
+	}
+
+	@Test(timeout = 60000)
+	public void testFailure() throws IOException
+	{
+		File root = createTree(50);
+
+		// A plugin's RuntimeException is reported, and the file is still recorded
+		Configuration config = new Configuration();
+		createScanner(config, BUFFER_SIZE, new ChecksumPlugin(), new FailingPlugin(new IllegalStateException("Plugin failed"))).scan(root);
+		assertEquals(50, config.getFiles().size());
+
+		// Anything else stops the scan, and is thrown once the stages have stopped
+		config = new Configuration();
+		try
+		{
+			createScanner(config, BUFFER_SIZE, new ChecksumPlugin(), new FailingPlugin(new OutOfMemoryError("Out of memory"))).scan(root);
+			fail("Expected the failure to be thrown");
+		}
+		catch(OutOfMemoryError e)
+		{
+			assertEquals("Out of memory", e.getMessage());
+		}
+
+		// The files recorded before the failure are in traversal order
+		Configuration expected = new Configuration();
+		ChecksumPlugin checksum = new ChecksumPlugin();
+		checksum.setConfiguration(expected);
+		new SequentialScanner(new ScanProcessor(Arrays.<IScanPlugin>asList(checksum), true)).scan(root);
+		List<String> paths = getPaths(config);
+		assertTrue(paths.size() < 50);
+		assertEquals(getPaths(expected).subList(0, paths.size()), paths);
+	}
+
+	/** Create a pipeline with one I/O and one CPU worker, whose plugins record
+	 * their results through it.
+	 *
+	 * @param config
+	 * @param budget
+	 * @param plugins
+	 * @return
+	 */
+	private static PipelineScanner createScanner(Configuration config, long budget, IScanPlugin... plugins)
+	{
+		PipelineScanner scanner = new PipelineScanner(new ScanProcessor(Arrays.asList(plugins), true), config, 1, 1, budget);
+		for(IScanPlugin plugin: plugins) plugin.setConfiguration(scanner.getConfiguration());
+		return scanner;
+	}
+
+	/** A tree with a file in each directory. A directory is only listed once
+	 * the walker is done with the files before it.
+	 *
+	 * @param count
+	 * @return
+	 * @throws IOException
+	 */
+	private File createTree(int count) throws IOException
+	{
+		File root = folder.newFolder("tree");
+		for(int i = 0; i < count; i++)
+		{
+			File dir = new File(root, "dir" + i);
+			dir.mkdir();
+			Files.write(new File(dir, "file" + i + ".txt").toPath(), createBytes(FILE_SIZE + i));
+		}
+		return root;
+	}
+
+	/** The paths of a configuration's files, in order.
+	 *
+	 * @param config
+	 * @return
+	 */
+	private static List<String> getPaths(Configuration config)
+	{
+		List<String> paths = new ArrayList<String>();
+		for(FileConfig file: config.getFiles()) paths.add(file.getPath());
+		return paths;
+	}
+
+	private static byte[] createBytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	/** Counts the files walked, and holds the first file it is run against
+	 * until released.
+	 */
+	private static class BlockingPlugin extends AbstractScanPlugin
+	{
+		private AtomicInteger walked = new AtomicInteger();
+		private CountDownLatch running = new CountDownLatch(1);
+		private CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public boolean ignore(File file, BasicFileAttributes attrs)
+		{
+			if(attrs.isRegularFile()) walked.incrementAndGet();
+			return false;
+		}
+
+		@Override
+		public void run(File file)
+		{
+			running.countDown();
+			try
+			{
+				release.await();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Throws on the fifth file it is run against.
+	 */
+	private static class FailingPlugin extends AbstractScanPlugin
+	{
+		private AtomicInteger count = new AtomicInteger();
+		private Throwable failure;
+
+		public FailingPlugin(Throwable failure)
+		{
+			this.failure = failure;
+		}
+
+		@Override
+		public void run(File file)
+		{
+			if(count.incrementAndGet() != 5) return;
+			if(failure instanceof RuntimeException) throw (RuntimeException)failure;
+			throw (Error)failure;
+		}
+	}
+}
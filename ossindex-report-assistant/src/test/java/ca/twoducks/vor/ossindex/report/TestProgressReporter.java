@@ -0,0 +1,172 @@
+package ca.twoducks.vor.ossindex.report;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin;
+
+/** Test that the summary lines count the bytes read apart from those reused,
+ * show the files queued until discovery is complete and then an estimate of
+ * the time remaining, and that the scanners which list ahead of processing
+ * report discovery as complete while the scan is still running.
+ *
+ * @author Ken Duck
+ *
+ */
+public class TestProgressReporter
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSummary() throws IOException
+	{
+		ScanMetrics metrics = new ScanMetrics();
+		ProgressReporter progress = new ProgressReporter(new PrintStream(new ByteArrayOutputStream()), ProgressReporter.DEFAULT_INTERVAL);
+		progress.setQuiet(true);
+		progress.setMetrics(metrics);
+		progress.start();
+		List<File> files = new ArrayList<File>();
+		List<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+		for(int i = 0; i < 3; i++)
+		{
+			File file = folder.newFile("file" + i);
+			Files.write(file.toPath(), new byte[500000]);
+			files.add(file);
+			attributes.add(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+			progress.discovered(file, attributes.get(i));
+		}
+
+		// A file that was read
+		metrics.getHashing().stop(System.nanoTime(), 500000);
+		progress.scanned(files.get(0), attributes.get(0));
+		String summary = progress.getSummary();
+		assertTrue(summary, summary.startsWith("Scanned 1 files, 0.5 MB read ("));
+		assertTrue(summary, summary.contains(", 2 queued"));
+		assertFalse(summary, summary.contains("ETA"));
+
+		// And one whose digest was reused
+		progress.scanned(files.get(1), attributes.get(1));
+		summary = progress.getSummary();
+		assertTrue(summary, summary.startsWith("Scanned 2 files, 0.5 MB read, 0.5 MB not read ("));
+		assertTrue(summary, summary.contains(", 1 queued"));
+
+		progress.discoveryComplete();
+		summary = progress.getSummary();
+		assertTrue(summary, summary.contains(", ETA "));
+		assertFalse(summary, summary.contains("queued"));
+		progress.stop();
+	}
+
+	@Test
+	public void testParallel() throws IOException
+	{
+		File root = createTree();
+		SummaryPlugin plugin = new SummaryPlugin();
+		new ParallelScanner(plugin.processor, 4).scan(root);
+		plugin.assertEta();
+	}
+
+	@Test
+	public void testPipeline() throws IOException
+	{
+		File root = createTree();
+		SummaryPlugin plugin = new SummaryPlugin();
+		new PipelineScanner(plugin.processor, new Configuration(), 2, 1, 1024 * 1024).scan(root);
+		plugin.assertEta();
+	}
+
+	/** A few directories of small files.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private File createTree() throws IOException
+	{
+		File root = folder.newFolder("tree");
+		byte[] bytes = new byte[100];
+		Arrays.fill(bytes, (byte)'x');
+		for(int i = 0; i < 3; i++)
+		{
+			File dir = new File(root, "dir" + i);
+			dir.mkdir();
+			for(int j = 0; j < 4; j++) Files.write(new File(dir, "file" + j + ".txt").toPath(), bytes);
+		}
+		return root;
+	}
+
+	/** Takes the summary while the third file is scanned, once the first files
+	 * have been scanned and so the rate is known. The scanner may still be
+	 * listing the tree, so the summary is taken again until it has an ETA.
+	 */
+	private static class SummaryPlugin extends AbstractScanPlugin
+	{
+		private ProgressReporter progress = new ProgressReporter(new PrintStream(new ByteArrayOutputStream()), ProgressReporter.DEFAULT_INTERVAL);
+		private ScanProcessor processor = new ScanProcessor(Arrays.<IScanPlugin>asList(this), false);
+		private AtomicInteger count = new AtomicInteger();
+		private volatile String summary;
+
+		public SummaryPlugin() throws IOException
+		{
+			progress.setQuiet(true);
+			progress.start();
+			processor.setProgressReporter(progress);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.plugins.AbstractScanPlugin#run(java.io.File, java.nio.file.attribute.BasicFileAttributes, ca.twoducks.vor.ossindex.report.FileContent)
+		 */
+		@Override
+		public void run(File file, BasicFileAttributes attrs, FileContent content)
+		{
+			if(count.getAndIncrement() != 2) return;
+
+			long deadline = System.currentTimeMillis() + 10000;
+			do
+			{
+				summary = progress.getSummary();
+				if(summary.contains(", ETA ")) return;
+				try
+				{
+					Thread.sleep(10);
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+			}
+			while(System.currentTimeMillis() < deadline);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see ca.twoducks.vor.ossindex.report.IScanPlugin#run(java.io.File)
+		 */
+		@Override
+		public void run(File file)
+		{
+		}
+
+		public void assertEta()
+		{
+			progress.stop();
+			assertTrue("No ETA in: " + summary, summary != null && summary.contains(", ETA "));
+		}
+	}
+}